@@ -1,6 +1,16 @@
 package core.adapt;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FileSystem;
+
+import com.google.common.primitives.Ints;
+
 import core.adapt.iterator.PartitionIterator;
+import core.adapt.iterator.PostFilterIterator;
 import core.adapt.opt.Optimizer;
 import core.adapt.spark.SparkQueryConf;
 import core.common.globals.Globals;
@@ -27,16 +37,25 @@ public class AccessMethod {
 	Optimizer opt;
 	RawIndexKey key;
 
+	FileSystem fs;
+	TableInfo tableInfo;
+	String zoneMapDir;
+
+	// Buckets skipped on their zone map by the last getPartitionSplits.
+	int numSkippedBuckets;
+
 	/**
 	 * Initialize hyper-partitioning data access.
 	 */
 	public void init(SparkQueryConf conf) {
 		Query query = conf.getQuery();
 
-		Globals.loadTableInfo(query.getTable(), conf.getWorkingDir(),
-				HDFSUtils.getFSByHadoopHome(conf.getHadoopHome()));
+		fs = HDFSUtils.getFSByHadoopHome(conf.getHadoopHome());
+		Globals.loadTableInfo(query.getTable(), conf.getWorkingDir(), fs);
 
-        TableInfo tableInfo = Globals.getTableInfo(query.getTable());
+        tableInfo = Globals.getTableInfo(query.getTable());
+		zoneMapDir = conf.getWorkingDir() + "/" + query.getTable() + "/"
+				+ ZoneMap.ZONE_MAP_DIR;
 		key = new RawIndexKey(tableInfo.delimiter);
 		opt = new Optimizer(conf);
 
@@ -52,6 +71,10 @@ public class AccessMethod {
 		return key;
 	}
 
+	public FileSystem getFS() {
+		return fs;
+	}
+
 	/**
 	 * This method returns whether or not a given partition qualifies for the
 	 * predicate.
@@ -74,11 +97,64 @@ public class AccessMethod {
 	 * @return
 	 */
 	public PartitionSplit[] getPartitionSplits(Query q, boolean justAccess) {
+		PartitionSplit[] splits;
 		if (justAccess) {
-			return opt.buildAccessPlan(q);
+			splits = opt.buildAccessPlan(q);
 		} else {
-			return opt.buildPlan(q);
+			splits = opt.buildPlan(q);
 		}
+		return skipByZoneMaps(q, splits);
+	}
+
+	public int getNumSkippedBuckets() {
+		return numSkippedBuckets;
+	}
+
+	/**
+	 * Drop the buckets of the filtering splits whose zone map shows that
+	 * none of their records satisfies the query. Repartitioning splits need
+	 * all their buckets, and scanned buckets are known to match. The zone
+	 * maps come from ZoneMap.loadAll, which reads only those that changed
+	 * since the last query.
+	 */
+	private PartitionSplit[] skipByZoneMaps(Query q, PartitionSplit[] splits) {
+		numSkippedBuckets = 0;
+		Predicate[] ps = q.getPredicates();
+		if (ps.length == 0)
+			return splits;
+
+		Map<Integer, ZoneMap> zoneMaps;
+		try {
+			zoneMaps = ZoneMap.loadAll(fs, zoneMapDir, tableInfo.getTypeArray());
+		} catch (IOException e) {
+			e.printStackTrace();
+			return splits;
+		}
+
+		int numChecked = 0;
+		for (int i = 0; i < splits.length; i++) {
+			PartitionIterator itr = splits[i].getIterator();
+			if (itr.getClass() != PostFilterIterator.class)
+				continue;
+
+			List<Integer> kept = new ArrayList<Integer>();
+			for (int bid : splits[i].getPartitions()) {
+				ZoneMap zoneMap = zoneMaps.get(bid);
+				if (zoneMap != null) {
+					numChecked++;
+					if (!zoneMap.mayMatch(ps)) {
+						numSkippedBuckets++;
+						continue;
+					}
+				}
+				kept.add(bid);
+			}
+			splits[i] = new PartitionSplit(Ints.toArray(kept), itr);
+		}
+
+		System.out.println("INFO: Zone maps skipped " + numSkippedBuckets
+				+ " of " + numChecked + " buckets checked");
+		return splits;
 	}
 
 	/**
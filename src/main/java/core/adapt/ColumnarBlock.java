@@ -0,0 +1,1040 @@
+package core.adapt;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+
+import core.common.globals.Dictionary;
+import core.utils.BinaryUtils;
+import core.utils.ScanUtils;
+import core.utils.TypeUtils.SimpleDate;
+import core.utils.TypeUtils.TYPE;
+
+/**
+ * The records of a bucket in columnar form, see TableInfo.FORMAT.
+ *
+ * A columnar bucket file is a sequence of blocks; every store of a partition
+ * (or close of a writer stream) appends one. A block is:
+ *
+ * magic (4 bytes) | number of records (int) | number of columns (int)
+ *
+ * followed, for each column, by its type (byte), the chunk length (int) and
+ * the chunk. INT and DATE (packed as yyyymmdd) take 4 bytes per value, LONG
+ * and DOUBLE 8 bytes, BOOLEAN 1 byte. STRING and VARCHAR values are prefixed
+ * with their length as a varint. A STRING chunk whose values are all in the
+ * table's dictionary (see Dictionary) instead holds their indexes in the
+ * dictionary as varints, and has the CODED bit set in its type byte.
+ *
+ * A DOUBLE chunk whose values are all decimals of the same scale, written
+ * the way writeDecimal writes them ("650.37", "0.07" or "8", not "1E3",
+ * ".5" or "-0"), has the DECIMAL bit set. It holds the scale (a byte), then
+ * the unscaled values as zigzag varints. There are at most
+ * MAX_DECIMAL_DIGITS digits, so unscaled / 10^scale is the double the text
+ * parses to.
+ *
+ * The values of the other types are followed by their original text, length
+ * prefixed like STRING values, unless it is what toText would write for them
+ * ("007", "1.50" in a chunk that is not DECIMAL or "1995-01-01 10:00" are
+ * not). Such chunks have the TEXT bit set. A block of records with bytes
+ * after their last attribute (such as the '|' ending TPC-H records) has one
+ * more column, of type VARCHAR, holding those bytes from the delimiter on.
+ * This way the records read back are the ones written.
+ *
+ * decode() reads all the blocks of a file into one ColumnarBlock, decoding
+ * each column when first used, whose columns the predicates are evaluated on (see
+ * PredicateEvaluator.filter(ColumnarBlock, int[], int)). A STRING column
+ * whose chunks are all coded is decoded into dictionary codes, which the
+ * predicates compare as ints. The iterators then read the attributes of the
+ * selected rows from the columns (see ColumnarRecord), writing a row out as
+ * text only if asked for it.
+ */
+public class ColumnarBlock {
+	// Text records never start with a NUL byte.
+	private static final byte[] MAGIC = { 0, 'C', 'O', 'L' };
+
+	private static final int HEADER_SIZE = MAGIC.length + 8;
+
+	// Set in the type byte of dictionary coded chunks.
+	private static final int CODED = 0x40;
+
+	// Set in the type byte of chunks followed by the text of their values.
+	private static final int TEXT = 0x20;
+
+	// Set in the type byte of DOUBLE chunks holding decimals.
+	private static final int DECIMAL = 0x10;
+
+	// Most digits of a DECIMAL value, so that it is exact as a double.
+	private static final int MAX_DECIMAL_DIGITS = 15;
+
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+			1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15 };
+
+	// Longest text toText writes for a value that is not a string, the
+	// length of Double.toString(-Double.MIN_NORMAL).
+	private static final int MAX_VALUE_LENGTH = 24;
+
+	private static final byte[] TRUE = "true".getBytes();
+	private static final byte[] FALSE = "false".getBytes();
+
+	private final TYPE[] types;
+	private final Dictionary dictionary;
+	private int numRecords;
+
+	// One array per column, only the one matching the column type is set.
+	// INT and DATE columns use ints, BOOLEAN columns use bytes. STRING
+	// columns use ints for dictionary codes, bytes otherwise.
+	private final int[][] ints;
+	private final long[][] longs;
+	private final double[][] doubles;
+	private final byte[][] bytes;
+
+	// Value i of a STRING column spans bytes[offsets[i], offsets[i + 1]).
+	private final int[][] offsets;
+
+	// Set for the DOUBLE columns with DECIMAL chunks: value i is
+	// unscaled[i] / 10^scales[i], or a plain double if scales[i] is -1.
+	private final long[][] unscaled;
+	private final byte[][] scales;
+
+	// Bytes after the last attribute of record i, if any record has some:
+	// trailing[trailingOffsets[i], trailingOffsets[i + 1]).
+	private byte[] trailing;
+	private int[] trailingOffsets;
+
+	// Text of value i of the other columns, if kept: it spans
+	// text[textOffsets[i], textOffsets[i + 1]).
+	private final byte[][] text;
+	private final int[][] textOffsets;
+
+	// The bytes decoded, and where their blocks are: block k holds rows
+	// [blockRows[k], blockRows[k + 1]), the chunk of its column a starts at
+	// source[chunkOffsets[k][a]]. The trailing column is a = types.length,
+	// -1 if the block has none.
+	private byte[] source;
+	private int numBlocks;
+	private int[] blockRows;
+	private int[][] chunkOffsets;
+
+	// Whether a column was decoded, see column().
+	private boolean[] decoded;
+
+	private ColumnarBlock(TYPE[] types, Dictionary dictionary) {
+		this.types = types;
+		this.dictionary = dictionary;
+		this.ints = new int[types.length][];
+		this.longs = new long[types.length][];
+		this.doubles = new double[types.length][];
+		this.bytes = new byte[types.length][];
+		this.offsets = new int[types.length][];
+		this.unscaled = new long[types.length][];
+		this.scales = new byte[types.length][];
+		this.text = new byte[types.length][];
+		this.textOffsets = new int[types.length][];
+	}
+
+	public static boolean isColumnar(byte[] bytes, int length) {
+		return bytes != null && length >= MAGIC.length && hasMagic(bytes, 0);
+	}
+
+	/**
+	 * Length of the block at bytes[offset], -1 if bytes[offset, length) does
+	 * not hold all its column headers.
+	 */
+	public static int getBlockLength(byte[] bytes, int offset, int length) {
+		if (length - offset < HEADER_SIZE)
+			return -1;
+		if (!hasMagic(bytes, offset))
+			throw new RuntimeException("Not a columnar block at offset " + offset);
+		int numColumns = BinaryUtils.getInt(bytes, offset + MAGIC.length + 4);
+		long p = offset + HEADER_SIZE;
+		for (int a = 0; a < numColumns; a++) {
+			if (length - p < 5)
+				return -1;
+			p += 5 + BinaryUtils.getInt(bytes, (int) p + 1);
+		}
+		return (int) (p - offset);
+	}
+
+	private static boolean hasMagic(byte[] bytes, int offset) {
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (bytes[offset + i] != MAGIC[i])
+				return false;
+		}
+		return true;
+	}
+
+	public static int packDate(SimpleDate d) {
+		return packDate(d.getYear(), d.getMonth(), d.getDay());
+	}
+
+	/**
+	 * Order preserving int encoding of a date.
+	 */
+	public static int packDate(int year, int month, int day) {
+		return year * 10000 + month * 100 + day;
+	}
+
+	/**
+	 * Encode newline separated text records into a block. Empty lines are
+	 * skipped. Dates are read as "yyyy-MM-dd", like
+	 * RawIndexKey.getDateAttribute; anything after that is only kept in the
+	 * text of the chunk. Bytes after the last attribute are kept in the
+	 * trailing column.
+	 */
+	public static byte[] encode(byte[] text, int offset, int length,
+			char delimiter, TYPE[] types) {
+		return encode(text, offset, length, delimiter, types, null);
+	}
+
+	/**
+	 * Like encode(), coding the STRING columns the dictionary (if not null)
+	 * has all the values of.
+	 */
+	public static byte[] encode(byte[] text, int offset, int length,
+			char delimiter, TYPE[] types, Dictionary dictionary) {
+		ByteArrayDataOutput[] chunks = new ByteArrayDataOutput[types.length];
+		ByteArrayDataOutput[] codedChunks = new ByteArrayDataOutput[types.length];
+		ByteArrayDataOutput[] textChunks = new ByteArrayDataOutput[types.length];
+		ByteArrayDataOutput[] decimalChunks = new ByteArrayDataOutput[types.length];
+		// Scale of the values in the DECIMAL chunks, -1 before the first one.
+		int[] scales = new int[types.length];
+		// Whether toText writes the values of a column as they are.
+		boolean[] exact = new boolean[types.length];
+		for (int a = 0; a < types.length; a++) {
+			chunks[a] = ByteStreams.newDataOutput();
+			if (types[a] == TYPE.STRING && dictionary != null
+					&& dictionary.isEncoded(a))
+				codedChunks[a] = ByteStreams.newDataOutput();
+			if (types[a] != TYPE.STRING && types[a] != TYPE.VARCHAR) {
+				textChunks[a] = ByteStreams.newDataOutput();
+				exact[a] = true;
+			}
+			if (types[a] == TYPE.DOUBLE) {
+				decimalChunks[a] = ByteStreams.newDataOutput();
+				scales[a] = -1;
+			}
+		}
+		ByteArrayDataOutput trailing = ByteStreams.newDataOutput();
+		boolean anyTrailing = false;
+		byte[] scratch = new byte[MAX_VALUE_LENGTH];
+
+		byte d = (byte) delimiter;
+
+		int numRecords = 0;
+		int end = offset + length;
+		int previous = offset;
+		while (previous < end) {
+			int lineEnd = ScanUtils.indexOf(text, previous, end, (byte) '\n');
+			if (lineEnd == -1)
+				lineEnd = end;
+
+			if (lineEnd > previous) {
+				int pos = previous;
+				for (int a = 0; a < types.length; a++) {
+					if (pos > lineEnd)
+						throw new RuntimeException("Record has fewer than "
+								+ types.length + " attributes: "
+								+ new String(text, previous, lineEnd - previous));
+					int fieldEnd = ScanUtils.indexOf(text, pos, lineEnd, d);
+					if (fieldEnd == -1)
+						fieldEnd = lineEnd;
+					boolean canonical = encodeValue(chunks[a], types[a], text,
+							pos, fieldEnd - pos, scratch);
+					if (decimalChunks[a] != null) {
+						int scale = encodeDecimal(decimalChunks[a], scales[a],
+								text, pos, fieldEnd - pos, scratch);
+						if (scale >= 0) {
+							scales[a] = scale;
+						} else {
+							// The text of the values before is not kept.
+							decimalChunks[a] = null;
+							exact[a] = numRecords == 0;
+						}
+					}
+					if (types[a] == TYPE.DOUBLE && decimalChunks[a] == null)
+						canonical = matches(text, pos, fieldEnd - pos, scratch,
+								writeDouble(scratch, 0,
+										BinaryUtils.parseDouble(text, pos, fieldEnd - pos)));
+					if (textChunks[a] != null) {
+						writeVarInt(textChunks[a], fieldEnd - pos);
+						textChunks[a].write(text, pos, fieldEnd - pos);
+						exact[a] &= canonical;
+					}
+					if (codedChunks[a] != null) {
+						int code = dictionary.getCode(a, text, pos, fieldEnd - pos);
+						if (Dictionary.isKnown(code))
+							writeVarInt(codedChunks[a], code >>> 1);
+						else
+							codedChunks[a] = null;
+					}
+					pos = fieldEnd + 1;
+				}
+				// From the delimiter after the last attribute on, if any.
+				int trailingLength = Math.max(0, lineEnd - pos + 1);
+				writeVarInt(trailing, trailingLength);
+				trailing.write(text, pos - 1, trailingLength);
+				anyTrailing |= trailingLength > 0;
+				numRecords++;
+			}
+			previous = lineEnd + 1;
+		}
+
+		ByteArrayDataOutput out = ByteStreams.newDataOutput();
+		out.write(MAGIC);
+		out.writeInt(numRecords);
+		out.writeInt(types.length + (anyTrailing ? 1 : 0));
+		for (int a = 0; a < types.length; a++) {
+			boolean coded = codedChunks[a] != null;
+			boolean decimal = decimalChunks[a] != null && numRecords > 0;
+			byte[] chunk;
+			if (decimal) {
+				ByteArrayDataOutput c = ByteStreams.newDataOutput();
+				c.writeByte(scales[a]);
+				c.write(decimalChunks[a].toByteArray());
+				chunk = c.toByteArray();
+			} else {
+				chunk = (coded ? codedChunks[a] : chunks[a]).toByteArray();
+			}
+			byte[] textChunk = textChunks[a] != null && !exact[a] && !decimal ? textChunks[a]
+					.toByteArray() : new byte[0];
+			out.writeByte(types[a].ordinal() | (coded ? CODED : 0)
+					| (decimal ? DECIMAL : 0) | (textChunk.length > 0 ? TEXT : 0));
+			out.writeInt(chunk.length + textChunk.length);
+			out.write(chunk);
+			out.write(textChunk);
+		}
+		if (anyTrailing) {
+			byte[] chunk = trailing.toByteArray();
+			out.writeByte(TYPE.VARCHAR.ordinal());
+			out.writeInt(chunk.length);
+			out.write(chunk);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return whether toText would write the value back as text[off, off +
+	 *         len), using scratch
+	 */
+	private static boolean encodeValue(ByteArrayDataOutput out, TYPE type,
+			byte[] text, int off, int len, byte[] scratch) {
+		switch (type) {
+		case INT:
+			int i = BinaryUtils.parseInt(text, off, len);
+			out.writeInt(i);
+			return matches(text, off, len, scratch, writeLong(scratch, 0, i));
+		case LONG:
+			long l = BinaryUtils.parseLong(text, off, len);
+			out.writeLong(l);
+			return matches(text, off, len, scratch, writeLong(scratch, 0, l));
+		case DOUBLE:
+			// Checked by the caller, see encodeDecimal.
+			out.writeDouble(BinaryUtils.parseDouble(text, off, len));
+			return false;
+		case DATE:
+			if (len < 10)
+				throw new RuntimeException("Cannot parse the date attribute: "
+						+ new String(text, off, len));
+			int year = 1000 * (text[off] - '0') + 100 * (text[off + 1] - '0')
+					+ 10 * (text[off + 2] - '0') + (text[off + 3] - '0');
+			int month = 10 * (text[off + 5] - '0') + (text[off + 6] - '0');
+			int day = 10 * (text[off + 8] - '0') + (text[off + 9] - '0');
+			int date = packDate(year, month, day);
+			out.writeInt(date);
+			return matches(text, off, len, scratch, writeDate(scratch, 0, date));
+		case BOOLEAN:
+			if (len > 0 && (text[off] == '1' || text[off] == 't')) {
+				out.writeByte(1);
+				return matches(text, off, len, TRUE, TRUE.length);
+			} else if (len > 0 && (text[off] == '0' || text[off] == 'f')) {
+				out.writeByte(0);
+				return matches(text, off, len, FALSE, FALSE.length);
+			}
+			throw new RuntimeException("Cannot parse the boolean attribute: "
+					+ new String(text, off, len));
+		case STRING:
+		case VARCHAR:
+			writeVarInt(out, len);
+			out.write(text, off, len);
+			return true;
+		default:
+			throw new RuntimeException("Unknown type: " + type);
+		}
+	}
+
+	/**
+	 * Write text[off, off + len) as a zigzag varint, if it is a decimal of
+	 * the given scale (any if -1) that writeDecimal writes back as it is.
+	 *
+	 * @return the scale of the value, -1 if it is no such decimal
+	 */
+	private static int encodeDecimal(ByteArrayDataOutput out, int scale,
+			byte[] text, int off, int len, byte[] scratch) {
+		int i = off;
+		int end = off + len;
+		boolean negative = i < end && text[i] == '-';
+		if (negative)
+			i++;
+		long value = 0;
+		int numDigits = 0;
+		int s = -1;
+		for (; i < end; i++) {
+			byte b = text[i];
+			if (b >= '0' && b <= '9') {
+				if (++numDigits > MAX_DECIMAL_DIGITS)
+					return -1;
+				value = value * 10 + (b - '0');
+				if (s >= 0)
+					s++;
+			} else if (b == '.' && s < 0) {
+				s = 0;
+			} else {
+				return -1;
+			}
+		}
+		s = Math.max(s, 0);
+		if (numDigits == 0 || (scale >= 0 && s != scale))
+			return -1;
+		if (negative)
+			value = -value;
+		if (!matches(text, off, len, scratch, writeDecimal(scratch, 0, value, s)))
+			return -1;
+		writeVarLong(out, (value << 1) ^ (value >> 63));
+		return s;
+	}
+
+	private static boolean matches(byte[] text, int off, int len,
+			byte[] value, int valueLength) {
+		if (len != valueLength)
+			return false;
+		for (int i = 0; i < len; i++) {
+			if (text[off + i] != value[i])
+				return false;
+		}
+		return true;
+	}
+
+	private static void writeVarInt(ByteArrayDataOutput out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static void writeVarLong(ByteArrayDataOutput out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static int readVarInt(ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+	}
+
+	/**
+	 * Decode all the blocks in bytes[0, length).
+	 */
+	public static ColumnarBlock decode(byte[] bytes, int length, TYPE[] types) {
+		return decode(bytes, length, types, null);
+	}
+
+	/**
+	 * Decode all the blocks in bytes[0, length), written with the given
+	 * dictionary. STRING columns coded in every block are decoded into
+	 * dictionary codes, see getCodes().
+	 *
+	 * Only the block headers are read here, a column is decoded when first
+	 * used. Until then the block reads from bytes, which must not change.
+	 */
+	public static ColumnarBlock decode(byte[] bytes, int length, TYPE[] types,
+			Dictionary dictionary) {
+		ColumnarBlock block = new ColumnarBlock(types, dictionary);
+		block.source = bytes;
+
+		int numBlocks = 0;
+		int[] blockRows = new int[8];
+		int[][] chunkOffsets = new int[8][];
+		int numRecords = 0;
+		ByteBuffer in = ByteBuffer.wrap(bytes, 0, length);
+		while (in.hasRemaining()) {
+			int n = readHeader(in, bytes);
+			int numColumns = readNumColumns(in, types);
+			if (numBlocks + 1 == blockRows.length) {
+				blockRows = Arrays.copyOf(blockRows, 2 * blockRows.length);
+				chunkOffsets = Arrays.copyOf(chunkOffsets, 2 * chunkOffsets.length);
+			}
+			int[] chunks = new int[types.length + 1];
+			chunks[types.length] = -1;
+			for (int a = 0; a < numColumns; a++) {
+				chunks[a] = in.position();
+				int type = in.get();
+				int chunkLength = in.getInt();
+				if (a < types.length
+						&& (type & ~(CODED | TEXT | DECIMAL)) != types[a].ordinal())
+					throw new RuntimeException("Column " + a
+							+ " was not written as " + types[a]);
+				if ((type & CODED) != 0
+						&& (dictionary == null || !dictionary.isEncoded(a)))
+					throw new RuntimeException("Column " + a
+							+ " is coded with a dictionary the table does not have");
+				if (chunkLength < 0 || chunkLength > in.remaining())
+					throw new RuntimeException("Corrupt chunk for column " + a);
+				in.position(in.position() + chunkLength);
+			}
+			blockRows[numBlocks] = numRecords;
+			chunkOffsets[numBlocks++] = chunks;
+			numRecords += n;
+		}
+		blockRows[numBlocks] = numRecords;
+
+		block.numRecords = numRecords;
+		block.numBlocks = numBlocks;
+		block.blockRows = blockRows;
+		block.chunkOffsets = chunkOffsets;
+		block.decoded = new boolean[types.length + 1];
+		return block;
+	}
+
+	/**
+	 * Decode a column, the trailing bytes for types.length, if not done yet.
+	 */
+	private void column(int a) {
+		if (decoded[a])
+			return;
+		if (a == types.length)
+			decodeTrailing();
+		else
+			decodeColumn(a);
+		decoded[a] = true;
+	}
+
+	private void decodeColumn(int a) {
+		// First pass over the chunk headers, to size the column.
+		int stringBytes = 0;
+		boolean allCoded = true;
+		int textBytes = 0;
+		boolean anyText = false;
+		boolean anyDecimal = false;
+		for (int k = 0; k < numBlocks; k++) {
+			int n = blockRows[k + 1] - blockRows[k];
+			int type = source[chunkOffsets[k][a]];
+			int chunkLength = BinaryUtils.getInt(source, chunkOffsets[k][a] + 1);
+			boolean coded = (type & CODED) != 0;
+			anyDecimal |= (type & DECIMAL) != 0;
+			// The text of the other blocks is written by writeText.
+			textBytes += (type & TEXT) != 0 ? chunkLength : n * MAX_VALUE_LENGTH;
+			anyText |= (type & TEXT) != 0;
+			stringBytes += coded ? n * maxLength(dictionary, a) : chunkLength;
+			allCoded &= coded;
+		}
+
+		switch (types[a]) {
+		case INT:
+		case DATE:
+			ints[a] = new int[numRecords];
+			break;
+		case LONG:
+			longs[a] = new long[numRecords];
+			break;
+		case DOUBLE:
+			doubles[a] = new double[numRecords];
+			if (anyDecimal) {
+				unscaled[a] = new long[numRecords];
+				scales[a] = new byte[numRecords];
+			}
+			break;
+		case BOOLEAN:
+			bytes[a] = new byte[numRecords];
+			break;
+		case STRING:
+			if (allCoded && numRecords > 0) {
+				ints[a] = new int[numRecords];
+			} else {
+				// The chunk lengths include the varints, an upper bound.
+				bytes[a] = new byte[stringBytes];
+				offsets[a] = new int[numRecords + 1];
+			}
+			break;
+		case VARCHAR:
+			bytes[a] = new byte[stringBytes];
+			offsets[a] = new int[numRecords + 1];
+			break;
+		default:
+			throw new RuntimeException("Unknown type: " + types[a]);
+		}
+		if (anyText) {
+			text[a] = new byte[textBytes];
+			textOffsets[a] = new int[numRecords + 1];
+		}
+
+		for (int k = 0; k < numBlocks; k++) {
+			int row = blockRows[k];
+			int n = blockRows[k + 1] - row;
+			int type = source[chunkOffsets[k][a]];
+			int chunkLength = BinaryUtils.getInt(source, chunkOffsets[k][a] + 1);
+			ByteBuffer in = ByteBuffer.wrap(source, chunkOffsets[k][a] + 5,
+					chunkLength);
+			if ((type & CODED) != 0)
+				decodeCodedChunk(a, in, row, n);
+			else if ((type & DECIMAL) != 0)
+				decodeDecimalChunk(a, in, row, n);
+			else
+				decodeChunk(a, in, row, n);
+			if (scales[a] != null && (type & DECIMAL) == 0)
+				Arrays.fill(scales[a], row, row + n, (byte) -1);
+			if ((type & TEXT) != 0)
+				readValues(in, text[a], textOffsets[a], row, n);
+			else if (text[a] != null)
+				writeText(a, row, n);
+			if (in.hasRemaining())
+				throw new RuntimeException("Corrupt chunk for column " + a);
+		}
+	}
+
+	private void decodeTrailing() {
+		int trailingBytes = 0;
+		for (int k = 0; k < numBlocks; k++) {
+			int off = chunkOffsets[k][types.length];
+			if (off != -1)
+				trailingBytes += BinaryUtils.getInt(source, off + 1);
+		}
+		if (trailingBytes == 0)
+			return;
+
+		trailing = new byte[trailingBytes];
+		trailingOffsets = new int[numRecords + 1];
+		for (int k = 0; k < numBlocks; k++) {
+			int row = blockRows[k];
+			int n = blockRows[k + 1] - row;
+			int off = chunkOffsets[k][types.length];
+			if (off == -1) {
+				Arrays.fill(trailingOffsets, row + 1, row + n + 1,
+						trailingOffsets[row]);
+				continue;
+			}
+			ByteBuffer in = ByteBuffer.wrap(source, off + 5,
+					BinaryUtils.getInt(source, off + 1));
+			readValues(in, trailing, trailingOffsets, row, n);
+			if (in.hasRemaining())
+				throw new RuntimeException("Corrupt chunk of trailing bytes");
+		}
+	}
+
+	private static int maxLength(Dictionary dictionary, int attribute) {
+		int max = 0;
+		for (int i = 0; i < dictionary.size(attribute); i++)
+			max = Math.max(max, dictionary.getValueBytes(attribute, 2 * i + 1).length);
+		return max;
+	}
+
+	/**
+	 * @return the number of records of the block at in's position
+	 */
+	private static int readHeader(ByteBuffer in, byte[] bytes) {
+		if (in.remaining() < HEADER_SIZE || !hasMagic(bytes, in.position()))
+			throw new RuntimeException("Not a columnar block at offset "
+					+ in.position());
+		in.position(in.position() + MAGIC.length);
+		return in.getInt();
+	}
+
+	/**
+	 * @return the number of columns of the block, one more than the schema's
+	 *         if it has trailing bytes
+	 */
+	private static int readNumColumns(ByteBuffer in, TYPE[] types) {
+		int numColumns = in.getInt();
+		if (numColumns != types.length && numColumns != types.length + 1)
+			throw new RuntimeException("Block has " + numColumns
+					+ " columns, the schema " + types.length);
+		return numColumns;
+	}
+
+	private void decodeChunk(int a, ByteBuffer in, int row, int n) {
+		switch (types[a]) {
+		case INT:
+		case DATE:
+			in.asIntBuffer().get(ints[a], row, n);
+			in.position(in.position() + 4 * n);
+			break;
+		case LONG:
+			in.asLongBuffer().get(longs[a], row, n);
+			in.position(in.position() + 8 * n);
+			break;
+		case DOUBLE:
+			in.asDoubleBuffer().get(doubles[a], row, n);
+			in.position(in.position() + 8 * n);
+			break;
+		case BOOLEAN:
+			in.get(bytes[a], row, n);
+			break;
+		default:
+			readValues(in, bytes[a], offsets[a], row, n);
+			break;
+		}
+	}
+
+	/**
+	 * Read n length prefixed values into b, value i spanning b[o[i], o[i +
+	 * 1]), from row on.
+	 */
+	private static void readValues(ByteBuffer in, byte[] b, int[] o, int row,
+			int n) {
+		// Straight from the array, the values are often a byte or two.
+		byte[] src = in.array();
+		int p = in.arrayOffset() + in.position();
+		int pos = o[row];
+		for (int i = row; i < row + n; i++) {
+			int len = 0;
+			for (int shift = 0;; shift += 7) {
+				byte x = src[p++];
+				len |= (x & 0x7F) << shift;
+				if (x >= 0)
+					break;
+			}
+			System.arraycopy(src, p, b, pos, len);
+			p += len;
+			pos += len;
+			o[i + 1] = pos;
+		}
+		in.position(p - in.arrayOffset());
+	}
+
+	/**
+	 * Fill in the text of rows [row, row + n) of a column from its values,
+	 * for blocks that did not keep it.
+	 */
+	private void writeText(int a, int row, int n) {
+		int pos = textOffsets[a][row];
+		for (int i = row; i < row + n; i++) {
+			pos = writeValue(text[a], pos, a, i);
+			textOffsets[a][i + 1] = pos;
+		}
+	}
+
+	private void decodeDecimalChunk(int a, ByteBuffer in, int row, int n) {
+		int scale = in.get();
+		if (scale < 0 || scale > MAX_DECIMAL_DIGITS)
+			throw new RuntimeException("Corrupt chunk for column " + a);
+		double power = POWERS_OF_TEN[scale];
+		byte[] src = in.array();
+		int p = in.arrayOffset() + in.position();
+		for (int i = row; i < row + n; i++) {
+			long v = 0;
+			for (int shift = 0;; shift += 7) {
+				byte x = src[p++];
+				v |= (long) (x & 0x7F) << shift;
+				if (x >= 0)
+					break;
+			}
+			long u = (v >>> 1) ^ -(v & 1);
+			unscaled[a][i] = u;
+			doubles[a][i] = u / power;
+		}
+		Arrays.fill(scales[a], row, row + n, (byte) scale);
+		in.position(p - in.arrayOffset());
+	}
+
+	private void decodeCodedChunk(int a, ByteBuffer in, int row, int n) {
+		if (ints[a] != null) {
+			for (int i = row; i < row + n; i++)
+				ints[a][i] = 2 * readVarInt(in) + 1;
+			return;
+		}
+
+		// Some other block has the values themselves.
+		byte[] b = bytes[a];
+		int[] o = offsets[a];
+		int pos = o[row];
+		for (int i = row; i < row + n; i++) {
+			byte[] value = dictionary.getValueBytes(a, 2 * readVarInt(in) + 1);
+			System.arraycopy(value, 0, b, pos, value.length);
+			pos += value.length;
+			o[i + 1] = pos;
+		}
+	}
+
+	/**
+	 * Number of records.
+	 */
+	public int size() {
+		return numRecords;
+	}
+
+	public TYPE getType(int attribute) {
+		return types[attribute];
+	}
+
+	/**
+	 * Values of an INT column, or the packed values of a DATE column.
+	 */
+	public int[] getInts(int attribute) {
+		column(attribute);
+		return ints[attribute];
+	}
+
+	/**
+	 * Dictionary codes of a STRING column, null if the column holds the
+	 * values themselves (see getBytes).
+	 */
+	public int[] getCodes(int attribute) {
+		column(attribute);
+		return types[attribute] == TYPE.STRING ? ints[attribute] : null;
+	}
+
+	public Dictionary getDictionary() {
+		return dictionary;
+	}
+
+	public long[] getLongs(int attribute) {
+		column(attribute);
+		return longs[attribute];
+	}
+
+	public double[] getDoubles(int attribute) {
+		column(attribute);
+		return doubles[attribute];
+	}
+
+	/**
+	 * Bytes of a STRING column (see getOffsets) or of a BOOLEAN column (one
+	 * per value).
+	 */
+	public byte[] getBytes(int attribute) {
+		column(attribute);
+		return bytes[attribute];
+	}
+
+	public int[] getOffsets(int attribute) {
+		column(attribute);
+		return offsets[attribute];
+	}
+
+	/**
+	 * The boxed value of an attribute, as TypeUtils.deserializeValue would
+	 * return it.
+	 */
+	public Object getValue(int row, int attribute) {
+		column(attribute);
+		switch (types[attribute]) {
+		case INT:
+			return ints[attribute][row];
+		case DATE:
+			int v = ints[attribute][row];
+			return new SimpleDate(v / 10000, v / 100 % 100, v % 100);
+		case LONG:
+			return longs[attribute][row];
+		case DOUBLE:
+			return doubles[attribute][row];
+		case BOOLEAN:
+			return bytes[attribute][row] != 0;
+		default:
+			if (ints[attribute] != null)
+				return dictionary.getValue(attribute, ints[attribute][row]);
+			int off = offsets[attribute][row];
+			return new String(bytes[attribute], off,
+					offsets[attribute][row + 1] - off);
+		}
+	}
+
+	/**
+	 * A selection vector with every row selected.
+	 */
+	public int[] selectAll() {
+		int[] selection = new int[numRecords];
+		for (int i = 0; i < numRecords; i++)
+			selection[i] = i;
+		return selection;
+	}
+
+	/**
+	 * Write the rows selection[0, n) out as newline terminated text records,
+	 * the ones encoded.
+	 */
+	public byte[] toText(int[] selection, int n, char delimiter) {
+		return toText(selection, 0, n, delimiter);
+	}
+
+	/**
+	 * Write the rows selection[from, to) out as newline terminated text
+	 * records.
+	 */
+	public byte[] toText(int[] selection, int from, int to, char delimiter) {
+		byte[] out = new byte[Math.max(64, (to - from) * 16 * types.length)];
+		int pos = 0;
+		for (int i = from; i < to; i++) {
+			int row = selection[i];
+			int maxLength = getMaxRecordLength(row) + 1;
+			if (pos + maxLength > out.length)
+				out = BinaryUtils.resize(out,
+						Math.max(2 * out.length, pos + maxLength));
+			pos = writeRecord(row, delimiter, out, pos);
+			out[pos++] = '\n';
+		}
+		return BinaryUtils.resize(out, pos);
+	}
+
+	/**
+	 * Most bytes writeRecord may write for a row.
+	 */
+	public int getMaxRecordLength(int row) {
+		for (int a = 0; a <= types.length; a++)
+			column(a);
+		int length = types.length - 1;
+		for (int a = 0; a < types.length; a++) {
+			if (text[a] != null)
+				length += textOffsets[a][row + 1] - textOffsets[a][row];
+			else if (offsets[a] != null)
+				length += offsets[a][row + 1] - offsets[a][row];
+			else if (types[a] == TYPE.STRING)
+				length += dictionary.getValueBytes(a, ints[a][row]).length;
+			else
+				length += MAX_VALUE_LENGTH;
+		}
+		if (trailing != null)
+			length += trailingOffsets[row + 1] - trailingOffsets[row];
+		return length;
+	}
+
+	/**
+	 * Write a row out at out[pos] as the text record encoded, without a
+	 * newline. out must have room for getMaxRecordLength(row) bytes.
+	 *
+	 * @return the position after it
+	 */
+	public int writeRecord(int row, char delimiter, byte[] out, int pos) {
+		for (int a = 0; a <= types.length; a++)
+			column(a);
+		for (int a = 0; a < types.length; a++) {
+			if (a > 0)
+				out[pos++] = (byte) delimiter;
+			if (text[a] != null) {
+				pos = copy(text[a], textOffsets[a], row, out, pos);
+			} else if (offsets[a] != null) {
+				pos = copy(bytes[a], offsets[a], row, out, pos);
+			} else if (types[a] == TYPE.STRING) {
+				byte[] value = dictionary.getValueBytes(a, ints[a][row]);
+				System.arraycopy(value, 0, out, pos, value.length);
+				pos += value.length;
+			} else {
+				pos = writeValue(out, pos, a, row);
+			}
+		}
+		if (trailing != null)
+			pos = copy(trailing, trailingOffsets, row, out, pos);
+		return pos;
+	}
+
+	private static int copy(byte[] values, int[] o, int row, byte[] out,
+			int pos) {
+		int length = o[row + 1] - o[row];
+		System.arraycopy(values, o[row], out, pos, length);
+		return pos + length;
+	}
+
+	/**
+	 * Write the value of a column that is not a string at out[pos], which has
+	 * room for MAX_VALUE_LENGTH bytes.
+	 *
+	 * @return the position after it
+	 */
+	private int writeValue(byte[] out, int pos, int a, int row) {
+		byte[] value;
+		switch (types[a]) {
+		case INT:
+			return writeLong(out, pos, ints[a][row]);
+		case LONG:
+			return writeLong(out, pos, longs[a][row]);
+		case DATE:
+			return writeDate(out, pos, ints[a][row]);
+		case BOOLEAN:
+			value = bytes[a][row] != 0 ? TRUE : FALSE;
+			break;
+		default:
+			if (scales[a] != null && scales[a][row] >= 0)
+				return writeDecimal(out, pos, unscaled[a][row], scales[a][row]);
+			return writeDouble(out, pos, doubles[a][row]);
+		}
+		System.arraycopy(value, 0, out, pos, value.length);
+		return pos + value.length;
+	}
+
+	private static int writeDouble(byte[] out, int pos, double v) {
+		byte[] value = Double.toString(v).getBytes();
+		System.arraycopy(value, 0, out, pos, value.length);
+		return pos + value.length;
+	}
+
+	/**
+	 * Write unscaled / 10^scale with scale digits after the point, and at
+	 * least one before it.
+	 */
+	private static int writeDecimal(byte[] out, int pos, long unscaled,
+			int scale) {
+		if (unscaled < 0) {
+			out[pos++] = '-';
+			unscaled = -unscaled;
+		}
+		int numDigits = 1;
+		for (long t = unscaled / 10; t != 0; t /= 10)
+			numDigits++;
+		int width = Math.max(numDigits, scale + 1);
+		int end = pos + width + (scale > 0 ? 1 : 0);
+		int p = end;
+		for (int i = 0; i < width; i++) {
+			if (i == scale && scale > 0)
+				out[--p] = '.';
+			out[--p] = (byte) ('0' + unscaled % 10);
+			unscaled /= 10;
+		}
+		return end;
+	}
+
+	private static int writeLong(byte[] out, int pos, long v) {
+		if (v == Long.MIN_VALUE) {
+			byte[] s = Long.toString(v).getBytes();
+			System.arraycopy(s, 0, out, pos, s.length);
+			return pos + s.length;
+		}
+		if (v < 0) {
+			out[pos++] = '-';
+			v = -v;
+		}
+		int numDigits = 1;
+		for (long t = v / 10; t != 0; t /= 10)
+			numDigits++;
+		for (int i = pos + numDigits - 1; i >= pos; i--) {
+			out[i] = (byte) ('0' + v % 10);
+			v /= 10;
+		}
+		return pos + numDigits;
+	}
+
+	private static int writeDate(byte[] out, int pos, int packed) {
+		int year = packed / 10000;
+		int month = packed / 100 % 100;
+		int day = packed % 100;
+		out[pos++] = (byte) ('0' + year / 1000 % 10);
+		out[pos++] = (byte) ('0' + year / 100 % 10);
+		out[pos++] = (byte) ('0' + year / 10 % 10);
+		out[pos++] = (byte) ('0' + year % 10);
+		out[pos++] = '-';
+		out[pos++] = (byte) ('0' + month / 10);
+		out[pos++] = (byte) ('0' + month % 10);
+		out[pos++] = '-';
+		out[pos++] = (byte) ('0' + day / 10);
+		out[pos++] = (byte) ('0' + day % 10);
+		return pos;
+	}
+}
@@ -0,0 +1,81 @@
+package core.adapt;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.google.common.io.ByteStreams;
+
+import core.utils.BinaryUtils;
+import core.utils.CompressionUtils;
+
+/**
+ * Reads compressed frames (see CompressionUtils) from the underlying stream
+ * and returns their raw bytes, one frame at a time. The reverse of
+ * CompressedOutputStream.
+ */
+public class CompressedInputStream extends InputStream {
+	private final InputStream in;
+
+	private byte[] frame;
+	private byte[] raw;
+	private int rawLength;
+	private int position;
+
+	public CompressedInputStream(InputStream in) {
+		this.in = in;
+		this.frame = new byte[CompressionUtils.HEADER_SIZE];
+		this.raw = new byte[0];
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (position == rawLength && !readFrame())
+			return -1;
+		return raw[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (position == rawLength && !readFrame())
+			return -1;
+		int n = Math.min(len, rawLength - position);
+		System.arraycopy(raw, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	/**
+	 * Decompress the next non-empty frame. A torn last frame is that of a
+	 * store in progress, and ends the stream.
+	 *
+	 * @return false at the end of the stream
+	 */
+	private boolean readFrame() throws IOException {
+		do {
+			int n = ByteStreams.read(in, frame, 0, CompressionUtils.HEADER_SIZE);
+			if (n == 0)
+				return false;
+			if (n < CompressionUtils.HEADER_SIZE)
+				return false;
+			int frameLength = CompressionUtils.getFrameLength(frame, 0, n);
+			if (frame.length < frameLength)
+				frame = BinaryUtils.resize(frame, frameLength);
+			if (ByteStreams.read(in, frame, n, frameLength - n) < frameLength - n)
+				return false;
+
+			rawLength = CompressionUtils.getDecompressedLength(frame, frameLength);
+			if (raw.length < rawLength)
+				raw = new byte[rawLength];
+			CompressionUtils.decompress(frame, frameLength, raw);
+			position = 0;
+		} while (rawLength == 0);
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -1,21 +1,31 @@
 package core.adapt;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.sql.Timestamp;
+import java.util.Enumeration;
+import java.util.List;
 
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.recipes.locks.InterProcessSemaphoreMutex;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
 
 import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Bytes;
 
+import core.utils.CompressionUtils;
 import core.utils.ConfUtils;
 import core.utils.CuratorUtils;
 import core.utils.HDFSUtils;
+import core.utils.MappedFileInputStream;
+import core.utils.SegmentUtils;
 
 public class HDFSPartition extends Partition {
     private static final long serialVersionUID = 1L;
@@ -62,6 +72,10 @@ public class HDFSPartition extends Partition {
         Partition p = new HDFSPartition(hdfs, path + partitionId, replication, client);
         p.bytes = new byte[8192];
         p.state = State.NEW;
+        p.setColumnar(columnTypes, delimiter, dictionary);
+        p.setSorted(sortAttribute, sortType, delimiter);
+        p.setCodec(codec);
+        p.setMapped(mapped);
         return p;
     }
 
@@ -69,6 +83,10 @@ public class HDFSPartition extends Partition {
         return hdfs;
     }
 
+    /**
+     * Size of the bucket when the query was planned, only logged: the files
+     * of the bucket are listed again when it is read.
+     */
     public void setTotalSize(long size) {
         this.totalSize = size;
     }
@@ -101,26 +119,36 @@ public class HDFSPartition extends Partition {
         }
     }
     */
+    /**
+     * Reads the union of the files of the bucket (see SegmentUtils). Takes no
+     * lock: published files are never modified.
+     */
     @Override
     public boolean load() {
         if (path == null || path.equals("")) {
             throw new RuntimeException();
         }
         try {
-            totalSize = Math.min(800 * 1024 * 1024, totalSize); // 800 MB
+            List<FileStatus> files = SegmentUtils.list(hdfs, getBucketPath());
+            long length = 0;
+            for (FileStatus f : files)
+                length += f.getLen();
+            System.out.println("INFO: Loading path=" + path
+                    + " , partition id=" + partitionId + " , size: " + length
+                    + " , files: " + files.size());
+            // Larger partitions can only be read in chunks, see open().
+            if (length > Integer.MAX_VALUE - 8)
+                throw new RuntimeException("Partition too large to load: "
+                        + path + "/" + partitionId + ", " + length + " bytes");
 
-            InterProcessSemaphoreMutex l = CuratorUtils.acquireLock(client,
-                    "/partition-lock-" + path.hashCode() + "-" + partitionId);
-
-            System.out.println("LOCK: acquired lock,  " + "path=" + path
-                    + " , partition id=" + partitionId + " , for loading, size: " + totalSize);
-            Path p = new Path(path + "/" + partitionId);
-            in = hdfs.open(p);
-            bytes = new byte[(int) totalSize];
-            ByteStreams.readFully(in, bytes);
-            in.close();
-
-            CuratorUtils.releaseLock(l);
+            bytes = new byte[(int) length];
+            int pos = 0;
+            for (FileStatus f : files) {
+                in = hdfs.open(f.getPath());
+                ByteStreams.readFully(in, bytes, pos, (int) f.getLen());
+                in.close();
+                pos += f.getLen();
+            }
             return true; // load the physical block for this partition
         } catch (IOException e) {
             e.printStackTrace();
@@ -129,53 +157,155 @@ public class HDFSPartition extends Partition {
         }
     }
 
+    private Path getBucketPath() {
+        String bucketPath = path + "/" + partitionId;
+        if (!path.startsWith("hdfs") && !path.startsWith("/"))
+            bucketPath = "/" + bucketPath;
+        return new Path(bucketPath);
+    }
+
+    /**
+     * The files of the bucket one after the other, each opened once the
+     * previous one is read. Takes no lock, like load(). Files on the local
+     * file system are memory mapped if set with setMapped().
+     */
     @Override
-    public void store(boolean append) {
+    public InputStream open() throws IOException {
+        return open((Predicate[]) null);
+    }
 
-        InterProcessSemaphoreMutex l = CuratorUtils.acquireLock(client,
-                "/partition-lock-" + path.hashCode() + "-" + partitionId);
-        System.out.println("LOCK: acquired lock,  " + "path=" + path
-                + " , partition id=" + partitionId + " ,size= " + offset);
+    /**
+     * Uncompressed sorted files are read with positional reads, seeking
+     * past the parts of their runs that cannot match the predicates.
+     */
+    @Override
+    public InputStream open(final Predicate[] predicates) throws IOException {
+        final List<FileStatus> files = SegmentUtils.list(hdfs, getBucketPath());
+        long length = 0;
+        for (FileStatus f : files)
+            length += f.getLen();
+        System.out.println("INFO: Reading path=" + path
+                + " , partition id=" + partitionId + " , size: " + length
+                + " , files: " + files.size() + " , planned size: " + totalSize);
+        final boolean seek = predicates != null && isSorted()
+                && CompressionUtils.getCodec(codec) == null;
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            int next = 0;
 
+            @Override
+            public boolean hasMoreElements() {
+                return next < files.size();
+            }
 
-        String storePath = path + "/" + partitionId;
-        if (!path.startsWith("hdfs"))
-            storePath = "/" + storePath;
+            @Override
+            public InputStream nextElement() {
+                FileStatus f = files.get(next++);
+                try {
+                    return seek ? openSelected(f, predicates) : open(f);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    throw new RuntimeException("Failed to open " + f.getPath());
+                }
+            }
+        });
+    }
 
-        Path e = new Path(storePath);
+    private InputStream openSelected(FileStatus f, Predicate[] predicates)
+            throws IOException {
+        FSDataInputStream in = hdfs.open(f.getPath());
+        if (!SortedRun.isSorted(in, f.getLen()))
+            return in;
+        return new SortedRunInputStream(in, f.getLen(), predicates);
+    }
 
-        FSDataOutputStream os = null;
+    private InputStream open(FileStatus f) throws IOException {
+        if (mapped && hdfs instanceof LocalFileSystem)
+            return new MappedFileInputStream(
+                    ((LocalFileSystem) hdfs).pathToFile(f.getPath()), f.getLen());
+        return hdfs.open(f.getPath());
+    }
 
-        boolean shouldAppend = false;
+    /**
+     * Appending stores write a new segment of the bucket (see SegmentUtils),
+     * with its own zone map and key filter, so writers take no lock. Others
+     * overwrite the bucket file, under the lock of the bucket.
+     */
+    @Override
+    public void store(boolean append) {
+        Path e = getBucketPath();
 
         try {
-            boolean overwrite = !append;
-            os = hdfs.create(e, overwrite, hdfs.getConf().getInt("io.file.buffer.size", 4096),
-                    replication, hdfs.getDefaultBlockSize(e));
+            byte[] b = bytes;
+            int length = offset;
+            if (isColumnar() || isSorted() || codec != null) {
+                b = getStoreBytes();
+                length = b.length;
+            }
 
-            System.out.println("created partition " + partitionId);
-        } catch (IOException ex) {
-            shouldAppend = true;
-        }
+            if (append) {
+                // The zone map and key filter go first: a failure in between
+                // leaves them too wide, never too narrow.
+                Path segment = SegmentUtils.getSegmentPath(e);
+                if (zoneMap != null) {
+                    zoneMap.store(hdfs, segment, replication);
+                    zoneMap.reset();
+                }
+                if (keyFilter != null) {
+                    keyFilter.store(hdfs, segment, replication);
+                    keyFilter.reset();
+                }
 
-        try {
-            if (shouldAppend) {
-                os = hdfs.append(e);
+                Path tmp = SegmentUtils.getTmpPath(segment);
+                FSDataOutputStream os = hdfs.create(tmp, true, hdfs.getConf()
+                        .getInt("io.file.buffer.size", 4096), replication,
+                        hdfs.getDefaultBlockSize(tmp));
+                os.write(b, 0, length);
+                os.close();
+                SegmentUtils.publish(hdfs, segment);
+                System.out.println("INFO: Stored " + segment.getName()
+                        + " , size= " + length);
+            } else {
+                InterProcessSemaphoreMutex l = CuratorUtils.acquireLock(client,
+                        "/partition-lock-" + path.hashCode() + "-" + partitionId);
+                try {
+                    if (zoneMap != null) {
+                        addEntry(new Path(ZoneMap.getPath(e.toString())),
+                                zoneMap.toBytes());
+                        zoneMap.reset();
+                    }
+                    if (keyFilter != null) {
+                        addEntry(new Path(KeyFilter.getPath(e.toString())),
+                                keyFilter.toBytes());
+                        keyFilter.reset();
+                    }
+                    FSDataOutputStream os = hdfs.create(e, true, hdfs.getConf()
+                            .getInt("io.file.buffer.size", 4096), replication,
+                            hdfs.getDefaultBlockSize(e));
+                    os.write(b, 0, length);
+                    os.close();
+                } finally {
+                    CuratorUtils.releaseLock(l);
+                }
             }
-            os.write(bytes, 0, offset);
-            //os.flush();
-            os.close();
             recordCount = 0;
         } catch (IOException ex) {
             System.out.println("exception: "
                     + (new Timestamp(System.currentTimeMillis())));
             //throw new RuntimeException(ex.getMessage());
-        } finally {
-            CuratorUtils.releaseLock(l);
-            System.out.println("LOCK: released lock " + partitionId);
         }
     }
 
+    /**
+     * Add an entry to the zone map or key filter of the bucket file, which
+     * both merge their entries on load. It goes first, as the file may end
+     * with the torn entry of a writer from before segments.
+     */
+    private void addEntry(Path p, byte[] entry) throws IOException {
+        byte[] old = hdfs.exists(p) ? HDFSUtils.readFile(hdfs, p.toString())
+                : new byte[0];
+        SegmentUtils.writeAside(hdfs, p, Bytes.concat(entry, old), replication);
+    }
+
     @Override
     public void drop() {
         // HDFSUtils.deleteFile(hdfs, path + "/" + partitionId, false);
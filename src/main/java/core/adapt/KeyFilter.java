@@ -0,0 +1,309 @@
+package core.adapt;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+
+import core.common.globals.TableInfo;
+import core.common.key.RawIndexKey;
+import core.utils.BloomFilter;
+import core.utils.IOUtils;
+import core.utils.ScanUtils;
+import core.utils.SegmentUtils;
+
+/**
+ * Bloom filters of the join keys of a bucket, one per attribute in
+ * TableInfo.keyFilters. Lets the join planner drop bucket pairs, and the
+ * join reader skip buckets, whose key sets do not intersect.
+ *
+ * Kept like the zone maps (see ZoneMap), in side files
+ * <table>/keyfilters/<file>: every file of a bucket has one, and the key
+ * filter of a bucket is the merge of those named after its files. A bucket
+ * without a key filter file, or one of whose files has no filter for an
+ * attribute, may hold any key. Keys are the attribute values read as
+ * longs, so only INT and LONG attributes qualify.
+ *
+ * The attributes are fixed when the table is created, so that every writer
+ * keeps the filters of every bucket complete.
+ */
+public class KeyFilter {
+	public static final String KEY_FILTER_DIR = "keyfilters";
+
+	private final int[] attributes;
+	private final BloomFilter[] filters;
+	private long numRecords;
+
+	// View for addRecords.
+	private RawIndexKey record;
+
+	public KeyFilter(int[] attributes, int numBits) {
+		this.attributes = attributes;
+		this.filters = new BloomFilter[attributes.length];
+		for (int i = 0; i < attributes.length; i++)
+			filters[i] = new BloomFilter(numBits);
+	}
+
+	private KeyFilter(int[] attributes, BloomFilter[] filters) {
+		this.attributes = attributes;
+		this.filters = filters;
+	}
+
+	/**
+	 * Key filter for a bucket of a tree with numBuckets buckets, null if the
+	 * table keeps none.
+	 */
+	public static KeyFilter create(TableInfo tableInfo, int numBuckets) {
+		if (tableInfo.keyFilters.length == 0)
+			return null;
+		return new KeyFilter(tableInfo.keyFilters, getNumBits(tableInfo,
+				numBuckets));
+	}
+
+	/**
+	 * Filters are sized for the expected number of records of a bucket: a
+	 * bucket keeps the size of the filter it was first written with.
+	 */
+	public static int getNumBits(TableInfo tableInfo, int numBuckets) {
+		return BloomFilter.getNumBits((long) (tableInfo.numTuples / Math.max(
+				numBuckets, 1)));
+	}
+
+	public int[] getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * @return null if the attribute has no filter
+	 */
+	public BloomFilter getFilter(int attribute) {
+		for (int i = 0; i < attributes.length; i++) {
+			if (attributes[i] == attribute)
+				return filters[i];
+		}
+		return null;
+	}
+
+	public long getNumRecords() {
+		return numRecords;
+	}
+
+	public void add(RawIndexKey record) {
+		for (int i = 0; i < attributes.length; i++)
+			filters[i].add(record.getLongAttribute(attributes[i]));
+		numRecords++;
+	}
+
+	/**
+	 * Add the newline separated records in bytes[offset, offset + length).
+	 */
+	public void addRecords(byte[] bytes, int offset, int length, char delimiter) {
+		if (record == null)
+			record = new RawIndexKey(delimiter);
+
+		int end = offset + length;
+		int previous = offset;
+		while (previous < end) {
+			int lineEnd = ScanUtils.indexOf(bytes, previous, end, (byte) '\n');
+			if (lineEnd == -1)
+				lineEnd = end;
+			if (lineEnd > previous) {
+				record.setBytes(bytes, previous, lineEnd - previous);
+				add(record);
+			}
+			previous = lineEnd + 1;
+		}
+	}
+
+	public void reset() {
+		numRecords = 0;
+		for (int i = 0; i < filters.length; i++)
+			filters[i] = new BloomFilter(filters[i].getNumBits());
+	}
+
+	/**
+	 * Union with other. An attribute missing from either gets no filter.
+	 */
+	public KeyFilter merge(KeyFilter other) {
+		BloomFilter[] merged = new BloomFilter[attributes.length];
+		for (int i = 0; i < attributes.length; i++) {
+			BloomFilter f = other.getFilter(attributes[i]);
+			if (filters[i] != null && f != null)
+				merged[i] = filters[i].merge(f);
+		}
+		KeyFilter keyFilter = new KeyFilter(attributes, merged);
+		keyFilter.numRecords = numRecords + other.numRecords;
+		return keyFilter;
+	}
+
+	/**
+	 * Serialized as the number of records and of attributes, then each
+	 * attribute, whether it has a filter and the filter.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(numRecords);
+		out.writeInt(attributes.length);
+		for (int i = 0; i < attributes.length; i++) {
+			out.writeInt(attributes[i]);
+			out.writeBoolean(filters[i] != null);
+			if (filters[i] != null)
+				filters[i].write(out);
+		}
+	}
+
+	private static KeyFilter read(DataInput in) throws IOException {
+		long numRecords = in.readLong();
+		int[] attributes = new int[in.readInt()];
+		BloomFilter[] filters = new BloomFilter[attributes.length];
+		for (int i = 0; i < attributes.length; i++) {
+			attributes[i] = in.readInt();
+			if (in.readBoolean())
+				filters[i] = BloomFilter.read(in);
+		}
+		KeyFilter f = new KeyFilter(attributes, filters);
+		f.numRecords = numRecords;
+		return f;
+	}
+
+	public byte[] toBytes() {
+		ByteArrayDataOutput out = ByteStreams.newDataOutput();
+		try {
+			write(out);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("Failed to serialize the key filter");
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Merge all the entries of a key filter file.
+	 */
+	public static KeyFilter fromBytes(byte[] bytes) {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		KeyFilter keyFilter = null;
+		try {
+			while (in.available() > 0) {
+				KeyFilter entry = read(in);
+				keyFilter = keyFilter == null ? entry : keyFilter.merge(entry);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("Corrupt key filter");
+		}
+		return keyFilter;
+	}
+
+	/**
+	 * Path of the key filter of a data file of a bucket.
+	 */
+	public static String getPath(String dataFilePath) {
+		Path p = new Path(dataFilePath);
+		return new Path(new Path(p.getParent().getParent(), KEY_FILTER_DIR),
+				p.getName()).toString();
+	}
+
+	/**
+	 * Key filter of the bucket at bucketPath, on HDFS.
+	 *
+	 * @return null if the bucket may hold any key
+	 */
+	public static KeyFilter load(FileSystem fs, String bucketPath) {
+		String dir = new Path(getPath(bucketPath)).getParent().toString();
+		int id = SegmentUtils.getBucketId(new Path(bucketPath).getName());
+		if (id == -1)
+			return null;
+		return loadAll(fs, dir, Collections.singleton(id)).get(id);
+	}
+
+	/**
+	 * The key filters in keyFilterDir of the given buckets, by bucket id.
+	 * Files being written aside are left out.
+	 */
+	public static Map<Integer, KeyFilter> loadAll(FileSystem fs,
+			String keyFilterDir, final Set<Integer> buckets) {
+		Map<Integer, KeyFilter> keyFilters = new HashMap<Integer, KeyFilter>();
+		FileStatus[] files;
+		try {
+			files = fs.listStatus(new Path(keyFilterDir), new PathFilter() {
+				@Override
+				public boolean accept(Path path) {
+					return buckets.contains(SegmentUtils.getBucketId(path
+							.getName()));
+				}
+			});
+		} catch (FileNotFoundException e) {
+			return keyFilters;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return keyFilters;
+		}
+		for (FileStatus f : files) {
+			int id = SegmentUtils.getBucketId(f.getPath().getName());
+			byte[] bytes;
+			try {
+				InputStream in = fs.open(f.getPath());
+				try {
+					bytes = ByteStreams.toByteArray(in);
+				} finally {
+					in.close();
+				}
+			} catch (FileNotFoundException e) {
+				// Deleted since listed, merged into one listed too.
+				continue;
+			} catch (IOException e) {
+				e.printStackTrace();
+				throw new RuntimeException("Failed to read the key filter "
+						+ f.getPath());
+			}
+			KeyFilter keyFilter = fromBytes(bytes);
+			KeyFilter previous = keyFilters.get(id);
+			if (keyFilter != null)
+				keyFilters.put(id, previous == null ? keyFilter : previous
+						.merge(keyFilter));
+		}
+		return keyFilters;
+	}
+
+	/**
+	 * Write this key filter as that of the given data file, on HDFS, before
+	 * the file is published.
+	 */
+	public void store(FileSystem fs, Path dataFilePath, short replication) {
+		Path keyFilterPath = new Path(getPath(dataFilePath.toString()));
+		try {
+			SegmentUtils.writeAside(fs, keyFilterPath, toBytes(), replication);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("Failed to write the key filter "
+					+ keyFilterPath);
+		}
+	}
+
+	/**
+	 * Local file system version of store().
+	 */
+	public void store(String dataFilePath) {
+		String keyFilterPath = getPath(dataFilePath);
+		KeyFilter merged = this;
+		if (new File(keyFilterPath).exists())
+			merged = fromBytes(IOUtils.readByteArray(keyFilterPath)).merge(this);
+		IOUtils.writeByteArray(keyFilterPath, merged.toBytes());
+	}
+}
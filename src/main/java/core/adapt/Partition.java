@@ -1,13 +1,21 @@
 package core.adapt;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 
+import core.common.globals.Dictionary;
 import core.utils.BinaryUtils;
+import core.utils.BlockCodec;
+import core.utils.CompressionUtils;
 import core.utils.IOUtils;
+import core.utils.MappedFileInputStream;
+import core.utils.TypeUtils.TYPE;
 
 public class Partition implements Cloneable, Serializable {
 
@@ -30,6 +38,30 @@ public class Partition implements Cloneable, Serializable {
 
 	protected boolean nextBytesReturned = false;
 
+	// Set for the partitions of columnar tables: the records written are
+	// then stored as a columnar block (see ColumnarBlock).
+	protected TYPE[] columnTypes;
+	protected char delimiter;
+	protected transient Dictionary dictionary;
+
+	// Set for the partitions of sorted text tables: the records written are
+	// then stored as a run sorted on this attribute (see SortedRun).
+	protected int sortAttribute = -1;
+	protected TYPE sortType;
+
+	// Block compression codec name, see CompressionUtils. Null for none.
+	protected String codec;
+
+	// Set to read local partition files through memory mappings, see open().
+	protected boolean mapped;
+
+	// If set, stored along with the records, see ZoneMap. Callers add the
+	// records they write.
+	protected transient ZoneMap zoneMap;
+
+	// Likewise, see KeyFilter.
+	protected transient KeyFilter keyFilter;
+
 	/**
 	 * Create an existing partition object.
 	 *
@@ -51,8 +83,12 @@ public class Partition implements Cloneable, Serializable {
 	@Override
 	public Partition clone() {
 		Partition p = new Partition(path, partitionId);
-		p.bytes = new byte[bytes.length];
+		p.bytes = new byte[bytes == null ? 8192 : bytes.length];
 		p.state = State.NEW;
+		p.setColumnar(columnTypes, delimiter, dictionary);
+		p.setSorted(sortAttribute, sortType, delimiter);
+		p.setCodec(codec);
+		p.setMapped(mapped);
 		return p;
 	}
 
@@ -63,6 +99,94 @@ public class Partition implements Cloneable, Serializable {
 		this.offset = 0;
 	}
 
+	/**
+	 * Store the records written to this partition in columnar form. Pass null
+	 * types for text.
+	 */
+	public void setColumnar(TYPE[] types, char delimiter) {
+		setColumnar(types, delimiter, null);
+	}
+
+	/**
+	 * Also code the STRING attributes of the dictionary, if not null.
+	 */
+	public void setColumnar(TYPE[] types, char delimiter, Dictionary dictionary) {
+		this.columnTypes = types;
+		this.delimiter = delimiter;
+		this.dictionary = dictionary;
+	}
+
+	public boolean isColumnar() {
+		return columnTypes != null;
+	}
+
+	/**
+	 * Store the records written to this partition as a run sorted on the
+	 * attribute, see SortedRun. Pass -1 for arrival order. Ignored for
+	 * columnar partitions.
+	 */
+	public void setSorted(int attribute, TYPE type, char delimiter) {
+		this.sortAttribute = attribute;
+		this.sortType = type;
+		this.delimiter = delimiter;
+	}
+
+	public boolean isSorted() {
+		return sortAttribute != -1 && !isColumnar();
+	}
+
+	/**
+	 * Compress the stored records with the named codec, see
+	 * CompressionUtils. Pass null for none.
+	 */
+	public void setCodec(String codec) {
+		this.codec = codec;
+	}
+
+	public void setMapped(boolean mapped) {
+		this.mapped = mapped;
+	}
+
+	public void setZoneMap(ZoneMap zoneMap) {
+		this.zoneMap = zoneMap;
+	}
+
+	public ZoneMap getZoneMap() {
+		return zoneMap;
+	}
+
+	public void setKeyFilter(KeyFilter keyFilter) {
+		this.keyFilter = keyFilter;
+	}
+
+	public KeyFilter getKeyFilter() {
+		return keyFilter;
+	}
+
+	/**
+	 * The bytes to store for the records written: encoded if columnar or
+	 * sorted, then compressed if there is a codec.
+	 */
+	protected byte[] getStoreBytes() {
+		byte[] b = bytes;
+		int length = offset;
+		if (isColumnar()) {
+			b = ColumnarBlock.encode(bytes, 0, offset, delimiter, columnTypes,
+					dictionary);
+			length = b.length;
+		} else if (isSorted()) {
+			b = SortedRun.encode(bytes, 0, offset, sortAttribute, sortType,
+					delimiter);
+			length = b.length;
+		}
+		BlockCodec blockCodec = CompressionUtils.getCodec(codec);
+		if (blockCodec != null) {
+			b = CompressionUtils.compress(blockCodec, b, 0, length);
+			length = b.length;
+		}
+		return b.length == length ? b : BinaryUtils.resize(b, length);
+	}
+
 	public void setPartitionId(int partitionId) {
 		this.partitionId = partitionId;
 	}
@@ -118,13 +242,55 @@ public class Partition implements Cloneable, Serializable {
 
 	public void store(boolean append) {
 		String storePath = path + "/" + partitionId;
-		IOUtils.writeByteArray(storePath, bytes, 0, offset, append);
+		// The zone map and key filter go first: a failure in between leaves
+		// them too wide, never too narrow.
+		if (zoneMap != null) {
+			zoneMap.store(storePath);
+			zoneMap.reset();
+		}
+		if (keyFilter != null) {
+			keyFilter.store(storePath);
+			keyFilter.reset();
+		}
+		if (isColumnar() || isSorted() || codec != null) {
+			byte[] b = getStoreBytes();
+			IOUtils.writeByteArray(storePath, b, 0, b.length, append);
+		} else {
+			IOUtils.writeByteArray(storePath, bytes, 0, offset, append);
+		}
 	}
 
 	public void drop() {
 		FileUtils.deleteQuietly(new File(path));
 	}
 
+	public boolean isLoaded() {
+		return bytes != null;
+	}
+
+	/**
+	 * Stream over the stored records, to read them in chunks (see
+	 * PartitionReader) rather than load them all. Memory mapped if set with
+	 * setMapped().
+	 */
+	public InputStream open() throws IOException {
+		if (!path.startsWith("/"))
+			path = "/" + path;
+		File f = new File(path + "/" + partitionId);
+		if (mapped)
+			return new MappedFileInputStream(f, f.length());
+		return new FileInputStream(f);
+	}
+
+	/**
+	 * Like open(), but the parts of sorted runs that their index shows
+	 * cannot match the predicates may be left out, see SortedRunInputStream.
+	 * Local partitions are read whole.
+	 */
+	public InputStream open(Predicate[] predicates) throws IOException {
+		return open();
+	}
+
 	public byte[] getBytes() {
 		if (bytes == null)
 			load();
@@ -0,0 +1,150 @@
+package core.adapt;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.google.common.io.ByteStreams;
+
+import core.utils.BinaryUtils;
+import core.utils.CompressionUtils;
+
+/**
+ * Reads a partition file in chunks of about chunkSize bytes into one reused
+ * buffer, so that readers need the same memory whatever the size of the
+ * partition.
+ *
+ * Every chunk holds whole records: a text chunk ends at a record boundary,
+ * the partial record after it starting the next chunk, and the chunks of
+ * columnar or sorted files hold whole blocks or runs (see ColumnarBlock,
+ * SortedRun). The buffer only grows past chunkSize for a single record,
+ * block or run larger than that. Compressed files (see CompressionUtils)
+ * are decompressed on the fly, chunks holding the raw bytes. The torn tail
+ * of a store in progress is skipped, see getWholeLength().
+ */
+public class PartitionReader implements Closeable {
+	public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024; // 8 MB
+
+	private final InputStream in;
+
+	private byte[] buffer;
+	private int count;
+
+	// The current chunk is buffer[0, chunkLength).
+	private int chunkLength;
+
+	private boolean eof;
+
+	public PartitionReader(InputStream in, int chunkSize) throws IOException {
+		InputStream buffered = new BufferedInputStream(in,
+				CompressionUtils.HEADER_SIZE);
+		byte[] head = new byte[CompressionUtils.HEADER_SIZE];
+		buffered.mark(head.length);
+		int n = ByteStreams.read(buffered, head, 0, head.length);
+		buffered.reset();
+		this.in = CompressionUtils.isCompressed(head, n) ? new CompressedInputStream(
+				buffered) : buffered;
+		this.buffer = new byte[chunkSize];
+	}
+
+	public byte[] getBytes() {
+		return buffer;
+	}
+
+	public int getLength() {
+		return chunkLength;
+	}
+
+	/**
+	 * Move on to the next chunk, the bytes of the current one are then
+	 * overwritten.
+	 *
+	 * @return false at the end of the file
+	 */
+	public boolean next() throws IOException {
+		System.arraycopy(buffer, chunkLength, buffer, 0, count - chunkLength);
+		count -= chunkLength;
+		chunkLength = 0;
+
+		while (true) {
+			fill();
+			chunkLength = getWholeLength(buffer, count);
+			if (chunkLength > 0)
+				return true;
+			if (eof) {
+				if (count > 0)
+					System.out.println("INFO: Skipped the " + count
+							+ " bytes of a store in progress");
+				count = 0;
+				return false;
+			}
+			buffer = BinaryUtils.resize(buffer, 2 * buffer.length);
+		}
+	}
+
+	private void fill() throws IOException {
+		while (count < buffer.length && !eof) {
+			int n = in.read(buffer, count, buffer.length - count);
+			if (n == -1)
+				eof = true;
+			else
+				count += n;
+		}
+	}
+
+	/**
+	 * Length of the whole records, or of the whole compressed frames,
+	 * columnar blocks or sorted runs, at the start of bytes[0, length).
+	 *
+	 * Partition files are only appended to, and readers take no lock, so
+	 * the end of a file may be the torn tail of a store in progress: reading
+	 * up to the end of the last whole record or frame gives the file as of
+	 * a past store.
+	 */
+	public static int getWholeLength(byte[] bytes, int length) {
+		if (length == 0)
+			return 0;
+
+		// Text records never start with a NUL byte, frames do.
+		if (bytes[0] != 0) {
+			for (int i = length - 1; i >= 0; i--) {
+				if (bytes[i] == '\n')
+					return i + 1;
+			}
+			return 0;
+		}
+
+		int kind;
+		if (CompressionUtils.isCompressed(bytes, length))
+			kind = 0;
+		else if (ColumnarBlock.isColumnar(bytes, length))
+			kind = 1;
+		else if (SortedRun.isSorted(bytes, length))
+			kind = 2;
+		else if (length < 4)
+			return 0;
+		else
+			throw new RuntimeException("Unknown block in partition file");
+
+		int p = 0;
+		while (p < length) {
+			int frameLength;
+			if (kind == 0)
+				frameLength = CompressionUtils.getFrameLength(bytes, p, length);
+			else if (kind == 1)
+				frameLength = ColumnarBlock.getBlockLength(bytes, p, length);
+			else
+				frameLength = SortedRun.getRunLength(bytes, p, length);
+			if (frameLength == -1 || frameLength > length - p)
+				break;
+			p += frameLength;
+		}
+		return p;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -3,6 +3,7 @@ package core.adapt;
 import core.common.globals.TableInfo;
 
 import core.utils.TypeUtils;
+import core.utils.TypeUtils.EncodedValue;
 import core.utils.TypeUtils.TYPE;
 
 import java.util.ArrayList;
@@ -18,6 +19,9 @@ public class Predicate {
 	public Object value;
 	public PREDTYPE predtype;
 
+	// Encoding of the value, see getKey.
+	private transient EncodedValue encoded;
+
 	public Predicate(int attr, TYPE t, Object val, PREDTYPE predtype) {
 		this.attribute = attr;
 		this.type = t;
@@ -75,6 +79,26 @@ public class Predicate {
 		return preds;
 	}
 
+	/**
+	 * Order preserving encoding of the value (see TypeUtils.encode),
+	 * recomputed if the value changed.
+	 */
+	public long getKey() {
+		EncodedValue e = EncodedValue.of(encoded, value, type);
+		encoded = e;
+		return e.getKey();
+	}
+
+	/**
+	 * Compare the value of the predicate with a value of the same type.
+	 *
+	 * @param key
+	 *            the encoding of value
+	 */
+	public int compareValue(long key, Object value) {
+		return TypeUtils.compare(getKey(), this.value, key, value, type);
+	}
+
 	/**
 	 * Check if tuple with value for attribute is accepted (true) or rejected
 	 * (false) by predicate
@@ -83,26 +107,18 @@ public class Predicate {
 	 * @return
 	 */
 	public boolean isRelevant(Object value) {
+		int cmp = compareValue(TypeUtils.encode(value, type), value);
 		switch (this.predtype) {
 		case GEQ:
-			if (TypeUtils.compareTo(this.value, value, this.type) <= 0)
-				return true;
-			break;
+			return cmp <= 0;
 		case LEQ:
-			if (TypeUtils.compareTo(this.value, value, this.type) >= 0)
-				return true;
-			break;
+			return cmp >= 0;
 		case GT:
-			if (TypeUtils.compareTo(this.value, value, this.type) < 0)
-				return true;
-			break;
+			return cmp < 0;
 		case LT:
-			if (TypeUtils.compareTo(this.value, value, this.type) > 0)
-				return true;
-			break;
+			return cmp > 0;
 		case EQ:
-			if (TypeUtils.compareTo(this.value, value, this.type) == 0)
-				return true;
+			return cmp == 0;
 		}
 
 		return false;
@@ -0,0 +1,394 @@
+package core.adapt;
+
+import java.nio.charset.Charset;
+
+import core.adapt.Predicate.PREDTYPE;
+import core.adapt.iterator.RecordBatch;
+import core.common.key.RawIndexKey;
+import core.utils.BinaryUtils;
+import core.utils.TypeUtils.SimpleDate;
+import core.utils.TypeUtils.TYPE;
+
+/**
+ * A predicate compiled for evaluation over raw records. Each evaluator is
+ * specialized for the attribute type and compares primitives (or raw bytes)
+ * instead of boxed values; the predicate type is folded into a bit mask over
+ * the sign of the comparison, so evaluation does not switch on it either.
+ *
+ * Use compile() once per query (e.g. per split), then evaluate() per record
+ * or filter() per batch of records.
+ */
+public abstract class PredicateEvaluator {
+
+	// Bit (1 + signum(record value compared to predicate value)) is set if
+	// the comparison outcome satisfies the predicate.
+	private static final int LESS = 1, EQUAL = 2, GREATER = 4;
+
+	// Like RawIndexKey.getDateAttribute, only look at the "yyyy-MM-dd" part.
+	private static final int DATE_LENGTH = 10;
+
+	protected final Predicate predicate;
+	protected final int attribute;
+	protected final int mask;
+
+	// Record view for evaluating batches through evaluate().
+	private RawIndexKey record;
+
+	protected PredicateEvaluator(Predicate p) {
+		this.predicate = p;
+		this.attribute = p.attribute;
+		this.mask = getMask(p.predtype);
+	}
+
+	/**
+	 * Check whether the record is accepted by the predicate.
+	 */
+	public abstract boolean evaluate(RawIndexKey record);
+
+	/**
+	 * Keep only the selected records of the batch that are accepted by the
+	 * predicate. The attribute must be tokenized.
+	 *
+	 * This goes through evaluate() on a record view; the evaluators for
+	 * primitive types override it with a loop over the offsets matrix.
+	 */
+	public void filter(RecordBatch batch) {
+		if (record == null)
+			record = new RawIndexKey(batch.getDelimiter());
+
+		byte[] bytes = batch.getBytes();
+		int[] selection = batch.getSelection();
+		int n = batch.getNumSelected();
+		int m = 0;
+		for (int i = 0; i < n; i++) {
+			int row = selection[i];
+			record.setBytes(bytes, batch.getRecordOffset(row), batch.getRecordLength(row));
+			if (evaluate(record))
+				selection[m++] = row;
+		}
+		batch.setNumSelected(m);
+	}
+
+	/**
+	 * Keep only the rows selection[0, n) of a columnar block that are
+	 * accepted by the predicate, compacting the selection in place.
+	 *
+	 * @return the number of rows still selected
+	 */
+	public int filter(ColumnarBlock block, int[] selection, int n) {
+		int m = 0;
+		for (int i = 0; i < n; i++) {
+			int row = selection[i];
+			if (predicate.isRelevant(block.getValue(row, attribute)))
+				selection[m++] = row;
+		}
+		return m;
+	}
+
+	public int getAttribute() {
+		return attribute;
+	}
+
+	protected final boolean accepts(int cmp) {
+		return (mask & (1 << (Integer.signum(cmp) + 1))) != 0;
+	}
+
+	/**
+	 * 1 if the comparison outcome satisfies the predicate, 0 otherwise. Lets
+	 * the batch loops compact the selection vector without a branch.
+	 */
+	protected final int accepted(int cmp) {
+		return (mask >>> (Integer.signum(cmp) + 1)) & 1;
+	}
+
+	private static int getMask(PREDTYPE predtype) {
+		switch (predtype) {
+		case LT:
+			return LESS;
+		case LEQ:
+			return LESS | EQUAL;
+		case EQ:
+			return EQUAL;
+		case GEQ:
+			return EQUAL | GREATER;
+		case GT:
+			return GREATER;
+		default:
+			throw new RuntimeException("Unknown predicate type: " + predtype);
+		}
+	}
+
+	/**
+	 * Compile a predicate into the most specialized evaluator for its type.
+	 */
+	public static PredicateEvaluator compile(Predicate p) {
+		switch (p.type) {
+		case INT:
+			return new IntEvaluator(p);
+		case LONG:
+			return new LongEvaluator(p);
+		case DOUBLE:
+			return new DoubleEvaluator(p);
+		case DATE:
+			SimpleDate d = (SimpleDate) p.value;
+			if (d.getYear() >= 1000 && d.getYear() <= 9999)
+				return new BytesEvaluator(p, d.toString().getBytes(), DATE_LENGTH);
+			return new GenericEvaluator(p);
+		case STRING:
+		case VARCHAR:
+			String s = (String) p.value;
+			if (isAscii(s) && isAsciiCompatible(Charset.defaultCharset()))
+				return new BytesEvaluator(p, s.getBytes(), Integer.MAX_VALUE);
+			return new GenericEvaluator(p);
+		default:
+			return new GenericEvaluator(p);
+		}
+	}
+
+	public static PredicateEvaluator[] compile(Predicate[] predicates) {
+		PredicateEvaluator[] evaluators = new PredicateEvaluator[predicates.length];
+		for (int i = 0; i < predicates.length; i++)
+			evaluators[i] = compile(predicates[i]);
+		return evaluators;
+	}
+
+	private static boolean isAscii(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) >= 0x80)
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isAsciiCompatible(Charset cs) {
+		String name = cs.name();
+		return name.equals("UTF-8") || name.equals("US-ASCII")
+				|| name.equals("ISO-8859-1");
+	}
+
+	static final class IntEvaluator extends PredicateEvaluator {
+		private final int value;
+
+		IntEvaluator(Predicate p) {
+			super(p);
+			this.value = (Integer) p.value;
+		}
+
+		@Override
+		public boolean evaluate(RawIndexKey record) {
+			return accepts(Integer.compare(record.getIntAttribute(attribute), value));
+		}
+
+		@Override
+		public void filter(RecordBatch batch) {
+			byte[] bytes = batch.getBytes();
+			int[] selection = batch.getSelection();
+			int n = batch.getNumSelected();
+			int m = 0;
+			for (int i = 0; i < n; i++) {
+				int row = selection[i];
+				int off = batch.getAttributeOffset(row, attribute);
+				int len = batch.getAttributeLength(row, attribute);
+				selection[m] = row;
+				m += accepted(Integer.compare(BinaryUtils.parseInt(bytes, off, len), value));
+			}
+			batch.setNumSelected(m);
+		}
+
+		@Override
+		public int filter(ColumnarBlock block, int[] selection, int n) {
+			int[] values = block.getInts(attribute);
+			int m = 0;
+			for (int i = 0; i < n; i++) {
+				int row = selection[i];
+				selection[m] = row;
+				m += accepted(Integer.compare(values[row], value));
+			}
+			return m;
+		}
+	}
+
+	static final class LongEvaluator extends PredicateEvaluator {
+		private final long value;
+
+		LongEvaluator(Predicate p) {
+			super(p);
+			this.value = (Long) p.value;
+		}
+
+		@Override
+		public boolean evaluate(RawIndexKey record) {
+			return accepts(Long.compare(record.getLongAttribute(attribute), value));
+		}
+
+		@Override
+		public void filter(RecordBatch batch) {
+			byte[] bytes = batch.getBytes();
+			int[] selection = batch.getSelection();
+			int n = batch.getNumSelected();
+			int m = 0;
+			for (int i = 0; i < n; i++) {
+				int row = selection[i];
+				int off = batch.getAttributeOffset(row, attribute);
+				int len = batch.getAttributeLength(row, attribute);
+				selection[m] = row;
+				m += accepted(Long.compare(BinaryUtils.parseLong(bytes, off, len), value));
+			}
+			batch.setNumSelected(m);
+		}
+
+		@Override
+		public int filter(ColumnarBlock block, int[] selection, int n) {
+			long[] values = block.getLongs(attribute);
+			int m = 0;
+			for (int i = 0; i < n; i++) {
+				int row = selection[i];
+				selection[m] = row;
+				m += accepted(Long.compare(values[row], value));
+			}
+			return m;
+		}
+	}
+
+	static final class DoubleEvaluator extends PredicateEvaluator {
+		private final double value;
+
+		DoubleEvaluator(Predicate p) {
+			super(p);
+			this.value = (Double) p.value;
+		}
+
+		@Override
+		public boolean evaluate(RawIndexKey record) {
+			return accepts(Double.compare(record.getDoubleAttribute(attribute), value));
+		}
+
+		@Override
+		public void filter(RecordBatch batch) {
+			byte[] bytes = batch.getBytes();
+			int[] selection = batch.getSelection();
+			int n = batch.getNumSelected();
+			int m = 0;
+			for (int i = 0; i < n; i++) {
+				int row = selection[i];
+				int off = batch.getAttributeOffset(row, attribute);
+				int len = batch.getAttributeLength(row, attribute);
+				selection[m] = row;
+				m += accepted(Double.compare(BinaryUtils.parseDouble(bytes, off, len), value));
+			}
+			batch.setNumSelected(m);
+		}
+
+		@Override
+		public int filter(ColumnarBlock block, int[] selection, int n) {
+			double[] values = block.getDoubles(attribute);
+			int m = 0;
+			for (int i = 0; i < n; i++) {
+				int row = selection[i];
+				selection[m] = row;
+				m += accepted(Double.compare(values[row], value));
+			}
+			return m;
+		}
+	}
+
+	/**
+	 * Compares the raw attribute bytes with the encoded predicate value. Valid
+	 * for ASCII strings, and for yyyy-MM-dd dates, whose byte order is their
+	 * chronological order.
+	 */
+	static final class BytesEvaluator extends PredicateEvaluator {
+		private final byte[] value;
+		private final int maxLength;
+
+		BytesEvaluator(Predicate p, byte[] value, int maxLength) {
+			super(p);
+			this.value = value;
+			this.maxLength = maxLength;
+		}
+
+		@Override
+		public boolean evaluate(RawIndexKey record) {
+			return accepts(record.compareAttribute(attribute, value, maxLength));
+		}
+
+		@Override
+		public void filter(RecordBatch batch) {
+			byte[] bytes = batch.getBytes();
+			int[] selection = batch.getSelection();
+			int n = batch.getNumSelected();
+			int m = 0;
+			for (int i = 0; i < n; i++) {
+				int row = selection[i];
+				int off = batch.getAttributeOffset(row, attribute);
+				int len = batch.getAttributeLength(row, attribute);
+				selection[m] = row;
+				m += accepted(BinaryUtils.compare(bytes, off, Math.min(len, maxLength), value));
+			}
+			batch.setNumSelected(m);
+		}
+
+		@Override
+		public int filter(ColumnarBlock block, int[] selection, int n) {
+			int m = 0;
+			if (predicate.type == TYPE.DATE) {
+				// Columnar dates are packed ints, not bytes.
+				int[] values = block.getInts(attribute);
+				int date = ColumnarBlock.packDate((SimpleDate) predicate.value);
+				for (int i = 0; i < n; i++) {
+					int row = selection[i];
+					selection[m] = row;
+					m += accepted(Integer.compare(values[row], date));
+				}
+			} else if (block.getCodes(attribute) != null) {
+				// All the values are in the dictionary, so comparing their
+				// codes with the code of the predicate value is exact.
+				int[] codes = block.getCodes(attribute);
+				int code = block.getDictionary().getCode(attribute,
+						(String) predicate.value);
+				for (int i = 0; i < n; i++) {
+					int row = selection[i];
+					selection[m] = row;
+					m += accepted(Integer.compare(codes[row], code));
+				}
+			} else {
+				byte[] bytes = block.getBytes(attribute);
+				int[] offsets = block.getOffsets(attribute);
+				for (int i = 0; i < n; i++) {
+					int row = selection[i];
+					int off = offsets[row];
+					int len = offsets[row + 1] - off;
+					selection[m] = row;
+					m += accepted(BinaryUtils.compare(bytes, off, Math.min(len, maxLength), value));
+				}
+			}
+			return m;
+		}
+	}
+
+	/**
+	 * Falls back to comparing boxed values, for types and values the
+	 * specialized evaluators cannot handle exactly.
+	 */
+	static final class GenericEvaluator extends PredicateEvaluator {
+
+		GenericEvaluator(Predicate p) {
+			super(p);
+		}
+
+		@Override
+		public boolean evaluate(RawIndexKey record) {
+			switch (predicate.type) {
+			case BOOLEAN:
+				return predicate.isRelevant(record.getBooleanAttribute(attribute));
+			case DATE:
+				return predicate.isRelevant(record.getDateAttribute(attribute));
+			case STRING:
+			case VARCHAR:
+				return predicate.isRelevant(record.getStringAttribute(attribute));
+			default:
+				throw new RuntimeException("Invalid data type!");
+			}
+		}
+	}
+}
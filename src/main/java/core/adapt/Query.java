@@ -10,6 +10,7 @@ import org.apache.hadoop.io.Text;
 import com.google.common.base.Joiner;
 
 import core.adapt.iterator.IteratorRecord;
+import core.adapt.iterator.RecordBatch;
 import core.common.globals.Globals;
 import core.common.key.RawIndexKey;
 
@@ -22,6 +23,12 @@ public class Query implements Serializable {
 
     RawIndexKey key;
 
+	private transient PredicateEvaluator[] evaluators;
+
+	// Attributes the reader should return, null for whole records. Not part
+	// of the query string; SparkQuery passes it on through SparkQueryConf.
+	private int[] projection;
+
 	public Query(String queryString) {
 		String[] parts = queryString.split("\\|");
 		this.table = parts[0];
@@ -52,6 +59,18 @@ public class Query implements Serializable {
 
 	public void setTable(String table) { this.table = table; }
 
+	public int[] getProjection() {
+		return this.projection;
+	}
+
+	/**
+	 * Restrict the output of the query to the given attributes, in that
+	 * order.
+	 */
+	public void setProjection(int[] projection) {
+		this.projection = projection;
+	}
+
 	public void write(DataOutput out) throws IOException {
 		Text.writeString(out, toString());
 	}
@@ -71,39 +90,60 @@ public class Query implements Serializable {
         }
     }
 
+	/**
+	 * Compile the predicates into type-specialized evaluators. Called once
+	 * per query instance, before evaluating the first record.
+	 */
+	public PredicateEvaluator[] compile() {
+		loadKey();
+		evaluators = PredicateEvaluator.compile(predicates);
+		return evaluators;
+	}
+
 	public boolean qualifies(IteratorRecord record) {
-        loadKey();
-
-		boolean qualify = true;
-		for (Predicate p : predicates) {
-			int attrIdx = p.attribute;
-			switch (p.type) {
-			case BOOLEAN:
-				qualify &= p.isRelevant(record.getBooleanAttribute(attrIdx));
-				break;
-			case INT:
-				qualify &= p.isRelevant(record.getIntAttribute(attrIdx));
-				break;
-			case LONG:
-				qualify &= p.isRelevant(record.getLongAttribute(attrIdx));
-				break;
-			case DOUBLE:
-				qualify &= p.isRelevant(record.getDoubleAttribute(attrIdx));
-				break;
-			case DATE:
-				qualify &= p.isRelevant(record.getDateAttribute(attrIdx));
-				break;
-			case STRING:
-				qualify &= p.isRelevant(record.getStringAttribute(attrIdx));
-				break;
-			case VARCHAR:
-				qualify &= p.isRelevant(record.getStringAttribute(attrIdx));
-				break;
-			default:
-				throw new RuntimeException("Invalid data type!");
-			}
+		PredicateEvaluator[] evaluators = this.evaluators;
+		if (evaluators == null)
+			evaluators = compile();
+
+		for (int i = 0; i < evaluators.length; i++) {
+			if (!evaluators[i].evaluate(record))
+				return false;
 		}
-		return qualify;
+		return true;
+	}
+
+	/**
+	 * Batch version of qualifies(): evaluates one predicate at a time over all
+	 * the records still selected in the batch.
+	 */
+	public void filter(RecordBatch batch) {
+		PredicateEvaluator[] evaluators = this.evaluators;
+		if (evaluators == null)
+			evaluators = compile();
+
+		int numAttributes = 0;
+		for (int i = 0; i < evaluators.length; i++)
+			numAttributes = Math.max(numAttributes, evaluators[i].getAttribute() + 1);
+		batch.tokenize(numAttributes);
+
+		for (int i = 0; i < evaluators.length && batch.getNumSelected() > 0; i++)
+			evaluators[i].filter(batch);
+	}
+
+	/**
+	 * Columnar version of qualifies(): keeps the rows selection[0, n) of the
+	 * block that satisfy all the predicates.
+	 *
+	 * @return the number of rows still selected
+	 */
+	public int filter(ColumnarBlock block, int[] selection, int n) {
+		PredicateEvaluator[] evaluators = this.evaluators;
+		if (evaluators == null)
+			evaluators = compile();
+
+		for (int i = 0; i < evaluators.length && n > 0; i++)
+			n = evaluators[i].filter(block, selection, n);
+		return n;
 	}
 
 	@Override
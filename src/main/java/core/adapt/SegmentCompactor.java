@@ -0,0 +1,392 @@
+package core.adapt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.google.common.io.ByteStreams;
+
+import core.upfront.build.SortedOutputStream;
+import core.utils.SegmentUtils;
+import core.utils.TypeUtils.TYPE;
+
+/**
+ * Merges the small files of the buckets of a data directory, so that buckets
+ * written to by many writers (see SegmentUtils) do not end up as many tiny
+ * files. Files hold whole records, compressed frames, columnar blocks or
+ * sorted runs, so the merge of some files of a bucket is their concatenation.
+ * The runs of sorted tables (see setSorted) are merged instead, into runs
+ * that each cover a range of keys of their own, see SortedRun.merge().
+ * Compressed runs are concatenated.
+ *
+ * Each pass merges, for every bucket:
+ * - its live segments, if at least minFiles of them are small.
+ * - else the longest run of adjacent small merged files, if there are two.
+ *
+ * Merged files are moved in place once whole, after their manifest, and
+ * supersede the files it names, see SegmentUtils. Those are deleted
+ * gracePeriod after that, so that readers that listed them in between can
+ * still read them: the grace period must exceed the time a reader takes to
+ * read a bucket. Supersession does not depend on the clocks of writers.
+ *
+ * The zone maps and key filters of the files merged (see ZoneMap and
+ * KeyFilter) are merged into those of the merged file, written before its
+ * manifest. Those of files that are gone, once deleted or never published,
+ * are deleted gracePeriod after they were written.
+ *
+ * Only one compactor should run per table.
+ */
+public class SegmentCompactor {
+	public static final long DEFAULT_SMALL_SIZE = 64L * 1024 * 1024; // 64 MB
+	public static final int DEFAULT_MIN_FILES = 4;
+	public static final long DEFAULT_GRACE_PERIOD = 10 * 60 * 1000; // 10 min
+
+	private final FileSystem fs;
+	private final short replication;
+
+	private long smallSize = DEFAULT_SMALL_SIZE;
+	private int minFiles = DEFAULT_MIN_FILES;
+	private long gracePeriod = DEFAULT_GRACE_PERIOD;
+
+	// Attribute the runs of the table are sorted on, -1 if not sorted.
+	private int sortAttribute = -1;
+	private TYPE sortType;
+	private char delimiter;
+	private int runSize = SortedOutputStream.DEFAULT_RUN_SIZE;
+
+	// Types of the table, null if not known.
+	private TYPE[] types;
+
+	public SegmentCompactor(FileSystem fs, short replication) {
+		this.fs = fs;
+		this.replication = replication;
+	}
+
+	public void setSmallSize(long smallSize) {
+		this.smallSize = smallSize;
+	}
+
+	public void setMinFiles(int minFiles) {
+		this.minFiles = minFiles;
+	}
+
+	public void setGracePeriod(long gracePeriod) {
+		this.gracePeriod = gracePeriod;
+	}
+
+	/**
+	 * Merge the runs of files sorted on the attribute into runs of about
+	 * runSize bytes of text, see SortedRun.
+	 */
+	public void setSorted(int attribute, TYPE type, char delimiter, int runSize) {
+		this.sortAttribute = attribute;
+		this.sortType = type;
+		this.delimiter = delimiter;
+		this.runSize = runSize;
+	}
+
+	/**
+	 * Types of the table, to merge the zone maps of the files merged into a
+	 * single entry. Without them, the entries are kept side by side, which
+	 * ZoneMap merges on load.
+	 */
+	public void setTypes(TYPE[] types) {
+		this.types = types;
+	}
+
+	/**
+	 * One pass over the buckets of the data directory.
+	 *
+	 * @return the number of merged files written
+	 */
+	public int compact(String dataDir) throws IOException {
+		long now = System.currentTimeMillis();
+		Path dir = new Path(dataDir);
+		List<FileStatus> files = Arrays.asList(fs.listStatus(dir));
+		Set<String> names = new HashSet<String>();
+		for (FileStatus f : files)
+			names.add(f.getPath().getName());
+
+		int numMerged = 0;
+		for (Map.Entry<Integer, List<FileStatus>> e : SegmentUtils.group(fs,
+				files, false).entrySet()) {
+			deleteSuperseded(e.getValue(), names, now);
+			if (compact(e.getValue()))
+				numMerged++;
+		}
+		deleteEntries(new Path(dir.getParent(), ZoneMap.ZONE_MAP_DIR), names, now);
+		deleteEntries(new Path(dir.getParent(), KeyFilter.KEY_FILTER_DIR), names,
+				now);
+		return numMerged;
+	}
+
+	/**
+	 * Run a pass every interval ms, until interrupted.
+	 */
+	public void run(String dataDir, long interval) {
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				int numMerged = compact(dataDir);
+				System.out.println("INFO: Wrote " + numMerged
+						+ " merged files in " + dataDir);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			try {
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Delete the files of a bucket superseded for gracePeriod, and the
+	 * manifests left without their merged file, also from names, the names
+	 * in the data directory.
+	 */
+	private void deleteSuperseded(List<FileStatus> files, Set<String> names,
+			long now) throws IOException {
+		Map<FileStatus, FileStatus> superseded = SegmentUtils.getSuperseded(fs,
+				files);
+
+		for (FileStatus f : files) {
+			String name = f.getPath().getName();
+			FileStatus superseding = superseded.get(f);
+			if (superseding != null
+					&& superseding.getModificationTime() < now - gracePeriod) {
+				// The data first: the manifest of a merged file is only
+				// read while the file is there.
+				fs.delete(f.getPath(), false);
+				names.remove(name);
+				if (SegmentUtils.isMerged(name))
+					fs.delete(SegmentUtils.getManifestPath(f.getPath()), false);
+				System.out.println("INFO: Deleted " + name + ", merged into "
+						+ superseding.getPath().getName());
+			} else if (SegmentUtils.isManifest(name)
+					&& !names.contains(name.substring(0, name.length()
+							- SegmentUtils.MANIFEST_SUFFIX.length()))
+					&& f.getModificationTime() < now - gracePeriod) {
+				// Left by a merge that failed before its file was moved in
+				// place, or by a delete of a merged file.
+				fs.delete(f.getPath(), false);
+				names.remove(name);
+			}
+		}
+	}
+
+	/**
+	 * Delete the zone maps or key filters in dir of the segments and merged
+	 * files not in names, once written gracePeriod ago: by then, their file
+	 * is either deleted, and merged into one with a zone map or key filter of
+	 * its own, or never to be published. Those of bucket files stay, they
+	 * also hold entries of segments written before segments had their own.
+	 */
+	private void deleteEntries(Path dir, Set<String> names, long now)
+			throws IOException {
+		FileStatus[] entries;
+		try {
+			entries = fs.listStatus(dir);
+		} catch (FileNotFoundException e) {
+			return;
+		}
+		for (FileStatus f : entries) {
+			String name = f.getPath().getName();
+			if ((SegmentUtils.isSegment(name) || SegmentUtils.isMerged(name))
+					&& !names.contains(name)
+					&& f.getModificationTime() < now - gracePeriod)
+				fs.delete(f.getPath(), false);
+		}
+	}
+
+	/**
+	 * @return whether files of the bucket were merged
+	 */
+	private boolean compact(List<FileStatus> files) throws IOException {
+		List<FileStatus> live = SegmentUtils.getLive(fs, files);
+
+		// The segments not merged yet.
+		List<FileStatus> segments = new ArrayList<FileStatus>();
+		int numSmall = 0;
+		for (FileStatus f : live) {
+			if (!SegmentUtils.isMerged(f.getPath().getName())) {
+				segments.add(f);
+				if (f.getLen() < smallSize)
+					numSmall++;
+			}
+		}
+		if (numSmall >= minFiles) {
+			merge(segments, files);
+			return true;
+		}
+
+		// The longest run of adjacent small merged files.
+		List<FileStatus> longest = new ArrayList<FileStatus>();
+		List<FileStatus> run = new ArrayList<FileStatus>();
+		for (FileStatus f : live) {
+			if (!SegmentUtils.isMerged(f.getPath().getName()))
+				continue;
+			if (f.getLen() >= smallSize) {
+				run = new ArrayList<FileStatus>();
+				continue;
+			}
+			run.add(f);
+			if (run.size() > longest.size())
+				longest = run;
+		}
+		if (longest.size() >= 2) {
+			merge(longest, files);
+			return true;
+		}
+		return false;
+	}
+
+	private static long[] getRange(FileStatus f) {
+		return SegmentUtils.getRange(f.getPath().getName());
+	}
+
+	/**
+	 * The names the manifest of the merge of files lists: the files, and
+	 * those the merged files among them superseded.
+	 */
+	private List<String> getManifest(List<FileStatus> merged,
+			List<FileStatus> files) throws IOException {
+		Map<String, FileStatus> byName = new HashMap<String, FileStatus>();
+		for (FileStatus f : files)
+			byName.put(f.getPath().getName(), f);
+
+		Set<String> names = new LinkedHashSet<String>();
+		for (FileStatus f : merged) {
+			String name = f.getPath().getName();
+			names.add(name);
+			FileStatus manifest = byName.get(SegmentUtils.getManifestPath(
+					f.getPath()).getName());
+			if (SegmentUtils.isMerged(name) && manifest != null)
+				names.addAll(SegmentUtils.readManifest(fs, manifest));
+		}
+		return new ArrayList<String>(names);
+	}
+
+	/**
+	 * The entries of the zone map or key filter files at paths, side by
+	 * side, null if none of them exists.
+	 */
+	private byte[] readEntries(List<String> paths) throws IOException {
+		ByteArrayOutputStream entries = new ByteArrayOutputStream();
+		boolean found = false;
+		for (String path : paths) {
+			InputStream in;
+			try {
+				in = fs.open(new Path(path));
+			} catch (FileNotFoundException e) {
+				continue;
+			}
+			try {
+				ByteStreams.copy(in, entries);
+			} finally {
+				in.close();
+			}
+			found = true;
+		}
+		return found ? entries.toByteArray() : null;
+	}
+
+	/**
+	 * Write the merge of files, in publication order, as a merged file
+	 * covering their publication times, with its manifest, zone map and key
+	 * filter. The listing of
+	 * the bucket, files, holds the manifests of merged files.
+	 */
+	private void merge(List<FileStatus> merged, List<FileStatus> files)
+			throws IOException {
+		Path bucketPath = SegmentUtils.getBucketPath(merged.get(0).getPath());
+		long from = Long.MAX_VALUE;
+		long to = 0;
+		for (FileStatus f : merged) {
+			from = Math.min(from, getRange(f)[0]);
+			to = Math.max(to, getRange(f)[1]);
+		}
+		// Not over an earlier merged file or its manifest.
+		Path mergedPath = SegmentUtils.getMergedPath(bucketPath, from, to);
+		while (fs.exists(mergedPath)
+				|| fs.exists(SegmentUtils.getManifestPath(mergedPath)))
+			mergedPath = SegmentUtils.getMergedPath(bucketPath, from, ++to);
+		Path tmp = new Path(mergedPath.toString() + SegmentUtils.TMP_SUFFIX);
+
+		FSDataOutputStream os = fs.create(tmp, true, fs.getConf().getInt(
+				"io.file.buffer.size", 4096), replication,
+				fs.getDefaultBlockSize(tmp));
+		FSDataInputStream[] ins = new FSDataInputStream[merged.size()];
+		long[] lengths = new long[merged.size()];
+		boolean sorted = sortAttribute != -1;
+		try {
+			for (int i = 0; i < ins.length; i++) {
+				ins[i] = fs.open(merged.get(i).getPath());
+				lengths[i] = merged.get(i).getLen();
+				sorted &= lengths[i] == 0
+						|| SortedRun.isSorted(ins[i], lengths[i]);
+			}
+			if (sorted) {
+				SortedRun.merge(ins, lengths, os, sortAttribute, sortType,
+						delimiter, runSize);
+			} else {
+				for (FSDataInputStream in : ins)
+					ByteStreams.copy(in, os);
+			}
+		} finally {
+			for (FSDataInputStream in : ins) {
+				if (in != null)
+					in.close();
+			}
+		}
+		os.close();
+
+		// Those of bucket files stay in place, see deleteEntries.
+		List<String> zoneMaps = new ArrayList<String>();
+		List<String> keyFilters = new ArrayList<String>();
+		for (FileStatus f : merged) {
+			String name = f.getPath().getName();
+			if (SegmentUtils.isSegment(name) || SegmentUtils.isMerged(name)) {
+				zoneMaps.add(ZoneMap.getPath(f.getPath().toString()));
+				keyFilters.add(KeyFilter.getPath(f.getPath().toString()));
+			}
+		}
+		byte[] zoneMap = readEntries(zoneMaps);
+		if (zoneMap != null) {
+			if (types != null)
+				zoneMap = ZoneMap.fromBytes(zoneMap, types).toBytes();
+			SegmentUtils.writeAside(fs, new Path(ZoneMap.getPath(mergedPath
+					.toString())), zoneMap, replication);
+		}
+		byte[] keyFilter = readEntries(keyFilters);
+		if (keyFilter != null)
+			SegmentUtils.writeAside(fs, new Path(KeyFilter.getPath(mergedPath
+					.toString())), KeyFilter.fromBytes(keyFilter).toBytes(),
+					replication);
+
+		SegmentUtils.writeManifest(fs, mergedPath, getManifest(merged, files),
+				replication);
+		if (!fs.rename(tmp, mergedPath))
+			throw new IOException("Failed to rename " + tmp + " to "
+					+ mergedPath);
+		System.out.println("INFO: Merged " + merged.size() + " files"
+				+ (sorted ? ", merging their runs," : "") + " into "
+				+ mergedPath.getName() + ", "
+				+ fs.getFileStatus(mergedPath).getLen() + " bytes");
+	}
+}
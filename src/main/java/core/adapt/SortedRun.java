@@ -0,0 +1,573 @@
+package core.adapt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.fs.PositionedReadable;
+
+import core.common.key.RawIndexKey;
+import core.utils.BinaryUtils;
+import core.utils.ScanUtils;
+import core.utils.TypeUtils.SimpleDate;
+import core.utils.TypeUtils.TYPE;
+
+/**
+ * Text records sorted on one attribute, with a sparse index of every
+ * INDEX_INTERVAL-th record. Each write of records to a bucket of a sorted
+ * table (see TableInfo.sortAttribute) stores one run:
+ *
+ * magic (4 bytes) | attribute (int) | number of records (int) | number of
+ * index entries (int) | text length (int) | index entries, each a key (long)
+ * and the offset of its record in the text (int) | newline terminated text
+ *
+ * A bucket is a sequence of runs. Readers that only want the records
+ * matching some predicates on the attribute read just the part of each run
+ * that may hold them, see select() and SortedRunInputStream, and compaction
+ * merges the runs of a bucket, see merge().
+ *
+ * Index keys are longs that compare like the values of the attribute, but
+ * may be equal for different values: STRING attributes are keyed on their
+ * first 8 bytes.
+ */
+public class SortedRun {
+	// Text records never start with a NUL byte.
+	private static final byte[] MAGIC = { 0, 'S', 'R', 'T' };
+
+	public static final int HEADER_SIZE = MAGIC.length + 16;
+
+	public static final int INDEX_INTERVAL = 64;
+
+	private static final int ENTRY_SIZE = 12;
+
+	public static boolean isSorted(byte[] bytes, int length) {
+		return bytes != null && length >= MAGIC.length && hasMagic(bytes, 0);
+	}
+
+	/**
+	 * Whether runs can be sorted on an attribute of the given type.
+	 */
+	public static boolean isSortable(TYPE type) {
+		return type != TYPE.VARCHAR;
+	}
+
+	/**
+	 * Index key of a predicate value.
+	 */
+	public static long getKey(Object value, TYPE type) {
+		switch (type) {
+		case INT:
+			return (Integer) value;
+		case LONG:
+			return (Long) value;
+		case DOUBLE:
+			return getKey((Double) value);
+		case DATE:
+			return ColumnarBlock.packDate((SimpleDate) value);
+		case BOOLEAN:
+			return (Boolean) value ? 1 : 0;
+		case STRING:
+			byte[] b = ((String) value).getBytes();
+			return getKey(b, 0, b.length);
+		default:
+			throw new RuntimeException("Cannot sort on " + type);
+		}
+	}
+
+	private static long getKey(double d) {
+		long bits = Double.doubleToLongBits(d);
+		return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+	}
+
+	/**
+	 * The first 8 bytes, zero padded, as a long comparing like the bytes do
+	 * (unsigned).
+	 */
+	private static long getKey(byte[] b, int offset, int length) {
+		long key = 0;
+		for (int i = 0; i < 8; i++)
+			key = (key << 8) | (i < length ? b[offset + i] & 0xFF : 0);
+		return key ^ Long.MIN_VALUE;
+	}
+
+	private static long getKey(RawIndexKey record, int attribute, TYPE type,
+			SimpleDate date) {
+		switch (type) {
+		case INT:
+			return record.getIntAttribute(attribute);
+		case LONG:
+			return record.getLongAttribute(attribute);
+		case DOUBLE:
+			return getKey(record.getDoubleAttribute(attribute));
+		case DATE:
+			return ColumnarBlock.packDate(record.getDateAttribute(attribute, date));
+		case BOOLEAN:
+			return record.getBooleanAttribute(attribute) ? 1 : 0;
+		default:
+			throw new RuntimeException("Cannot sort on " + type);
+		}
+	}
+
+	/**
+	 * Sort the newline separated records in text[offset, offset + length)
+	 * on the attribute into a run.
+	 */
+	public static byte[] encode(byte[] text, int offset, int length,
+			int attribute, TYPE type, char delimiter) {
+		int end = offset + length;
+		int n = 0;
+		int[] starts = new int[1024];
+		int[] ends = new int[1024];
+		int previous = offset;
+		while (previous < end) {
+			int lineEnd = ScanUtils.indexOf(text, previous, end, (byte) '\n');
+			if (lineEnd == -1)
+				lineEnd = end;
+			if (lineEnd > previous) {
+				if (n == starts.length) {
+					starts = Arrays.copyOf(starts, 2 * n);
+					ends = Arrays.copyOf(ends, 2 * n);
+				}
+				starts[n] = previous;
+				ends[n] = lineEnd;
+				n++;
+			}
+			previous = lineEnd + 1;
+		}
+
+		long[] keys = new long[n];
+		byte[][] values = type == TYPE.STRING ? new byte[n][] : null;
+		RawIndexKey record = new RawIndexKey(delimiter);
+		SimpleDate date = new SimpleDate(0, 0, 0);
+		for (int i = 0; i < n; i++) {
+			record.setBytes(text, starts[i], ends[i] - starts[i]);
+			if (values != null) {
+				values[i] = record.getStringAttribute(attribute).getBytes();
+				keys[i] = getKey(values[i], 0, values[i].length);
+			} else {
+				keys[i] = getKey(record, attribute, type, date);
+			}
+		}
+
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		sort(order, new int[n], 0, n, keys, values);
+
+		int numEntries = (n + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+		int textLength = 0;
+		for (int i = 0; i < n; i++)
+			textLength += ends[i] - starts[i] + 1;
+		int textStart = HEADER_SIZE + numEntries * ENTRY_SIZE;
+
+		byte[] run = new byte[textStart + textLength];
+		System.arraycopy(MAGIC, 0, run, 0, MAGIC.length);
+		BinaryUtils.append(run, MAGIC.length, attribute);
+		BinaryUtils.append(run, MAGIC.length + 4, n);
+		BinaryUtils.append(run, MAGIC.length + 8, numEntries);
+		BinaryUtils.append(run, MAGIC.length + 12, textLength);
+
+		int op = textStart;
+		for (int i = 0; i < n; i++) {
+			int r = order[i];
+			if (i % INDEX_INTERVAL == 0) {
+				int entry = HEADER_SIZE + (i / INDEX_INTERVAL) * ENTRY_SIZE;
+				BinaryUtils.append(run, entry, keys[r]);
+				BinaryUtils.append(run, entry + 8, op - textStart);
+			}
+			int len = ends[r] - starts[r];
+			System.arraycopy(text, starts[r], run, op, len);
+			op += len;
+			run[op++] = '\n';
+		}
+		return run;
+	}
+
+	/**
+	 * Stable merge sort of order[from, to) on the keys, then the values.
+	 */
+	private static void sort(int[] order, int[] tmp, int from, int to,
+			long[] keys, byte[][] values) {
+		if (to - from < 2)
+			return;
+		int mid = (from + to) >>> 1;
+		sort(order, tmp, from, mid, keys, values);
+		sort(order, tmp, mid, to, keys, values);
+		if (compare(order[mid - 1], order[mid], keys, values) <= 0)
+			return;
+
+		System.arraycopy(order, from, tmp, from, to - from);
+		int i = from, j = mid, k = from;
+		while (i < mid && j < to)
+			order[k++] = compare(tmp[j], tmp[i], keys, values) < 0 ? tmp[j++]
+					: tmp[i++];
+		while (i < mid)
+			order[k++] = tmp[i++];
+		while (j < to)
+			order[k++] = tmp[j++];
+	}
+
+	private static int compare(int a, int b, long[] keys, byte[][] values) {
+		int cmp = Long.compare(keys[a], keys[b]);
+		if (cmp != 0 || values == null)
+			return cmp;
+		return BinaryUtils.compare(values[a], 0, values[a].length, values[b]);
+	}
+
+	/**
+	 * Copy the text of the runs in bytes[0, length) to dst, leaving out the
+	 * parts of each run that the index shows cannot match the predicates on
+	 * its attribute. Predicates on other attributes are ignored.
+	 *
+	 * @return the length of the text copied, dst being large enough if it
+	 *         holds length bytes
+	 */
+	public static int select(byte[] bytes, int length, Predicate[] predicates,
+			byte[] dst) {
+		int ip = 0;
+		int op = 0;
+		while (ip < length) {
+			if (length - ip < HEADER_SIZE || !hasMagic(bytes, ip))
+				throw new RuntimeException("Corrupt sorted run at offset " + ip);
+			int attribute = BinaryUtils.getInt(bytes, ip + MAGIC.length);
+			int numEntries = BinaryUtils.getInt(bytes, ip + MAGIC.length + 8);
+			int textLength = BinaryUtils.getInt(bytes, ip + MAGIC.length + 12);
+			int entries = ip + HEADER_SIZE;
+			int textStart = entries + numEntries * ENTRY_SIZE;
+			if (textStart + textLength > length)
+				throw new RuntimeException("Corrupt sorted run at offset " + ip);
+
+			int[] range = getTextRange(bytes, entries, numEntries, textLength,
+					attribute, predicates);
+			int from = range[0];
+			int to = range[1];
+			if (from < to) {
+				System.arraycopy(bytes, textStart + from, dst, op, to - from);
+				op += to - from;
+			}
+			ip = textStart + textLength;
+		}
+		return op;
+	}
+
+	/**
+	 * The part [from, to) of the text of a run that may hold the records
+	 * matching the predicates on its attribute, given its index entries at
+	 * bytes[entries].
+	 */
+	static int[] getTextRange(byte[] bytes, int entries, int numEntries,
+			int textLength, int attribute, Predicate[] predicates) {
+		int from = 0;
+		int to = textLength;
+		if (predicates != null) {
+			for (Predicate p : predicates) {
+				if (p.attribute != attribute)
+					continue;
+				long key = getKey(p.value, p.type);
+				if (p.predtype != Predicate.PREDTYPE.LT
+						&& p.predtype != Predicate.PREDTYPE.LEQ)
+					from = Math.max(from, lastBelow(bytes, entries, numEntries,
+							key));
+				if (p.predtype != Predicate.PREDTYPE.GT
+						&& p.predtype != Predicate.PREDTYPE.GEQ)
+					to = Math.min(to, firstAbove(bytes, entries, numEntries,
+							key, textLength));
+			}
+		}
+		return new int[] { from, to };
+	}
+
+	/**
+	 * The header of a run in a file read with positional reads.
+	 */
+	static class Header {
+		final long position;
+		final int attribute;
+		final int numEntries;
+		final int textLength;
+
+		Header(long position, byte[] b) {
+			if (!hasMagic(b, 0))
+				throw new RuntimeException("Corrupt sorted run at offset "
+						+ position);
+			this.position = position;
+			this.attribute = BinaryUtils.getInt(b, MAGIC.length);
+			this.numEntries = BinaryUtils.getInt(b, MAGIC.length + 8);
+			this.textLength = BinaryUtils.getInt(b, MAGIC.length + 12);
+		}
+
+		long getEntriesStart() {
+			return position + HEADER_SIZE;
+		}
+
+		long getTextStart() {
+			return getEntriesStart() + (long) numEntries * ENTRY_SIZE;
+		}
+
+		long getEnd() {
+			return getTextStart() + textLength;
+		}
+
+		/**
+		 * Read the index entries of the run.
+		 */
+		byte[] readEntries(PositionedReadable in) throws IOException {
+			byte[] entries = new byte[numEntries * ENTRY_SIZE];
+			in.readFully(getEntriesStart(), entries, 0, entries.length);
+			return entries;
+		}
+	}
+
+	/**
+	 * Header of the run at position in a file of the given length.
+	 *
+	 * @return null if the file does not hold a whole run there
+	 */
+	static Header readHeader(PositionedReadable in, long position, long length)
+			throws IOException {
+		if (length - position < HEADER_SIZE)
+			return null;
+		byte[] b = new byte[HEADER_SIZE];
+		in.readFully(position, b, 0, b.length);
+		Header h = new Header(position, b);
+		return h.getEnd() <= length ? h : null;
+	}
+
+	/**
+	 * Whether the file of the given length holds sorted runs.
+	 */
+	public static boolean isSorted(PositionedReadable in, long length)
+			throws IOException {
+		if (length < MAGIC.length)
+			return false;
+		byte[] b = new byte[MAGIC.length];
+		in.readFully(0, b, 0, b.length);
+		return hasMagic(b, 0);
+	}
+
+	/**
+	 * Header of a run of textLength bytes of text without index entries,
+	 * holding an unknown (-1) number of records.
+	 */
+	static byte[] getHeader(int attribute, int textLength) {
+		byte[] b = new byte[HEADER_SIZE];
+		System.arraycopy(MAGIC, 0, b, 0, MAGIC.length);
+		BinaryUtils.append(b, MAGIC.length, attribute);
+		BinaryUtils.append(b, MAGIC.length + 4, -1);
+		BinaryUtils.append(b, MAGIC.length + 8, 0);
+		BinaryUtils.append(b, MAGIC.length + 12, textLength);
+		return b;
+	}
+
+	/**
+	 * Merge the runs of files, each read with positional reads and of the
+	 * given length, into runs of about runSize bytes of text written to out.
+	 * The records come out in order across all of them, so that each run
+	 * written covers a range of keys of its own and queries seek into few.
+	 * Each run is read through a buffer of its own.
+	 */
+	public static void merge(PositionedReadable[] files, long[] lengths,
+			OutputStream out, int attribute, TYPE type, char delimiter,
+			int runSize) throws IOException {
+		PriorityQueue<Cursor> cursors = new PriorityQueue<Cursor>();
+		for (int i = 0; i < files.length; i++) {
+			long p = 0;
+			Header h;
+			while ((h = readHeader(files[i], p, lengths[i])) != null) {
+				if (h.attribute != attribute)
+					throw new RuntimeException("Run sorted on " + h.attribute
+							+ ", not " + attribute);
+				Cursor c = new Cursor(files[i], h, cursors.size(), attribute,
+						type, delimiter);
+				if (c.next())
+					cursors.add(c);
+				p = h.getEnd();
+			}
+		}
+
+		byte[] text = new byte[Math.min(runSize, 1024 * 1024) + 1];
+		int length = 0;
+		while (!cursors.isEmpty()) {
+			Cursor c = cursors.poll();
+			int recordLength = c.getRecordLength();
+			if (length + recordLength + 1 > text.length)
+				text = BinaryUtils.resize(text, Math.max(length + recordLength
+						+ 1, 2 * text.length));
+			System.arraycopy(c.buffer, c.recordStart, text, length, recordLength);
+			length += recordLength;
+			text[length++] = '\n';
+			if (length >= runSize) {
+				// Already in order, so the sort is a single pass.
+				out.write(encode(text, 0, length, attribute, type, delimiter));
+				length = 0;
+			}
+			if (c.next())
+				cursors.add(c);
+		}
+		if (length > 0)
+			out.write(encode(text, 0, length, attribute, type, delimiter));
+	}
+
+	/**
+	 * The records of a run, read in order.
+	 */
+	private static class Cursor implements Comparable<Cursor> {
+		private static final int BUFFER_SIZE = 64 * 1024;
+
+		private final PositionedReadable in;
+		private final int seq;
+		private final int attribute;
+		private final TYPE type;
+		private final RawIndexKey record;
+		private final SimpleDate date = new SimpleDate(0, 0, 0);
+
+		// The text not read yet is [position, end) in the file. The buffer
+		// holds [bufferStart, bufferLength) of what was read before it.
+		private long position;
+		private final long end;
+		private byte[] buffer = new byte[BUFFER_SIZE];
+		private int bufferStart, bufferLength;
+
+		// The current record and its key.
+		private int recordStart, recordEnd;
+		private long key;
+		private byte[] value;
+
+		Cursor(PositionedReadable in, Header h, int seq, int attribute,
+				TYPE type, char delimiter) {
+			this.in = in;
+			this.seq = seq;
+			this.attribute = attribute;
+			this.type = type;
+			this.record = new RawIndexKey(delimiter);
+			this.position = h.getTextStart();
+			this.end = h.getEnd();
+		}
+
+		int getRecordLength() {
+			return recordEnd - recordStart;
+		}
+
+		/**
+		 * Move on to the next record.
+		 *
+		 * @return false at the end of the run
+		 */
+		boolean next() throws IOException {
+			while (true) {
+				int lineEnd = ScanUtils.indexOf(buffer, bufferStart,
+						bufferLength, (byte) '\n');
+				if (lineEnd == -1) {
+					if (position == end)
+						return false;
+					fill();
+					continue;
+				}
+				recordStart = bufferStart;
+				recordEnd = lineEnd;
+				bufferStart = lineEnd + 1;
+				if (recordEnd > recordStart)
+					break;
+			}
+
+			record.setBytes(buffer, recordStart, recordEnd - recordStart);
+			if (type == TYPE.STRING) {
+				value = record.getStringAttribute(attribute).getBytes();
+				key = getKey(value, 0, value.length);
+			} else {
+				key = getKey(record, attribute, type, date);
+			}
+			return true;
+		}
+
+		private void fill() throws IOException {
+			int left = bufferLength - bufferStart;
+			if (left == buffer.length)
+				buffer = BinaryUtils.resize(buffer, 2 * buffer.length);
+			System.arraycopy(buffer, bufferStart, buffer, 0, left);
+			int n = (int) Math.min(buffer.length - left, end - position);
+			in.readFully(position, buffer, left, n);
+			position += n;
+			bufferStart = 0;
+			bufferLength = left + n;
+		}
+
+		@Override
+		public int compareTo(Cursor o) {
+			int cmp = Long.compare(key, o.key);
+			if (cmp == 0 && value != null)
+				cmp = BinaryUtils.compare(value, 0, value.length, o.value);
+			// Stable: earlier runs first.
+			return cmp != 0 ? cmp : Integer.compare(seq, o.seq);
+		}
+	}
+
+	/**
+	 * Length of the run at bytes[offset], -1 if bytes[offset, length) does
+	 * not hold its header.
+	 */
+	public static int getRunLength(byte[] bytes, int offset, int length) {
+		if (length - offset < HEADER_SIZE)
+			return -1;
+		if (!hasMagic(bytes, offset))
+			throw new RuntimeException("Corrupt sorted run at offset " + offset);
+		int numEntries = BinaryUtils.getInt(bytes, offset + MAGIC.length + 8);
+		int textLength = BinaryUtils.getInt(bytes, offset + MAGIC.length + 12);
+		return HEADER_SIZE + numEntries * ENTRY_SIZE + textLength;
+	}
+
+	private static boolean hasMagic(byte[] bytes, int offset) {
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (bytes[offset + i] != MAGIC[i])
+				return false;
+		}
+		return true;
+	}
+
+	private static long entryKey(byte[] bytes, int entries, int i) {
+		return BinaryUtils.getLong(bytes, entries + i * ENTRY_SIZE);
+	}
+
+	private static int entryOffset(byte[] bytes, int entries, int i) {
+		return BinaryUtils.getInt(bytes, entries + i * ENTRY_SIZE + 8);
+	}
+
+	/**
+	 * Text offset of the last entry with a key below key, 0 if none: records
+	 * before it have smaller keys.
+	 */
+	private static int lastBelow(byte[] bytes, int entries, int numEntries,
+			long key) {
+		int lo = 0, hi = numEntries - 1, found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (entryKey(bytes, entries, mid) < key) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return found == -1 ? 0 : entryOffset(bytes, entries, found);
+	}
+
+	/**
+	 * Text offset of the first entry with a key above key, textLength if
+	 * none: records from it on have larger keys.
+	 */
+	private static int firstAbove(byte[] bytes, int entries, int numEntries,
+			long key, int textLength) {
+		int lo = 0, hi = numEntries - 1, found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (entryKey(bytes, entries, mid) > key) {
+				found = mid;
+				hi = mid - 1;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return found == -1 ? textLength : entryOffset(bytes, entries, found);
+	}
+}
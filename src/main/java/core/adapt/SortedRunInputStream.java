@@ -0,0 +1,96 @@
+package core.adapt;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+
+/**
+ * Reads the runs of a sorted file (see SortedRun) with positional reads,
+ * leaving out the parts of each run that its index shows cannot match the
+ * predicates: for every run, the header and index entries are read first,
+ * then only the part of the text that select() would keep. That part is
+ * returned as a run without index entries, so readers handle it like any
+ * other run.
+ *
+ * The file ends at the last whole run, the rest being the torn tail of a
+ * store in progress.
+ */
+public class SortedRunInputStream extends InputStream {
+	private static final int MAX_READ_SIZE = 1024 * 1024;
+
+	private final FSDataInputStream in;
+	private final long length;
+	private final Predicate[] predicates;
+
+	// Start of the next run in the file.
+	private long next;
+
+	// Left to return of the current run: header[headerPosition, ...), then
+	// the text [position, end) in the file.
+	private byte[] header;
+	private int headerPosition;
+	private long position, end;
+
+	public SortedRunInputStream(FSDataInputStream in, long length,
+			Predicate[] predicates) {
+		this.in = in;
+		this.length = length;
+		this.predicates = predicates;
+	}
+
+	/**
+	 * Move on to the next run with a part to read.
+	 *
+	 * @return false if there is none
+	 */
+	private boolean nextRun() throws IOException {
+		while (true) {
+			SortedRun.Header h = SortedRun.readHeader(in, next, length);
+			if (h == null)
+				return false;
+			next = h.getEnd();
+
+			int[] range = SortedRun.getTextRange(h.readEntries(in), 0,
+					h.numEntries, h.textLength, h.attribute, predicates);
+			if (range[0] < range[1]) {
+				header = SortedRun.getHeader(h.attribute, range[1] - range[0]);
+				headerPosition = 0;
+				position = h.getTextStart() + range[0];
+				end = h.getTextStart() + range[1];
+				return true;
+			}
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if ((header == null || (headerPosition == header.length && position == end))
+				&& !nextRun())
+			return -1;
+
+		if (headerPosition < header.length) {
+			int n = Math.min(len, header.length - headerPosition);
+			System.arraycopy(header, headerPosition, b, off, n);
+			headerPosition += n;
+			return n;
+		}
+		int n = (int) Math.min(Math.min(len, MAX_READ_SIZE), end - position);
+		in.readFully(position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
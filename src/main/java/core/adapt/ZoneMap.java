@@ -0,0 +1,521 @@
+package core.adapt;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import core.common.key.RawIndexKey;
+import core.utils.BinaryUtils;
+import core.utils.IOUtils;
+import core.utils.ScanUtils;
+import core.utils.SegmentUtils;
+import core.utils.TypeUtils.SimpleDate;
+import core.utils.TypeUtils.TYPE;
+
+/**
+ * Min and max of each column over the records of a bucket. Lets the access
+ * method skip buckets on attributes the tree does not split on, e.g. on
+ * columns correlated with a split attribute.
+ *
+ * Kept in side files <table>/zonemaps/<file>, next to the data directory
+ * (see getPath): every file of a bucket (see SegmentUtils) has one, written
+ * before the file is published, and the zone map of a bucket is the merge of
+ * the zone maps named after its files. Files are only written once, so
+ * writers take no lock. SegmentCompactor merges the zone maps of the files
+ * it merges. Tables written before segments have a single file
+ * <table>/zonemaps/<bucketId>, which writes appended to. A bucket without a
+ * zone map file may hold anything.
+ *
+ * Queries get the zone maps of a table from loadAll, which keeps the files it
+ * read: a query only lists the directory and reads the files written since.
+ *
+ * VARCHAR columns are not tracked.
+ */
+public class ZoneMap {
+	public static final String ZONE_MAP_DIR = "zonemaps";
+
+	private static final int NUM_LOAD_THREADS = 8;
+
+	// Zone map files read by loadAll, by path.
+	private static final Map<String, Cached> cache = new ConcurrentHashMap<String, Cached>();
+
+	private final TYPE[] types;
+	private long numRecords;
+
+	// INT, LONG, DATE (packed, see ColumnarBlock.packDate) and BOOLEAN (0/1).
+	private final long[] minLong, maxLong;
+	private final double[] minDouble, maxDouble;
+	// STRING, as raw bytes.
+	private final byte[][] minBytes, maxBytes;
+
+	// View for addRecords.
+	private RawIndexKey record;
+	private final SimpleDate date = new SimpleDate(0, 0, 0);
+
+	public ZoneMap(TYPE[] types) {
+		this.types = types;
+		this.minLong = new long[types.length];
+		this.maxLong = new long[types.length];
+		this.minDouble = new double[types.length];
+		this.maxDouble = new double[types.length];
+		this.minBytes = new byte[types.length][];
+		this.maxBytes = new byte[types.length][];
+		reset();
+	}
+
+	public void reset() {
+		numRecords = 0;
+		for (int a = 0; a < types.length; a++) {
+			minLong[a] = Long.MAX_VALUE;
+			maxLong[a] = Long.MIN_VALUE;
+			minDouble[a] = Double.POSITIVE_INFINITY;
+			maxDouble[a] = Double.NEGATIVE_INFINITY;
+			minBytes[a] = null;
+			maxBytes[a] = null;
+		}
+	}
+
+	/**
+	 * Records of files merged by SegmentCompactor are counted twice until
+	 * the files are deleted.
+	 */
+	public long getNumRecords() {
+		return numRecords;
+	}
+
+	public TYPE[] getTypes() {
+		return types;
+	}
+
+	public void add(RawIndexKey record) {
+		for (int a = 0; a < types.length; a++) {
+			switch (types[a]) {
+			case INT:
+				update(a, record.getIntAttribute(a));
+				break;
+			case LONG:
+				update(a, record.getLongAttribute(a));
+				break;
+			case DATE:
+				update(a, ColumnarBlock.packDate(record.getDateAttribute(a, date)));
+				break;
+			case BOOLEAN:
+				update(a, record.getBooleanAttribute(a) ? 1 : 0);
+				break;
+			case DOUBLE:
+				double d = record.getDoubleAttribute(a);
+				if (Double.compare(d, minDouble[a]) < 0)
+					minDouble[a] = d;
+				if (Double.compare(d, maxDouble[a]) > 0)
+					maxDouble[a] = d;
+				break;
+			case STRING:
+				if (minBytes[a] == null
+						|| record.compareAttribute(a, minBytes[a], Integer.MAX_VALUE) < 0)
+					minBytes[a] = record.getStringAttribute(a).getBytes();
+				if (maxBytes[a] == null
+						|| record.compareAttribute(a, maxBytes[a], Integer.MAX_VALUE) > 0)
+					maxBytes[a] = record.getStringAttribute(a).getBytes();
+				break;
+			default:
+				break;
+			}
+		}
+		numRecords++;
+	}
+
+	private void update(int a, long v) {
+		if (v < minLong[a])
+			minLong[a] = v;
+		if (v > maxLong[a])
+			maxLong[a] = v;
+	}
+
+	/**
+	 * Add the newline separated records in bytes[offset, offset + length).
+	 */
+	public void addRecords(byte[] bytes, int offset, int length, char delimiter) {
+		if (record == null)
+			record = new RawIndexKey(delimiter);
+
+		int end = offset + length;
+		int previous = offset;
+		while (previous < end) {
+			int lineEnd = ScanUtils.indexOf(bytes, previous, end, (byte) '\n');
+			if (lineEnd == -1)
+				lineEnd = end;
+			if (lineEnd > previous) {
+				record.setBytes(bytes, previous, lineEnd - previous);
+				add(record);
+			}
+			previous = lineEnd + 1;
+		}
+	}
+
+	public void merge(ZoneMap other) {
+		numRecords += other.numRecords;
+		for (int a = 0; a < types.length; a++) {
+			minLong[a] = Math.min(minLong[a], other.minLong[a]);
+			maxLong[a] = Math.max(maxLong[a], other.maxLong[a]);
+			if (Double.compare(other.minDouble[a], minDouble[a]) < 0)
+				minDouble[a] = other.minDouble[a];
+			if (Double.compare(other.maxDouble[a], maxDouble[a]) > 0)
+				maxDouble[a] = other.maxDouble[a];
+			if (minBytes[a] == null || (other.minBytes[a] != null
+					&& compare(other.minBytes[a], minBytes[a]) < 0))
+				minBytes[a] = other.minBytes[a];
+			if (maxBytes[a] == null || (other.maxBytes[a] != null
+					&& compare(other.maxBytes[a], maxBytes[a]) > 0))
+				maxBytes[a] = other.maxBytes[a];
+		}
+	}
+
+	private static int compare(byte[] a, byte[] b) {
+		return BinaryUtils.compare(a, 0, a.length, b);
+	}
+
+	/**
+	 * False if no record of the bucket can satisfy all the predicates.
+	 */
+	public boolean mayMatch(Predicate[] ps) {
+		if (numRecords == 0)
+			return false;
+		for (Predicate p : ps) {
+			if (!mayMatch(p))
+				return false;
+		}
+		return true;
+	}
+
+	private boolean mayMatch(Predicate p) {
+		int a = p.attribute;
+		if (a >= types.length || p.type != types[a])
+			return true;
+
+		// Compare the predicate value with the min and the max.
+		int cmpMin, cmpMax;
+		switch (types[a]) {
+		case INT:
+			cmpMin = Long.compare(minLong[a], (Integer) p.value);
+			cmpMax = Long.compare(maxLong[a], (Integer) p.value);
+			break;
+		case LONG:
+			cmpMin = Long.compare(minLong[a], (Long) p.value);
+			cmpMax = Long.compare(maxLong[a], (Long) p.value);
+			break;
+		case DATE:
+			int d = ColumnarBlock.packDate((SimpleDate) p.value);
+			cmpMin = Long.compare(minLong[a], d);
+			cmpMax = Long.compare(maxLong[a], d);
+			break;
+		case BOOLEAN:
+			int b = (Boolean) p.value ? 1 : 0;
+			cmpMin = Long.compare(minLong[a], b);
+			cmpMax = Long.compare(maxLong[a], b);
+			break;
+		case DOUBLE:
+			cmpMin = Double.compare(minDouble[a], (Double) p.value);
+			cmpMax = Double.compare(maxDouble[a], (Double) p.value);
+			break;
+		case STRING:
+			String s = (String) p.value;
+			for (int i = 0; i < s.length(); i++) {
+				// Byte order is String order only for ASCII.
+				if (s.charAt(i) >= 0x80)
+					return true;
+			}
+			byte[] v = s.getBytes();
+			cmpMin = compare(minBytes[a], v);
+			cmpMax = compare(maxBytes[a], v);
+			break;
+		default:
+			return true;
+		}
+
+		switch (p.predtype) {
+		case EQ:
+			return cmpMin <= 0 && cmpMax >= 0;
+		case LT:
+			return cmpMin < 0;
+		case LEQ:
+			return cmpMin <= 0;
+		case GT:
+			return cmpMax > 0;
+		case GEQ:
+			return cmpMax >= 0;
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Write one entry.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(numRecords);
+		for (int a = 0; a < types.length; a++) {
+			switch (types[a]) {
+			case DOUBLE:
+				out.writeDouble(minDouble[a]);
+				out.writeDouble(maxDouble[a]);
+				break;
+			case STRING:
+				writeBytes(out, minBytes[a]);
+				writeBytes(out, maxBytes[a]);
+				break;
+			case VARCHAR:
+				break;
+			default:
+				out.writeLong(minLong[a]);
+				out.writeLong(maxLong[a]);
+				break;
+			}
+		}
+	}
+
+	private void readFields(DataInput in) throws IOException {
+		numRecords = in.readLong();
+		for (int a = 0; a < types.length; a++) {
+			switch (types[a]) {
+			case DOUBLE:
+				minDouble[a] = in.readDouble();
+				maxDouble[a] = in.readDouble();
+				break;
+			case STRING:
+				minBytes[a] = readBytes(in);
+				maxBytes[a] = readBytes(in);
+				break;
+			case VARCHAR:
+				break;
+			default:
+				minLong[a] = in.readLong();
+				maxLong[a] = in.readLong();
+				break;
+			}
+		}
+	}
+
+	private static void writeBytes(DataOutput out, byte[] b) throws IOException {
+		if (b == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(b.length);
+			out.write(b);
+		}
+	}
+
+	private static byte[] readBytes(DataInput in) throws IOException {
+		int len = in.readInt();
+		if (len == -1)
+			return null;
+		byte[] b = new byte[len];
+		in.readFully(b);
+		return b;
+	}
+
+	public byte[] toBytes() {
+		ByteArrayDataOutput out = ByteStreams.newDataOutput();
+		try {
+			write(out);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("Failed to serialize the zone map");
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Merge all the entries of a zone map file. A torn last entry is that of
+	 * a store in progress, which has written none of its records yet: it is
+	 * left out.
+	 */
+	public static ZoneMap fromBytes(byte[] bytes, TYPE[] types) {
+		ZoneMap zoneMap = new ZoneMap(types);
+		ZoneMap entry = new ZoneMap(types);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		try {
+			while (in.available() > 0) {
+				entry.readFields(in);
+				zoneMap.merge(entry);
+			}
+		} catch (EOFException e) {
+			System.out.println("INFO: Skipped the zone map entry of a store in progress");
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("Corrupt zone map");
+		}
+		return zoneMap;
+	}
+
+	private static class Cached {
+		final long length;
+		final long modificationTime;
+		final ZoneMap zoneMap;
+
+		Cached(FileStatus f, ZoneMap zoneMap) {
+			this.length = f.getLen();
+			this.modificationTime = f.getModificationTime();
+			this.zoneMap = zoneMap;
+		}
+
+		boolean isCurrent(FileStatus f, TYPE[] types) {
+			return length == f.getLen()
+					&& modificationTime == f.getModificationTime()
+					&& Arrays.equals(zoneMap.types, types);
+		}
+	}
+
+	/**
+	 * The zone maps in zoneMapDir, by bucket id; none if it does not exist.
+	 * Files being written aside are left out. Files are only appended to or
+	 * replaced, so a file read before is read
+	 * again only if its length or modification time changed. The others are
+	 * read in parallel.
+	 */
+	public static Map<Integer, ZoneMap> loadAll(final FileSystem fs,
+			String zoneMapDir, final TYPE[] types) throws IOException {
+		Map<Integer, ZoneMap> zoneMaps = new TreeMap<Integer, ZoneMap>();
+		Path dir = new Path(zoneMapDir);
+		if (!fs.exists(dir))
+			return zoneMaps;
+		FileStatus[] files = fs.listStatus(dir, new PathFilter() {
+			@Override
+			public boolean accept(Path path) {
+				return SegmentUtils.getBucketId(path.getName()) != -1;
+			}
+		});
+
+		Set<String> listed = new HashSet<String>();
+		List<FileStatus> changed = new ArrayList<FileStatus>();
+		for (FileStatus f : files) {
+			String path = f.getPath().toString();
+			listed.add(path);
+			Cached c = cache.get(path);
+			if (c == null || !c.isCurrent(f, types))
+				changed.add(f);
+		}
+		String prefix = fs.makeQualified(dir).toString() + "/";
+		for (String path : cache.keySet()) {
+			if (path.startsWith(prefix) && !listed.contains(path))
+				cache.remove(path);
+		}
+
+		if (changed.size() > 0) {
+			ExecutorService threads = Executors.newFixedThreadPool(Math.min(
+					NUM_LOAD_THREADS, changed.size()), new ThreadFactoryBuilder()
+					.setDaemon(true).setNameFormat("zonemap-load-%d").build());
+			try {
+				List<Future<?>> reads = new ArrayList<Future<?>>();
+				for (final FileStatus f : changed) {
+					reads.add(threads.submit(new Callable<Void>() {
+						@Override
+						public Void call() throws IOException {
+							byte[] bytes;
+							try {
+								InputStream in = fs.open(f.getPath());
+								try {
+									bytes = ByteStreams.toByteArray(in);
+								} finally {
+									in.close();
+								}
+							} catch (FileNotFoundException e) {
+								// Deleted since listed, merged into one
+								// listed too, see SegmentCompactor.
+								return null;
+							}
+							cache.put(f.getPath().toString(), new Cached(f,
+									fromBytes(bytes, types)));
+							return null;
+						}
+					}));
+				}
+				for (Future<?> read : reads)
+					read.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted loading the zone maps of "
+						+ zoneMapDir);
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+				throw new IOException("Failed to load the zone maps of "
+						+ zoneMapDir);
+			} finally {
+				threads.shutdown();
+			}
+			System.out.println("INFO: Read " + changed.size() + " of "
+					+ files.length + " zone maps of " + zoneMapDir);
+		}
+
+		for (FileStatus f : files) {
+			int id = SegmentUtils.getBucketId(f.getPath().getName());
+			Cached c = cache.get(f.getPath().toString());
+			if (c == null)
+				continue;
+			ZoneMap zoneMap = zoneMaps.get(id);
+			if (zoneMap == null) {
+				zoneMap = new ZoneMap(types);
+				zoneMaps.put(id, zoneMap);
+			}
+			zoneMap.merge(c.zoneMap);
+		}
+		return zoneMaps;
+	}
+
+	/**
+	 * Path of the zone map of a data file of a bucket.
+	 */
+	public static String getPath(String dataFilePath) {
+		Path p = new Path(dataFilePath);
+		return new Path(new Path(p.getParent().getParent(), ZONE_MAP_DIR),
+				p.getName()).toString();
+	}
+
+	/**
+	 * Write this zone map as that of the given data file, on HDFS, before
+	 * the file is published.
+	 */
+	public void store(FileSystem fs, Path dataFilePath, short replication) {
+		Path zoneMapPath = new Path(getPath(dataFilePath.toString()));
+		try {
+			SegmentUtils.writeAside(fs, zoneMapPath, toBytes(), replication);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("Failed to write the zone map "
+					+ zoneMapPath);
+		}
+	}
+
+	/**
+	 * Local file system version of store().
+	 */
+	public void store(String dataFilePath) {
+		IOUtils.appendByteArray(getPath(dataFilePath), toBytes());
+	}
+}
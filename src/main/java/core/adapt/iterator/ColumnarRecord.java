@@ -0,0 +1,188 @@
+package core.adapt.iterator;
+
+import core.adapt.ColumnarBlock;
+import core.common.globals.Dictionary;
+import core.utils.BinaryUtils;
+import core.utils.TypeUtils.SimpleDate;
+import core.utils.TypeUtils.TYPE;
+
+/**
+ * A record of a columnar partition: a row of the ColumnarBlock it was decoded
+ * into. The attributes are read from the typed columns of the block. The row
+ * is only written out as text when that is asked for (getBuffer(),
+ * getKeyString(), ...) or for an attribute read as another type than its
+ * column's.
+ */
+public class ColumnarRecord extends IteratorRecord {
+	private static final long serialVersionUID = 1L;
+
+	private ColumnarBlock block;
+	private int row;
+
+	// Whether the text of the row was written to buffer.
+	private boolean written;
+	private byte[] buffer;
+
+	private SimpleDate dummyDate = new SimpleDate(0, 0, 0);
+
+	public ColumnarRecord(char delimiter) {
+		super(delimiter);
+	}
+
+	public void setRow(ColumnarBlock block, int row) {
+		this.block = block;
+		this.row = row;
+		this.written = false;
+	}
+
+	@Override
+	public void setBytes(byte[] bytes, int offset, int length) {
+		// A text record from now on.
+		block = null;
+		written = true;
+		super.setBytes(bytes, offset, length);
+	}
+
+	/**
+	 * Make the text of the row the record's bytes.
+	 */
+	private void writeText() {
+		if (written)
+			return;
+		int maxLength = block.getMaxRecordLength(row);
+		if (buffer == null || buffer.length < maxLength)
+			buffer = new byte[Math.max(maxLength, buffer == null ? 256
+					: 2 * buffer.length)];
+		int length = block.writeRecord(row, delimiter, buffer, 0);
+		super.setBytes(buffer, 0, length);
+		written = true;
+	}
+
+	private boolean isColumn(int index, TYPE type) {
+		return block != null && block.getType(index) == type;
+	}
+
+	@Override
+	public byte[] getBuffer() {
+		writeText();
+		return super.getBuffer();
+	}
+
+	@Override
+	public byte[] copyBytes() {
+		writeText();
+		return super.copyBytes();
+	}
+
+	@Override
+	public int getOffset() {
+		writeText();
+		return super.getOffset();
+	}
+
+	@Override
+	public int getLength() {
+		writeText();
+		return super.getLength();
+	}
+
+	@Override
+	public String getKeyString() {
+		writeText();
+		return super.getKeyString();
+	}
+
+	@Override
+	public int getIntAttribute(int index) {
+		if (isColumn(index, TYPE.INT))
+			return block.getInts(index)[row];
+		writeText();
+		return super.getIntAttribute(index);
+	}
+
+	@Override
+	public long getLongAttribute(int index) {
+		if (isColumn(index, TYPE.LONG))
+			return block.getLongs(index)[row];
+		if (isColumn(index, TYPE.INT))
+			return block.getInts(index)[row];
+		writeText();
+		return super.getLongAttribute(index);
+	}
+
+	@Override
+	public double getDoubleAttribute(int index) {
+		if (isColumn(index, TYPE.DOUBLE))
+			return block.getDoubles(index)[row];
+		writeText();
+		return super.getDoubleAttribute(index);
+	}
+
+	@Override
+	public SimpleDate getDateAttribute(int index) {
+		return getDateAttribute(index, dummyDate);
+	}
+
+	@Override
+	public SimpleDate getDateAttribute(int index, SimpleDate date) {
+		if (!isColumn(index, TYPE.DATE)) {
+			writeText();
+			return super.getDateAttribute(index, date);
+		}
+		int v = block.getInts(index)[row];
+		date.setYear(v / 10000);
+		date.setMonth(v / 100 % 100);
+		date.setDay(v % 100);
+		return date;
+	}
+
+	@Override
+	public boolean getBooleanAttribute(int index) {
+		if (isColumn(index, TYPE.BOOLEAN))
+			return block.getBytes(index)[row] != 0;
+		writeText();
+		return super.getBooleanAttribute(index);
+	}
+
+	@Override
+	public String getStringAttribute(int index) {
+		if (isColumn(index, TYPE.STRING) || isColumn(index, TYPE.VARCHAR))
+			return (String) block.getValue(row, index);
+		writeText();
+		return super.getStringAttribute(index);
+	}
+
+	@Override
+	public int getStringCode(int index, Dictionary dictionary) {
+		if (isColumn(index, TYPE.STRING)) {
+			int[] codes = block.getCodes(index);
+			if (codes != null && dictionary == block.getDictionary())
+				return codes[row];
+			if (codes == null) {
+				int[] offsets = block.getOffsets(index);
+				return dictionary.getCode(index, block.getBytes(index),
+						offsets[row], offsets[row + 1] - offsets[row]);
+			}
+		}
+		writeText();
+		return super.getStringCode(index, dictionary);
+	}
+
+	@Override
+	public int compareAttribute(int index, byte[] value, int maxLength) {
+		if (isColumn(index, TYPE.STRING) || isColumn(index, TYPE.VARCHAR)) {
+			int[] codes = block.getCodes(index);
+			if (codes != null) {
+				byte[] v = block.getDictionary().getValueBytes(index,
+						codes[row]);
+				return BinaryUtils.compare(v, 0, Math.min(v.length, maxLength),
+						value);
+			}
+			int[] offsets = block.getOffsets(index);
+			return BinaryUtils.compare(block.getBytes(index), offsets[row],
+					Math.min(offsets[row + 1] - offsets[row], maxLength), value);
+		}
+		writeText();
+		return super.compareAttribute(index, value, maxLength);
+	}
+}
@@ -26,10 +26,26 @@ public class IteratorRecord extends RawIndexKey implements Serializable {
 		super(delimiter);
 	}
 
-	public byte[] getBytes() {
+	/**
+	 * Returns the shared buffer backing this record, not a copy of the
+	 * record: the record only spans [getOffset(), getOffset() + getLength())
+	 * of it, and the buffer is reused for the following records of the
+	 * partition. See copyBytes() for a copy.
+	 */
+	public byte[] getBuffer() {
 		return this.bytes;
 	}
 
+	/**
+	 * Returns a copy of just this record's bytes, for consumers that keep the
+	 * record beyond the next call to the iterator.
+	 */
+	public byte[] copyBytes() {
+		byte[] copy = new byte[this.length];
+		System.arraycopy(this.bytes, this.offset, copy, 0, this.length);
+		return copy;
+	}
+
 	public int getOffset() {
 		return this.offset;
 	}
@@ -38,5 +54,28 @@ public class IteratorRecord extends RawIndexKey implements Serializable {
 		return this.length;
 	}
 
+	/**
+	 * Serialize a copy of just this record's bytes, not the shared buffer.
+	 */
+	protected Object writeReplace() {
+		return new SerializedRecord(delimiter, copyBytes());
+	}
+
+	private static class SerializedRecord implements Serializable {
+		private static final long serialVersionUID = 1L;
 
+		private final char delimiter;
+		private final byte[] bytes;
+
+		SerializedRecord(char delimiter, byte[] bytes) {
+			this.delimiter = delimiter;
+			this.bytes = bytes;
+		}
+
+		private Object readResolve() {
+			IteratorRecord record = new IteratorRecord(delimiter);
+			record.setBytes(bytes);
+			return record;
+		}
+	}
 }
@@ -9,6 +9,8 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import core.common.globals.Globals;
+import core.common.globals.TableInfo;
+import core.common.index.CompiledTree;
 import core.common.index.JRNode;
 import core.common.index.JoinRobustTree;
 import org.apache.commons.io.FilenameUtils;
@@ -18,8 +20,11 @@ import com.google.common.collect.Maps;
 import com.google.common.io.ByteStreams;
 
 import core.adapt.HDFSPartition;
+import core.adapt.KeyFilter;
 import core.adapt.Partition;
+import core.adapt.Predicate;
 import core.adapt.Query;
+import core.adapt.ZoneMap;
 import core.common.index.RNode;
 import core.common.index.RobustTree;
 import core.utils.HDFSUtils;
@@ -40,11 +45,16 @@ import core.utils.HDFSUtils;
 public class JoinRepartitionIterator extends PartitionIterator {
 
     private JRNode newIndexTree;
+    private CompiledTree router;
+    private int[] bucketIds;
     protected String zookeeperHosts;
     private int indexPartition;
 
     protected Map<Integer, Partition> newPartitions = new HashMap<Integer, Partition>();
 
+    // Buckets of the new tree, to size the key filters.
+    private int numBuckets;
+
     public JoinRepartitionIterator() {
     }
 
@@ -113,27 +123,63 @@ public class JoinRepartitionIterator extends PartitionIterator {
         }
     }
 
+    private CompiledTree getRouter() {
+        if (router == null)
+            router = new CompiledTree(newIndexTree, Globals.getTableInfo(
+                    query.getTable()).dictionary);
+        return router;
+    }
+
     @Override
     protected boolean isRelevant(IteratorRecord record) {
-        int id = newIndexTree.getBucketId(record);
+        write(record, getRouter().getBucketId(record));
+        return query.qualifies(record);
+    }
+
+    /**
+     * Route all the records of the batch at once and write them out, then
+     * keep those that satisfy the query.
+     */
+    @Override
+    protected void filter(RecordBatch batch) {
+        bucketIds = getRouter().getBucketIds(batch, bucketIds);
+        int[] selection = batch.getSelection();
+        int n = batch.getNumSelected();
+        for (int i = 0; i < n; i++)
+            write(getRecord(batch, selection[i]), bucketIds[i]);
+        query.filter(batch);
+    }
 
+    private void write(IteratorRecord record, int id) {
         Partition p;
         if (newPartitions.containsKey(id)) {
             p = newPartitions.get(id);
         } else {
             p = partition.clone();
             p.setPartitionId(id);
+            p.setZoneMap(new ZoneMap(Globals.getTableInfo(query.getTable()).getTypeArray()));
+            p.setKeyFilter(newKeyFilter());
             newPartitions.put(id, p);
         }
 
-        p.write(record.getBytes(), 0, record.getBytes().length);
+        p.write(record.getBuffer(), record.getOffset(), record.getLength());
+        p.getZoneMap().add(record);
+        if (p.getKeyFilter() != null)
+            p.getKeyFilter().add(record);
 
         if (p.size() > 2 * 1024 * 1024 ){ // 2mb
             p.store(true);
             newPartitions.remove(id);
         }
+    }
 
-        return query.qualifies(record);
+    private KeyFilter newKeyFilter() {
+        TableInfo tableInfo = Globals.getTableInfo(query.getTable());
+        if (tableInfo.keyFilters.length == 0)
+            return null;
+        if (numBuckets == 0)
+            numBuckets = newIndexTree.search(new Predicate[0]).size();
+        return KeyFilter.create(tableInfo, numBuckets);
     }
 
     @Override
@@ -8,17 +8,21 @@ import java.util.Iterator;
 import core.adapt.Query;
 import core.common.globals.TableInfo;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.lang.ArrayUtils;
 
 import com.google.common.io.ByteArrayDataOutput;
 import com.google.common.io.ByteStreams;
 
+import core.adapt.ColumnarBlock;
 import core.adapt.HDFSPartition;
 import core.adapt.Partition;
+import core.adapt.PartitionReader;
 import core.adapt.Predicate;
+import core.adapt.SortedRun;
 import core.common.globals.Globals;
 import core.utils.BinaryUtils;
+import core.utils.CompressionUtils;
 import core.utils.ReflectionUtils;
+import core.utils.ScanUtils;
 
 public class PartitionIterator implements Iterator<IteratorRecord> {
 
@@ -27,13 +31,42 @@ public class PartitionIterator implements Iterator<IteratorRecord> {
 	};
 
 	protected IteratorRecord record;
-	protected byte[] recordBytes;
+
+	// The records of text chunks and of columnar ones, record is one of them.
+	private IteratorRecord textRecord;
+	private ColumnarRecord columnarRecord;
 
 	protected static char newLine = '\n';
 
 	protected byte[] bytes;
 	protected int bytesLength, offset, previous;
 
+	// Compressed partitions are decompressed into this buffer, reused from
+	// one partition to the next.
+	private byte[] buffer;
+
+	// The parts of sorted runs read are copied into this one, see SortedRun.
+	private byte[] runBuffer;
+
+	// Set while reading a partition that was not loaded, in chunks of about
+	// chunkSize bytes.
+	private PartitionReader reader;
+	protected int chunkSize = PartitionReader.DEFAULT_CHUNK_SIZE;
+
+	private TableInfo tableInfo;
+
+	protected char delimiter;
+
+	// Set if the records were already filtered on the columns of a columnar
+	// partition, see filter(ColumnarBlock, int[], int).
+	protected boolean prefiltered;
+
+	// Set while reading a columnar chunk: its rows selection[selected,
+	// numSelected) are left to return.
+	private ColumnarBlock block;
+	private int[] selection;
+	private int selected, numSelected;
+
 	protected Partition partition;
 
 	protected Predicate[] predicates;
@@ -70,27 +103,179 @@ public class PartitionIterator implements Iterator<IteratorRecord> {
 			Globals.loadTableInfo(query.getTable(), path, ((HDFSPartition) partition).getFS());
 		}
 
-		TableInfo tableInfo = Globals.getTableInfo(query.getTable());
-		record = new IteratorRecord(tableInfo.delimiter);
-		bytes = partition.getBytes();
-		// bytesLength = partition.getSize();
-		bytesLength = bytes == null ? 0 : bytes.length;
+		tableInfo = Globals.getTableInfo(query.getTable());
+		delimiter = tableInfo.delimiter;
+		textRecord = new IteratorRecord(tableInfo.delimiter);
+		columnarRecord = null;
+		record = textRecord;
+
+		if (tableInfo.isColumnar())
+			partition.setColumnar(tableInfo.getTypeArray(), delimiter,
+					tableInfo.dictionary);
+		else if (tableInfo.sortAttribute != -1)
+			partition.setSorted(tableInfo.sortAttribute,
+					tableInfo.getTypeArray()[tableInfo.sortAttribute], delimiter);
+		partition.setCodec(tableInfo.codec);
+
+		closeReader();
+		if (partition.isLoaded()) {
+			byte[] b = partition.getBytes();
+			decode(b, PartitionReader.getWholeLength(b, b.length));
+			return;
+		}
+
+		try {
+			reader = new PartitionReader(partition.open(getSeekPredicates()),
+					chunkSize);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("Failed to open partition "
+					+ partition.getPath() + partition.getPartitionId());
+		}
+		decode(null, 0);
+		nextChunk();
+	}
+
+	/**
+	 * Read partitions that were not loaded in chunks of about this many
+	 * bytes.
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Point the iterator to the records in chunk[0, length), a whole loaded
+	 * partition or a chunk of one.
+	 */
+	private void decode(byte[] chunk, int chunkLength) {
+		bytes = chunk;
+		bytesLength = chunkLength;
+		offset = 0;
+		previous = 0;
+		prefiltered = false;
+		block = null;
+		record = textRecord;
+
+		if (CompressionUtils.isCompressed(bytes, bytesLength)) {
+			int length = CompressionUtils.getDecompressedLength(bytes, bytesLength);
+			if (buffer == null || buffer.length < length)
+				buffer = new byte[length];
+			CompressionUtils.decompress(bytes, bytesLength, buffer);
+			bytes = buffer;
+			bytesLength = length;
+		}
+
+		if (SortedRun.isSorted(bytes, bytesLength)) {
+			if (runBuffer == null || runBuffer.length < bytesLength)
+				runBuffer = new byte[bytesLength];
+			bytesLength = SortedRun.select(bytes, bytesLength,
+					getSeekPredicates(), runBuffer);
+			bytes = runBuffer;
+		}
+
+		if (ColumnarBlock.isColumnar(bytes, bytesLength)) {
+			block = ColumnarBlock.decode(bytes, bytesLength,
+					tableInfo.getTypeArray(), tableInfo.dictionary);
+			selection = block.selectAll();
+			numSelected = filter(block, selection, selection.length);
+			selected = 0;
+			if (columnarRecord == null)
+				columnarRecord = new ColumnarRecord(delimiter);
+			record = columnarRecord;
+			bytesLength = 0;
+		}
+	}
+
+	/**
+	 * Write the next selected rows of the columnar chunk out as text, at
+	 * most max of them, for the batch mode.
+	 */
+	private void writeRows(int max) {
+		int to = Math.min(numSelected, selected + max);
+		bytes = block.toText(selection, selected, to, delimiter);
+		bytesLength = bytes.length;
 		offset = 0;
 		previous = 0;
+		selected = to;
+	}
+
+	/**
+	 * Move on to the next chunk of the partition.
+	 *
+	 * @return false if there is none, or the partition was loaded
+	 */
+	private boolean nextChunk() {
+		if (reader == null)
+			return false;
+		try {
+			if (reader.next()) {
+				decode(reader.getBytes(), reader.getLength());
+				return true;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("Failed to read partition "
+					+ partition.getPath() + partition.getPartitionId());
+		}
+		closeReader();
+		return false;
+	}
+
+	private void closeReader() {
+		if (reader == null)
+			return;
+		try {
+			reader.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		reader = null;
+	}
+
+	/**
+	 * Called on columnar partitions, before the records are read. Keeps the rows selection[0, n) that may be relevant and returns their
+	 * number; subclasses that fully evaluate their predicates here set
+	 * prefiltered. By default keeps every row.
+	 */
+	protected int filter(ColumnarBlock block, int[] selection, int n) {
+		return n;
+	}
+
+	/**
+	 * Predicates that every record returned must satisfy, or null. On sorted
+	 * partitions only the records that may satisfy them are read. By default
+	 * every record is returned.
+	 */
+	protected Predicate[] getSeekPredicates() {
+		return null;
 	}
 
 	@Override
 	public boolean hasNext() {
-		for (; offset < bytesLength; offset++) {
-			if (bytes[offset] == newLine) {
-				// record.setBytes(bytes, previous, offset-previous);
-				recordBytes = ArrayUtils.subarray(bytes, previous, offset);
+		do {
+			while (block != null && selected < numSelected) {
+				columnarRecord.setRow(block, selection[selected++]);
+				if (isRelevant(columnarRecord))
+					return true;
+			}
+
+			while (offset < bytesLength) {
+				offset = ScanUtils.indexOf(bytes, offset, bytesLength,
+						(byte) newLine);
+				if (offset == -1) {
+					offset = bytesLength;
+					break;
+				}
 
+				// The record is a view over the partition bytes (or the
+				// current chunk of them); consumers copy it out only if they
+				// keep it.
 				try {
-					record.setBytes(recordBytes);
+					record.setBytes(bytes, previous, offset - previous);
 				} catch (ArrayIndexOutOfBoundsException e) {
 					System.out.println("Index out of bounds while setting bytes: "
-									+ (new String(recordBytes)));
+									+ (new String(bytes, previous, offset - previous)));
 					throw e;
 				}
 
@@ -98,17 +283,79 @@ public class PartitionIterator implements Iterator<IteratorRecord> {
 				if (isRelevant(record)) {
 					// System.out.println("relevant record found ..");
 					return true;
-				} else
-					continue;
+				}
 			}
-		}
-        return false;
+		} while (nextChunk());
+		return false;
 	}
 
 	protected boolean isRelevant(IteratorRecord record) {
 		return true;
 	}
 
+	/**
+	 * Batch mode: fill the batch with the next records of the partition and
+	 * leave only the relevant ones selected. Use either this or
+	 * hasNext()/next() over a partition, not both.
+	 *
+	 * @return false if there are no more records, true otherwise (even if no
+	 *         record of the batch is selected)
+	 */
+	public boolean nextBatch(RecordBatch batch) {
+		// A batch holds records of a single chunk.
+		while (offset >= bytesLength) {
+			if (block != null && selected < numSelected) {
+				writeRows(batch.getCapacity());
+				break;
+			}
+			if (!nextChunk())
+				break;
+		}
+		batch.reset(bytes, delimiter);
+		while (offset < bytesLength && !batch.isFull()) {
+			offset = ScanUtils.indexOf(bytes, offset, bytesLength, (byte) newLine);
+			if (offset == -1) {
+				offset = bytesLength;
+				break;
+			}
+			batch.add(previous, offset);
+			previous = ++offset;
+		}
+
+		if (batch.size() == 0)
+			return false;
+
+		filter(batch);
+		return true;
+	}
+
+	/**
+	 * Deselect the records of the batch that are not relevant. Checks one
+	 * record at a time with isRelevant(), subclasses override this to
+	 * evaluate the whole batch at once.
+	 */
+	protected void filter(RecordBatch batch) {
+		int[] selection = batch.getSelection();
+		int n = batch.getNumSelected();
+		int m = 0;
+		for (int i = 0; i < n; i++) {
+			int row = selection[i];
+			if (isRelevant(getRecord(batch, row)))
+				selection[m++] = row;
+		}
+		batch.setNumSelected(m);
+	}
+
+	/**
+	 * Point the record returned by next() to a row of the batch.
+	 */
+	public IteratorRecord getRecord(RecordBatch batch, int row) {
+		record = textRecord;
+		record.setBytes(batch.getBytes(), batch.getRecordOffset(row),
+				batch.getRecordLength(row));
+		return record;
+	}
+
 	@Override
 	public void remove() {
 		next();
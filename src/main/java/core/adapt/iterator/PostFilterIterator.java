@@ -7,6 +7,8 @@ import java.io.Serializable;
 
 import com.google.common.io.ByteStreams;
 
+import core.adapt.ColumnarBlock;
+import core.adapt.Predicate;
 import core.adapt.Query;
 import org.apache.hadoop.io.Text;
 
@@ -31,9 +33,26 @@ public class PostFilterIterator extends PartitionIterator implements
 		}
 	}
 
+	@Override
+	protected Predicate[] getSeekPredicates() {
+		return query.getPredicates();
+	}
+
 	@Override
 	protected boolean isRelevant(IteratorRecord record) {
-		return query.qualifies(record);
+		return prefiltered || query.qualifies(record);
+	}
+
+	@Override
+	protected void filter(RecordBatch batch) {
+		if (!prefiltered)
+			query.filter(batch);
+	}
+
+	@Override
+	protected int filter(ColumnarBlock block, int[] selection, int n) {
+		prefiltered = true;
+		return query.filter(block, selection, n);
 	}
 
 	@Override
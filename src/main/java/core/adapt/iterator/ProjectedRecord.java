@@ -0,0 +1,106 @@
+package core.adapt.iterator;
+
+import java.io.Serializable;
+
+import com.google.common.base.Joiner;
+
+import core.utils.TypeUtils.SimpleDate;
+import core.utils.TypeUtils.TYPE;
+
+/**
+ * The projected attributes of a record, parsed into their typed values
+ * (Integer, Long, Double, Boolean, SimpleDate or String). Unlike
+ * IteratorRecord it owns its values, so it is safe to keep and small to
+ * serialize.
+ */
+public class ProjectedRecord implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final Object[] values;
+
+	public ProjectedRecord(Object[] values) {
+		this.values = values;
+	}
+
+	/**
+	 * Parse the given attributes out of a record.
+	 *
+	 * @param record
+	 *            The record
+	 * @param attributes
+	 *            The attribute ids to project, in output order
+	 * @param types
+	 *            The types of all the attributes of the table
+	 */
+	public static ProjectedRecord project(IteratorRecord record,
+			int[] attributes, TYPE[] types) {
+		Object[] values = new Object[attributes.length];
+		for (int i = 0; i < attributes.length; i++) {
+			int a = attributes[i];
+			switch (types[a]) {
+			case BOOLEAN:
+				values[i] = record.getBooleanAttribute(a);
+				break;
+			case INT:
+				values[i] = record.getIntAttribute(a);
+				break;
+			case LONG:
+				values[i] = record.getLongAttribute(a);
+				break;
+			case DOUBLE:
+				values[i] = record.getDoubleAttribute(a);
+				break;
+			case DATE:
+				values[i] = record.getDateAttribute(a, new SimpleDate(0, 0, 0));
+				break;
+			case STRING:
+			case VARCHAR:
+				values[i] = record.getStringAttribute(a);
+				break;
+			default:
+				throw new RuntimeException("Unknown type: " + types[a]);
+			}
+		}
+		return new ProjectedRecord(values);
+	}
+
+	public int size() {
+		return values.length;
+	}
+
+	/**
+	 * The i-th projected value, in the order of the projection.
+	 */
+	public Object get(int i) {
+		return values[i];
+	}
+
+	public int getInt(int i) {
+		return (Integer) values[i];
+	}
+
+	public long getLong(int i) {
+		return (Long) values[i];
+	}
+
+	public double getDouble(int i) {
+		return (Double) values[i];
+	}
+
+	public SimpleDate getDate(int i) {
+		return (SimpleDate) values[i];
+	}
+
+	public String getString(int i) {
+		return (String) values[i];
+	}
+
+	public Object[] getValues() {
+		return values;
+	}
+
+	@Override
+	public String toString() {
+		return Joiner.on("|").join(values);
+	}
+}
@@ -0,0 +1,173 @@
+package core.adapt.iterator;
+
+import core.utils.ScanUtils;
+
+/**
+ * A block of consecutive records of a partition, filtered as a whole rather
+ * than one record at a time (see PartitionIterator.nextBatch).
+ *
+ * The records are tokenized into a matrix of attribute offsets, one row per
+ * record. Predicates are then evaluated one after the other over all the
+ * records, each one compacting the selection vector: the row numbers of the
+ * records that passed all predicates so far.
+ *
+ * Batches are also routed to buckets as a whole, see MDIndex.getBucketIds.
+ */
+public class RecordBatch {
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private final int capacity;
+
+	private byte[] bytes;
+	private char delimiter;
+
+	// Record i spans bytes[starts[i], ends[i]).
+	private final int[] starts;
+	private final int[] ends;
+	private int size;
+
+	// Attribute a of record i starts at offsets[i * stride + a] and ends one
+	// byte (the delimiter) before offsets[i * stride + a + 1]. Only the first
+	// numAttributes attributes are tokenized.
+	private int[] offsets;
+	private int stride;
+	private int numAttributes;
+
+	private final int[] selection;
+	private int numSelected;
+
+	public RecordBatch() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public RecordBatch(int capacity) {
+		this.capacity = capacity;
+		this.starts = new int[capacity];
+		this.ends = new int[capacity];
+		this.selection = new int[capacity];
+		this.offsets = new int[0];
+	}
+
+	/**
+	 * Empty the batch, for records of bytes.
+	 */
+	public void reset(byte[] bytes, char delimiter) {
+		this.bytes = bytes;
+		this.delimiter = delimiter;
+		this.size = 0;
+		this.numSelected = 0;
+		this.numAttributes = 0;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public boolean isFull() {
+		return size == capacity;
+	}
+
+	/**
+	 * Add the record bytes[start, end), selected.
+	 */
+	public void add(int start, int end) {
+		starts[size] = start;
+		ends[size] = end;
+		selection[size] = size;
+		size++;
+		numSelected = size;
+	}
+
+	/**
+	 * Locate the first numAttributes attributes of the selected records.
+	 * Records with fewer attributes are deselected, as their missing attributes
+	 * would otherwise parse as 0 or empty.
+	 */
+	public void tokenize(int numAttributes) {
+		if (numAttributes <= this.numAttributes)
+			return;
+
+		stride = numAttributes + 1;
+		if (offsets.length < capacity * stride)
+			offsets = new int[capacity * stride];
+
+		byte d = (byte) delimiter;
+		int m = 0;
+		for (int s = 0; s < numSelected; s++) {
+			int row = selection[s];
+			int base = row * stride;
+			int end = ends[row];
+			int pos = starts[row];
+			offsets[base] = pos;
+			for (int a = 1; a <= numAttributes; a++) {
+				int i = ScanUtils.indexOf(bytes, pos, end, d);
+				pos = i == -1 ? end + 1 : i + 1;
+				offsets[base + a] = pos;
+			}
+			// The last attribute starts past the end if one was missing.
+			selection[m] = row;
+			m += offsets[base + numAttributes - 1] <= end ? 1 : 0;
+		}
+		numSelected = m;
+		this.numAttributes = numAttributes;
+	}
+
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	public char getDelimiter() {
+		return delimiter;
+	}
+
+	/**
+	 * Number of records in the batch, selected or not.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int getRecordOffset(int row) {
+		return starts[row];
+	}
+
+	public int getRecordLength(int row) {
+		return ends[row] - starts[row];
+	}
+
+	/**
+	 * Requires the attribute to be tokenized, see tokenize(int).
+	 */
+	public int getAttributeOffset(int row, int attribute) {
+		return offsets[row * stride + attribute];
+	}
+
+	/**
+	 * Length of the attribute excluding the delimiter. Requires the attribute
+	 * to be tokenized, see tokenize(int).
+	 */
+	public int getAttributeLength(int row, int attribute) {
+		int i = row * stride + attribute;
+		return offsets[i + 1] - offsets[i] - 1;
+	}
+
+	/**
+	 * Row numbers of the selected records, in increasing order. Only the first
+	 * getNumSelected() entries are valid.
+	 */
+	public int[] getSelection() {
+		return selection;
+	}
+
+	public int getNumSelected() {
+		return numSelected;
+	}
+
+	/**
+	 * Keep only the first numSelected entries of the selection vector, after
+	 * compacting it in place.
+	 */
+	public void setNumSelected(int numSelected) {
+		this.numSelected = numSelected;
+	}
+}
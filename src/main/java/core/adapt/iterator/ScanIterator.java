@@ -0,0 +1,42 @@
+package core.adapt.iterator;
+
+import core.adapt.ColumnarBlock;
+import core.adapt.Query;
+
+/**
+ * Returns every record of the partitions without evaluating the query. Used
+ * for buckets whose whole range lies within the query, i.e. every record in
+ * them is known to qualify.
+ *
+ * The query is still shipped with the iterator, for the table info.
+ */
+public class ScanIterator extends PostFilterIterator {
+	private static final long serialVersionUID = 1L;
+
+	public ScanIterator() {
+
+	}
+
+	public ScanIterator(Query q) {
+		super(q);
+	}
+
+	public ScanIterator(String iteratorString) {
+		super(iteratorString);
+	}
+
+	@Override
+	protected boolean isRelevant(IteratorRecord record) {
+		return true;
+	}
+
+	@Override
+	protected void filter(RecordBatch batch) {
+		// Every record stays selected.
+	}
+
+	@Override
+	protected int filter(ColumnarBlock block, int[] selection, int n) {
+		return n;
+	}
+}
@@ -397,13 +397,13 @@ public class JoinOptimizer {
                         switch (p.predtype) {
                             case EQ:
                             case GEQ:
-                                if (TypeUtils.compareTo(p.value, node.parent.value,
-                                        node.parent.type) > 0)
+                                if (p.compareValue(node.parent.getKey(),
+                                        node.parent.value) > 0)
                                     accessed = false;
                                 break;
                             case GT:
-                                if (TypeUtils.compareTo(p.value, node.parent.value,
-                                        node.parent.type) >= 0)
+                                if (p.compareValue(node.parent.getKey(),
+                                        node.parent.value) >= 0)
                                     accessed = false;
                                 break;
                             default:
@@ -413,13 +413,13 @@ public class JoinOptimizer {
                         switch (p.predtype) {
                             case EQ:
                             case LEQ:
-                                if (TypeUtils.compareTo(p.value, node.parent.value,
-                                        node.parent.type) <= 0)
+                                if (p.compareValue(node.parent.getKey(),
+                                        node.parent.value) <= 0)
                                     accessed = false;
                                 break;
                             case LT:
-                                if (TypeUtils.compareTo(p.value, node.parent.value,
-                                        node.parent.type) < 0)
+                                if (p.compareValue(node.parent.getKey(),
+                                        node.parent.value) < 0)
                                     accessed = false;
                                 break;
                             default:
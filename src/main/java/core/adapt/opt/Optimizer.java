@@ -6,6 +6,7 @@ import core.adapt.Query;
 import core.adapt.iterator.PartitionIterator;
 import core.adapt.iterator.PostFilterIterator;
 import core.adapt.iterator.RepartitionIterator;
+import core.adapt.iterator.ScanIterator;
 import core.adapt.spark.SparkQueryConf;
 import core.common.globals.Globals;
 import core.common.globals.TableInfo;
@@ -119,15 +120,39 @@ public class Optimizer {
 		return bids;
 	}
 
+	/**
+	 * The query shipped to the iterators, with the predicates ordered by
+	 * estimated selectivity and cost over the sample.
+	 */
+	private Query getEvaluationQuery(Query q) {
+		Query eq = PredicateOrdering.order(q, this.rt.sample);
+		if (eq != q) {
+			System.out.println("INFO: Predicate evaluation order " + eq.toString());
+		}
+		return eq;
+	}
+
+	/**
+	 * Plan to only read the matching buckets. Buckets which lie entirely
+	 * within the query are scanned without evaluating the predicates.
+	 */
 	public PartitionSplit[] buildAccessPlan(final Query fq) {
-		List<RNode> nodes = this.rt.getRoot().search(fq.getPredicates());
-		PartitionIterator pi = new PostFilterIterator(fq);
-		int[] bids = this.getBidFromRNodes(nodes);
-
-		PartitionSplit psplit = new PartitionSplit(bids, pi);
-		PartitionSplit[] ps = new PartitionSplit[1];
-		ps[0] = psplit;
-		return ps;
+		List<RNode> covered = new ArrayList<RNode>();
+		List<RNode> partial = new ArrayList<RNode>();
+		this.rt.getRoot().search(fq.getPredicates(), covered, partial);
+		System.out.println("INFO: Fully covered buckets " + covered.size()
+				+ " partially covered buckets " + partial.size());
+
+		List<PartitionSplit> lps = new ArrayList<PartitionSplit>();
+		if (partial.size() > 0 || covered.size() == 0) {
+			PartitionIterator pi = new PostFilterIterator(getEvaluationQuery(fq));
+			lps.add(new PartitionSplit(this.getBidFromRNodes(partial), pi));
+		}
+		if (covered.size() > 0) {
+			PartitionIterator pi = new ScanIterator(fq);
+			lps.add(new PartitionSplit(this.getBidFromRNodes(covered), pi));
+		}
+		return lps.toArray(new PartitionSplit[lps.size()]);
 	}
 	
 	/**
@@ -197,11 +222,12 @@ public class Optimizer {
 
 		FileSystem fs = HDFSUtils.getFSByHadoopHome(hadoopHome);
 		this.persistQueryToDisk(fs, q);
+		Query eq = getEvaluationQuery(q);
 		List<PartitionSplit> lps = new ArrayList<>();
 		System.out.println("INFO: Benefit " + benefit + " Cost " + cost + " Total Cost " + tcost);
 		if (benefit > cost) {
 			if (unmodifiedBuckets.size() > 0) {
-				PartitionIterator pi = new PostFilterIterator(q);
+				PartitionIterator pi = new PostFilterIterator(eq);
 				int[] bids = new int[unmodifiedBuckets.size()];
 				int counter = 0;
 				for (Integer i: unmodifiedBuckets) {
@@ -213,7 +239,7 @@ public class Optimizer {
 			}
 			
 			if (modifiedBuckets.size() > 0) {
-				PartitionIterator pi = new RepartitionIterator(q);
+				PartitionIterator pi = new RepartitionIterator(eq);
 				int[] bids = new int[modifiedBuckets.size()];
 				int counter = 0;
 				for (Integer i: modifiedBuckets) {
@@ -229,7 +255,7 @@ public class Optimizer {
                 this.persistIndexToDisk(fs);
 			}
 		} else {
-			PartitionIterator pi = new PostFilterIterator(q);
+			PartitionIterator pi = new PostFilterIterator(eq);
 			int[] bids = new int[unmodifiedBuckets.size() + modifiedBuckets.size()];
 			int counter = 0;
 			for (Integer i: unmodifiedBuckets) {
@@ -297,10 +323,10 @@ public class Optimizer {
 		}
 
 		// Check if we are updating the index ?
-		boolean updated = true;
-		if (psplits.length == 1) {
-			if (psplits[0].getIterator().getClass() == PostFilterIterator.class) {
-				updated = false;
+		boolean updated = false;
+		for (int i = 0; i < psplits.length; i++) {
+			if (psplits[i].getIterator() instanceof RepartitionIterator) {
+				updated = true;
 			}
 		}
 
@@ -450,6 +476,7 @@ public class Optimizer {
 		boolean printed = false;
 
 		Predicate[] ps = fq.getPredicates();
+		Query eq = getEvaluationQuery(fq);
 		while (nodeStack.size() > 0) {
 			RNode n = nodeStack.removeLast();
 			Action a = actionStack.removeLast();
@@ -478,7 +505,7 @@ public class Optimizer {
 					// Give new bucket ids to all nodes below this
 					updateBucketIds(bs);
 
-					PartitionIterator pi = new RepartitionIterator(fq);
+					PartitionIterator pi = new RepartitionIterator(eq);
 					PartitionSplit psplit = new PartitionSplit(bucketIds, pi);
 					lps.add(psplit);
 					isModifying = true;
@@ -504,7 +531,7 @@ public class Optimizer {
 		}
 
 		if (unmodifiedBuckets.size() > 0) {
-			PartitionIterator pi = new PostFilterIterator(fq);
+			PartitionIterator pi = new PostFilterIterator(eq);
 			int[] bids = new int[unmodifiedBuckets.size()];
 			Iterator<Integer> it = unmodifiedBuckets.iterator();
 			for (int i = 0; i < bids.length; i++) {
@@ -529,9 +556,11 @@ public class Optimizer {
 	 */
 	public static boolean checkValidToRoot(RNode node, int attrId, TYPE t,
 			Object val) {
+		long key = TypeUtils.encode(val, t);
 		while (node.parent != null) {
 			if (node.parent.attribute == attrId) {
-				int ret = TypeUtils.compareTo(node.parent.value, val, t);
+				int ret = TypeUtils.compare(node.parent.getKey(),
+						node.parent.value, key, val, t);
 				if (node.parent.leftChild == node && ret <= 0) {
 					return false;
 				} else if (node.parent.rightChild == node && ret >= 0) {
@@ -561,12 +590,14 @@ public class Optimizer {
 			Object val, int isLeft) {
 		LinkedList<RNode> stack = new LinkedList<RNode>();
 		stack.add(node);
+		long key = TypeUtils.encode(val, t);
 
 		while (stack.size() > 0) {
 			RNode n = stack.removeLast();
 			if (n.bucket == null) {
 				if (n.attribute == attrId) {
-					int comp = TypeUtils.compareTo(n.value, val, t);
+					int comp = TypeUtils.compare(n.getKey(), n.value, key, val,
+							t);
 					if (comp * isLeft >= 0)
 						return false;
 				}
@@ -655,13 +686,13 @@ public class Optimizer {
 						switch (p.predtype) {
 						case EQ:
 						case GEQ:
-							if (TypeUtils.compareTo(p.value, node.parent.value,
-									node.parent.type) > 0)
+							if (p.compareValue(node.parent.getKey(),
+									node.parent.value) > 0)
 								accessed = false;
 							break;
 						case GT:
-							if (TypeUtils.compareTo(p.value, node.parent.value,
-									node.parent.type) >= 0)
+							if (p.compareValue(node.parent.getKey(),
+									node.parent.value) >= 0)
 								accessed = false;
 							break;
 						default:
@@ -671,13 +702,13 @@ public class Optimizer {
 						switch (p.predtype) {
 						case EQ:
 						case LEQ:
-							if (TypeUtils.compareTo(p.value, node.parent.value,
-									node.parent.type) <= 0)
+							if (p.compareValue(node.parent.getKey(),
+									node.parent.value) <= 0)
 								accessed = false;
 							break;
 						case LT:
-							if (TypeUtils.compareTo(p.value, node.parent.value,
-									node.parent.type) <= 0)
+							if (p.compareValue(node.parent.getKey(),
+									node.parent.value) <= 0)
 								accessed = false;
 							break;
 						default:
@@ -0,0 +1,108 @@
+package core.adapt.opt;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import core.adapt.Predicate;
+import core.adapt.Query;
+import core.common.key.ParsedTupleList;
+import core.utils.TypeUtils.TYPE;
+
+/**
+ * Orders the predicates of a conjunctive query so that the checks which are
+ * cheap and reject many tuples run first. Selectivity is estimated from the
+ * table sample, cost from the attribute type.
+ *
+ * Predicates are sorted by cost / (1 - selectivity), which minimizes the
+ * expected evaluation cost per record for independent predicates.
+ */
+public class PredicateOrdering {
+
+	// Upper bound on the sample tuples looked at per predicate.
+	private static final int MAX_SAMPLE_TUPLES = 10000;
+
+	// Used when the sample holds no values for the attribute (e.g. VARCHAR).
+	private static final double DEFAULT_SELECTIVITY = 0.5;
+
+	/**
+	 * Returns a query over the same predicates in evaluation order, or the
+	 * query itself if there is nothing to reorder.
+	 */
+	public static Query order(Query q, ParsedTupleList sample) {
+		Predicate[] ps = q.getPredicates();
+		if (ps.length < 2)
+			return q;
+
+		Predicate[] ordered = order(ps, sample);
+		if (Arrays.equals(ps, ordered))
+			return q;
+
+		return new Query(q.getTable(), ordered);
+	}
+
+	public static Predicate[] order(Predicate[] ps, ParsedTupleList sample) {
+		final double[] rank = new double[ps.length];
+		Integer[] idx = new Integer[ps.length];
+		for (int i = 0; i < ps.length; i++) {
+			idx[i] = i;
+			double selectivity = estimateSelectivity(ps[i], sample);
+			rank[i] = selectivity >= 1 ? Double.MAX_VALUE : getCost(ps[i].type)
+					/ (1 - selectivity);
+		}
+
+		// Stable, so predicates of equal rank keep the user's order.
+		Arrays.sort(idx, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(rank[a], rank[b]);
+			}
+		});
+
+		Predicate[] ordered = new Predicate[ps.length];
+		for (int i = 0; i < ps.length; i++)
+			ordered[i] = ps[idx[i]];
+		return ordered;
+	}
+
+	/**
+	 * Fraction of the sample tuples accepted by the predicate.
+	 */
+	public static double estimateSelectivity(Predicate p, ParsedTupleList sample) {
+		if (sample == null || sample.size() == 0 || p.type == TYPE.VARCHAR)
+			return DEFAULT_SELECTIVITY;
+
+		List<Object[]> values = sample.getValues();
+		int step = Math.max(1, values.size() / MAX_SAMPLE_TUPLES);
+		int looked = 0, accepted = 0;
+		for (int i = 0; i < values.size(); i += step) {
+			Object[] tuple = values.get(i);
+			if (p.attribute >= tuple.length || tuple[p.attribute] == null)
+				return DEFAULT_SELECTIVITY;
+			if (p.isRelevant(tuple[p.attribute]))
+				accepted++;
+			looked++;
+		}
+		return (double) accepted / looked;
+	}
+
+	/**
+	 * Relative cost of evaluating a predicate on a raw record, following the
+	 * evaluators in PredicateEvaluator: numbers and dates are compared
+	 * without allocation, doubles need a more expensive parse, strings a byte
+	 * comparison of unbounded length, and the rest goes through boxed values.
+	 */
+	public static double getCost(TYPE type) {
+		switch (type) {
+		case INT:
+		case LONG:
+		case DATE:
+			return 1;
+		case DOUBLE:
+		case STRING:
+			return 2;
+		default:
+			return 4;
+		}
+	}
+}
@@ -1,9 +1,9 @@
 package core.adapt.spark;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.io.FilenameUtils;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 
@@ -18,10 +18,12 @@ import core.adapt.AccessMethod.PartitionSplit;
 import core.adapt.Query;
 import core.adapt.iterator.PostFilterIterator;
 import core.adapt.iterator.RepartitionIterator;
+import core.utils.SegmentUtils;
 
 public class HPInput {
 
 	protected AccessMethod am;
+	// The live files of each bucket, see SegmentUtils.
 	protected ArrayListMultimap<Integer, FileStatus> partitionIdFileMap;
 	protected Map<Integer, Long> partitionIdSizeMap;
 
@@ -29,16 +31,21 @@ public class HPInput {
 		this.am = am;
 		partitionIdFileMap = ArrayListMultimap.create();
 		partitionIdSizeMap = Maps.newHashMap();
-		for (FileStatus file : files) {
-			try {
-				int id = Integer.parseInt(FilenameUtils.getName(file.getPath()
-						.toString()));
+		Map<Integer, List<FileStatus>> buckets;
+		try {
+			buckets = SegmentUtils.group(am.getFS(), files, true);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("Failed to list the buckets");
+		}
+		for (Map.Entry<Integer, List<FileStatus>> e : buckets.entrySet()) {
+			int id = e.getKey();
+			long size = 0;
+			for (FileStatus file : e.getValue()) {
 				partitionIdFileMap.put(id, file);
-				long currentSize = partitionIdSizeMap.containsKey(id) ? partitionIdSizeMap
-						.get(id) : 0;
-				partitionIdSizeMap.put(id, currentSize + file.getLen());
-			} catch (NumberFormatException e) {
+				size += file.getLen();
 			}
+			partitionIdSizeMap.put(id, size);
 		}
 	}
 
@@ -55,11 +62,18 @@ public class HPInput {
 
 	// utility methods
 
+	/**
+	 * The paths of the buckets that have files, readers reading the union of
+	 * the files of each (see HDFSPartition.open).
+	 */
 	public Path[] getPaths(int[] partitionIds) {
 		List<Path> splitFiles = Lists.newArrayList();
-		for (int i = 0; i < partitionIds.length; i++)
-			for (FileStatus fs : partitionIdFileMap.get(partitionIds[i]))
-				splitFiles.add(fs.getPath());
+		for (int i = 0; i < partitionIds.length; i++) {
+			List<FileStatus> files = partitionIdFileMap.get(partitionIds[i]);
+			if (!files.isEmpty())
+				splitFiles.add(SegmentUtils.getBucketPath(files.get(0)
+						.getPath()));
+		}
 		Path[] splitFilesArr = new Path[splitFiles.size()];
 		for (int i = 0; i < splitFilesArr.length; i++)
 			splitFilesArr[i] = splitFiles.get(i);
@@ -86,8 +100,8 @@ public class HPInput {
 	public long[] getLengths(int[] partitionIds) {
 		List<Long> lengths = Lists.newArrayList();
 		for (int i = 0; i < partitionIds.length; i++)
-			for (FileStatus fs : partitionIdFileMap.get(partitionIds[i]))
-				lengths.add(fs.getLen());
+			if (partitionIdSizeMap.containsKey(partitionIds[i]))
+				lengths.add(partitionIdSizeMap.get(partitionIds[i]));
 
 		long[] lengthsArr = new long[lengths.size()];
 		for (int i = 0; i < lengthsArr.length; i++)
@@ -0,0 +1,36 @@
+package core.adapt.spark;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+import core.adapt.iterator.ProjectedRecord;
+
+/**
+ * Same splits as SparkInputFormat, but returns only the projected attributes
+ * of each record, see SparkProjectionRecordReader.
+ */
+public class SparkProjectionInputFormat extends
+		FileInputFormat<LongWritable, ProjectedRecord> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public List<InputSplit> getSplits(JobContext job) throws IOException {
+		return new SparkInputFormat().getSplits(job);
+	}
+
+	@Override
+	public RecordReader<LongWritable, ProjectedRecord> createRecordReader(
+			InputSplit arg0, TaskAttemptContext arg1) throws IOException,
+			InterruptedException {
+		return new SparkProjectionRecordReader();
+	}
+}
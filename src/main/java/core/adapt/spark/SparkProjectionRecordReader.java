@@ -0,0 +1,71 @@
+package core.adapt.spark;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import core.adapt.iterator.IteratorRecord;
+import core.adapt.iterator.ProjectedRecord;
+import core.common.globals.Globals;
+import core.utils.TypeUtils.TYPE;
+
+/**
+ * Reads the records of a split like SparkRecordReader, but only returns the
+ * attributes in SparkQueryConf.PROJECTION, parsed into typed values.
+ */
+public class SparkProjectionRecordReader extends
+		RecordReader<LongWritable, ProjectedRecord> {
+
+	private SparkRecordReader reader = new SparkRecordReader();
+
+	private String table;
+	private int[] projection;
+	private TYPE[] types;
+
+	@Override
+	public void initialize(InputSplit split, TaskAttemptContext context)
+			throws IOException, InterruptedException {
+		reader.initialize(split, context);
+		SparkQueryConf queryConf = new SparkQueryConf(context.getConfiguration());
+		table = queryConf.getQuery().getTable();
+		projection = queryConf.getProjection();
+		if (projection == null)
+			throw new RuntimeException("No projection set in query conf.");
+	}
+
+	@Override
+	public boolean nextKeyValue() throws IOException, InterruptedException {
+		return reader.nextKeyValue();
+	}
+
+	@Override
+	public LongWritable getCurrentKey() throws IOException,
+			InterruptedException {
+		return reader.getCurrentKey();
+	}
+
+	@Override
+	public ProjectedRecord getCurrentValue() throws IOException,
+			InterruptedException {
+		if (types == null) {
+			// Loaded by the iterator along with the first partition.
+			types = Globals.getTableInfo(table).getTypeArray();
+		}
+
+		IteratorRecord record = reader.getCurrentValue();
+		return ProjectedRecord.project(record, projection, types);
+	}
+
+	@Override
+	public float getProgress() throws IOException, InterruptedException {
+		return reader.getProgress();
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
@@ -9,6 +9,7 @@ import org.apache.spark.api.java.JavaSparkContext;
 
 import core.adapt.Predicate;
 import core.adapt.iterator.IteratorRecord;
+import core.adapt.iterator.ProjectedRecord;
 import core.utils.ConfUtils;
 
 public class SparkQuery {
@@ -42,6 +43,33 @@ public class SparkQuery {
 
 	public JavaPairRDD<LongWritable, IteratorRecord> createRDD(String hdfsPath,
 															   int replicaId, Query q) {
+		setUpQueryConf(hdfsPath, replicaId, q);
+		queryConf.setProjection(null);
+
+		// TODO: This is tricky. Figure out how to do for multiple tables.
+		return ctx.newAPIHadoopFile(cfg.getHADOOP_NAMENODE() + hdfsPath + "/"  + q.getTable() + "/data",
+				SparkInputFormat.class, LongWritable.class,
+				IteratorRecord.class, ctx.hadoopConfiguration());
+	}
+
+	/**
+	 * Like createRDD, but the records only hold the attributes in the
+	 * query's projection, already parsed.
+	 */
+	public JavaPairRDD<LongWritable, ProjectedRecord> createProjectedRDD(
+			String hdfsPath, Query q) {
+		if (q.getProjection() == null)
+			throw new RuntimeException("No projection set in query.");
+
+		setUpQueryConf(hdfsPath, 0, q);
+		queryConf.setProjection(q.getProjection());
+
+		return ctx.newAPIHadoopFile(cfg.getHADOOP_NAMENODE() + hdfsPath + "/"  + q.getTable() + "/data",
+				SparkProjectionInputFormat.class, LongWritable.class,
+				ProjectedRecord.class, ctx.hadoopConfiguration());
+	}
+
+	private void setUpQueryConf(String hdfsPath, int replicaId, Query q) {
 		queryConf.setWorkingDir(hdfsPath);
 		queryConf.setReplicaId(replicaId);
 		queryConf.setQuery(q);
@@ -52,11 +80,7 @@ public class SparkQuery {
 		// parallel)
 		queryConf.setMinSplitSize(4294967296l); // 4gb
 		queryConf.setHDFSReplicationFactor(cfg.getHDFS_REPLICATION_FACTOR());
-
-		// TODO: This is tricky. Figure out how to do for multiple tables.
-		return ctx.newAPIHadoopFile(cfg.getHADOOP_NAMENODE() + hdfsPath + "/"  + q.getTable() + "/data",
-				SparkInputFormat.class, LongWritable.class,
-				IteratorRecord.class, ctx.hadoopConfiguration());
+		queryConf.setLocalMmap(cfg.getLOCAL_MMAP());
 	}
 
 	public JavaPairRDD<LongWritable, IteratorRecord> createScanRDD(
@@ -70,4 +94,10 @@ public class SparkQuery {
 		queryConf.setJustAccess(false);
 		return createRDD(hdfsPath, q);
 	}
+
+	public JavaPairRDD<LongWritable, ProjectedRecord> createProjectedAdaptRDD(
+			String hdfsPath, Query q) {
+		queryConf.setJustAccess(false);
+		return createProjectedRDD(hdfsPath, q);
+	}
 }
\ No newline at end of file
@@ -4,6 +4,7 @@ import core.adapt.Query;
 import org.apache.hadoop.conf.Configuration;
 
 import com.google.common.base.Joiner;
+import com.google.common.primitives.Ints;
 
 import core.adapt.Predicate;
 
@@ -22,6 +23,9 @@ public class SparkQueryConf {
 	public final static String HDFS_REPLICATION_FACTOR = "HDFS_REPLICATION_FACTOR";
 	public final static String SCHEMA = "SCHEMA";
 	public final static String CARTILAGE_PROPERTIES = "CARTILAGE_PROPERTIES";
+	public final static String BATCH_SIZE = "BATCH_SIZE";
+	public final static String PROJECTION = "PROJECTION";
+	public final static String LOCAL_MMAP = "LOCAL_MMAP";
 
 	private Configuration conf;
 
@@ -106,6 +110,17 @@ public class SparkQueryConf {
 		return Short.parseShort(conf.get(HDFS_REPLICATION_FACTOR));
 	}
 
+	/**
+	 * Read the partitions on the local file system through memory mappings.
+	 */
+	public void setLocalMmap(boolean mmap) {
+		conf.setBoolean(LOCAL_MMAP, mmap);
+	}
+
+	public boolean getLocalMmap() {
+		return conf.getBoolean(LOCAL_MMAP, false);
+	}
+
 	public void setReplicaId(int numReplicas) {
 		conf.set(REPLICA_ID, String.valueOf(numReplicas));
 	}
@@ -114,6 +129,41 @@ public class SparkQueryConf {
 		return Integer.parseInt(conf.get(REPLICA_ID));
 	}
 
+	/**
+	 * Number of records the record readers filter at a time, 0 (the default)
+	 * to filter one record at a time. RecordBatch.DEFAULT_CAPACITY is a good
+	 * batch size.
+	 */
+	public void setBatchSize(int batchSize) {
+		conf.setInt(BATCH_SIZE, batchSize);
+	}
+
+	public int getBatchSize() {
+		return conf.getInt(BATCH_SIZE, 0);
+	}
+
+	public void setProjection(int[] projection) {
+		if (projection == null)
+			conf.unset(PROJECTION);
+		else
+			conf.set(PROJECTION, Ints.join(",", projection));
+	}
+
+	/**
+	 * The attributes to return for each record, or null for whole records.
+	 */
+	public int[] getProjection() {
+		String projection = conf.get(PROJECTION);
+		if (projection == null || projection.equals(""))
+			return null;
+
+		String[] tokens = projection.split(",");
+		int[] attributes = new int[tokens.length];
+		for (int i = 0; i < tokens.length; i++)
+			attributes[i] = Integer.parseInt(tokens[i]);
+		return attributes;
+	}
+
 	public Configuration getConf() {
 		return conf;
 	}
@@ -15,6 +15,7 @@ import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import core.adapt.HDFSPartition;
 import core.adapt.iterator.IteratorRecord;
 import core.adapt.iterator.PartitionIterator;
+import core.adapt.iterator.RecordBatch;
 import core.adapt.spark.SparkInputFormat.SparkFileSplit;
 import core.utils.CuratorUtils;
 
@@ -28,6 +29,10 @@ public class SparkRecordReader extends
 
 	protected PartitionIterator iterator;
 
+	// Batch mode: the current batch and the position in its selection vector.
+	protected RecordBatch batch;
+	int batchPosition;
+
 	LongWritable key;
 	long recordId;
 	boolean hasNext;
@@ -42,6 +47,8 @@ public class SparkRecordReader extends
 				.get(SparkQueryConf.ZOOKEEPER_HOSTS));
 		sparkSplit = (SparkFileSplit) split;
 		iterator = sparkSplit.getIterator();
+		int batchSize = new SparkQueryConf(conf).getBatchSize();
+		batch = batchSize > 0 ? new RecordBatch(batchSize) : null;
 		currentFile = 0;
 		hasNext = initializeNext();
 		key = new LongWritable();
@@ -60,25 +67,33 @@ public class SparkRecordReader extends
 			HDFSPartition partition = new HDFSPartition(fs, filePath.toString(),
 					Short.parseShort(conf.get(SparkQueryConf.HDFS_REPLICATION_FACTOR)),
 					client);
-			System.out.println("INFO: Loading path: " + filePath.toString());
-			try {
-				partition.load();
-				iterator.setPartition(partition);
-				currentFile++;
-				return true;
-			} catch (java.lang.OutOfMemoryError e) {
-				System.out.println("ERR: Failed to load " + filePath.toString());
-				System.out.println(e.getMessage());
-				e.printStackTrace();
-				return false;
-			}
+			partition.setTotalSize(sparkSplit.getLength(currentFile));
+			partition.setMapped(new SparkQueryConf(conf).getLocalMmap());
+			System.out.println("INFO: Reading path: " + filePath.toString());
+			// Not loaded: the iterator reads the partition in chunks.
+			iterator.setPartition(partition);
+			batchPosition = 0;
+			if (batch != null)
+				batch.setNumSelected(0);
+			currentFile++;
+			return true;
 		}
 	}
 
 	@Override
 	public boolean nextKeyValue() throws IOException, InterruptedException {
 		while (hasNext) {
-			if (iterator.hasNext()) {
+			if (batch != null) {
+				if (batchPosition < batch.getNumSelected()) {
+					iterator.getRecord(batch, batch.getSelection()[batchPosition++]);
+					recordId++;
+					return true;
+				}
+				if (iterator.nextBatch(batch)) {
+					batchPosition = 0;
+					continue;
+				}
+			} else if (iterator.hasNext()) {
 				recordId++;
 				return true;
 			}
@@ -103,6 +118,8 @@ public class SparkRecordReader extends
 	@Override
 	public IteratorRecord getCurrentValue() throws IOException,
 			InterruptedException {
+		// A view over the loaded partition, valid until the next call to
+		// nextKeyValue(); callers that keep it must copy it out.
 		IteratorRecord record = iterator.next();
 		return record;
 	}
@@ -5,11 +5,12 @@ package core.adapt.spark.join;
  */
 
 
+import java.io.IOException;
 import java.util.*;
 
 
-import org.apache.commons.io.FilenameUtils;
 import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 
 
@@ -20,27 +21,35 @@ import core.adapt.AccessMethod.PartitionSplit;
 import core.adapt.JoinQuery;
 import core.adapt.iterator.PostFilterIterator;
 import core.adapt.iterator.RepartitionIterator;
+import core.utils.SegmentUtils;
 
 public class HPJoinInput {
 
-    protected Map<Integer, FileStatus> partitionIdFileMap;
+    // The path of each bucket, readers reading the union of its live files
+    // (see SegmentUtils).
+    protected Map<Integer, Path> partitionIdFileMap;
     protected Map<Integer, Long> partitionIdSizeMap;
 
     public HPJoinInput(){
     }
 
-    public void initialize(List<FileStatus> files) {
-        partitionIdFileMap = new HashMap<Integer, FileStatus>();
+    public void initialize(FileSystem fs, List<FileStatus> files) {
+        partitionIdFileMap = new HashMap<Integer, Path>();
         partitionIdSizeMap = new HashMap<Integer, Long>();
-        for (FileStatus file : files) {
-            try {
-                String fileName = FilenameUtils.getName(file.getPath().toString());
-                int id = Integer.parseInt(fileName);
-                partitionIdFileMap.put(id, file);
-                partitionIdSizeMap.put(id, file.getLen());
-            } catch (NumberFormatException e) {
-                e.printStackTrace();
+        Map<Integer, List<FileStatus>> buckets;
+        try {
+            buckets = SegmentUtils.group(fs, files, true);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Failed to list the buckets");
+        }
+        for (Map.Entry<Integer, List<FileStatus>> e : buckets.entrySet()) {
+            long size = 0;
+            for (FileStatus file : e.getValue()) {
+                size += file.getLen();
             }
+            partitionIdFileMap.put(e.getKey(), SegmentUtils.getBucketPath(e.getValue().get(0).getPath()));
+            partitionIdSizeMap.put(e.getKey(), size);
         }
     }
 
@@ -62,7 +71,7 @@ public class HPJoinInput {
 
         Path[] splitFilesArr = new Path[partitionIds.length];
         for (int i = 0; i < splitFilesArr.length; i++)
-            splitFilesArr[i] = partitionIdFileMap.get(partitionIds[i]).getPath();
+            splitFilesArr[i] = partitionIdFileMap.get(partitionIds[i]);
         return splitFilesArr;
     }
 
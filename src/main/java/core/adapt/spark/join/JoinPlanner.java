@@ -4,17 +4,21 @@ package core.adapt.spark.join;
 import com.google.common.primitives.Ints;
 
 import core.adapt.JoinQuery;
+import core.adapt.KeyFilter;
 
 
 import core.adapt.iterator.JoinRepartitionIterator;
 import core.adapt.iterator.PartitionIterator;
 import core.adapt.iterator.PostFilterIterator;
+import core.adapt.iterator.ScanIterator;
 import core.common.globals.Globals;
 import core.common.globals.TableInfo;
+import core.common.index.JRNode;
 import core.common.index.JoinRobustTree;
 import core.common.index.MDIndex;
 
 import core.common.key.ParsedTupleList;
+import core.utils.BloomFilter;
 import core.utils.HDFSUtils;
 import core.utils.TypeUtils;
 import org.apache.commons.lang.ArrayUtils;
@@ -150,7 +154,7 @@ public class JoinPlanner {
                 dataset2_scan_blocks.clear();
 
                 // in case some blocks are left, probably it's empty
-                extractShuffleJoin(dataset2_query, shuffleJoinSplit2, dataset2_scan_blocks, dataset2_iterator_type, dataset2_hpinput.getPartitionIdSizeMap(), queryConf.getMaxSplitSize(), queryConf.getWorkerNum());
+                extractShuffleJoin(dataset2_query, shuffleJoinSplit2, dataset2_scan_blocks, dataset2_iterator_type, dataset2_am, dataset2_hpinput.getPartitionIdSizeMap(), queryConf.getMaxSplitSize(), queryConf.getWorkerNum());
             } else { // partial hyper join + partial shuffle join
 
                 Map<Integer, Integer> dataset2_iterator_type_copy = new HashMap<Integer, Integer>();
@@ -176,14 +180,14 @@ public class JoinPlanner {
 
                 dataset1_scan_blocks.remove(dataset1_join_attr);
 
-                extractShuffleJoin(dataset1_query, shuffleJoinSplit1, dataset1_scan_blocks, dataset1_iterator_type, dataset1_hpinput.getPartitionIdSizeMap(), queryConf.getMaxSplitSize(), queryConf.getWorkerNum());
-                extractShuffleJoin(dataset2_query, shuffleJoinSplit2, dataset2_scan_blocks, dataset2_iterator_type, dataset2_hpinput.getPartitionIdSizeMap(), queryConf.getMaxSplitSize(), queryConf.getWorkerNum());
+                extractShuffleJoin(dataset1_query, shuffleJoinSplit1, dataset1_scan_blocks, dataset1_iterator_type, dataset1_am, dataset1_hpinput.getPartitionIdSizeMap(), queryConf.getMaxSplitSize(), queryConf.getWorkerNum());
+                extractShuffleJoin(dataset2_query, shuffleJoinSplit2, dataset2_scan_blocks, dataset2_iterator_type, dataset2_am, dataset2_hpinput.getPartitionIdSizeMap(), queryConf.getMaxSplitSize(), queryConf.getWorkerNum());
             }
 
 
         } else { // full shuffle join
-            extractShuffleJoin(dataset1_query, shuffleJoinSplit1, dataset1_scan_blocks, dataset1_iterator_type, dataset1_hpinput.getPartitionIdSizeMap(), queryConf.getMaxSplitSize(), queryConf.getWorkerNum());
-            extractShuffleJoin(dataset2_query, shuffleJoinSplit2, dataset2_scan_blocks, dataset2_iterator_type, dataset2_hpinput.getPartitionIdSizeMap(), queryConf.getMaxSplitSize(), queryConf.getWorkerNum());
+            extractShuffleJoin(dataset1_query, shuffleJoinSplit1, dataset1_scan_blocks, dataset1_iterator_type, dataset1_am, dataset1_hpinput.getPartitionIdSizeMap(), queryConf.getMaxSplitSize(), queryConf.getWorkerNum());
+            extractShuffleJoin(dataset2_query, shuffleJoinSplit2, dataset2_scan_blocks, dataset2_iterator_type, dataset2_am, dataset2_hpinput.getPartitionIdSizeMap(), queryConf.getMaxSplitSize(), queryConf.getWorkerNum());
         }
 
         shufflejoin1 = getShuffleJoinInput1();
@@ -365,7 +369,7 @@ public class JoinPlanner {
         queryConf.setJoinQuery(query);
 
         String input_dir = queryConf.getWorkingDir() + "/" + tableName + "/data";
-        hpinput.initialize(listStatus(fs, input_dir));
+        hpinput.initialize(fs, listStatus(fs, input_dir));
 
         /*
         *   Compute the table size, which is a summation over all partitions.
@@ -639,12 +643,27 @@ public class JoinPlanner {
 
     }
 
-    public static void extractShuffleJoin(JoinQuery dataset_query, ArrayList<PartitionSplit> shuffleJoinSplit, Map<Integer, ArrayList<Integer>> scan_blocks, Map<Integer, Integer> iterator_type, Map<Integer, Long> partitionSizes, long maxSplitSize, int worker_num) {
+    public static void extractShuffleJoin(JoinQuery dataset_query, ArrayList<PartitionSplit> shuffleJoinSplit, Map<Integer, ArrayList<Integer>> scan_blocks, Map<Integer, Integer> iterator_type, Map<Integer, JoinAccessMethod> am_map, Map<Integer, Long> partitionSizes, long maxSplitSize, int worker_num) {
 
         for (int index : scan_blocks.keySet()) {
-            // construct a PostFilterIterator
+
+            // blocks entirely within the query are read by a ScanIterator, the others by a PostFilterIterator
+
+            HashSet<Integer> covered = getCoveredBlocks(am_map.get(index), dataset_query);
+            ArrayList<Integer> filter_blocks = new ArrayList<Integer>();
+            ArrayList<Integer> covered_blocks = new ArrayList<Integer>();
+            for (int block : scan_blocks.get(index)) {
+                if (covered.contains(block)) {
+                    covered_blocks.add(block);
+                } else {
+                    filter_blocks.add(block);
+                }
+            }
+
             PartitionIterator pi = new PostFilterIterator(dataset_query.castToQuery());
-            ArrayList<PartitionSplit> shuffle_splits = resizeSplits(pi, ArrayListToArray(scan_blocks.get(index)), partitionSizes, maxSplitSize, dataset_query, -1);
+            ArrayList<PartitionSplit> shuffle_splits = resizeSplits(pi, ArrayListToArray(filter_blocks), partitionSizes, maxSplitSize, dataset_query, -1);
+            pi = new ScanIterator(dataset_query.castToQuery());
+            shuffle_splits.addAll(resizeSplits(pi, ArrayListToArray(covered_blocks), partitionSizes, maxSplitSize, dataset_query, -1));
             int total = 0;
             for (PartitionSplit hs : shuffle_splits) {
                 shuffleJoinSplit.add(hs);
@@ -684,6 +703,25 @@ public class JoinPlanner {
         }
     }
 
+    /*
+    *   Buckets of the partition whose whole range, given by the path from the root, satisfies the query's predicates.
+    * */
+
+    private static HashSet<Integer> getCoveredBlocks(JoinAccessMethod am, JoinQuery query) {
+        HashSet<Integer> covered = new HashSet<Integer>();
+        if (am == null || am.getIndex().getRoot() == null) {
+            return covered;
+        }
+
+        List<JRNode> covered_nodes = new ArrayList<JRNode>();
+        List<JRNode> partial_nodes = new ArrayList<JRNode>();
+        am.getIndex().getRoot().search(query.castToQuery().getPredicates(), covered_nodes, partial_nodes);
+        for (JRNode node : covered_nodes) {
+            covered.add(node.bucket.getBucketId());
+        }
+        return covered;
+    }
+
     private PartitionSplit[] getPartitionSplits(int[] bids, JoinQuery q) {
         PostFilterIterator pi = new PostFilterIterator(q.castToQuery());
         PartitionSplit psplit = new PartitionSplit(bids, pi);
@@ -759,7 +797,9 @@ public class JoinPlanner {
             }
 
             PartitionIterator iter = split.getIterator();
-            if (iter instanceof PostFilterIterator) {
+            if (iter instanceof ScanIterator) {
+                sb.append(-3 + ",");
+            } else if (iter instanceof PostFilterIterator) {
                 sb.append(-2 + ",");
             } else {
                 JoinRepartitionIterator pi = (JoinRepartitionIterator) iter;
@@ -905,11 +945,17 @@ public class JoinPlanner {
             splits2.add(block);
         }
 
+        Map<Integer, BloomFilter> dataset1_filters = loadKeyFilters(dataset1, dataset1_tableInfo, splits1, join_attribute);
+        Map<Integer, BloomFilter> dataset2_filters = loadKeyFilters(dataset2, dataset2_tableInfo, splits2, dataset2_query.getJoinAttribute());
+
+        int overlapping = 0;
+        int pruned = 0;
 
         for (Integer i : dataset1_bucketInfo.keySet()) {
             if (splits1.contains(i) == false) continue;
 
             MDIndex.BucketInfo info_i = dataset1_bucketInfo.get(i);
+            BloomFilter filter_i = dataset1_filters.get(i);
 
             for (Integer j : dataset2_bucketInfo.keySet()) {
                 if (splits2.contains(j) == false) continue;
@@ -919,6 +965,15 @@ public class JoinPlanner {
                 //System.out.println(i + " from " + dataset1 + " intersects with " + j +  " from "+  dataset2 + " result: " + info_i.overlap(info_j));
 
                 if (info_i.overlap(info_j)) {
+                    overlapping++;
+
+                    // The ranges overlap, but the keys may not.
+                    BloomFilter filter_j = dataset2_filters.get(j);
+                    if (filter_i != null && filter_j != null && filter_i.mayIntersect(filter_j) == false) {
+                        pruned++;
+                        continue;
+                    }
+
                     if (overlap_chunks.containsKey(i) == false) {
                         overlap_chunks.put(i, new ArrayList<Integer>());
                     }
@@ -927,6 +982,44 @@ public class JoinPlanner {
             }
         }
 
+        // A scanned bucket joining no bucket of dataset2 produces nothing.
+        // Buckets to repartition are read anyway.
+
+        ArrayList<Integer> scan_blocks = dataset1_scan_blocks.get(join_attribute);
+        int dropped = 0;
+
+        for (int block : splits1) {
+            if (overlap_chunks.containsKey(block)) continue;
+
+            if (scan_blocks != null && scan_blocks.remove(Integer.valueOf(block))) {
+                dropped++;
+            } else {
+                overlap_chunks.put(block, new ArrayList<Integer>());
+            }
+        }
+
+        System.out.println("INFO: Key filters dropped " + pruned + " of " + overlapping
+                + " overlapping bucket pairs, " + dropped + " buckets of " + dataset1 + " join nothing");
+    }
+
+    /**
+     * Filters of the attribute over the given buckets of a table, see
+     * KeyFilter. Buckets without one may hold any key and are left out.
+     */
+    private Map<Integer, BloomFilter> loadKeyFilters(String dataset, TableInfo tableInfo, Set<Integer> buckets, int attribute) {
+        Map<Integer, BloomFilter> filters = new HashMap<Integer, BloomFilter>();
+        if (ArrayUtils.contains(tableInfo.keyFilters, attribute) == false) {
+            return filters;
+        }
+
+        String dir = queryConf.getWorkingDir() + "/" + dataset + "/" + KeyFilter.KEY_FILTER_DIR;
+        for (Map.Entry<Integer, KeyFilter> e : KeyFilter.loadAll(fs, dir, buckets).entrySet()) {
+            BloomFilter filter = e.getValue().getFilter(attribute);
+            if (filter != null) {
+                filters.put(e.getKey(), filter);
+            }
+        }
+        return filters;
     }
 
 
@@ -7,6 +7,7 @@ import core.adapt.iterator.PostFilterIterator;
 import core.adapt.spark.SparkQueryConf;
 import core.utils.HDFSUtils;
 import core.utils.ReflectionUtils;
+import core.utils.SegmentUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -125,8 +126,8 @@ public class SparkJoinCopartitionedInputFormat extends
 
             long[] lengths = new long[2];
 
-            lengths[0] = fs.getFileStatus(paths[0]).getLen();
-            lengths[1] = fs.getFileStatus(paths[1]).getLen();
+            lengths[0] = SegmentUtils.getLength(fs, paths[0]);
+            lengths[1] = SegmentUtils.getLength(fs, paths[1]);
 
             SparkJoinCopartitionedFileSplit split = new SparkJoinCopartitionedFileSplit(paths, lengths, iter1, iter2);
             finalSplits.add(split);
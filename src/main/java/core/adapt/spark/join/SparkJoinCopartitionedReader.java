@@ -118,7 +118,7 @@ public class SparkJoinCopartitionedReader extends
                 Short.parseShort(conf.get(SparkQueryConf.HDFS_REPLICATION_FACTOR)),
                 client);
         partition.setTotalSize(size);
-        partition.load(); // ???
+        partition.setMapped(conf.getBoolean(SparkQueryConf.LOCAL_MMAP, false));
         iter1.setPartition(partition);
     }
 
@@ -134,7 +134,7 @@ public class SparkJoinCopartitionedReader extends
                 Short.parseShort(conf.get(SparkQueryConf.HDFS_REPLICATION_FACTOR)),
                 client);
         partition.setTotalSize(size);
-        partition.load(); // ???
+        partition.setMapped(conf.getBoolean(SparkQueryConf.LOCAL_MMAP, false));
         iter2.setPartition(partition);
     }
 
@@ -148,7 +148,7 @@ public class SparkJoinCopartitionedReader extends
             tupleCountInTable1++;
 
             IteratorRecord r = iter1.next();
-            byte[] rawBytes = r.getBytes();
+            byte[] rawBytes = r.copyBytes();
             long key = r.getLongAttribute(join_attr1);
             hashTable.put(key, rawBytes);
         }
@@ -167,7 +167,7 @@ public class SparkJoinCopartitionedReader extends
                 tupleCountInTable2++;
                 if (hashTable.containsKey(key)) {
                     firstRecords = hashTable.get(key).iterator();
-                    secondRecord = r.getBytes();
+                    secondRecord = r.copyBytes();
                     hasNext = true;
                     return;
                 }
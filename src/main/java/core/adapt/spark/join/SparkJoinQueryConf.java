@@ -21,6 +21,7 @@ public class SparkJoinQueryConf {
     public final static String SCHEMA = "SCHEMA";
     public final static String CARTILAGE_PROPERTIES = "CARTILAGE_PROPERTIES";
     public final static String WORKER_NUM = "WORKER_NUM";
+    public final static String LOCAL_MMAP = "LOCAL_MMAP";
 
     private Configuration conf;
 
@@ -115,6 +116,14 @@ public class SparkJoinQueryConf {
         return Short.parseShort(conf.get(HDFS_REPLICATION_FACTOR));
     }
 
+    public void setLocalMmap(boolean mmap) {
+        conf.setBoolean(LOCAL_MMAP, mmap);
+    }
+
+    public boolean getLocalMmap() {
+        return conf.getBoolean(LOCAL_MMAP, false);
+    }
+
     public void setReplicaId(int numReplicas) {
         conf.set(REPLICA_ID, String.valueOf(numReplicas));
     }
@@ -6,10 +6,14 @@ import java.util.Iterator;
 
 import com.google.common.collect.ArrayListMultimap;
 import core.adapt.JoinQuery;
+import core.adapt.KeyFilter;
 import core.adapt.Query;
 import core.adapt.iterator.JoinRepartitionIterator;
 import core.adapt.iterator.PostFilterIterator;
 import core.adapt.spark.SparkQueryConf;
+import core.common.globals.Globals;
+import core.common.globals.TableInfo;
+import org.apache.commons.lang.ArrayUtils;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -24,6 +28,7 @@ import core.adapt.HDFSPartition;
 import core.adapt.iterator.IteratorRecord;
 import core.adapt.iterator.PartitionIterator;
 import core.adapt.spark.join.SparkJoinInputFormat.SparkJoinFileSplit;
+import core.utils.BloomFilter;
 import core.utils.CuratorUtils;
 
 /**
@@ -56,6 +61,10 @@ public class SparkJoinRecordReader extends
 
     ArrayListMultimap<Long, byte[]> hashTable;
 
+    // Keys of hashTable. Probing it first spares the boxed lookup for keys
+    // that find no match, and tells which buckets of dataset2 can be skipped.
+    BloomFilter buildFilter;
+
     Iterator<byte[]> firstRecords;
     byte[] secondRecord;
 
@@ -135,8 +144,53 @@ public class SparkJoinRecordReader extends
         build_hashtable();
 
 
-        setPartitionToSecondIterator(sparkSplit.getPath(currentFile), sparkSplit.getLength(currentFile));
+        openSecondFile();
+
+    }
+
+    /**
+     * Open the first file of dataset2 from currentFile on that may join.
+     *
+     * @return false if there is none left
+     */
+    private boolean openSecondFile() {
+        for (; currentFile < sparkSplit.getNumPaths(); currentFile++) {
+            if (canSkipSecondFile(sparkSplit.getPath(currentFile))) {
+                System.out.println("Skipping " + sparkSplit.getPath(currentFile) + ", no key joins");
+                continue;
+            }
+            setPartitionToSecondIterator(sparkSplit.getPath(currentFile), sparkSplit.getLength(currentFile));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Buckets read to be repartitioned are never skipped: their records must
+     * be written out. The others are if none of their keys is in the hash
+     * table, as told by their key filter.
+     */
+    private boolean canSkipSecondFile(Path path) {
+        if (types[currentFile - numFilesinDataset1] != -2) {
+            return false;
+        }
+        if (buildFilter.isEmpty()) {
+            return true;
+        }
+
+        TableInfo tableInfo = Globals.getTableInfo(dataset2);
+        if (tableInfo != null && ArrayUtils.contains(tableInfo.keyFilters, join_attr2) == false) {
+            return false;
+        }
 
+        try {
+            KeyFilter keyFilter = KeyFilter.load(path.getFileSystem(conf), path.toString());
+            BloomFilter filter = keyFilter == null ? null : keyFilter.getFilter(join_attr2);
+            return filter != null && buildFilter.mayIntersect(filter) == false;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
     }
 
     void setPartitionToSecondIterator(Path path, long size) {
@@ -151,7 +205,7 @@ public class SparkJoinRecordReader extends
                 Short.parseShort(conf.get(SparkQueryConf.HDFS_REPLICATION_FACTOR)),
                 client);
         partition.setTotalSize(size);
-        partition.load(); // ???
+        partition.setMapped(conf.getBoolean(SparkQueryConf.LOCAL_MMAP, false));
 
         if(types[currentFile- numFilesinDataset1] == -2){
             iter2 = pf_iter;
@@ -174,7 +228,7 @@ public class SparkJoinRecordReader extends
                 Short.parseShort(conf.get(SparkQueryConf.HDFS_REPLICATION_FACTOR)),
                 client);
         partition.setTotalSize(size);
-        partition.load(); // ???
+        partition.setMapped(conf.getBoolean(SparkQueryConf.LOCAL_MMAP, false));
         iter1.setPartition(partition);
     }
 
@@ -198,11 +252,16 @@ public class SparkJoinRecordReader extends
                 tupleCountInTable1++;
 
                 IteratorRecord r = iter1.next();
-                byte[] rawBytes = r.getBytes();
+                byte[] rawBytes = r.copyBytes();
                 long key = r.getLongAttribute(join_attr1);
                 hashTable.put(key, rawBytes);
             }
         }
+
+        buildFilter = new BloomFilter(BloomFilter.getNumBits(hashTable.keySet().size()));
+        for (long key : hashTable.keySet()) {
+            buildFilter.add(key);
+        }
     }
 
     private void getNext() {
@@ -211,26 +270,25 @@ public class SparkJoinRecordReader extends
             hasNext = true;
         } else {
             while (true) {
-                if (iter2.hasNext()) {
+                if (iter2 != null && iter2.hasNext()) {
                     IteratorRecord r = iter2.next();
                     long key = r.getLongAttribute(join_attr2);
 
                     tupleCountInTable2++;
 
-                    if (hashTable.containsKey(key)) {
+                    if (buildFilter.mayContain(key) && hashTable.containsKey(key)) {
                         firstRecords = hashTable.get(key).iterator();
-                        secondRecord = r.getBytes();
+                        secondRecord = r.copyBytes();
                         hasNext = true;
 
                         break;
                     }
                 } else {
+                    iter2 = null;
                     currentFile++;
-                    if (currentFile >= sparkSplit.getNumPaths()) {
+                    if (openSecondFile() == false) {
                         hasNext = false;
                         break;
-                    } else {
-                        setPartitionToSecondIterator(sparkSplit.getPath(currentFile), sparkSplit.getLength(currentFile));
                     }
                 }
             }
@@ -5,6 +5,7 @@ import core.adapt.Query;
 import core.adapt.iterator.JoinRepartitionIterator;
 import core.adapt.iterator.PartitionIterator;
 import core.adapt.iterator.PostFilterIterator;
+import core.adapt.iterator.ScanIterator;
 import core.adapt.spark.SparkQueryConf;
 import core.utils.ReflectionUtils;
 import org.apache.hadoop.conf.Configuration;
@@ -111,7 +112,10 @@ public class SparkScanInputFormat extends FileInputFormat<LongWritable, Text> im
             String[] subsplits = splits[i].split(",");
             int iter_type = Integer.parseInt(subsplits[0]);
 
-            if (iter_type == -2) {
+            if (iter_type == -3) {
+                iter = new ScanIterator(jq.castToQuery());
+
+            } else if (iter_type == -2) {
                 iter = new PostFilterIterator(jq.castToQuery());
 
             } else {
@@ -57,7 +57,7 @@ public class SparkScanRecordReader extends
                 Short.parseShort(conf.get(SparkQueryConf.HDFS_REPLICATION_FACTOR)),
                 client);
         partition.setTotalSize(size);
-        partition.load();
+        partition.setMapped(conf.getBoolean(SparkQueryConf.LOCAL_MMAP, false));
 
         iter.setPartition(partition);
 
@@ -98,7 +98,7 @@ public class SparkScanRecordReader extends
                 IteratorRecord r = iter.next();
 
                 key.set(r.getLongAttribute(join_attr));
-                value.set(r.getBytes());
+                value.set(r.getBuffer(), r.getOffset(), r.getLength());
 
                 tupleCountInTable++;
                 hasNext = true;
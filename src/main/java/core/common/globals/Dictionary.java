@@ -0,0 +1,243 @@
+package core.common.globals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import core.common.key.ParsedTupleList;
+import core.utils.BinaryUtils;
+import core.utils.HDFSUtils;
+import core.utils.TypeUtils.TYPE;
+
+/**
+ * Per table dictionaries of the low cardinality STRING attributes, built from
+ * the sample when the index is built and stored next to the table info.
+ *
+ * The values of an attribute are sorted, and value i gets the code 2 * i + 1.
+ * A value that is not in the dictionary gets 2 * p, p being where it would
+ * be inserted. Codes thus compare like the values they stand for, except
+ * that two values missing from the dictionary may share a code; when
+ * comparing two even codes that are equal, compare the values instead.
+ *
+ * Only ASCII values are kept, so that looking up raw (UTF-8) record bytes
+ * gives the same code as looking up the String.
+ */
+public class Dictionary {
+	// Largest number of distinct values of an encoded attribute.
+	public static final int MAX_SIZE = 256;
+
+	// Each value must be seen this many times on average in the sample, so
+	// that the sample likely holds the whole domain.
+	public static final int MIN_OCCURRENCES = 16;
+
+	// Sorted values of each attribute, null for attributes not encoded.
+	private final String[][] values;
+	private final byte[][][] valueBytes;
+
+	public Dictionary(String[][] values) {
+		this.values = values;
+		this.valueBytes = new byte[values.length][][];
+		for (int a = 0; a < values.length; a++) {
+			if (values[a] == null)
+				continue;
+			valueBytes[a] = new byte[values[a].length][];
+			for (int i = 0; i < values[a].length; i++)
+				valueBytes[a][i] = values[a][i].getBytes();
+		}
+	}
+
+	/**
+	 * Build the dictionaries of the STRING attributes of the sample with few
+	 * enough distinct values.
+	 *
+	 * @return null if no attribute qualifies
+	 */
+	public static Dictionary build(ParsedTupleList sample) {
+		String charset = Charset.defaultCharset().name();
+		if (!charset.equals("UTF-8") && !charset.equals("US-ASCII")
+				&& !charset.equals("ISO-8859-1"))
+			return null;
+
+		TYPE[] types = sample.getTypes();
+		List<Object[]> tuples = sample.getValues();
+		int maxSize = Math.min(MAX_SIZE, tuples.size() / MIN_OCCURRENCES);
+
+		String[][] values = new String[types.length][];
+		boolean any = false;
+		for (int a = 0; a < types.length; a++) {
+			if (types[a] != TYPE.STRING)
+				continue;
+
+			TreeSet<String> distinct = new TreeSet<String>();
+			for (Object[] tuple : tuples) {
+				String s = (String) tuple[a];
+				if (distinct.contains(s))
+					continue;
+				if (distinct.size() == maxSize || !isAscii(s)) {
+					distinct = null;
+					break;
+				}
+				distinct.add(s);
+			}
+
+			if (distinct != null && distinct.size() > 0) {
+				values[a] = distinct.toArray(new String[distinct.size()]);
+				any = true;
+			}
+		}
+		return any ? new Dictionary(values) : null;
+	}
+
+	private static boolean isAscii(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) >= 0x80)
+				return false;
+		}
+		return true;
+	}
+
+	public boolean isEncoded(int attribute) {
+		return attribute < values.length && values[attribute] != null;
+	}
+
+	/**
+	 * Number of values of an encoded attribute.
+	 */
+	public int size(int attribute) {
+		return values[attribute].length;
+	}
+
+	/**
+	 * Whether the code stands for a value of the dictionary.
+	 */
+	public static boolean isKnown(int code) {
+		return (code & 1) != 0;
+	}
+
+	public String getValue(int attribute, int code) {
+		return values[attribute][code >>> 1];
+	}
+
+	public byte[] getValueBytes(int attribute, int code) {
+		return valueBytes[attribute][code >>> 1];
+	}
+
+	public int getCode(int attribute, String value) {
+		int i = Arrays.binarySearch(values[attribute], value);
+		return i >= 0 ? 2 * i + 1 : 2 * (-i - 1);
+	}
+
+	/**
+	 * Code of the value in bytes[offset, offset + length).
+	 */
+	public int getCode(int attribute, byte[] bytes, int offset, int length) {
+		byte[][] v = valueBytes[attribute];
+		int lo = 0;
+		int hi = v.length - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = BinaryUtils.compare(bytes, offset, length, v[mid]);
+			if (cmp > 0)
+				lo = mid + 1;
+			else if (cmp < 0)
+				hi = mid - 1;
+			else
+				return 2 * mid + 1;
+		}
+		return 2 * lo;
+	}
+
+	/**
+	 * Replace the encoded values of the sample by the dictionary's instances,
+	 * so that equal values share one String.
+	 */
+	public void intern(ParsedTupleList sample) {
+		for (Object[] tuple : sample.getValues()) {
+			for (int a = 0; a < values.length; a++) {
+				if (values[a] == null)
+					continue;
+				int code = getCode(a, (String) tuple[a]);
+				if (isKnown(code))
+					tuple[a] = getValue(a, code);
+			}
+		}
+	}
+
+	public static String getPath(String hdfsWorkingDir, String tableName) {
+		return hdfsWorkingDir + "/" + tableName + "/dictionary";
+	}
+
+	/**
+	 * Serialized as the number of attributes, then for each the number of
+	 * values (-1 if not encoded) and the values.
+	 */
+	public byte[] toBytes() {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bos);
+		try {
+			out.writeInt(values.length);
+			for (String[] v : values) {
+				out.writeInt(v == null ? -1 : v.length);
+				if (v == null)
+					continue;
+				for (String s : v)
+					out.writeUTF(s);
+			}
+			out.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return bos.toByteArray();
+	}
+
+	public static Dictionary fromBytes(byte[] bytes) {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		try {
+			String[][] values = new String[in.readInt()][];
+			for (int a = 0; a < values.length; a++) {
+				int size = in.readInt();
+				if (size < 0)
+					continue;
+				values[a] = new String[size];
+				for (int i = 0; i < size; i++)
+					values[a][i] = in.readUTF();
+			}
+			return new Dictionary(values);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("Corrupt dictionary");
+		}
+	}
+
+	public void save(String hdfsWorkingDir, String tableName, short replication,
+			FileSystem fs) {
+		byte[] bytes = toBytes();
+		HDFSUtils.writeFile(fs, getPath(hdfsWorkingDir, tableName), replication,
+				bytes, 0, bytes.length, false);
+	}
+
+	/**
+	 * @return null if the table has no dictionary
+	 */
+	public static Dictionary load(String hdfsWorkingDir, String tableName,
+			FileSystem fs) {
+		String path = getPath(hdfsWorkingDir, tableName);
+		try {
+			if (!fs.exists(new Path(path)))
+				return null;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		return fromBytes(HDFSUtils.readFile(fs, path));
+	}
+}
@@ -1,12 +1,14 @@
 package core.common.globals;
 
 import com.google.common.base.Joiner;
+import core.adapt.KeyFilter;
+import core.adapt.ZoneMap;
 import core.common.index.JoinRobustTree;
 import core.common.index.RobustTree;
 import core.utils.HDFSUtils;
+import core.utils.SegmentUtils;
 import core.utils.TypeUtils;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.FilenameUtils;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -19,6 +21,12 @@ import java.util.HashSet;
  * Created by anil on 12/11/15.
  */
 public class TableInfo {
+    // On-disk format of the buckets under <table>/data.
+    // TEXT: newline separated records. COLUMNAR: see core.adapt.ColumnarBlock.
+    public enum FORMAT {
+        TEXT, COLUMNAR
+    }
+
     // Name of table.
     public String tableName;
 
@@ -36,6 +44,28 @@ public class TableInfo {
 
     public int depth;
 
+    public FORMAT format;
+
+    // Block compression codec of the buckets (see CompressionUtils), null
+    // for none. Chosen when the table is created: a bucket file holds
+    // frames of a single codec.
+    public String codec;
+
+    // Dictionaries of the low cardinality STRING attributes, null if none.
+    // Built along with the index and stored next to the info, see
+    // Dictionary.
+    public Dictionary dictionary;
+
+    // INT or LONG attributes, usually join attributes, whose values each
+    // bucket keeps a Bloom filter of, see KeyFilter. Chosen when the table is
+    // created: every writer must keep them.
+    public int[] keyFilters;
+
+    // Attribute the records of each write to a text bucket are sorted on,
+    // see SortedRun. -1 to keep arrival order. Chosen when the table is
+    // created.
+    public int sortAttribute;
+
     public TableInfo(String tableName) {
         this(tableName, 0, '|', null);
     }
@@ -47,29 +77,59 @@ public class TableInfo {
         this.schema = schema;
         this.partitions = new int[]{-1};
         this.depth = 0;
+        this.format = FORMAT.TEXT;
+        this.keyFilters = new int[0];
+        this.sortAttribute = -1;
     }
 
-    private String partitionsString() {
+    private static String attributesString(int[] attributes) {
         String res = "";
-        for (int i = 0; i < partitions.length; i++) {
+        for (int i = 0; i < attributes.length; i++) {
             if (i != 0) {
                 res += ";";
             }
-            res += Integer.toString(partitions[i]);
+            res += Integer.toString(attributes[i]);
         }
         return res;
     }
 
+    private static int[] parseAttributes(String s) {
+        String[] strAttributes = s.split(";");
+        int[] attributes = new int[strAttributes.length];
+        for (int k = 0; k < strAttributes.length; k++) {
+            attributes[k] = Integer.parseInt(strAttributes[k]);
+        }
+        return attributes;
+    }
+
     public TypeUtils.TYPE[] getTypeArray() {
         return schema.getTypeArray();
     }
 
+    public boolean isColumnar() {
+        return format == FORMAT.COLUMNAR;
+    }
+
     public void save(String hdfsWorkingDir, short replication, FileSystem fs) {
         String saveContent = "TOTAL_NUM_TUPLES: " + numTuples + "\n" +
                 "DELIMITER: " + delimiter + "\n" +
                 "SCHEMA: " + schema.toString() + "\n" +
-                "PARTITION: " + partitionsString() + "\n" +
+                "PARTITION: " + attributesString(partitions) + "\n" +
                 "DEPTH: " + depth + "\n";
+        // Left out for text tables, so their info stays readable by older
+        // versions.
+        if (format != FORMAT.TEXT) {
+            saveContent += "FORMAT: " + format + "\n";
+        }
+        if (codec != null) {
+            saveContent += "CODEC: " + codec + "\n";
+        }
+        if (sortAttribute != -1) {
+            saveContent += "SORT_ATTRIBUTE: " + sortAttribute + "\n";
+        }
+        if (keyFilters.length > 0) {
+            saveContent += "KEY_FILTERS: " + attributesString(keyFilters) + "\n";
+        }
         byte[] saveContentBytes = saveContent.getBytes();
         String path = hdfsWorkingDir + "/" + tableName + "/info";
         HDFSUtils.writeFile(fs, path, replication,
@@ -83,7 +143,12 @@ public class TableInfo {
 
         String[] settings = content.split("\n");
 
-        if (settings.length != 5) {
+        format = FORMAT.TEXT;
+        codec = null;
+        keyFilters = new int[0];
+        sortAttribute = -1;
+
+        if (settings.length < 5) {
             throw new RuntimeException();
         }
 
@@ -101,19 +166,29 @@ public class TableInfo {
                     schema = Schema.createSchema(parts[1].trim());
                     break;
                 case "PARTITION":
-                    String[] strPartitions = parts[1].trim().split(";");
-                    partitions = new int[strPartitions.length];
-                    for (int k = 0; k < strPartitions.length; k++) {
-                        partitions[k] = Integer.parseInt(strPartitions[k]);
-                    }
+                    partitions = parseAttributes(parts[1].trim());
                     break;
                 case "DEPTH":
                     depth = Integer.parseInt(parts[1].trim());
                     break;
+                case "FORMAT":
+                    format = FORMAT.valueOf(parts[1].trim());
+                    break;
+                case "CODEC":
+                    codec = parts[1].trim();
+                    break;
+                case "SORT_ATTRIBUTE":
+                    sortAttribute = Integer.parseInt(parts[1].trim());
+                    break;
+                case "KEY_FILTERS":
+                    keyFilters = parseAttributes(parts[1].trim());
+                    break;
                 default:
                     System.out.println("Unknown setting found: " + parts[0].trim());
             }
         }
+
+        dictionary = Dictionary.load(hdfsWorkingDir, tableName, fs);
     }
 
     public void gc(String hdfsWorkingDir, FileSystem fs) {
@@ -141,12 +216,25 @@ public class TableInfo {
                 FileStatus[] existingFiles = fs.listStatus(new Path(pathToData));
                 for (int k = 0; k < existingFiles.length; k++) {
                     Path fp = existingFiles[k].getPath();
-                    String fileName = FilenameUtils.getName(fp.toString());
-                    int id = Integer.parseInt(fileName);
-                    if (buckets.contains(id) == false) {
+                    // Any file of the bucket or manifest, see SegmentUtils.
+                    int id = SegmentUtils.getListedBucketId(fp.getName());
+                    if (id != -1 && buckets.contains(id) == false) {
                         fs.delete(fp, false);
                     }
                 }
+                // The zone maps and key filters of their files.
+                for (String dir : new String[] { ZoneMap.ZONE_MAP_DIR, KeyFilter.KEY_FILTER_DIR }) {
+                    Path dirPath = new Path(path + "/" + dir);
+                    if (fs.exists(dirPath) == false) {
+                        continue;
+                    }
+                    for (FileStatus f : fs.listStatus(dirPath)) {
+                        int id = SegmentUtils.getBucketId(f.getPath().getName());
+                        if (id != -1 && buckets.contains(id) == false) {
+                            fs.delete(f.getPath(), false);
+                        }
+                    }
+                }
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -0,0 +1,248 @@
+package core.common.index;
+
+import java.util.Arrays;
+
+import core.adapt.iterator.RecordBatch;
+import core.common.globals.Dictionary;
+import core.common.key.RawIndexKey;
+import core.utils.TypeUtils;
+import core.utils.TypeUtils.SimpleDate;
+import core.utils.TypeUtils.TYPE;
+
+/**
+ * Read-only form of a RobustTree or JoinRobustTree, for routing records to
+ * buckets. The internal nodes are flattened in pre-order into parallel
+ * arrays: the attribute, the cut value as encoded by TypeUtils.encode, and
+ * the child indexes, where a child ~b < 0 is the bucket b. A key goes left
+ * when the cut value is at least its attribute, as in RNode.getBucketId.
+ *
+ * Each attribute the walk needs is parsed once per key. STRING attributes
+ * encoded in the dictionary are compared by their codes, the others by
+ * their encoded prefix, then as strings.
+ *
+ * Keeps the attributes of the key being routed, so not thread safe: compile
+ * a tree per routing thread. Later changes to the tree are not reflected.
+ */
+public class CompiledTree {
+	// How a cut value is encoded, and the attribute of a key parsed.
+	private static final byte INT = 0;
+	private static final byte LONG = 1;
+	private static final byte DOUBLE = 2;
+	private static final byte DATE = 3;
+	private static final byte STRING = 4;
+	private static final byte CODE = 5;
+
+	private final Dictionary dictionary;
+
+	// Index of the root, or ~bucket if the tree is a single bucket.
+	private int start;
+	private int size;
+
+	private final int[] attribute;
+	private final byte[] kind;
+	private final long[] cut;
+	private final String[] cutString;
+	private final int[] left;
+	private final int[] right;
+
+	// Attributes of the key being routed, valid if parsed[a] == generation.
+	private long[] values;
+	private String[] strings;
+	private int[] parsed;
+	private int generation;
+
+	private final SimpleDate date = new SimpleDate(0, 0, 0);
+
+	// Record view for routing batches.
+	private RawIndexKey record;
+
+	/**
+	 * @param dictionary
+	 *            may be null, then all STRING attributes compare as strings
+	 */
+	public CompiledTree(RNode root, Dictionary dictionary) {
+		this(countNodes(root), dictionary);
+		start = add(root);
+		initKey();
+	}
+
+	public CompiledTree(JRNode root, Dictionary dictionary) {
+		this(countNodes(root), dictionary);
+		start = add(root);
+		initKey();
+	}
+
+	private CompiledTree(int numNodes, Dictionary dictionary) {
+		this.dictionary = dictionary;
+		attribute = new int[numNodes];
+		kind = new byte[numNodes];
+		cut = new long[numNodes];
+		cutString = new String[numNodes];
+		left = new int[numNodes];
+		right = new int[numNodes];
+	}
+
+	private static int countNodes(RNode n) {
+		if (n.bucket != null)
+			return 0;
+		return 1 + countNodes(n.leftChild) + countNodes(n.rightChild);
+	}
+
+	private static int countNodes(JRNode n) {
+		if (n.bucket != null)
+			return 0;
+		return 1 + countNodes(n.leftChild) + countNodes(n.rightChild);
+	}
+
+	private int add(RNode n) {
+		if (n.bucket != null)
+			return ~n.bucket.getBucketId();
+		int i = size++;
+		setCut(i, n.attribute, n.type, n.value);
+		left[i] = add(n.leftChild);
+		right[i] = add(n.rightChild);
+		return i;
+	}
+
+	private int add(JRNode n) {
+		if (n.bucket != null)
+			return ~n.bucket.getBucketId();
+		int i = size++;
+		setCut(i, n.attribute, n.type, n.value);
+		left[i] = add(n.leftChild);
+		right[i] = add(n.rightChild);
+		return i;
+	}
+
+	private void setCut(int i, int attr, TYPE type, Object value) {
+		attribute[i] = attr;
+		switch (type) {
+		case INT:
+			kind[i] = INT;
+			break;
+		case LONG:
+			kind[i] = LONG;
+			break;
+		case DOUBLE:
+			kind[i] = DOUBLE;
+			break;
+		case DATE:
+			kind[i] = DATE;
+			break;
+		case STRING:
+			cutString[i] = (String) value;
+			if (dictionary != null && dictionary.isEncoded(attr)) {
+				kind[i] = CODE;
+				cut[i] = dictionary.getCode(attr, (String) value);
+				return;
+			}
+			kind[i] = STRING;
+			break;
+		default:
+			throw new RuntimeException("Unknown dimension type: " + type);
+		}
+		cut[i] = TypeUtils.encode(value, type);
+	}
+
+	private void initKey() {
+		int numAttributes = 0;
+		for (int i = 0; i < size; i++)
+			numAttributes = Math.max(numAttributes, attribute[i] + 1);
+		values = new long[numAttributes];
+		strings = new String[numAttributes];
+		parsed = new int[numAttributes];
+	}
+
+	private long parse(RawIndexKey key, int attr, byte k) {
+		switch (k) {
+		case INT:
+			return key.getIntAttribute(attr);
+		case LONG:
+			return key.getLongAttribute(attr);
+		case DOUBLE:
+			return TypeUtils.encode(key.getDoubleAttribute(attr));
+		case DATE:
+			return TypeUtils.encode(key.getDateAttribute(attr, date));
+		case CODE:
+			return key.getStringCode(attr, dictionary);
+		default:
+			// The prefix, see compareStrings for the rest.
+			String value = key.getStringAttribute(attr);
+			strings[attr] = value;
+			return TypeUtils.encode(value);
+		}
+	}
+
+	/**
+	 * Compare the STRING cut value of node i with the attribute of the key,
+	 * their codes or prefixes being equal.
+	 */
+	private int compareStrings(int i, RawIndexKey key) {
+		if (kind[i] == CODE) {
+			// Equal even codes: both values are missing from the dictionary.
+			if (Dictionary.isKnown((int) cut[i]))
+				return 0;
+			return cutString[i].compareTo(key.getStringAttribute(attribute[i]));
+		}
+		return cutString[i].compareTo(strings[attribute[i]]);
+	}
+
+	public int getBucketId(RawIndexKey key) {
+		int gen = ++generation;
+		if (gen == 0) {
+			Arrays.fill(parsed, 0);
+			gen = generation = 1;
+		}
+
+		int i = start;
+		while (i >= 0) {
+			int a = attribute[i];
+			long v;
+			if (parsed[a] == gen) {
+				v = values[a];
+			} else {
+				v = parse(key, a, kind[i]);
+				values[a] = v;
+				parsed[a] = gen;
+			}
+			int cmp = Long.compare(cut[i], v);
+			if (cmp == 0 && kind[i] >= STRING)
+				cmp = compareStrings(i, key);
+			i = cmp >= 0 ? left[i] : right[i];
+		}
+		return ~i;
+	}
+
+	/**
+	 * Route the selected records of the batch: the i-th selected one goes to
+	 * bucket ids[i].
+	 *
+	 * @param ids
+	 *            reused if large enough, may be null
+	 * @return the bucket ids
+	 */
+	public int[] getBucketIds(RecordBatch batch, int[] ids) {
+		int n = batch.getNumSelected();
+		if (ids == null || ids.length < n)
+			ids = new int[Math.max(n, batch.size())];
+		if (record == null)
+			record = new RawIndexKey(batch.getDelimiter());
+
+		byte[] bytes = batch.getBytes();
+		int[] selection = batch.getSelection();
+		for (int i = 0; i < n; i++) {
+			int row = selection[i];
+			record.setBytes(bytes, batch.getRecordOffset(row),
+					batch.getRecordLength(row));
+			ids[i] = getBucketId(record);
+		}
+		return ids;
+	}
+
+	/**
+	 * Number of internal nodes.
+	 */
+	public int size() {
+		return size;
+	}
+}
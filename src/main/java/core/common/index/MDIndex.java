@@ -2,6 +2,7 @@ package core.common.index;
 
 import java.util.HashMap;
 
+import core.adapt.iterator.RecordBatch;
 import core.common.key.ParsedTupleList;
 import core.common.key.RawIndexKey;
 import core.utils.Range;
@@ -140,6 +141,23 @@ public interface MDIndex {
 	 */
 	public Object getBucketId(RawIndexKey key);
 
+	/**
+	 * Get the bucket ids of the selected records of a batch: the i-th
+	 * selected record goes to bucket ids[i]. Compiles the index on each call;
+	 * to route many batches, compile() once and route them through it.
+	 *
+	 * @param batch
+	 * @return
+	 */
+	public int[] getBucketIds(RecordBatch batch);
+
+	/**
+	 * A read-only copy of the index, for routing many keys.
+	 *
+	 * @return
+	 */
+	public CompiledTree compile();
+
 	/**
 	 * Serialize the index into a byte array.
 	 *
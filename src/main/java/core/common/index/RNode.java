@@ -7,11 +7,12 @@ import java.util.Map;
 import java.util.Scanner;
 
 import core.adapt.Predicate;
+import core.common.globals.Dictionary;
 import core.common.index.MDIndex.Bucket;
 import core.common.index.MDIndex.BucketInfo;
 import core.common.key.RawIndexKey;
 import core.utils.TypeUtils;
-import core.utils.TypeUtils.SimpleDate;
+import core.utils.TypeUtils.EncodedValue;
 import core.utils.TypeUtils.TYPE;
 
 /**
@@ -35,6 +36,12 @@ public class RNode {
 
 	public Bucket bucket;
 
+	// Dictionary code of a STRING value, see getCode.
+	private transient Code code;
+
+	// Encoding of the value, see getKey.
+	private transient EncodedValue encoded;
+
 	public RNode() {
 
 	}
@@ -102,19 +109,62 @@ public class RNode {
 		}
 	}
 
+	// Immutable, so that routing threads can share it.
+	private static final class Code {
+		final Object value;
+		final Dictionary dictionary;
+		final int code;
+
+		Code(Object value, Dictionary dictionary, int attribute) {
+			this.value = value;
+			this.dictionary = dictionary;
+			this.code = dictionary.getCode(attribute, (String) value);
+		}
+	}
+
+	/**
+	 * Dictionary code of the value, recomputed if the value changed.
+	 */
+	private int getCode(Dictionary dictionary) {
+		Code c = code;
+		if (c == null || c.value != value || c.dictionary != dictionary) {
+			c = new Code(value, dictionary, attribute);
+			code = c;
+		}
+		return c.code;
+	}
+
+	/**
+	 * Order preserving encoding of the value (see TypeUtils.encode),
+	 * recomputed if the value changed.
+	 */
+	public long getKey() {
+		EncodedValue e = EncodedValue.of(encoded, value, type);
+		encoded = e;
+		return e.getKey();
+	}
+
 	private int compareKey(Object value, int dimension, TYPE type,
-			RawIndexKey key) {
+			RawIndexKey key, Dictionary dictionary) {
 		switch (type) {
 		case INT:
-			return ((Integer) value).compareTo(key.getIntAttribute(dimension));
+			return Long.compare(getKey(), key.getIntAttribute(dimension));
 		case LONG:
-			return ((Long) value).compareTo(key.getLongAttribute(dimension));
+			return Long.compare(getKey(), key.getLongAttribute(dimension));
 		case DOUBLE:
-			return ((Double) value).compareTo(key.getDoubleAttribute(dimension));
+			return Long.compare(getKey(),
+					TypeUtils.encode(key.getDoubleAttribute(dimension)));
 		case DATE:
-			return ((SimpleDate) value).compareTo(key
-					.getDateAttribute(dimension));
+			return Long.compare(getKey(),
+					TypeUtils.encode(key.getDateAttribute(dimension)));
 		case STRING:
+			if (dictionary != null && dictionary.isEncoded(dimension)) {
+				int c = getCode(dictionary);
+				int cmp = Integer.compare(c, key.getStringCode(dimension, dictionary));
+				// Equal even codes: both values are missing from the dictionary.
+				if (cmp != 0 || Dictionary.isKnown(c))
+					return cmp;
+			}
 			return ((String) value).compareTo(key.getStringAttribute(dimension));
 		default:
 			throw new RuntimeException("Unknown dimension type: " + type);
@@ -122,13 +172,21 @@ public class RNode {
 	}
 
 	public int getBucketId(RawIndexKey key) {
+		return getBucketId(key, null);
+	}
+
+	/**
+	 * Route the key, comparing the STRING attributes encoded in the dictionary
+	 * (if not null) by their codes.
+	 */
+	public int getBucketId(RawIndexKey key, Dictionary dictionary) {
 		if (this.bucket != null) {
 			return bucket.getBucketId();
 		} else {
-			if (compareKey(value, attribute, type, key) >= 0) {
-				return leftChild.getBucketId(key);
+			if (compareKey(value, attribute, type, key, dictionary) >= 0) {
+				return leftChild.getBucketId(key, dictionary);
 			} else {
-				return rightChild.getBucketId(key);
+				return rightChild.getBucketId(key, dictionary);
 			}
 		}
 	}
@@ -142,23 +200,23 @@ public class RNode {
 				if (p.attribute == attribute) {
 					switch (p.predtype) {
 					case GEQ:
-						if (TypeUtils.compareTo(p.value, value, type) > 0)
+						if (p.compareValue(getKey(), value) > 0)
 							goLeft = false;
 						break;
 					case LEQ:
-						if (TypeUtils.compareTo(p.value, value, type) <= 0)
+						if (p.compareValue(getKey(), value) <= 0)
 							goRight = false;
 						break;
 					case GT:
-						if (TypeUtils.compareTo(p.value, value, type) >= 0)
+						if (p.compareValue(getKey(), value) >= 0)
 							goLeft = false;
 						break;
 					case LT:
-						if (TypeUtils.compareTo(p.value, value, type) <= 0)
+						if (p.compareValue(getKey(), value) <= 0)
 							goRight = false;
 						break;
 					case EQ:
-						if (TypeUtils.compareTo(p.value, value, type) <= 0)
+						if (p.compareValue(getKey(), value) <= 0)
 							goRight = false;
 						else
 							goLeft = false;
@@ -196,6 +254,80 @@ public class RNode {
 		}
 	}
 
+	/**
+	 * Same as search(ps), but also tells apart the buckets whose whole range,
+	 * as given by the splits on the path from the root, satisfies all the
+	 * predicates (covered) from those which may hold other tuples as well
+	 * (partial). Tuples in covered buckets need no filtering.
+	 */
+	public void search(Predicate[] ps, List<RNode> covered, List<RNode> partial) {
+		search(ps, new boolean[ps.length], covered, partial);
+	}
+
+	private void search(Predicate[] ps, boolean[] satisfied, List<RNode> covered,
+			List<RNode> partial) {
+		if (bucket != null) {
+			for (int i = 0; i < satisfied.length; i++) {
+				if (!satisfied[i]) {
+					partial.add(this);
+					return;
+				}
+			}
+			covered.add(this);
+			return;
+		}
+
+		// The left subtree holds values <= value, the right one values > value.
+		boolean goLeft = true;
+		boolean goRight = true;
+		boolean[] satisfiedLeft = satisfied.clone();
+		boolean[] satisfiedRight = satisfied.clone();
+		for (int i = 0; i < ps.length; i++) {
+			Predicate p = ps[i];
+			if (p.attribute != attribute)
+				continue;
+
+			int cmp = p.compareValue(getKey(), value);
+			switch (p.predtype) {
+			case GEQ:
+				if (cmp > 0)
+					goLeft = false;
+				else
+					satisfiedRight[i] = true;
+				break;
+			case GT:
+				if (cmp >= 0)
+					goLeft = false;
+				if (cmp <= 0)
+					satisfiedRight[i] = true;
+				break;
+			case LEQ:
+				if (cmp <= 0)
+					goRight = false;
+				if (cmp >= 0)
+					satisfiedLeft[i] = true;
+				break;
+			case LT:
+				if (cmp <= 0)
+					goRight = false;
+				else
+					satisfiedLeft[i] = true;
+				break;
+			case EQ:
+				if (cmp <= 0)
+					goRight = false;
+				else
+					goLeft = false;
+				break;
+			}
+		}
+
+		if (goLeft)
+			leftChild.search(ps, satisfiedLeft, covered, partial);
+		if (goRight)
+			rightChild.search(ps, satisfiedRight, covered, partial);
+	}
+
 	public double numTuplesInSubtree() {
 		LinkedList<RNode> stack = new LinkedList<RNode>();
 		stack.add(this);
@@ -262,51 +394,18 @@ public class RNode {
 	public RNode parseNode(Scanner sc) {
 		String type = sc.next();
 		if (type.equals("n")) {
-			this.attribute = sc.nextInt();
-			this.type = TYPE.valueOf(sc.next());
+			int attribute = sc.nextInt();
+			TYPE t = TYPE.valueOf(sc.next());
 			// For string tokens; we may have to read more than one token, so
 			// read till end of line
-			this.value = TypeUtils.deserializeValue(this.type, sc.nextLine()
-					.trim());
-
-			boolean exists = this.rangesByAttribute.containsKey(this.attribute);
-
-			this.leftChild = new RNode();
-			this.leftChild.parent = this;
-
-			this.rightChild = new RNode();
-			this.rightChild.parent = this;
-
-			for (Map.Entry<Integer, BucketInfo> entry : this.rangesByAttribute
-					.entrySet()) {
-				this.leftChild.rangesByAttribute.put(entry.getKey(), entry
-						.getValue().clone());
-				this.rightChild.rangesByAttribute.put(entry.getKey(), entry
-						.getValue().clone());
-			}
-			this.rangesByAttribute = null;
-
-			if (exists) {
-				this.leftChild.rangesByAttribute.get(this.attribute).intersect(
-						new BucketInfo(this.type, null, this.value));
-				this.rightChild.rangesByAttribute.get(this.attribute)
-						.intersect(new BucketInfo(this.type, this.value, null));
-			} else {
-				this.leftChild.rangesByAttribute.put(this.attribute,
-						new BucketInfo(this.type, null, this.value));
-				this.rightChild.rangesByAttribute.put(this.attribute,
-						new BucketInfo(this.type, this.value, null));
-			}
+			initSplit(attribute, t,
+					TypeUtils.deserializeValue(t, sc.nextLine().trim()));
 
 			this.leftChild.parseNode(sc);
 			this.rightChild.parseNode(sc);
 
 		} else if (type.equals("b")) {
-			Bucket b = new Bucket(sc.nextInt());
-			this.bucket = b;
-			for (BucketInfo info : this.rangesByAttribute.values()) {
-				info.setId(b.getBucketId());
-			}
+			initBucket(sc.nextInt());
 		} else {
 			System.out.println("Bad things have happened in unmarshall");
 			System.out.println(type);
@@ -314,4 +413,54 @@ public class RNode {
 
 		return this;
 	}
+
+	/**
+	 * Make this node, being read, split on the attribute at value: create
+	 * its children, narrowing the ranges of the attribute they cover.
+	 */
+	void initSplit(int attribute, TYPE type, Object value) {
+		this.attribute = attribute;
+		this.type = type;
+		this.value = value;
+
+		boolean exists = this.rangesByAttribute.containsKey(this.attribute);
+
+		this.leftChild = new RNode();
+		this.leftChild.parent = this;
+
+		this.rightChild = new RNode();
+		this.rightChild.parent = this;
+
+		for (Map.Entry<Integer, BucketInfo> entry : this.rangesByAttribute
+				.entrySet()) {
+			this.leftChild.rangesByAttribute.put(entry.getKey(), entry
+					.getValue().clone());
+			this.rightChild.rangesByAttribute.put(entry.getKey(), entry
+					.getValue().clone());
+		}
+		this.rangesByAttribute = null;
+
+		if (exists) {
+			this.leftChild.rangesByAttribute.get(this.attribute).intersect(
+					new BucketInfo(this.type, null, this.value));
+			this.rightChild.rangesByAttribute.get(this.attribute)
+					.intersect(new BucketInfo(this.type, this.value, null));
+		} else {
+			this.leftChild.rangesByAttribute.put(this.attribute,
+					new BucketInfo(this.type, null, this.value));
+			this.rightChild.rangesByAttribute.put(this.attribute,
+					new BucketInfo(this.type, this.value, null));
+		}
+	}
+
+	/**
+	 * Make this node, being read, the leaf of a bucket.
+	 */
+	void initBucket(int bucketId) {
+		Bucket b = new Bucket(bucketId);
+		this.bucket = b;
+		for (BucketInfo info : this.rangesByAttribute.values()) {
+			info.setId(b.getBucketId());
+		}
+	}
 }
@@ -10,6 +10,7 @@ import java.util.Random;
 import java.util.Scanner;
 
 import core.adapt.Predicate;
+import core.adapt.iterator.RecordBatch;
 import core.common.globals.Globals;
 import core.common.globals.TableInfo;
 import core.common.key.ParsedTupleList;
@@ -229,7 +230,19 @@ public class RobustTree implements MDIndex {
 	 */
 	@Override
 	public Object getBucketId(RawIndexKey key) {
-		return root.getBucketId(key);
+		return root.getBucketId(key, tableInfo == null ? null
+				: tableInfo.dictionary);
+	}
+
+	@Override
+	public int[] getBucketIds(RecordBatch batch) {
+		return compile().getBucketIds(batch, null);
+	}
+
+	@Override
+	public CompiledTree compile() {
+		return new CompiledTree(root, tableInfo == null ? null
+				: tableInfo.dictionary);
 	}
 
 
@@ -262,34 +275,37 @@ public class RobustTree implements MDIndex {
 	}
 
 	/**
-	 * Serializes the index to string Very brittle - Consider rewriting
+	 * Serializes the index in the binary format of TreeFormat.
 	 */
 	@Override
 	public byte[] marshall() {
-		// JVM optimizes shit so no need to use string builder / buffer
-		// Format:
-		// maxBuckets, numAttributes
-		// types
-		// nodes in pre-order
-
-		String robustTree = "";
-		robustTree += String.format("%d %d\n", this.maxBuckets,
-				this.numAttributes);
+		return TreeFormat.write(new int[] { this.maxBuckets, this.numAttributes },
+				Arrays.copyOf(this.dimensionTypes, this.numAttributes), this.root);
+	}
 
-		String types = "";
-		for (int i = 0; i < this.numAttributes; i++) {
-			types += this.dimensionTypes[i].toString() + " ";
+	@Override
+	public void unmarshall(byte[] bytes) {
+		if (!TreeFormat.isBinary(bytes)) {
+			unmarshallText(bytes);
+			return;
 		}
-		types += "\n";
-		robustTree += types;
+		TreeFormat.Reader in = new TreeFormat.Reader(bytes);
+		int[] header = in.getHeader();
+		this.maxBuckets = header[0];
+		this.numAttributes = header[1];
+		this.dimensionTypes = in.getTypes();
 
-		robustTree += this.root.marshall();
-
-		return robustTree.getBytes();
+		this.root = new RNode();
+		in.read(this.root);
 	}
 
-	@Override
-	public void unmarshall(byte[] bytes) {
+	/**
+	 * Reads the text format indexes used to be written in:
+	 * maxBuckets, numAttributes
+	 * types
+	 * nodes in pre-order
+	 */
+	private void unmarshallText(byte[] bytes) {
 		String tree = new String(bytes);
 		Scanner sc = new Scanner(tree);
 		this.maxBuckets = sc.nextInt();
@@ -0,0 +1,253 @@
+package core.common.index;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedList;
+import java.util.zip.CRC32;
+
+import core.adapt.ColumnarBlock;
+import core.utils.TypeUtils.SimpleDate;
+import core.utils.TypeUtils.TYPE;
+
+/**
+ * Binary format of RobustTree and JoinRobustTree:
+ *
+ * magic (4 bytes) | version (byte) | number of header ints (varint) |
+ * header ints (varints) | number of attributes (varint) | attribute types
+ * (a byte each) | nodes in pre-order | CRC32 of all the above (4 bytes)
+ *
+ * An internal node is the varint attribute << 4 | type << 1, then its cut
+ * value: INT, LONG and DATE (as yyyymmdd) zigzag varints, DOUBLE its 8 bytes,
+ * BOOLEAN a byte and STRING the varint length of its UTF-8 bytes, then the
+ * bytes. A bucket is the varint bucket id << 1 | 1.
+ *
+ * The text format written before, starting with a digit, is still read by
+ * the trees, see isBinary.
+ */
+public class TreeFormat {
+	// Text indexes start with a digit.
+	private static final byte[] MAGIC = { 0, 'R', 'T', 'B' };
+
+	public static final int VERSION = 1;
+
+	private static final TYPE[] TYPES = TYPE.values();
+
+	public static boolean isBinary(byte[] bytes) {
+		if (bytes.length < MAGIC.length)
+			return false;
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (bytes[i] != MAGIC[i])
+				return false;
+		}
+		return true;
+	}
+
+	public static byte[] write(int[] header, TYPE[] types, RNode root) {
+		Writer out = new Writer(header, types);
+		LinkedList<RNode> stack = new LinkedList<RNode>();
+		stack.add(root);
+		while (stack.size() != 0) {
+			RNode n = stack.removeLast();
+			if (n.bucket != null) {
+				out.writeBucket(n.bucket.getBucketId());
+			} else {
+				out.writeSplit(n.attribute, n.type, n.value);
+				stack.add(n.rightChild);
+				stack.add(n.leftChild);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	public static byte[] write(int[] header, TYPE[] types, JRNode root) {
+		Writer out = new Writer(header, types);
+		LinkedList<JRNode> stack = new LinkedList<JRNode>();
+		stack.add(root);
+		while (stack.size() != 0) {
+			JRNode n = stack.removeLast();
+			if (n.bucket != null) {
+				out.writeBucket(n.bucket.getBucketId());
+			} else {
+				out.writeSplit(n.attribute, n.type, n.value);
+				stack.add(n.rightChild);
+				stack.add(n.leftChild);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private static class Writer extends ByteArrayOutputStream {
+		Writer(int[] header, TYPE[] types) {
+			super(1024);
+			write(MAGIC, 0, MAGIC.length);
+			write(VERSION);
+			writeVarint(header.length);
+			for (int h : header)
+				writeVarint(h);
+			writeVarint(types.length);
+			for (TYPE t : types)
+				write(t.ordinal());
+		}
+
+		void writeVarint(long v) {
+			while ((v & ~0x7FL) != 0) {
+				write((int) (v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			write((int) v);
+		}
+
+		void writeZigzag(long v) {
+			writeVarint((v << 1) ^ (v >> 63));
+		}
+
+		void writeBucket(int bucketId) {
+			writeVarint(((long) bucketId << 1) | 1);
+		}
+
+		void writeSplit(int attribute, TYPE type, Object value) {
+			writeVarint(((long) attribute << 4) | (type.ordinal() << 1));
+			switch (type) {
+			case INT:
+				writeZigzag((Integer) value);
+				break;
+			case LONG:
+				writeZigzag((Long) value);
+				break;
+			case DATE:
+				writeZigzag(ColumnarBlock.packDate((SimpleDate) value));
+				break;
+			case DOUBLE:
+				long bits = Double.doubleToRawLongBits((Double) value);
+				for (int i = 56; i >= 0; i -= 8)
+					write((int) (bits >>> i));
+				break;
+			case BOOLEAN:
+				write((Boolean) value ? 1 : 0);
+				break;
+			default:
+				byte[] b = ((String) value).getBytes(StandardCharsets.UTF_8);
+				writeVarint(b.length);
+				write(b, 0, b.length);
+				break;
+			}
+		}
+
+		@Override
+		public byte[] toByteArray() {
+			CRC32 crc = new CRC32();
+			crc.update(buf, 0, count);
+			int c = (int) crc.getValue();
+			for (int i = 24; i >= 0; i -= 8)
+				write(c >>> i);
+			return super.toByteArray();
+		}
+	}
+
+	/**
+	 * Reads a tree written by write(): the header and types first, checking
+	 * the checksum, then the nodes.
+	 */
+	public static class Reader {
+		private final ByteBuffer in;
+		private final int[] header;
+		private final TYPE[] types;
+
+		public Reader(byte[] bytes) {
+			if (!isBinary(bytes) || bytes.length < MAGIC.length + 5)
+				throw new RuntimeException("Not a binary index");
+			int end = bytes.length - 4;
+			CRC32 crc = new CRC32();
+			crc.update(bytes, 0, end);
+			if ((int) crc.getValue() != ByteBuffer.wrap(bytes, end, 4).getInt())
+				throw new RuntimeException("Corrupt index: bad checksum");
+
+			in = ByteBuffer.wrap(bytes, 0, end);
+			in.position(MAGIC.length);
+			int version = in.get();
+			if (version > VERSION)
+				throw new RuntimeException("Unsupported index version "
+						+ version);
+
+			header = new int[(int) readVarint()];
+			for (int i = 0; i < header.length; i++)
+				header[i] = (int) readVarint();
+			types = new TYPE[(int) readVarint()];
+			for (int i = 0; i < types.length; i++)
+				types[i] = TYPES[in.get()];
+		}
+
+		public int[] getHeader() {
+			return header;
+		}
+
+		public TYPE[] getTypes() {
+			return types;
+		}
+
+		private long readVarint() {
+			long v = 0;
+			for (int shift = 0;; shift += 7) {
+				byte b = in.get();
+				v |= (long) (b & 0x7F) << shift;
+				if (b >= 0)
+					return v;
+			}
+		}
+
+		private long readZigzag() {
+			long v = readVarint();
+			return (v >>> 1) ^ -(v & 1);
+		}
+
+		private Object readValue(TYPE type) {
+			switch (type) {
+			case INT:
+				return (int) readZigzag();
+			case LONG:
+				return readZigzag();
+			case DATE:
+				int v = (int) readZigzag();
+				return new SimpleDate(v / 10000, v / 100 % 100, v % 100);
+			case DOUBLE:
+				return Double.longBitsToDouble(in.getLong());
+			case BOOLEAN:
+				return in.get() != 0;
+			default:
+				int length = (int) readVarint();
+				String s = new String(in.array(), in.position(), length,
+						StandardCharsets.UTF_8);
+				in.position(in.position() + length);
+				return s;
+			}
+		}
+
+		/**
+		 * Read the subtree rooted at n, a new node.
+		 */
+		public void read(RNode n) {
+			long tag = readVarint();
+			if ((tag & 1) != 0) {
+				n.initBucket((int) (tag >>> 1));
+				return;
+			}
+			TYPE type = TYPES[(int) (tag >>> 1) & 7];
+			n.initSplit((int) (tag >>> 4), type, readValue(type));
+			read(n.leftChild);
+			read(n.rightChild);
+		}
+
+		public void read(JRNode n) {
+			long tag = readVarint();
+			if ((tag & 1) != 0) {
+				n.initBucket((int) (tag >>> 1));
+				return;
+			}
+			TYPE type = TYPES[(int) (tag >>> 1) & 7];
+			n.initSplit((int) (tag >>> 4), type, readValue(type));
+			read(n.leftChild);
+			read(n.rightChild);
+		}
+	}
+}
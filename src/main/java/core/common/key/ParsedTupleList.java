@@ -1,11 +1,9 @@
 package core.common.key;
 
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 
-import org.apache.commons.lang.ArrayUtils;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
@@ -182,14 +180,66 @@ public class ParsedTupleList {
 	 */
 	public void sort(final int attributeIdx) {
 		final TYPE sortType = types[attributeIdx];
+		int n = values.size();
+		Object[][] rows = values.toArray(new Object[n][]);
+		long[] keys = new long[n];
 		try {
-			Collections.sort(values,
-					this.getComparatorForType(sortType, attributeIdx));
+			for (int i = 0; i < n; i++)
+				keys[i] = TypeUtils.encode(rows[i][attributeIdx], sortType);
 		} catch (ClassCastException e) {
 			System.out.println("EXCEPTION: " + attributeIdx + " "
 					+ sortType.toString());
 			e.printStackTrace();
+			return;
 		}
+
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		sort(order, new int[n], 0, n, keys, rows, attributeIdx, sortType);
+
+		// Through set(), so that sorting a sub list view sorts its parent.
+		for (int i = 0; i < n; i++)
+			values.set(i, rows[order[i]]);
+	}
+
+	/**
+	 * Stable merge sort of the row numbers order[from, to) by their keys.
+	 */
+	private static void sort(int[] order, int[] tmp, int from, int to,
+			long[] keys, Object[][] rows, int attributeIdx, TYPE type) {
+		if (to - from < 2)
+			return;
+		int mid = (from + to) >>> 1;
+		sort(order, tmp, from, mid, keys, rows, attributeIdx, type);
+		sort(order, tmp, mid, to, keys, rows, attributeIdx, type);
+		if (compare(order[mid - 1], order[mid], keys, rows, attributeIdx, type) <= 0)
+			return;
+
+		System.arraycopy(order, from, tmp, from, to - from);
+		int i = from, j = mid, k = from;
+		while (i < mid && j < to)
+			order[k++] = compare(tmp[j], tmp[i], keys, rows, attributeIdx,
+					type) < 0 ? tmp[j++] : tmp[i++];
+		while (i < mid)
+			order[k++] = tmp[i++];
+		while (j < to)
+			order[k++] = tmp[j++];
+	}
+
+	private static int compare(int a, int b, long[] keys, Object[][] rows,
+			int attributeIdx, TYPE type) {
+		return TypeUtils.compare(keys[a], rows[a][attributeIdx], keys[b],
+				rows[b][attributeIdx], type);
+	}
+
+	/**
+	 * Compare the attribute of the row with value, given its encoding.
+	 */
+	private int compare(int row, int attributeIdx, long key, Object value) {
+		Object v = values.get(row)[attributeIdx];
+		TYPE type = types[attributeIdx];
+		return TypeUtils.compare(TypeUtils.encode(v, type), v, key, value, type);
 	}
 
 	/**
@@ -221,7 +271,7 @@ public class ParsedTupleList {
 	public Pair<ParsedTupleList, ParsedTupleList> splitByMedianLarger(
 			int attributeIdx) {
 		Object medianVal = values.get(values.size() / 2)[attributeIdx];
-		Comparator<Object> comp = TypeUtils.getComparatorForType(types[attributeIdx]);
+		long medianKey = TypeUtils.encode(medianVal, types[attributeIdx]);
 
 		int lo = 0;
 		int hi = values.size() - 1;
@@ -230,7 +280,7 @@ public class ParsedTupleList {
 			int mid = (lo + hi) / 2;
 			Object midVal = this.values.get(mid)[attributeIdx];
 			try {
-				if (comp.compare(midVal, medianVal) > 0) {
+				if (compare(mid, attributeIdx, medianKey, medianVal) > 0) {
 					res = mid;
 					hi = mid - 1;
 				}
@@ -261,7 +311,7 @@ public class ParsedTupleList {
 	public Pair<ParsedTupleList, ParsedTupleList> splitByMedian(
 			int attributeIdx) {
 		Object medianVal = values.get(values.size() / 2)[attributeIdx];
-		Comparator<Object> comp = TypeUtils.getComparatorForType(types[attributeIdx]);
+		long medianKey = TypeUtils.encode(medianVal, types[attributeIdx]);
 
 		int lo = 0;
 		int hi = values.size() - 1;
@@ -270,7 +320,7 @@ public class ParsedTupleList {
 			int mid = (lo + hi) / 2;
 			Object midVal = this.values.get(mid)[attributeIdx];
 			try {
-				if (comp.compare(midVal, medianVal) >= 0) {
+				if (compare(mid, attributeIdx, medianKey, medianVal) >= 0) {
 					res = mid;
 					hi = mid - 1;
 				}
@@ -299,9 +349,7 @@ public class ParsedTupleList {
 	 */
 	public Pair<ParsedTupleList, ParsedTupleList> splitAt(
 			int attributeIdx, Object value) {
-		final TYPE sortType = types[attributeIdx];
-
-		Comparator<Object> comp = TypeUtils.getComparatorForType(sortType);
+		long key = TypeUtils.encode(value, types[attributeIdx]);
 
 		// Finds the least k such that k > value
 		int lo = 0;
@@ -311,7 +359,7 @@ public class ParsedTupleList {
 			int mid = (lo + hi) / 2;
 			Object midVal = this.values.get(mid)[attributeIdx];
 			try {
-				if (comp.compare(midVal, value) > 0) {
+				if (compare(mid, attributeIdx, key, value) > 0) {
 					res = mid;
 					hi = mid - 1;
 				}
@@ -452,8 +500,7 @@ public class ParsedTupleList {
 		int offset = 0, previous = 0;
 		for (; offset < bytes.length; offset++) {
 			if (bytes[offset] == '\n') {
-				byte[] lineBytes = ArrayUtils.subarray(bytes, previous, offset);
-				record.setBytes(lineBytes);
+				record.setBytes(bytes, previous, offset - previous);
 				try {
 					insert(record);
 				} catch (ArrayIndexOutOfBoundsException e) {
@@ -6,7 +6,10 @@ import java.util.List;
 
 import com.google.common.primitives.Ints;
 
+import core.common.globals.Dictionary;
 import core.common.globals.Globals;
+import core.utils.BinaryUtils;
+import core.utils.ScanUtils;
 import core.utils.TypeUtils.SimpleDate;
 import core.utils.TypeUtils.TYPE;
 
@@ -20,6 +23,14 @@ public class RawIndexKey implements Cloneable {
     protected int numAttrs;
     protected int[] attributeOffsets;
 
+    // Number of leading entries of attributeOffsets that are valid for the
+    // current record, and the position to resume the delimiter scan from.
+    protected int numTokenized;
+    protected int scanOffset;
+
+    // Tokenize only as far as the highest attribute requested so far.
+    protected boolean lazyTokenize = true;
+
     protected char delimiter;
 
     public RawIndexKey(char delimiter) {
@@ -35,18 +46,25 @@ public class RawIndexKey implements Cloneable {
     public RawIndexKey clone() throws CloneNotSupportedException {
         RawIndexKey k = (RawIndexKey) super.clone();
         k.dummyDate = new SimpleDate(0, 0, 0);
+        if (attributeOffsets != null)
+            k.attributeOffsets = attributeOffsets.clone();
         return k;
     }
 
     private void setNumAttrs(byte[] bytes, int offset, int length) {
-        numAttrs = 1;
-        for (int i = offset; i < offset + length; i++) {
-            if (bytes[i] == delimiter) {
-                numAttrs += 1;
-            }
-        }
+        numAttrs = 1 + ScanUtils.count(bytes, offset, offset + length,
+                (byte) delimiter);
     }
 
+    /**
+     * When lazy (the default), setBytes does not scan the record; attributes
+     * are located on demand, up to the highest index requested so far.
+     *
+     * @param lazyTokenize
+     */
+    public void setLazyTokenize(boolean lazyTokenize) {
+        this.lazyTokenize = lazyTokenize;
+    }
 
     public void setBytes(byte[] bytes) {
         setBytes(bytes, 0, bytes.length);
@@ -62,21 +80,59 @@ public class RawIndexKey implements Cloneable {
             attributeOffsets = new int[numAttrs];
         }
 
-        int previous = offset;
-        int attrIdx = 0;
-        for (int i = offset; i < offset + length; i++) {
-            if (bytes[i] == delimiter) {
-                try {
-                    attributeOffsets[attrIdx++] = previous;
-                    previous = i + 1;
-                } catch (Exception e) {
-                    System.out.println(delimiter + " " + new String(bytes));
-                    e.printStackTrace();
-                }
+        attributeOffsets[0] = offset;
+        numTokenized = 1;
+        scanOffset = offset;
+
+        if (!lazyTokenize)
+            tokenize(attributeOffsets.length);
+    }
+
+    /**
+     * Resume the delimiter scan until the offsets of the first numAttributes
+     * attributes are known, or the end of the record is reached.
+     */
+    private void tokenize(int numAttributes) {
+        int end = offset + length;
+        int i = scanOffset;
+        int[] offsets = attributeOffsets;
+        int n = numTokenized;
+        int upTo = Math.min(numAttributes, offsets.length);
+        byte d = (byte) delimiter;
+        while (n < upTo) {
+            i = ScanUtils.indexOf(bytes, i, end, d);
+            if (i == -1) {
+                i = end;
+                break;
             }
+            offsets[n++] = ++i;
         }
-        if (attrIdx < attributeOffsets.length)
-            attributeOffsets[attrIdx] = previous;
+        numTokenized = n;
+        scanOffset = i;
+    }
+
+    protected int getAttributeOffset(int index) {
+        if (index >= numTokenized)
+            tokenize(index + 1);
+        return attributeOffsets[index];
+    }
+
+    /**
+     * Length in bytes of the attribute at the given index, excluding the
+     * delimiter.
+     */
+    protected int getAttributeLength(int index) {
+        if (index + 1 >= numTokenized)
+            tokenize(index + 2);
+        int off = getAttributeOffset(index);
+        if (index < numTokenized - 1)
+            return attributeOffsets[index + 1] - off - 1;
+        else
+            return offset + length - off;
+    }
+
+    public char getDelimiter() {
+        return delimiter;
     }
 
     public String getKeyString() {
@@ -84,52 +140,45 @@ public class RawIndexKey implements Cloneable {
     }
 
     public String getStringAttribute(int index) {
-        int off = attributeOffsets[index];
-        int strSize;
-        if (index < attributeOffsets.length - 1)
-            strSize = attributeOffsets[index + 1] - off - 1;
-        else
-            strSize = offset + length - off;
+        int len = getAttributeLength(index);
+        return new String(bytes, attributeOffsets[index], len);
+    }
 
-        return new String(bytes, off, strSize);
+    /**
+     * Dictionary code of a STRING attribute (see Dictionary.getCode), looked
+     * up from the raw bytes.
+     */
+    public int getStringCode(int index, Dictionary dictionary) {
+        int len = getAttributeLength(index);
+        return dictionary.getCode(index, bytes, attributeOffsets[index], len);
     }
 
     public int getIntAttribute(int index) {
-        int off = attributeOffsets[index];
-        int len;
-        if (index < attributeOffsets.length - 1)
-            len = attributeOffsets[index + 1] - off - 1;
-        else
-            len = offset + length - off;
-
-        int ret = Integer.parseInt(new String(bytes, off, len));
-
-        return ret;
+        int len = getAttributeLength(index);
+        return BinaryUtils.parseInt(bytes, attributeOffsets[index], len);
     }
 
     public long getLongAttribute(int index) {
-        int off = attributeOffsets[index];
-        int len;
-        if (index < attributeOffsets.length - 1)
-            len = attributeOffsets[index + 1] - off - 1;
-        else
-            len = offset + length - off;
-
-        long ret = Long.parseLong(new String(bytes, off, len));
-
-        return ret;
+        int len = getAttributeLength(index);
+        return BinaryUtils.parseLong(bytes, attributeOffsets[index], len);
     }
 
     public double getDoubleAttribute(int index) {
-        int off = attributeOffsets[index];
-        int len;
-        if (index < attributeOffsets.length - 1)
-            len = attributeOffsets[index + 1] - off - 1;
-        else
-            len = offset + length - off;
+        int len = getAttributeLength(index);
+        return BinaryUtils.parseDouble(bytes, attributeOffsets[index], len);
+    }
 
-        double ret = Double.parseDouble(new String(bytes, off, len));
-        return ret;
+    /**
+     * Compare the raw bytes of an attribute with the given bytes, in unsigned
+     * lexicographic order. Only the first maxLength bytes of the attribute are
+     * considered.
+     *
+     * @return negative, zero or positive if the attribute is smaller than,
+     *         equal to or larger than value
+     */
+    public int compareAttribute(int index, byte[] value, int maxLength) {
+        int len = Math.min(getAttributeLength(index), maxLength);
+        return BinaryUtils.compare(bytes, attributeOffsets[index], len, value);
     }
 
     /*
@@ -137,7 +186,7 @@ public class RawIndexKey implements Cloneable {
 	 * Skips anything after that.
 	 */
     public SimpleDate getDateAttribute(int index) {
-        int off = attributeOffsets[index];
+        int off = getAttributeOffset(index);
         int year = 1000 * (bytes[off] - '0') + 100 * (bytes[off + 1] - '0')
                 + 10 * (bytes[off + 2] - '0') + (bytes[off + 3] - '0');
         int month = 10 * (bytes[off + 5] - '0') + (bytes[off + 6] - '0');
@@ -152,7 +201,7 @@ public class RawIndexKey implements Cloneable {
 
     public SimpleDate getDateAttribute(int index, SimpleDate date) {
         // parse date assuming the format: "yyyy-MM-dd"
-        int off = attributeOffsets[index];
+        int off = getAttributeOffset(index);
         int year = 1000 * (bytes[off] - '0') + 100 * (bytes[off + 1] - '0')
                 + 10 * (bytes[off + 2] - '0') + (bytes[off + 3] - '0');
         int month = 10 * (bytes[off + 5] - '0') + (bytes[off + 6] - '0');
@@ -173,7 +222,7 @@ public class RawIndexKey implements Cloneable {
      * @return
      */
     public boolean getBooleanAttribute(int index) {
-        int off = attributeOffsets[index];
+        int off = getAttributeOffset(index);
 
         if (bytes[off] == '1' || bytes[off] == 't')
             return true;
@@ -0,0 +1,122 @@
+package core.upfront.build;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import core.adapt.ColumnarBlock;
+import core.common.globals.Dictionary;
+import core.utils.BinaryUtils;
+import core.utils.BufferPool;
+import core.utils.TypeUtils.TYPE;
+
+/**
+ * Takes newline terminated text records and writes them out to the
+ * underlying stream as columnar blocks (see ColumnarBlock), one per
+ * blockSize bytes of text and one for whatever is left on close().
+ */
+public class ColumnarOutputStream extends OutputStream {
+	public static final int DEFAULT_BLOCK_SIZE = 4 * 1024 * 1024; // 4 MB
+
+	private final OutputStream out;
+	private final TYPE[] types;
+	private final char delimiter;
+	private final Dictionary dictionary;
+	private final int blockSize;
+
+	private byte[] buffer;
+	private int count;
+
+	private BufferPool pool;
+
+	public ColumnarOutputStream(OutputStream out, TYPE[] types, char delimiter) {
+		this(out, types, delimiter, DEFAULT_BLOCK_SIZE);
+	}
+
+	public ColumnarOutputStream(OutputStream out, TYPE[] types,
+			char delimiter, int blockSize) {
+		this(out, types, delimiter, null, blockSize);
+	}
+
+	/**
+	 * Codes the STRING attributes of the dictionary, if not null.
+	 */
+	public ColumnarOutputStream(OutputStream out, TYPE[] types,
+			char delimiter, Dictionary dictionary, int blockSize) {
+		this(out, types, delimiter, dictionary, blockSize, null);
+	}
+
+	/**
+	 * Also takes the bytes of its buffer from the pool, if not null, see
+	 * BufferPool.reserve().
+	 */
+	public ColumnarOutputStream(OutputStream out, TYPE[] types,
+			char delimiter, Dictionary dictionary, int blockSize,
+			BufferPool pool) {
+		this.out = out;
+		this.types = types;
+		this.delimiter = delimiter;
+		this.dictionary = dictionary;
+		this.blockSize = blockSize;
+		this.pool = pool;
+		if (pool != null)
+			pool.reserve(8192);
+		this.buffer = new byte[8192];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureCapacity(count + 1);
+		buffer[count++] = (byte) b;
+		if (count >= blockSize)
+			writeBlock(false);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureCapacity(count + len);
+		System.arraycopy(b, off, buffer, count, len);
+		count += len;
+		if (count >= blockSize)
+			writeBlock(false);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > buffer.length) {
+			int length = Math.max(capacity, 2 * buffer.length);
+			if (pool != null)
+				pool.reserve(length - buffer.length);
+			buffer = BinaryUtils.resize(buffer, length);
+		}
+	}
+
+	/**
+	 * Encode the buffered records. Unless all is set, a trailing partial
+	 * record is kept for the next block.
+	 */
+	private void writeBlock(boolean all) throws IOException {
+		int end = count;
+		if (!all) {
+			while (end > 0 && buffer[end - 1] != '\n')
+				end--;
+		}
+		if (end == 0)
+			return;
+
+		byte[] block = ColumnarBlock.encode(buffer, 0, end, delimiter, types,
+				dictionary);
+		out.write(block);
+
+		System.arraycopy(buffer, end, buffer, 0, count - end);
+		count -= end;
+	}
+
+	@Override
+	public void close() throws IOException {
+		writeBlock(true);
+		if (pool != null) {
+			pool.unreserve(buffer.length);
+			pool = null;
+		}
+		out.close();
+	}
+}
@@ -0,0 +1,90 @@
+package core.upfront.build;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import core.utils.BlockCodec;
+import core.utils.BufferPool;
+import core.utils.CompressionUtils;
+
+/**
+ * Writes out everything written to it as compressed frames (see
+ * CompressionUtils), one per blockSize raw bytes and one for whatever is left
+ * on close().
+ *
+ * Given a BufferPool, its buffers take their bytes from the pool, see
+ * BufferPool.reserve().
+ */
+public class CompressedOutputStream extends OutputStream {
+	private final OutputStream out;
+	private final BlockCodec codec;
+
+	private final byte[] buffer;
+	private int count;
+	private byte[] frame;
+
+	private BufferPool pool;
+
+	public CompressedOutputStream(OutputStream out, BlockCodec codec) {
+		this(out, codec, CompressionUtils.DEFAULT_BLOCK_SIZE);
+	}
+
+	public CompressedOutputStream(OutputStream out, BlockCodec codec,
+			int blockSize) {
+		this(out, codec, blockSize, null);
+	}
+
+	public CompressedOutputStream(OutputStream out, BlockCodec codec,
+			int blockSize, BufferPool pool) {
+		this.out = out;
+		this.codec = codec;
+		this.pool = pool;
+		if (pool != null)
+			pool.reserve(blockSize);
+		this.buffer = new byte[blockSize];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (count == buffer.length)
+			writeFrame();
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (count == buffer.length)
+				writeFrame();
+			int n = Math.min(len, buffer.length - count);
+			System.arraycopy(b, off, buffer, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	private void writeFrame() throws IOException {
+		if (count == 0)
+			return;
+		if (frame == null) {
+			int length = CompressionUtils.maxFrameLength(codec, buffer.length);
+			if (pool != null)
+				pool.reserve(length);
+			frame = new byte[length];
+		}
+		int n = CompressionUtils.compressFrame(codec, buffer, 0, count, frame, 0);
+		out.write(frame, 0, n);
+		count = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		writeFrame();
+		if (pool != null) {
+			pool.unreserve(buffer.length + (frame == null ? 0 : frame.length));
+			pool = null;
+		}
+		out.close();
+	}
+}
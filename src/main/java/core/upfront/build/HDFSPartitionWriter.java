@@ -1,13 +1,20 @@
 package core.upfront.build;
 
+import core.adapt.KeyFilter;
+import core.adapt.ZoneMap;
 import core.utils.ConfUtils;
+import core.utils.FlushExecutor;
+import core.utils.HDFSBufferedOutputStream;
 import core.utils.HDFSUtils;
+
+import com.google.common.collect.Maps;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Map;
 
 public class HDFSPartitionWriter extends PartitionWriter {
 
@@ -18,6 +25,13 @@ public class HDFSPartitionWriter extends PartitionWriter {
 
 	private CuratorFramework client;
 
+	// Set to write out the buffers in the background, shared by clones.
+	private FlushExecutor flushExecutor;
+
+	// The stream of each partition, to name its zone map and key filter
+	// after the segment it writes.
+	private Map<String, HDFSBufferedOutputStream> streams = Maps.newHashMap();
+
 	public HDFSPartitionWriter(String partitionDir, int bufferPartitionSize,
 			short replication, ConfUtils cfg, CuratorFramework client) {
 		super(partitionDir, bufferPartitionSize);
@@ -34,10 +48,19 @@ public class HDFSPartitionWriter extends PartitionWriter {
 	@Override
 	public PartitionWriter clone() throws CloneNotSupportedException {
 		HDFSPartitionWriter w = (HDFSPartitionWriter) super.clone();
+		w.streams = Maps.newHashMap();
 		w.createHDFS(this.cfg);
 		return w;
 	}
 
+	/**
+	 * Write out the full buffers of the partitions in the background, see
+	 * FlushExecutor. Pass null to write them out in the calling thread.
+	 */
+	public void setFlushExecutor(FlushExecutor flushExecutor) {
+		this.flushExecutor = flushExecutor;
+	}
+
 	private void createHDFS(ConfUtils cfg) {
 		this.cfg = cfg;
 		this.hdfs = HDFSUtils.getFSByHadoopHome(this.cfg.getHADOOP_HOME());
@@ -62,7 +85,20 @@ public class HDFSPartitionWriter extends PartitionWriter {
 
 	@Override
 	protected OutputStream getOutputStream(String path) {
-		return HDFSUtils.getBufferedHDFSOutputStream(hdfs, path, replication,
-				bufferPartitionSize, client);
+		HDFSBufferedOutputStream os = new HDFSBufferedOutputStream(hdfs, path,
+				replication, bufferPartitionSize, client, flushExecutor,
+				bufferPool);
+		streams.put(path, os);
+		return os;
+	}
+
+	@Override
+	protected void storeZoneMap(String path, ZoneMap zoneMap) {
+		zoneMap.store(hdfs, streams.get(path).getSegmentPath(), replication);
+	}
+
+	@Override
+	protected void storeKeyFilter(String path, KeyFilter keyFilter) {
+		keyFilter.store(hdfs, streams.get(path).getSegmentPath(), replication);
 	}
 }
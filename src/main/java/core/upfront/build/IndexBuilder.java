@@ -1,5 +1,6 @@
 package core.upfront.build;
 
+import core.common.globals.Dictionary;
 import core.common.index.JoinRobustTree;
 import core.common.index.MDIndex;
 import core.common.index.RobustTree;
@@ -71,6 +72,24 @@ public class IndexBuilder {
 		System.out.println("Scanning, sampling and write time: " + timeScanAndWrite + " sec");
 	}
 
+	// Build the dictionaries of the low cardinality STRING attributes from the
+	// samples collected, and make the sample share the dictionary's values.
+	// Returns null if no attribute qualifies.
+	public Dictionary buildDictionary(ParsedTupleList sample) {
+		long startTime = System.nanoTime();
+		Dictionary dictionary = Dictionary.build(sample);
+		if (dictionary != null) {
+			dictionary.intern(sample);
+			for (int i = 0; i < sample.getTypes().length; i++) {
+				if (dictionary.isEncoded(i))
+					System.out.println("INFO: Attribute " + i + " dictionary encoded, "
+							+ dictionary.size(i) + " values");
+			}
+		}
+		System.out.println("BUILD: dictionary building time = " + ((System.nanoTime() - startTime) / 1E9));
+		return dictionary;
+	}
+
 	// Build index from the samples collected.
 	public void buildIndexFromSample(ParsedTupleList sample, int numBuckets, MDIndex index, PartitionWriter writer) {
 		index.setMaxBuckets(numBuckets);
@@ -1,9 +1,12 @@
 package core.upfront.build;
 
+import core.adapt.iterator.RecordBatch;
+import core.common.index.CompiledTree;
 import core.common.index.MDIndex;
 import core.common.key.RawIndexKey;
 import core.utils.BinaryUtils;
 import core.utils.IOUtils;
+import core.utils.ScanUtils;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -25,8 +28,13 @@ public class InputReader {
 	long arrayCopyTime, bucketIdTime, brokenTime, clearTime;
 
 	MDIndex index;
+	CompiledTree tree;
 	RawIndexKey key;
 
+	// Records of the buffer routed at once, see routeBatch.
+	RecordBatch batch;
+	int[] bucketIds;
+
 	public boolean firstPass;
 
 	public InputReader(MDIndex index, RawIndexKey key) {
@@ -62,6 +70,9 @@ public class InputReader {
 	 */
 	public void scan(String filename, PartitionWriter writer) {
 		initScan(bufferSize);
+		tree = index.compile();
+		batch = new RecordBatch();
+		batch.reset(byteArray, key.getDelimiter());
 		long sStartTime = System.nanoTime(), temp1;
 		long readTime = 0, processTime = 0;
 		FileChannel ch = IOUtils.openFileChannel(filename);
@@ -147,9 +158,9 @@ public class InputReader {
 				}
 				// skip the first tuple.
 				byteArrayIdx = previous = 0;
-				while (byteArrayIdx < nRead && byteArray[byteArrayIdx] != newLine) {
-					byteArrayIdx++;
-				}
+				byteArrayIdx = ScanUtils.indexOf(byteArray, 0, nRead, (byte) newLine);
+				if (byteArrayIdx == -1)
+					byteArrayIdx = nRead;
 				previous = ++byteArrayIdx;
 
 				processByteBuffer(null, out);
@@ -167,48 +178,65 @@ public class InputReader {
 	private void processByteBuffer(PartitionWriter writer, OutputStream out) {
 		long startTime;
 		try {
-			for (; byteArrayIdx < nRead; byteArrayIdx++) {
-				if (byteArray[byteArrayIdx] == newLine) {
-					totalLineSize += byteArrayIdx - previous;
-					if (hasLeftover) {
+			while (byteArrayIdx < nRead) {
+				byteArrayIdx = ScanUtils.indexOf(byteArray, byteArrayIdx, nRead, (byte) newLine);
+				if (byteArrayIdx == -1) {
+					byteArrayIdx = nRead;
+					break;
+				}
+				totalLineSize += byteArrayIdx - previous;
+				if (hasLeftover) {
+					startTime = System.nanoTime();
+					byte[] keyBytes = new byte[brokenLine.length + byteArrayIdx - previous + 1];
+					System.arraycopy(brokenLine, 0, keyBytes, 0, brokenLine.length);
+					System.arraycopy(byteArray, previous, keyBytes, brokenLine.length, byteArrayIdx - previous + 1); // +
+					arrayCopyTime += System.nanoTime() - startTime;
+					totalLineSize += brokenLine.length;
+					hasLeftover = false;
+
+					if (out != null) {
+						out.write(keyBytes);
+					}
+
+					if (writer != null) {
+						key.setBytes(keyBytes, 0, keyBytes.length - 1); // // skip newline
 						startTime = System.nanoTime();
-						byte[] keyBytes = new byte[brokenLine.length + byteArrayIdx - previous + 1];
-						System.arraycopy(brokenLine, 0, keyBytes, 0, brokenLine.length);
-						System.arraycopy(byteArray, previous, keyBytes, brokenLine.length, byteArrayIdx - previous + 1); // +
-						arrayCopyTime += System.nanoTime() - startTime;
-						totalLineSize += brokenLine.length;
-						hasLeftover = false;
-
-						if (out != null) {
-							out.write(keyBytes);
-						}
-
-						if (writer != null) {
-							key.setBytes(keyBytes, 0, keyBytes.length - 1); // // skip newline
-							startTime = System.nanoTime();
-							String bucketId = index.getBucketId(key).toString();
-							bucketIdTime += System.nanoTime() - startTime;
-							writer.writeToPartition(bucketId, keyBytes, 0, keyBytes.length);
-						}
-					} else {
-						if (out != null) {
-							out.write(byteArray, previous, byteArrayIdx - previous + 1); // + 1 newline
-						}
-
-						if (writer != null) {
-							key.setBytes(byteArray, previous, byteArrayIdx - previous); // skip newline
-							startTime = System.nanoTime();
-							String bucketId = index.getBucketId(key).toString();
-							bucketIdTime += System.nanoTime() - startTime;
-							writer.writeToPartition(bucketId, byteArray, previous, byteArrayIdx - previous + 1);
-						}
+						int bucketId = tree.getBucketId(key);
+						bucketIdTime += System.nanoTime() - startTime;
+						writer.writeToPartition(bucketId, keyBytes, 0, keyBytes.length);
+					}
+				} else {
+					if (out != null) {
+						out.write(byteArray, previous, byteArrayIdx - previous + 1); // + 1 newline
+					}
+
+					if (writer != null) {
+						batch.add(previous, byteArrayIdx); // skip newline
+						if (batch.isFull())
+							routeBatch(writer);
 					}
-					previous = ++byteArrayIdx;
-					lineCount++;
 				}
+				previous = ++byteArrayIdx;
+				lineCount++;
 			}
+			// Before the buffer is read into again.
+			if (writer != null)
+				routeBatch(writer);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * Route the records of the batch to their buckets and write them out.
+	 */
+	private void routeBatch(PartitionWriter writer) {
+		if (batch.size() > 0) {
+			long startTime = System.nanoTime();
+			bucketIds = tree.getBucketIds(batch, bucketIds);
+			bucketIdTime += System.nanoTime() - startTime;
+			writer.writeToPartitions(batch, bucketIds);
+		}
+		batch.reset(byteArray, key.getDelimiter());
+	}
 }
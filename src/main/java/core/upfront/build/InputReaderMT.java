@@ -1,8 +1,10 @@
 package core.upfront.build;
 
+import core.common.index.CompiledTree;
 import core.common.index.MDIndex;
 import core.common.key.RawIndexKey;
 import core.utils.IOUtils;
+import core.utils.ScanUtils;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -21,6 +23,7 @@ public class InputReaderMT {
 	int lineCount;
 
 	MDIndex index;
+	CompiledTree tree;
 	RawIndexKey[] keys;
 
 	boolean firstPass;
@@ -45,6 +48,8 @@ public class InputReaderMT {
 
 	public void scan(String filename, PartitionWriter writer, int numThreads) {
 		initScan();
+		if (writer != null)
+			tree = index.compile();
 
 		BufferProcessor[] buffProcessors = new BufferProcessor[numThreads];
 		for (int i = 0; i < buffProcessors.length; i++)
@@ -86,8 +91,8 @@ public class InputReaderMT {
 					}
 					keys[0].setBytes(a);
 					if (writer != null)
-						writer.writeToPartition(index.getBucketId(keys[0])
-								.toString(), a, 0, a.length);
+						writer.writeToPartition(tree.getBucketId(keys[0]), a, 0,
+								a.length);
 					// if(firstPass)
 					// index.insert(keys[0]);
 					brokenLine = buffProcessors[i].getLastBroken();
@@ -108,6 +113,7 @@ public class InputReaderMT {
 
 	public class BufferProcessor implements Runnable {
 		private RawIndexKey key;
+		private CompiledTree tree;
 		private int curr, previous, end;
 		private int lineCount;
 		private byte[] firstBroken, lastBroken;
@@ -122,6 +128,8 @@ public class InputReaderMT {
 		public BufferProcessor(RawIndexKey key, PartitionWriter writer) {
 			this.key = key;
 			this.writer = writer;
+			if (writer != null)
+				this.tree = index.compile();
 		}
 
 		public void init(int start, int end) {
@@ -134,24 +142,26 @@ public class InputReaderMT {
 		}
 
 		public void run() {
-			for (; curr < end; curr++) {
-				if (byteArray[curr] == newLine) {
-					if (lineCount == 0) {
-						firstBroken = new byte[curr - previous];
-						System.arraycopy(byteArray, previous, firstBroken, 0,
-								firstBroken.length);
-					} else {
-						key.setBytes(byteArray, previous, curr - previous);
-						if (writer != null)
-							writer.writeToPartition(index.getBucketId(key)
-									.toString(), byteArray, previous, curr
-									- previous);
-						// if(firstPass)
-						// index.insert(key);
-					}
-					previous = ++curr;
-					lineCount++;
+			while (curr < end) {
+				curr = ScanUtils.indexOf(byteArray, curr, end, (byte) newLine);
+				if (curr == -1) {
+					curr = end;
+					break;
+				}
+				if (lineCount == 0) {
+					firstBroken = new byte[curr - previous];
+					System.arraycopy(byteArray, previous, firstBroken, 0,
+							firstBroken.length);
+				} else {
+					key.setBytes(byteArray, previous, curr - previous);
+					if (writer != null)
+						writer.writeToPartition(tree.getBucketId(key),
+								byteArray, previous, curr - previous);
+					// if(firstPass)
+					// index.insert(key);
 				}
+				previous = ++curr;
+				lineCount++;
 			}
 			if (previous < end) {
 				lastBroken = new byte[end - previous];
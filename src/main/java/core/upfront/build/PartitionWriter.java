@@ -1,10 +1,18 @@
 package core.upfront.build;
 
 import com.google.common.collect.Maps;
+import core.adapt.KeyFilter;
+import core.adapt.ZoneMap;
+import core.adapt.iterator.RecordBatch;
+import core.common.globals.TableInfo;
+import core.utils.BlockCodec;
+import core.utils.BufferPool;
+import core.utils.CompressionUtils;
 import org.apache.commons.lang3.mutable.MutableInt;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -17,6 +25,22 @@ public abstract class PartitionWriter implements Cloneable {
 	protected Map<String, MutableInt> partitionRecordCount;
 	private long writingTime = 0;
 
+	// Set when writing the data partitions of a table, see setTableInfo.
+	private TableInfo tableInfo;
+	protected Map<String, ZoneMap> zoneMaps;
+	// Buckets of the tree written, to size the key filters.
+	private int numBuckets = 1;
+	protected Map<String, KeyFilter> keyFilters;
+
+	// The partitions of buckets by id, also in the maps above.
+	private OutputStream[] bucketBuffers = new OutputStream[0];
+	private ZoneMap[] bucketZoneMaps = new ZoneMap[0];
+	private KeyFilter[] bucketKeyFilters = new KeyFilter[0];
+
+	// Set to buffer the partitions in pages of bounded memory, see
+	// setMemoryCap.
+	protected BufferPool bufferPool;
+
 	public PartitionWriter(String partitionDir, int bufferPartitionSize) {
 		this(partitionDir);
 		this.bufferPartitionSize = bufferPartitionSize;
@@ -26,6 +50,8 @@ public abstract class PartitionWriter implements Cloneable {
 		this.partitionDir = partitionDir;
 		this.buffer = Maps.newHashMap();
 		this.partitionRecordCount = Maps.newHashMap();
+		this.zoneMaps = Maps.newHashMap();
+		this.keyFilters = Maps.newHashMap();
 	}
 
 	@Override
@@ -33,9 +59,45 @@ public abstract class PartitionWriter implements Cloneable {
 		PartitionWriter w = (PartitionWriter) super.clone();
 		w.buffer = Maps.newHashMap();
 		w.partitionRecordCount = Maps.newHashMap();
+		w.zoneMaps = Maps.newHashMap();
+		w.keyFilters = Maps.newHashMap();
+		w.bucketBuffers = new OutputStream[0];
+		w.bucketZoneMaps = new ZoneMap[0];
+		w.bucketKeyFilters = new KeyFilter[0];
+		// The pool, if any, is shared: the cap is that of all the clones.
 		return w;
 	}
 
+	/**
+	 * Set when writing the data partitions of a table: a zone map is kept for
+	 * each partition, and the partitions are written in the format of the
+	 * table. The records written must then be newline terminated.
+	 */
+	public void setTableInfo(TableInfo tableInfo) {
+		this.tableInfo = tableInfo;
+	}
+
+	/**
+	 * Number of buckets of the tree the partitions are written from. Sizes
+	 * the key filters (see TableInfo.keyFilters) kept for each partition.
+	 */
+	public void setNumBuckets(int numBuckets) {
+		this.numBuckets = numBuckets;
+	}
+
+	/**
+	 * Buffer the partitions in pages of a pool of about the given number of
+	 * bytes, rather than bufferPartitionSize bytes each: once the pool is
+	 * used up, the least recently written partitions (or the largest ones,
+	 * see BufferPool.Policy) are written out to free pages. The buffers of
+	 * the format of the table (see setTableInfo) take their bytes from the
+	 * pool too. Clones share the pool, whatever thread they write from.
+	 */
+	public void setMemoryCap(long bytes, BufferPool.Policy policy) {
+		bufferPool = new BufferPool(bytes, BufferPool.DEFAULT_PAGE_SIZE);
+		bufferPool.setPolicy(policy);
+	}
+
 	public void setPartitionDir(String partitionDir) {
 		this.partitionDir = partitionDir;
 	}
@@ -48,9 +110,89 @@ public abstract class PartitionWriter implements Cloneable {
 			int b_offset, int b_length) {
 		long start = System.nanoTime();
 		OutputStream b = buffer.get(partitionId);
+		if (b == null)
+			b = open(partitionId);
+		write(b, zoneMaps.get(partitionId), keyFilters.get(partitionId), bytes,
+				b_offset, b_length, start);
+	}
+
+	/**
+	 * Write to the partition of a bucket, looked up by id rather than by
+	 * name.
+	 */
+	public void writeToPartition(int bucketId, byte[] bytes, int b_offset,
+			int b_length) {
+		long start = System.nanoTime();
+		if (bucketId >= bucketBuffers.length) {
+			int n = Math.max(bucketId + 1, 2 * bucketBuffers.length);
+			bucketBuffers = Arrays.copyOf(bucketBuffers, n);
+			bucketZoneMaps = Arrays.copyOf(bucketZoneMaps, n);
+			bucketKeyFilters = Arrays.copyOf(bucketKeyFilters, n);
+		}
+		OutputStream b = bucketBuffers[bucketId];
 		if (b == null) {
-			b = getOutputStream(partitionDir + "/" + partitionId);
-			buffer.put(partitionId, b);
+			String partitionId = Integer.toString(bucketId);
+			b = buffer.get(partitionId);
+			if (b == null)
+				b = open(partitionId);
+			bucketBuffers[bucketId] = b;
+			bucketZoneMaps[bucketId] = zoneMaps.get(partitionId);
+			bucketKeyFilters[bucketId] = keyFilters.get(partitionId);
+		}
+		write(b, bucketZoneMaps[bucketId], bucketKeyFilters[bucketId], bytes,
+				b_offset, b_length, start);
+	}
+
+	/**
+	 * Write a batch of records routed at once: the i-th selected record goes
+	 * to the partition of bucket bucketIds[i], see MDIndex.getBucketIds.
+	 * Records are written with their newline, which follows them in the
+	 * bytes of the batch.
+	 */
+	public void writeToPartitions(RecordBatch batch, int[] bucketIds) {
+		byte[] bytes = batch.getBytes();
+		int[] selection = batch.getSelection();
+		int n = batch.getNumSelected();
+		for (int i = 0; i < n; i++) {
+			int row = selection[i];
+			writeToPartition(bucketIds[i], bytes, batch.getRecordOffset(row),
+					batch.getRecordLength(row) + 1);
+		}
+	}
+
+	private OutputStream open(String partitionId) {
+		OutputStream b = getOutputStream(partitionDir + "/" + partitionId);
+		BlockCodec codec = tableInfo == null ? null : CompressionUtils
+				.getCodec(tableInfo.codec);
+		if (codec != null)
+			b = new CompressedOutputStream(b, codec,
+					CompressionUtils.DEFAULT_BLOCK_SIZE, bufferPool);
+		if (tableInfo != null && tableInfo.isColumnar())
+			b = new ColumnarOutputStream(b, tableInfo.getTypeArray(),
+					tableInfo.delimiter, tableInfo.dictionary,
+					ColumnarOutputStream.DEFAULT_BLOCK_SIZE, bufferPool);
+		else if (tableInfo != null && tableInfo.sortAttribute != -1)
+			b = new SortedOutputStream(b, tableInfo.sortAttribute,
+					tableInfo.getTypeArray()[tableInfo.sortAttribute],
+					tableInfo.delimiter, SortedOutputStream.DEFAULT_RUN_SIZE,
+					bufferPool);
+		buffer.put(partitionId, b);
+		if (tableInfo != null) {
+			zoneMaps.put(partitionId, new ZoneMap(tableInfo.getTypeArray()));
+			KeyFilter keyFilter = KeyFilter.create(tableInfo, numBuckets);
+			if (keyFilter != null)
+				keyFilters.put(partitionId, keyFilter);
+		}
+		return b;
+	}
+
+	private void write(OutputStream b, ZoneMap zoneMap, KeyFilter keyFilter,
+			byte[] bytes, int b_offset, int b_length, long start) {
+		if (tableInfo != null) {
+			zoneMap.addRecords(bytes, b_offset, b_length, tableInfo.delimiter);
+			if (keyFilter != null)
+				keyFilter.addRecords(bytes, b_offset, b_length,
+						tableInfo.delimiter);
 		}
 
 		try {
@@ -63,6 +205,18 @@ public abstract class PartitionWriter implements Cloneable {
 
 	protected abstract OutputStream getOutputStream(String path);
 
+	/**
+	 * Store the zone map of the records written to the partition at path,
+	 * see ZoneMap. Called before the records are published.
+	 */
+	protected abstract void storeZoneMap(String path, ZoneMap zoneMap);
+
+	/**
+	 * Store the key filter of the records written to the partition at path,
+	 * see KeyFilter. Called before the records are published.
+	 */
+	protected abstract void storeKeyFilter(String path, KeyFilter keyFilter);
+
 	public abstract void createPartitionDir();
 
 	public void flush() {
@@ -77,6 +231,15 @@ public abstract class PartitionWriter implements Cloneable {
 		Set<String> keys = new HashSet<String>(buffer.keySet());
 		for (String k : keys) {
 			try {
+				// Closing publishes the data, so the zone map and key filter
+				// go first: a failure in between leaves them too wide, never
+				// too narrow.
+				ZoneMap zoneMap = zoneMaps.remove(k);
+				if (zoneMap != null)
+					storeZoneMap(partitionDir + "/" + k, zoneMap);
+				KeyFilter keyFilter = keyFilters.remove(k);
+				if (keyFilter != null)
+					storeKeyFilter(partitionDir + "/" + k, keyFilter);
 				buffer.get(k).close();
 				buffer.remove(k);
 			} catch (IOException e) {
@@ -86,6 +249,10 @@ public abstract class PartitionWriter implements Cloneable {
 			if (flushCount > numPartitions)
 				break;
 		}
+		// The partitions left are still found by name.
+		Arrays.fill(bucketBuffers, null);
+		Arrays.fill(bucketZoneMaps, null);
+		Arrays.fill(bucketKeyFilters, null);
 		System.out.println("SCAN: flushing time = "
 				+ (System.nanoTime() - start) / 1E9);
 	}
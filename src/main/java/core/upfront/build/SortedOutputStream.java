@@ -0,0 +1,106 @@
+package core.upfront.build;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import core.adapt.SortedRun;
+import core.utils.BinaryUtils;
+import core.utils.BufferPool;
+import core.utils.TypeUtils.TYPE;
+
+/**
+ * Takes newline terminated text records and writes them out to the
+ * underlying stream as sorted runs (see SortedRun), one per runSize bytes of
+ * text and one for whatever is left on close().
+ */
+public class SortedOutputStream extends OutputStream {
+	public static final int DEFAULT_RUN_SIZE = 2 * 1024 * 1024; // 2 MB
+
+	private final OutputStream out;
+	private final int attribute;
+	private final TYPE type;
+	private final char delimiter;
+	private final int runSize;
+
+	private byte[] buffer;
+	private int count;
+
+	private BufferPool pool;
+
+	public SortedOutputStream(OutputStream out, int attribute, TYPE type,
+			char delimiter, int runSize) {
+		this(out, attribute, type, delimiter, runSize, null);
+	}
+
+	/**
+	 * Also takes the bytes of its buffer from the pool, if not null, see
+	 * BufferPool.reserve().
+	 */
+	public SortedOutputStream(OutputStream out, int attribute, TYPE type,
+			char delimiter, int runSize, BufferPool pool) {
+		this.out = out;
+		this.attribute = attribute;
+		this.type = type;
+		this.delimiter = delimiter;
+		this.runSize = runSize;
+		this.pool = pool;
+		if (pool != null)
+			pool.reserve(8192);
+		this.buffer = new byte[8192];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureCapacity(count + 1);
+		buffer[count++] = (byte) b;
+		if (count >= runSize)
+			writeRun(false);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureCapacity(count + len);
+		System.arraycopy(b, off, buffer, count, len);
+		count += len;
+		if (count >= runSize)
+			writeRun(false);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > buffer.length) {
+			int length = Math.max(capacity, 2 * buffer.length);
+			if (pool != null)
+				pool.reserve(length - buffer.length);
+			buffer = BinaryUtils.resize(buffer, length);
+		}
+	}
+
+	/**
+	 * Sort the buffered records. Unless all is set, a trailing partial record
+	 * is kept for the next run.
+	 */
+	private void writeRun(boolean all) throws IOException {
+		int end = count;
+		if (!all) {
+			while (end > 0 && buffer[end - 1] != '\n')
+				end--;
+		}
+		if (end == 0)
+			return;
+
+		out.write(SortedRun.encode(buffer, 0, end, attribute, type, delimiter));
+
+		System.arraycopy(buffer, end, buffer, 0, count - end);
+		count -= end;
+	}
+
+	@Override
+	public void close() throws IOException {
+		writeRun(true);
+		if (pool != null) {
+			pool.unreserve(buffer.length);
+			pool = null;
+		}
+		out.close();
+	}
+}
@@ -162,6 +162,146 @@ public class BinaryUtils {
 		return val;
 	}
 
+	/** Exactly representable powers of ten, used by the fast double parser */
+	private static final double[] POWERS_OF_TEN = new double[] { 1e0, 1e1,
+			1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13,
+			1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/**
+	 * Parse an ASCII encoded decimal integer directly from a byte array,
+	 * without creating an intermediate string. Accepts the same input as
+	 * Integer.parseInt.
+	 *
+	 * @param a
+	 *            The byte array
+	 * @param off
+	 *            The offset of the first character
+	 * @param len
+	 *            The number of characters
+	 * @return Integer value
+	 */
+	public static int parseInt(byte[] a, int off, int len) {
+		long val = parseLong(a, off, len);
+		if (val < Integer.MIN_VALUE || val > Integer.MAX_VALUE)
+			throw new NumberFormatException("For input string: \""
+					+ new String(a, off, len) + "\"");
+		return (int) val;
+	}
+
+	/**
+	 * Parse an ASCII encoded decimal long directly from a byte array, without
+	 * creating an intermediate string. Accepts the same input as
+	 * Long.parseLong.
+	 *
+	 * @param a
+	 *            The byte array
+	 * @param off
+	 *            The offset of the first character
+	 * @param len
+	 *            The number of characters
+	 * @return Long value
+	 */
+	public static long parseLong(byte[] a, int off, int len) {
+		int i = off;
+		int end = off + len;
+		boolean negative = false;
+		if (len > 0 && (a[i] == '-' || a[i] == '+')) {
+			negative = a[i] == '-';
+			i++;
+		}
+		if (i == end)
+			throw new NumberFormatException("For input string: \""
+					+ new String(a, off, len) + "\"");
+
+		// Accumulate negatively, so that Long.MIN_VALUE does not overflow.
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long multmin = limit / 10;
+		long val = 0;
+		for (; i < end; i++) {
+			int digit = a[i] - '0';
+			if (digit < 0 || digit > 9 || val < multmin)
+				throw new NumberFormatException("For input string: \""
+						+ new String(a, off, len) + "\"");
+			val *= 10;
+			if (val < limit + digit)
+				throw new NumberFormatException("For input string: \""
+						+ new String(a, off, len) + "\"");
+			val -= digit;
+		}
+		return negative ? val : -val;
+	}
+
+	/**
+	 * Parse an ASCII encoded double directly from a byte array. Plain
+	 * fixed-point values (e.g. "-24710.35") with at most 15 significant
+	 * digits are parsed without any allocation; the result is correctly
+	 * rounded since both the mantissa and the power of ten are exactly
+	 * representable.
+	 * Anything else (exponents, NaN, very long mantissas, ...) falls back to
+	 * Double.parseDouble.
+	 *
+	 * @param a
+	 *            The byte array
+	 * @param off
+	 *            The offset of the first character
+	 * @param len
+	 *            The number of characters
+	 * @return Double value
+	 */
+	public static double parseDouble(byte[] a, int off, int len) {
+		int i = off;
+		int end = off + len;
+		boolean negative = false;
+		if (len > 0 && (a[i] == '-' || a[i] == '+')) {
+			negative = a[i] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int allDigits = 0;
+		int numDigits = 0;
+		int fractionDigits = 0;
+		boolean seenDot = false;
+		for (; i < end; i++) {
+			byte b = a[i];
+			if (b >= '0' && b <= '9') {
+				allDigits++;
+				if (numDigits > 0 || b != '0')
+					numDigits++;
+				mantissa = mantissa * 10 + (b - '0');
+				if (seenDot)
+					fractionDigits++;
+			} else if (b == '.' && !seenDot) {
+				seenDot = true;
+			} else {
+				break;
+			}
+		}
+
+		if (i != end || allDigits == 0 || numDigits > 15
+				|| fractionDigits >= POWERS_OF_TEN.length)
+			return Double.parseDouble(new String(a, off, len));
+
+		double val = (double) mantissa / POWERS_OF_TEN[fractionDigits];
+		return negative ? -val : val;
+	}
+
+	/**
+	 * Compare a[off, off + len) with b in unsigned lexicographic order.
+	 *
+	 * @return negative, zero or positive if the slice is smaller than, equal
+	 *         to or larger than b
+	 */
+	public static int compare(byte[] a, int off, int len, byte[] b) {
+		int n = Math.min(len, b.length);
+		for (int i = 0; i < n; i++) {
+			int cmp = (a[off + i] & 0xFF) - (b[i] & 0xFF);
+			if (cmp != 0)
+				return cmp;
+		}
+		return len - b.length;
+	}
+
 	public static byte[] getString(byte[] a, int start, int end, int size) {
 		byte[] val = new byte[size];
 		System.arraycopy(a, start, val, 0, end - start + 1);
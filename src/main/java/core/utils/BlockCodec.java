@@ -0,0 +1,42 @@
+package core.utils;
+
+/**
+ * Compresses a block of bytes as a whole. The caller keeps the raw length of
+ * the block (see CompressionUtils, which frames the blocks in partition
+ * files) and passes it back to decompress().
+ *
+ * Implementations must be stateless; the same instance is shared by all
+ * threads.
+ */
+public interface BlockCodec {
+	/**
+	 * Identifies the codec in the frame headers. Never change it once data
+	 * has been written with the codec.
+	 */
+	byte getId();
+
+	/**
+	 * Name used in the table info, e.g. "lz4".
+	 */
+	String getName();
+
+	/**
+	 * Upper bound on the compressed size of length bytes.
+	 */
+	int maxCompressedLength(int length);
+
+	/**
+	 * Compress src[srcOff, srcOff + length) into dst from dstOff on. dst must
+	 * have maxCompressedLength(length) bytes of room.
+	 *
+	 * @return the compressed length
+	 */
+	int compress(byte[] src, int srcOff, int length, byte[] dst, int dstOff);
+
+	/**
+	 * Decompress src[srcOff, srcOff + length) into dst[dstOff, dstOff +
+	 * rawLength).
+	 */
+	void decompress(byte[] src, int srcOff, int length, byte[] dst,
+			int dstOff, int rawLength);
+}
@@ -0,0 +1,149 @@
+package core.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Bloom filter over long keys, with a power of two number of bits.
+ *
+ * Bit i of a filter of m bits maps to bit i mod m' of a filter of m' < m
+ * bits (see fold), so filters of different sizes can be merged and tested
+ * for intersection: fold the larger one to the size of the smaller one.
+ * A folded filter is what would have been built at the smaller size.
+ */
+public class BloomFilter {
+	public static final int BITS_PER_KEY = 10;
+	public static final int NUM_HASHES = 7;
+
+	public static final int MIN_BITS = 1 << 10;
+	public static final int MAX_BITS = 1 << 23; // 1 MB
+
+	private final long[] words;
+	private final int mask;
+
+	public BloomFilter(int numBits) {
+		if (numBits < 64 || Integer.bitCount(numBits) != 1)
+			throw new IllegalArgumentException("numBits must be a power of two >= 64: "
+					+ numBits);
+		this.words = new long[numBits >>> 6];
+		this.mask = numBits - 1;
+	}
+
+	/**
+	 * Size of a filter for the given number of distinct keys, between
+	 * MIN_BITS and MAX_BITS.
+	 */
+	public static int getNumBits(long expectedKeys) {
+		long bits = Math.max(expectedKeys, 1) * BITS_PER_KEY;
+		if (bits >= MAX_BITS)
+			return MAX_BITS;
+		return Math.max(MIN_BITS, Integer.highestOneBit((int) bits - 1) << 1);
+	}
+
+	public int getNumBits() {
+		return mask + 1;
+	}
+
+	private static long mix(long key) {
+		// Stafford's variant 13 of the MurmurHash3 finalizer.
+		key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+		key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+		return key ^ (key >>> 31);
+	}
+
+	public void add(long key) {
+		long h = mix(key);
+		int h1 = (int) h;
+		int h2 = (int) (h >>> 32) | 1;
+		for (int i = 0; i < NUM_HASHES; i++) {
+			int bit = (h1 + i * h2) & mask;
+			words[bit >>> 6] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * @return false if the key was certainly not added
+	 */
+	public boolean mayContain(long key) {
+		long h = mix(key);
+		int h1 = (int) h;
+		int h2 = (int) (h >>> 32) | 1;
+		for (int i = 0; i < NUM_HASHES; i++) {
+			int bit = (h1 + i * h2) & mask;
+			if ((words[bit >>> 6] & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	public boolean isEmpty() {
+		for (long w : words) {
+			if (w != 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * This filter at the given (smaller or equal) size.
+	 */
+	public BloomFilter fold(int numBits) {
+		if (numBits == getNumBits())
+			return this;
+		if (numBits > getNumBits())
+			throw new IllegalArgumentException("Cannot fold " + getNumBits()
+					+ " bits into " + numBits);
+		BloomFilter f = new BloomFilter(numBits);
+		for (int i = 0; i < words.length; i++)
+			f.words[i & (f.words.length - 1)] |= words[i];
+		return f;
+	}
+
+	/**
+	 * Union with other, at the size of the smaller of the two.
+	 */
+	public BloomFilter merge(BloomFilter other) {
+		int numBits = Math.min(getNumBits(), other.getNumBits());
+		BloomFilter f = new BloomFilter(numBits);
+		BloomFilter a = fold(numBits);
+		BloomFilter b = other.fold(numBits);
+		for (int i = 0; i < f.words.length; i++)
+			f.words[i] = a.words[i] | b.words[i];
+		return f;
+	}
+
+	/**
+	 * A key added to both filters sets NUM_HASHES distinct bits in both (the
+	 * hash step is odd and the size a power of two), so fewer common bits
+	 * prove the keys disjoint. Only sparse filters can be told apart: for
+	 * filters half full, about a quarter of the bits are common anyway.
+	 *
+	 * @return false if no key was certainly added to both filters
+	 */
+	public boolean mayIntersect(BloomFilter other) {
+		int numBits = Math.min(getNumBits(), other.getNumBits());
+		BloomFilter a = fold(numBits);
+		BloomFilter b = other.fold(numBits);
+		int common = 0;
+		for (int i = 0; i < a.words.length; i++) {
+			common += Long.bitCount(a.words[i] & b.words[i]);
+			if (common >= NUM_HASHES)
+				return true;
+		}
+		return false;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(getNumBits());
+		for (long w : words)
+			out.writeLong(w);
+	}
+
+	public static BloomFilter read(DataInput in) throws IOException {
+		BloomFilter f = new BloomFilter(in.readInt());
+		for (int i = 0; i < f.words.length; i++)
+			f.words[i] = in.readLong();
+		return f;
+	}
+}
@@ -0,0 +1,195 @@
+package core.utils;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+
+/**
+ * Fixed size pages for the buffers of many streams, at most capacity bytes of
+ * them. When all pages are taken, allocate() has an owner of pages write
+ * them out (spill) to free some: the least recently written one, or the one
+ * with the most pages, see Policy. Pages being written out in the background
+ * count until released, so allocate() then waits for them.
+ *
+ * Buffers that must be a single array, like the blocks of the format of a
+ * table, take their bytes from the same capacity with reserve().
+ *
+ * A pool may be shared by the streams of many writer threads: owners are
+ * spilled from whichever thread allocates, so spill() must be thread safe,
+ * and must not wait for a thread that allocates. Pages may be released from
+ * any thread.
+ */
+public class BufferPool {
+	public static final int DEFAULT_PAGE_SIZE = 64 * 1024; // 64 KB
+
+	public static enum Policy {
+		LRU, LARGEST
+	}
+
+	/**
+	 * A holder of pages, typically a stream buffering into them.
+	 */
+	public interface Owner {
+		int getNumPages();
+
+		/**
+		 * Write out the pages held, releasing them now or once written.
+		 */
+		void spill();
+	}
+
+	private final long capacity;
+	private final int pageSize;
+	private final int maxPages;
+	private Policy policy = Policy.LRU;
+
+	private final ArrayDeque<byte[]> free = new ArrayDeque<byte[]>();
+	private int numPages;
+	// Bytes taken with reserve().
+	private long reserved;
+
+	// Least recently written first.
+	private final LinkedHashMap<Owner, Boolean> owners = new LinkedHashMap<Owner, Boolean>(
+			16, 0.75f, true);
+
+	public BufferPool(long capacity, int pageSize) {
+		this.capacity = capacity;
+		this.pageSize = pageSize;
+		this.maxPages = (int) Math.min(Integer.MAX_VALUE,
+				Math.max(2, capacity / pageSize));
+	}
+
+	public void setPolicy(Policy policy) {
+		this.policy = policy;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * Note that the owner is writing, for the LRU policy.
+	 */
+	public synchronized void touch(Owner owner) {
+		owners.put(owner, Boolean.TRUE);
+	}
+
+	/**
+	 * Forget an owner that released its pages for good.
+	 */
+	public synchronized void remove(Owner owner) {
+		owners.remove(owner);
+	}
+
+	/**
+	 * A page for requester, spilling owners (maybe requester itself) until
+	 * one is free.
+	 */
+	public byte[] allocate(Owner requester) {
+		while (true) {
+			Owner victim;
+			synchronized (this) {
+				if (!free.isEmpty())
+					return free.pop();
+				if (fits(pageSize) || numPages == 0) {
+					numPages++;
+					return new byte[pageSize];
+				}
+				victim = getVictim();
+				if (victim == null) {
+					// Every page is being written out.
+					await();
+					continue;
+				}
+			}
+			victim.spill();
+		}
+	}
+
+	public synchronized void release(byte[] page) {
+		free.push(page);
+		notifyAll();
+	}
+
+	/**
+	 * Take bytes for a buffer of the caller's own, spilling owners as
+	 * allocate() does until they fit. If no page is left to free, they are
+	 * taken anyway: the pool then holds more than its capacity.
+	 */
+	public void reserve(int bytes) {
+		while (true) {
+			Owner victim;
+			synchronized (this) {
+				// Free pages go first.
+				while (!fits(bytes) && !free.isEmpty()) {
+					free.pop();
+					numPages--;
+				}
+				if (fits(bytes) || numPages == 0) {
+					reserved += bytes;
+					return;
+				}
+				victim = getVictim();
+				if (victim == null) {
+					await();
+					continue;
+				}
+			}
+			victim.spill();
+		}
+	}
+
+	/**
+	 * Give back bytes taken with reserve().
+	 */
+	public synchronized void unreserve(int bytes) {
+		reserved -= bytes;
+		notifyAll();
+	}
+
+	private boolean fits(long bytes) {
+		return (long) numPages * pageSize + reserved + bytes <= (long) maxPages
+				* pageSize;
+	}
+
+	private void await() {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(
+					"Interrupted while waiting for a buffer page");
+		}
+	}
+
+	private Owner getVictim() {
+		Owner victim = null;
+		int victimPages = 0;
+		for (Owner owner : owners.keySet()) {
+			int n = owner.getNumPages();
+			if (n == 0)
+				continue;
+			if (policy == Policy.LRU)
+				return owner;
+			if (n > victimPages) {
+				victim = owner;
+				victimPages = n;
+			}
+		}
+		return victim;
+	}
+
+	/**
+	 * Pages allocated so far and not dropped for reserve(), free or not.
+	 */
+	public synchronized int getNumPages() {
+		return numPages;
+	}
+
+	public synchronized long getReserved() {
+		return reserved;
+	}
+
+	public int getMaxPages() {
+		return maxPages;
+	}
+}
@@ -0,0 +1,169 @@
+package core.utils;
+
+/**
+ * Block compression of partition files. A compressed file is a sequence of
+ * frames, each holding one block compressed by a BlockCodec:
+ *
+ * magic (4 bytes) | codec id (byte) | raw length (int) | compressed length
+ * (int) | compressed bytes
+ *
+ * Appending to a file adds frames, and decompress() concatenates the blocks
+ * of all the frames. What is compressed (text records or columnar blocks) is
+ * up to the caller.
+ */
+public class CompressionUtils {
+	// Neither text records nor columnar blocks start with a NUL byte
+	// followed by "CMP".
+	private static final byte[] MAGIC = { 0, 'C', 'M', 'P' };
+
+	public static final int HEADER_SIZE = MAGIC.length + 9;
+
+	// Raw bytes per frame.
+	public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024; // 1 MB
+
+	private static final BlockCodec[] CODECS = { new LZ4BlockCodec(),
+			new DeflateBlockCodec() };
+
+	/**
+	 * The codec with the given name, null for "none" (or null).
+	 */
+	public static BlockCodec getCodec(String name) {
+		if (name == null || name.equals("none"))
+			return null;
+		for (BlockCodec codec : CODECS) {
+			if (codec.getName().equals(name))
+				return codec;
+		}
+		throw new RuntimeException("Unknown codec: " + name);
+	}
+
+	public static BlockCodec getCodec(byte id) {
+		for (BlockCodec codec : CODECS) {
+			if (codec.getId() == id)
+				return codec;
+		}
+		throw new RuntimeException("Unknown codec id: " + id);
+	}
+
+	public static BlockCodec[] getCodecs() {
+		return CODECS.clone();
+	}
+
+	public static boolean isCompressed(byte[] bytes, int length) {
+		return bytes != null && length >= MAGIC.length && hasMagic(bytes, 0);
+	}
+
+	private static boolean hasMagic(byte[] bytes, int offset) {
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (bytes[offset + i] != MAGIC[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Length of the frame at bytes[offset], -1 if bytes[offset, length) does
+	 * not hold its header.
+	 */
+	public static int getFrameLength(byte[] bytes, int offset, int length) {
+		if (length - offset < HEADER_SIZE)
+			return -1;
+		if (!hasMagic(bytes, offset))
+			throw new RuntimeException("Corrupt compressed frame at offset "
+					+ offset);
+		return HEADER_SIZE + BinaryUtils.getInt(bytes, offset + MAGIC.length + 5);
+	}
+
+	/**
+	 * Upper bound on the size of the frame for length raw bytes.
+	 */
+	public static int maxFrameLength(BlockCodec codec, int length) {
+		return HEADER_SIZE + codec.maxCompressedLength(length);
+	}
+
+	/**
+	 * Compress src[srcOff, srcOff + length) into a single frame at dst[dstOff].
+	 * dst must have maxFrameLength(codec, length) bytes of room.
+	 *
+	 * @return the frame length
+	 */
+	public static int compressFrame(BlockCodec codec, byte[] src, int srcOff,
+			int length, byte[] dst, int dstOff) {
+		int compressedLength = codec.compress(src, srcOff, length, dst, dstOff
+				+ HEADER_SIZE);
+		System.arraycopy(MAGIC, 0, dst, dstOff, MAGIC.length);
+		dst[dstOff + MAGIC.length] = codec.getId();
+		BinaryUtils.append(dst, dstOff + MAGIC.length + 1, length);
+		BinaryUtils.append(dst, dstOff + MAGIC.length + 5, compressedLength);
+		return HEADER_SIZE + compressedLength;
+	}
+
+	/**
+	 * Compress src[srcOff, srcOff + length) into frames of at most
+	 * DEFAULT_BLOCK_SIZE raw bytes each.
+	 */
+	public static byte[] compress(BlockCodec codec, byte[] src, int srcOff,
+			int length) {
+		int numFrames = Math.max(1, (length + DEFAULT_BLOCK_SIZE - 1)
+				/ DEFAULT_BLOCK_SIZE);
+		byte[] dst = new byte[numFrames
+				* maxFrameLength(codec, Math.min(length, DEFAULT_BLOCK_SIZE))];
+		int op = 0;
+		int ip = srcOff;
+		int end = srcOff + length;
+		do {
+			int n = Math.min(end - ip, DEFAULT_BLOCK_SIZE);
+			op += compressFrame(codec, src, ip, n, dst, op);
+			ip += n;
+		} while (ip < end);
+		return BinaryUtils.resize(dst, op);
+	}
+
+	/**
+	 * Total raw length of the frames in bytes[0, length).
+	 */
+	public static int getDecompressedLength(byte[] bytes, int length) {
+		long rawLength = 0;
+		int ip = 0;
+		while (ip < length) {
+			checkFrame(bytes, ip, length);
+			rawLength += BinaryUtils.getInt(bytes, ip + MAGIC.length + 1);
+			ip += HEADER_SIZE + BinaryUtils.getInt(bytes, ip + MAGIC.length + 5);
+		}
+		if (rawLength > Integer.MAX_VALUE)
+			throw new RuntimeException("Decompressed partition too large: "
+					+ rawLength + " bytes");
+		return (int) rawLength;
+	}
+
+	/**
+	 * Decompress the frames in bytes[0, length) into dst, which must hold
+	 * getDecompressedLength(bytes, length) bytes.
+	 *
+	 * @return the decompressed length
+	 */
+	public static int decompress(byte[] bytes, int length, byte[] dst) {
+		int ip = 0;
+		int op = 0;
+		while (ip < length) {
+			checkFrame(bytes, ip, length);
+			BlockCodec codec = getCodec(bytes[ip + MAGIC.length]);
+			int rawLength = BinaryUtils.getInt(bytes, ip + MAGIC.length + 1);
+			int compressedLength = BinaryUtils.getInt(bytes, ip + MAGIC.length
+					+ 5);
+			codec.decompress(bytes, ip + HEADER_SIZE, compressedLength, dst,
+					op, rawLength);
+			ip += HEADER_SIZE + compressedLength;
+			op += rawLength;
+		}
+		return op;
+	}
+
+	private static void checkFrame(byte[] bytes, int ip, int length) {
+		if (length - ip < HEADER_SIZE || !hasMagic(bytes, ip)
+				|| BinaryUtils.getInt(bytes, ip + MAGIC.length + 5) > length
+						- ip - HEADER_SIZE)
+			throw new RuntimeException("Corrupt compressed frame at offset "
+					+ ip);
+	}
+}
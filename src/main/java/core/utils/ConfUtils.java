@@ -109,4 +109,15 @@ public class ConfUtils {
 		return Short
 				.parseShort(p.getProperty("HDFS_REPLICATION_FACTOR").trim());
 	}
+
+	/**
+	 * Whether to read partitions on the local file system (a working dir
+	 * with a file: URI) through memory mappings. Off unless set.
+	 *
+	 * @return
+	 */
+	public boolean getLOCAL_MMAP() {
+		String mmap = p.getProperty("LOCAL_MMAP");
+		return mmap != null && Boolean.parseBoolean(mmap.trim());
+	}
 }
@@ -0,0 +1,82 @@
+package core.utils;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Raw deflate through the JDK's zlib. Better ratio than LZ4BlockCodec, at a
+ * much higher compression cost.
+ */
+public class DeflateBlockCodec implements BlockCodec {
+	public static final byte ID = 2;
+
+	private final int level;
+
+	public DeflateBlockCodec() {
+		this(Deflater.DEFAULT_COMPRESSION);
+	}
+
+	public DeflateBlockCodec(int level) {
+		this.level = level;
+	}
+
+	@Override
+	public byte getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return "deflate";
+	}
+
+	@Override
+	public int maxCompressedLength(int length) {
+		// Stored blocks add 5 bytes per 16 KB in the worst case.
+		return length + 5 * (length / 16383 + 1) + 64;
+	}
+
+	@Override
+	public int compress(byte[] src, int srcOff, int length, byte[] dst,
+			int dstOff) {
+		Deflater deflater = new Deflater(level, true);
+		try {
+			deflater.setInput(src, srcOff, length);
+			deflater.finish();
+			int op = dstOff;
+			int limit = dstOff + maxCompressedLength(length);
+			while (!deflater.finished()) {
+				if (op == limit)
+					throw new RuntimeException("Deflate output exceeds its bound");
+				op += deflater.deflate(dst, op, limit - op);
+			}
+			return op - dstOff;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	@Override
+	public void decompress(byte[] src, int srcOff, int length, byte[] dst,
+			int dstOff, int rawLength) {
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(src, srcOff, length);
+			int op = dstOff;
+			int end = dstOff + rawLength;
+			while (op < end) {
+				int n = inflater.inflate(dst, op, end - op);
+				if (n == 0 && (inflater.finished() || inflater.needsInput()))
+					throw new RuntimeException("Corrupt deflate block: decompressed "
+							+ (op - dstOff) + " bytes, expected " + rawLength);
+				op += n;
+			}
+		} catch (DataFormatException e) {
+			e.printStackTrace();
+			throw new RuntimeException("Corrupt deflate block");
+		} finally {
+			inflater.end();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package core.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Background threads writing out the buffers of HDFSBufferedOutputStreams, so
+ * that producers keep filling buffers meanwhile. Buffers of at most
+ * maxInFlightBytes in total wait or are being written at a time: submit()
+ * blocks beyond that.
+ *
+ * The threads are daemons, so an executor needs no shutdown. Writes of
+ * different buffers may run in any order: streams submit a buffer once the
+ * previous one is written.
+ */
+public class FlushExecutor {
+	public static final int DEFAULT_NUM_THREADS = 4;
+	public static final int DEFAULT_MAX_IN_FLIGHT_BYTES = 256 * 1024 * 1024; // 256 MB
+
+	private final ExecutorService threads;
+	private final Semaphore inFlight;
+	private final int maxInFlightBytes;
+
+	public FlushExecutor() {
+		this(DEFAULT_NUM_THREADS, DEFAULT_MAX_IN_FLIGHT_BYTES);
+	}
+
+	public FlushExecutor(int numThreads, int maxInFlightBytes) {
+		this.threads = Executors.newFixedThreadPool(numThreads,
+				new ThreadFactoryBuilder().setDaemon(true)
+						.setNameFormat("hdfs-flush-%d").build());
+		this.inFlight = new Semaphore(maxInFlightBytes);
+		this.maxInFlightBytes = maxInFlightBytes;
+	}
+
+	/**
+	 * Run the write of a buffer of numBytes bytes in the background, once
+	 * there is room for it. A single buffer larger than maxInFlightBytes
+	 * waits for all others to be written.
+	 */
+	public Future<?> submit(final Runnable write, int numBytes)
+			throws InterruptedException {
+		final int permits = Math.max(1, Math.min(numBytes, maxInFlightBytes));
+		inFlight.acquire(permits);
+		try {
+			return threads.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						write.run();
+					} finally {
+						inFlight.release(permits);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			inFlight.release(permits);
+			throw e;
+		}
+	}
+}
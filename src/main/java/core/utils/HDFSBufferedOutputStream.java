@@ -2,10 +2,15 @@ package core.utils;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.curator.framework.CuratorFramework;
-import org.apache.curator.framework.recipes.locks.InterProcessSemaphoreMutex;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 
 import core.common.globals.Globals;
 
@@ -14,9 +19,21 @@ import core.common.globals.Globals;
  * the buffer once full. Differs from using OutputStream with connection to HDFS
  * in that it doesn't maintain a persistent connection.
  *
+ * The bytes go to a segment of the bucket at filePath of this stream's own
+ * (see SegmentUtils), appended to without a lock and published on close.
+ *
+ * Given a FlushExecutor, full buffers are written out in the background while
+ * the writes go on into a second buffer. A buffer is only handed over once
+ * the previous one is written, so the bytes reach the file in order.
+ *
+ * Given a BufferPool, the bytes are buffered in pages of the pool rather
+ * than in a buffer of the stream's own, so that many streams use bounded
+ * memory: the pool has the streams it takes pages from write them out when
+ * it runs out, from whichever thread is allocating.
+ *
  * @author anil
  */
-public class HDFSBufferedOutputStream extends OutputStream {
+public class HDFSBufferedOutputStream extends OutputStream implements BufferPool.Owner {
     // Buffer.
     byte[] buffer;
 
@@ -27,47 +44,241 @@ public class HDFSBufferedOutputStream extends OutputStream {
     // Path to HDFS file.
     String filePath;
 
+    // The segment being written, null until the first flush or
+    // getSegmentPath(); tmpCreated once its tmp file is.
+    Path segmentPath;
+    boolean tmpCreated;
+
+    short replication;
+
     // HDFS File System.
     FileSystem fs;
 
     CuratorFramework client;
 
+    // Set to write the buffers out in the background.
+    FlushExecutor executor;
+
+    // The buffer being written out, if any, and the write.
+    byte[] spare;
+    Future<?> pending;
+
+    // Set to buffer in pages of the pool instead, written out once they
+    // hold bufferSize bytes or when the pool spills them.
+    BufferPool pool;
+    int bufferSize;
+    List<byte[]> pages;
+    // Bytes in the last page.
+    int lastCount;
+    // The pool may spill the pages from another thread: pageLock guards
+    // pages and lastCount, writeLock is held while pages are handed over to
+    // be written, so that they reach the file in order.
+    private final Object pageLock = new Object();
+    private final Object writeLock = new Object();
+
     public HDFSBufferedOutputStream(FileSystem fs, String filePath,
                                     short replication, int bufferSize, CuratorFramework client) {
-        this.buffer = new byte[bufferSize];
+        this(fs, filePath, replication, bufferSize, client, null, null);
+    }
+
+    public HDFSBufferedOutputStream(FileSystem fs, String filePath,
+                                    short replication, int bufferSize, CuratorFramework client,
+                                    FlushExecutor executor) {
+        this(fs, filePath, replication, bufferSize, client, executor, null);
+    }
+
+    public HDFSBufferedOutputStream(FileSystem fs, String filePath,
+                                    short replication, int bufferSize, CuratorFramework client,
+                                    FlushExecutor executor, BufferPool pool) {
+        if (pool == null) {
+            this.buffer = new byte[bufferSize];
+        } else {
+            this.pages = new ArrayList<byte[]>();
+        }
         this.filePath = filePath;
         this.fs = fs;
-        InterProcessSemaphoreMutex l = CuratorUtils.acquireLock(client,
-                "/partition-lock-" + this.filePath.hashCode());
-        // Create the file if it does not exist.
-        HDFSUtils.safeCreateFile(this.fs, filePath, replication);
-        CuratorUtils.releaseLock(l);
+        this.replication = replication;
         this.client = client;
+        this.executor = executor;
+        this.pool = pool;
+        this.bufferSize = bufferSize;
     }
 
     @Override
     public void flush() {
-        if (client != null) {
-            InterProcessSemaphoreMutex l = CuratorUtils.acquireLock(client,
-                    "/partition-lock-" + this.filePath.hashCode());
+        if (pool != null) {
+            flushPages();
+            return;
+        }
+        if (curPointer == 0)
+            return;
+        if (executor == null) {
+            append(this.buffer, 0, curPointer);
+        } else {
+            // The spare buffer is free once the previous write is done.
+            awaitPending();
+            final byte[] b = this.buffer;
+            final int len = curPointer;
+            submit(new Runnable() {
+                @Override
+                public void run() {
+                    append(b, 0, len);
+                }
+            }, len);
+            this.buffer = spare != null ? spare : new byte[b.length];
+            this.spare = b;
+        }
+        this.curPointer = 0;
+    }
 
+    private void submit(Runnable write, int len) {
+        try {
+            pending = executor.submit(write, len);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while flushing " + filePath);
+        }
+    }
 
-            HDFSUtils.appendBytes(this.fs, this.filePath, this.buffer, 0,
-                    curPointer);
-            this.curPointer = 0;
+    /**
+     * Write out the pages, releasing them once written.
+     */
+    private void flushPages() {
+        synchronized (writeLock) {
+            final List<byte[]> p;
+            final int last;
+            synchronized (pageLock) {
+                if (pages.isEmpty())
+                    return;
+                p = pages;
+                last = lastCount;
+                pages = new ArrayList<byte[]>();
+                lastCount = 0;
+            }
+            if (executor == null) {
+                appendPages(p, last);
+            } else {
+                awaitPending();
+                submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        appendPages(p, last);
+                    }
+                }, (p.size() - 1) * pool.getPageSize() + last);
+            }
+        }
+    }
 
-            CuratorUtils.releaseLock(l);
+    @Override
+    public int getNumPages() {
+        synchronized (pageLock) {
+            return pages.size();
+        }
+    }
 
-        } else {
-            HDFSUtils.appendBytes(this.fs, this.filePath, this.buffer, 0,
-                    curPointer);
-            this.curPointer = 0;
+    @Override
+    public void spill() {
+        flushPages();
+    }
+
+    /**
+     * Wait for the buffer being written out, if any.
+     */
+    private void awaitPending() {
+        if (pending == null)
+            return;
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while flushing " + filePath);
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Failed to flush " + filePath);
+        } finally {
+            pending = null;
+        }
+    }
+
+    /**
+     * The segment the bytes written go to, published by close(). Side files
+     * about the bytes are named after it.
+     */
+    public synchronized Path getSegmentPath() {
+        if (segmentPath == null)
+            segmentPath = SegmentUtils.getSegmentPath(new Path(filePath));
+        return segmentPath;
+    }
+
+    private Path createTmp() {
+        Path tmpPath = SegmentUtils.getTmpPath(getSegmentPath());
+        if (!tmpCreated) {
+            HDFSUtils.safeCreateFile(this.fs, tmpPath.toString(), replication);
+            tmpCreated = true;
         }
+        return tmpPath;
+    }
 
+    private void append(byte[] b, int off, int len) {
+        HDFSUtils.appendBytes(this.fs, createTmp().toString(), b, off, len);
+    }
+
+    /**
+     * Append the pages, the last one holding last bytes, in one go.
+     */
+    private void appendPages(List<byte[]> p, int last) {
+        Path tmpPath = createTmp();
+        try {
+            FSDataOutputStream out = fs.append(tmpPath);
+            for (int i = 0; i < p.size(); i++)
+                out.write(p.get(i), 0, i == p.size() - 1 ? last : p.get(i).length);
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Could not append to file: " + tmpPath);
+        } finally {
+            for (byte[] page : p)
+                pool.release(page);
+        }
+    }
+
+    private void writePages(byte[] b, int off, int len) {
+        pool.touch(this);
+        int pageSize = pool.getPageSize();
+        boolean full;
+        while (len > 0) {
+            synchronized (pageLock) {
+                if (!pages.isEmpty() && lastCount < pageSize) {
+                    int n = Math.min(len, pageSize - lastCount);
+                    System.arraycopy(b, off, pages.get(pages.size() - 1),
+                            lastCount, n);
+                    lastCount += n;
+                    off += n;
+                    len -= n;
+                    continue;
+                }
+            }
+            // Not holding the locks, as the pool may spill this stream.
+            byte[] page = pool.allocate(this);
+            synchronized (pageLock) {
+                pages.add(page);
+                lastCount = 0;
+            }
+        }
+        synchronized (pageLock) {
+            full = (long) pages.size() * pageSize >= bufferSize;
+        }
+        if (full)
+            flushPages();
     }
 
     @Override
     public void write(int b) throws IOException {
+        if (pool != null) {
+            writePages(new byte[] { (byte) (b >> 24), (byte) (b >> 16),
+                    (byte) (b >> 8), (byte) b }, 0, 4);
+            return;
+        }
         if (curPointer + 4 + 1 > buffer.length) {
             this.flush();
         }
@@ -82,28 +293,56 @@ public class HDFSBufferedOutputStream extends OutputStream {
 
     @Override
     public void write(byte[] b) throws IOException {
-        if (curPointer + b.length + 1 > buffer.length) {
-            this.flush();
-        }
-
-        System.arraycopy(b, 0, buffer, curPointer, b.length);
-        curPointer += b.length;
+        write(b, 0, b.length);
     }
 
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
+        if (pool != null) {
+            writePages(b, off, len);
+            return;
+        }
         if (curPointer + len + 1 > buffer.length) {
             this.flush();
         }
 
+        // Does not fit even in the empty buffer, write it through.
+        if (len + 1 > buffer.length) {
+            awaitPending();
+            append(b, off, len);
+            return;
+        }
+
         System.arraycopy(b, off, buffer, curPointer, len);
         curPointer += len;
     }
 
     @Override
     public void close() {
-        if (curPointer > 0) {
+        if (curPointer > 0 || pool != null) {
             this.flush();
         }
+        if (pool != null) {
+            // After a spill from another thread, if any.
+            synchronized (writeLock) {
+                awaitPending();
+            }
+            pool.remove(this);
+        } else {
+            awaitPending();
+        }
+        if (!tmpCreated) {
+            // Nothing written, a later write starts another segment.
+            segmentPath = null;
+            return;
+        }
+        try {
+            SegmentUtils.publish(fs, segmentPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Failed to publish " + segmentPath);
+        }
+        segmentPath = null;
+        tmpCreated = false;
     }
 }
@@ -197,6 +197,26 @@ public class HDFSUtils {
                 bufferSize, client);
     }
 
+    /**
+     * Also writes the full buffers out in the background, see FlushExecutor.
+     */
+    public static OutputStream getBufferedHDFSOutputStream(
+            FileSystem fs, String filename, short replication, int bufferSize,
+            CuratorFramework client, FlushExecutor executor) {
+        return new HDFSBufferedOutputStream(fs, filename, replication,
+                bufferSize, client, executor);
+    }
+
+    /**
+     * Also buffers in pages of the pool, if not null, see BufferPool.
+     */
+    public static OutputStream getBufferedHDFSOutputStream(
+            FileSystem fs, String filename, short replication, int bufferSize,
+            CuratorFramework client, FlushExecutor executor, BufferPool pool) {
+        return new HDFSBufferedOutputStream(fs, filename, replication,
+                bufferSize, client, executor, pool);
+    }
+
     public static InputStream getHDFSInputStream(FileSystem hdfs,
                                                  String filename) {
         try {
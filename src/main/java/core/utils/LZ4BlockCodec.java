@@ -0,0 +1,186 @@
+package core.utils;
+
+/**
+ * Pure Java implementation of the LZ4 block format: a greedy LZ77 matcher
+ * over a hash table of 4 byte sequences, emitting sequences of literals
+ * followed by a (2 byte offset, length) match. Fast on both ends, with a
+ * modest ratio; use DeflateBlockCodec when the ratio matters more.
+ */
+public class LZ4BlockCodec implements BlockCodec {
+	public static final byte ID = 1;
+
+	private static final int MIN_MATCH = 4;
+	private static final int MAX_DISTANCE = 65535;
+
+	// The last 5 bytes are always literals, and a match cannot start in the
+	// last 12 bytes.
+	private static final int LAST_LITERALS = 5;
+	private static final int MF_LIMIT = 12;
+
+	private static final int HASH_LOG = 14;
+
+	// The search steps faster through data without matches.
+	private static final int SKIP_STRENGTH = 6;
+
+	@Override
+	public byte getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return "lz4";
+	}
+
+	@Override
+	public int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	private static int readInt(byte[] b, int i) {
+		return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16
+				| (b[i + 3] & 0xFF) << 24;
+	}
+
+	private static int hash(int sequence) {
+		return (sequence * -1640531535) >>> (32 - HASH_LOG);
+	}
+
+	@Override
+	public int compress(byte[] src, int srcOff, int length, byte[] dst,
+			int dstOff) {
+		// Positions relative to srcOff, plus one; 0 is an empty slot.
+		int[] table = new int[1 << HASH_LOG];
+
+		int srcEnd = srcOff + length;
+		int matchLimit = srcEnd - LAST_LITERALS;
+		int mfLimit = srcEnd - MF_LIMIT;
+
+		int anchor = srcOff;
+		int ip = srcOff;
+		int op = dstOff;
+		while (ip < mfLimit) {
+			int sequence = readInt(src, ip);
+			int h = hash(sequence);
+			int ref = table[h] - 1 + srcOff;
+			table[h] = ip - srcOff + 1;
+
+			if (ref < srcOff || ip - ref > MAX_DISTANCE
+					|| readInt(src, ref) != sequence) {
+				ip += 1 + ((ip - anchor) >>> SKIP_STRENGTH);
+				continue;
+			}
+
+			// Extend the match backwards over the pending literals, then
+			// forwards.
+			while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+				ip--;
+				ref--;
+			}
+			int matchLength = MIN_MATCH;
+			while (ip + matchLength < matchLimit
+					&& src[ip + matchLength] == src[ref + matchLength])
+				matchLength++;
+
+			op = writeSequence(src, anchor, ip - anchor, dst, op, ip - ref,
+					matchLength);
+			ip += matchLength;
+			anchor = ip;
+		}
+
+		op = writeSequence(src, anchor, srcEnd - anchor, dst, op, 0, 0);
+		return op - dstOff;
+	}
+
+	/**
+	 * Write a sequence; the last one of a block has no match (matchLength 0).
+	 */
+	private static int writeSequence(byte[] src, int literals,
+			int literalLength, byte[] dst, int op, int offset, int matchLength) {
+		int token = op++;
+		int ml = matchLength - MIN_MATCH;
+		dst[token] = (byte) (Math.min(literalLength, 15) << 4 | (matchLength == 0 ? 0
+				: Math.min(ml, 15)));
+
+		if (literalLength >= 15)
+			op = writeLength(dst, op, literalLength - 15);
+		System.arraycopy(src, literals, dst, op, literalLength);
+		op += literalLength;
+
+		if (matchLength == 0)
+			return op;
+
+		dst[op++] = (byte) offset;
+		dst[op++] = (byte) (offset >>> 8);
+		if (ml >= 15)
+			op = writeLength(dst, op, ml - 15);
+		return op;
+	}
+
+	private static int writeLength(byte[] dst, int op, int length) {
+		while (length >= 255) {
+			dst[op++] = (byte) 255;
+			length -= 255;
+		}
+		dst[op++] = (byte) length;
+		return op;
+	}
+
+	@Override
+	public void decompress(byte[] src, int srcOff, int length, byte[] dst,
+			int dstOff, int rawLength) {
+		int ip = srcOff;
+		int srcEnd = srcOff + length;
+		int op = dstOff;
+		try {
+			while (true) {
+				int token = src[ip++] & 0xFF;
+
+				int literalLength = token >>> 4;
+				if (literalLength == 15) {
+					int b;
+					do {
+						b = src[ip++] & 0xFF;
+						literalLength += b;
+					} while (b == 255);
+				}
+				System.arraycopy(src, ip, dst, op, literalLength);
+				ip += literalLength;
+				op += literalLength;
+
+				if (ip >= srcEnd)
+					break;
+
+				int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+				ip += 2;
+				int matchLength = token & 0x0F;
+				if (matchLength == 15) {
+					int b;
+					do {
+						b = src[ip++] & 0xFF;
+						matchLength += b;
+					} while (b == 255);
+				}
+				matchLength += MIN_MATCH;
+
+				int ref = op - offset;
+				if (offset == 0 || ref < dstOff)
+					throw new RuntimeException("Corrupt LZ4 block");
+				if (offset >= matchLength) {
+					System.arraycopy(dst, ref, dst, op, matchLength);
+				} else {
+					// Overlapping copy repeats the last offset bytes.
+					for (int i = 0; i < matchLength; i++)
+						dst[op + i] = dst[ref + i];
+				}
+				op += matchLength;
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new RuntimeException("Corrupt LZ4 block");
+		}
+
+		if (op - dstOff != rawLength)
+			throw new RuntimeException("Corrupt LZ4 block: decompressed "
+					+ (op - dstOff) + " bytes, expected " + rawLength);
+	}
+}
@@ -0,0 +1,89 @@
+package core.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the first length bytes of a local file through memory mappings of
+ * windowSize bytes each, mapping one window at a time. Saves the system
+ * calls, and the copy into a kernel buffer, of reading the file, and pages
+ * through files larger than a single mapping can hold (2 GB).
+ */
+public class MappedFileInputStream extends InputStream {
+	public static final long DEFAULT_WINDOW_SIZE = 1L << 30; // 1 GB
+
+	private final FileChannel channel;
+	private final long length;
+	private final long windowSize;
+
+	private long windowStart;
+	private MappedByteBuffer window;
+
+	public MappedFileInputStream(File file, long length) throws IOException {
+		this(file, length, DEFAULT_WINDOW_SIZE);
+	}
+
+	public MappedFileInputStream(File file, long length, long windowSize)
+			throws IOException {
+		if (windowSize <= 0 || windowSize > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Invalid window size: "
+					+ windowSize);
+		this.channel = new RandomAccessFile(file, "r").getChannel();
+		this.length = Math.min(length, channel.size());
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Map the next window once the current one is read.
+	 *
+	 * @return false at the end of the stream
+	 */
+	private boolean nextWindow() throws IOException {
+		if (window != null && window.hasRemaining())
+			return true;
+		long start = window == null ? 0 : windowStart + window.capacity();
+		if (start >= length)
+			return false;
+		windowStart = start;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+				Math.min(windowSize, length - start));
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!nextWindow())
+			return -1;
+		return window.get() & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!nextWindow())
+			return -1;
+		int n = Math.min(len, window.remaining());
+		window.get(b, off, n);
+		return n;
+	}
+
+	@Override
+	public int available() {
+		if (window == null)
+			return (int) Math.min(length, Integer.MAX_VALUE);
+		return (int) Math.min(length - windowStart - window.position(),
+				Integer.MAX_VALUE);
+	}
+
+	@Override
+	public void close() throws IOException {
+		// The mapping goes away with the buffer, once collected.
+		window = null;
+		channel.close();
+	}
+}
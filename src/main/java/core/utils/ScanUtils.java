@@ -0,0 +1,46 @@
+package core.utils;
+
+/**
+ * Byte scanning helpers shared by the record readers.
+ *
+ * These are plain byte loops, which the JIT inlines and unrolls. Searching a
+ * word at a time needs a fast unaligned load of a long from a byte[], which
+ * Java 8 only offers through sun.misc.Unsafe: assembling the word from its
+ * bytes, or reading it through a ByteBuffer (which does the same on Java 8),
+ * is slower than the byte loop.
+ */
+public class ScanUtils {
+
+	/**
+	 * Find the first occurrence of a byte in a[from, to).
+	 *
+	 * @param a
+	 *            The byte array
+	 * @param from
+	 *            The first position to look at (inclusive)
+	 * @param to
+	 *            The end of the range (exclusive)
+	 * @param b
+	 *            The byte to look for
+	 * @return position of the first occurrence, or -1 if there is none
+	 */
+	public static int indexOf(byte[] a, int from, int to, byte b) {
+		for (int i = from; i < to; i++) {
+			if (a[i] == b)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Count the occurrences of a byte in a[from, to).
+	 */
+	public static int count(byte[] a, int from, int to, byte b) {
+		int count = 0;
+		for (int i = from; i < to; i++) {
+			if (a[i] == b)
+				count++;
+		}
+		return count;
+	}
+}
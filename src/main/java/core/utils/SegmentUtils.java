@@ -0,0 +1,357 @@
+package core.utils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * The files of a bucket. Writers do not append to a shared bucket file under
+ * a lock: every store writes a segment file of its own, moved in place once
+ * whole, and a bucket is the union of its files in the data directory:
+ *
+ * <bucket>                        the bucket file of tables written before
+ *                                 segments
+ * <bucket>.<time>.<writer>.<seq>  a segment, started around time (ms) by a
+ *                                 writer (one per JVM)
+ * <bucket>.<from>-<to>.c          segments merged by compaction (see
+ *                                 SegmentCompactor), published in [from, to)
+ * <bucket>.<from>-<to>.c.manifest the names of the files merged into it
+ * anything else, like *.tmp       not part of the bucket
+ *
+ * The bucket file counts as published at time 0. Times only order the files
+ * of a bucket: writer clocks may be off. Published files are never modified,
+ * so readers take no lock. A merged file supersedes exactly the files its
+ * manifest names: they are no longer read, and deleted a while later. The
+ * manifest is moved in place before the merged file. It also names the files
+ * superseded by the merged files it merged, so that deleting those, in any
+ * order, brings none of them back.
+ *
+ * A segment is named when it is started, so that side files about it, like
+ * its zone map, can be written under its name before it is published.
+ */
+public class SegmentUtils {
+	public static final String TMP_SUFFIX = ".tmp";
+
+	public static final String MANIFEST_SUFFIX = ".manifest";
+
+	private static final Pattern NAME = Pattern
+			.compile("(\\d{1,9})(?:\\.(\\d+)\\.([0-9a-f]+)\\.(\\d+)|\\.(\\d+)-(\\d+)\\.c)?");
+
+	private static final String WRITER_ID = Long.toHexString(new Random()
+			.nextLong());
+
+	private static final AtomicInteger nextSeq = new AtomicInteger();
+
+	// Manifests read, by path.
+	private static final Map<String, Manifest> manifests = new ConcurrentHashMap<String, Manifest>();
+
+	/**
+	 * @return -1 if the file is not part of a bucket
+	 */
+	public static int getBucketId(String fileName) {
+		Matcher m = NAME.matcher(fileName);
+		return m.matches() ? Integer.parseInt(m.group(1)) : -1;
+	}
+
+	public static boolean isMerged(String fileName) {
+		Matcher m = NAME.matcher(fileName);
+		return m.matches() && m.group(5) != null;
+	}
+
+	/**
+	 * Whether the file is the manifest of a merged file.
+	 */
+	public static boolean isManifest(String fileName) {
+		return fileName.endsWith(MANIFEST_SUFFIX)
+				&& isMerged(getMergedName(fileName));
+	}
+
+	private static String getMergedName(String manifestName) {
+		return manifestName.substring(0, manifestName.length()
+				- MANIFEST_SUFFIX.length());
+	}
+
+	/**
+	 * Bucket of a file of a bucket or of a manifest, -1 if neither.
+	 */
+	public static int getListedBucketId(String fileName) {
+		if (isManifest(fileName))
+			return getBucketId(getMergedName(fileName));
+		return getBucketId(fileName);
+	}
+
+	/**
+	 * The publication times [from, to) covered by a file of a bucket.
+	 */
+	public static long[] getRange(String fileName) {
+		Matcher m = NAME.matcher(fileName);
+		if (!m.matches())
+			throw new IllegalArgumentException("Not a bucket file: " + fileName);
+		if (m.group(2) != null) {
+			long time = Long.parseLong(m.group(2));
+			return new long[] { time, time + 1 };
+		}
+		if (m.group(5) != null)
+			return new long[] { Long.parseLong(m.group(5)),
+					Long.parseLong(m.group(6)) };
+		return new long[] { 0, 1 };
+	}
+
+	/**
+	 * Path of the bucket with the given file.
+	 */
+	public static Path getBucketPath(Path file) {
+		return new Path(file.getParent(), ""
+				+ getBucketId(file.getName()));
+	}
+
+	/**
+	 * Whether the file is a segment, see getSegmentPath().
+	 */
+	public static boolean isSegment(String fileName) {
+		Matcher m = NAME.matcher(fileName);
+		return m.matches() && m.group(2) != null;
+	}
+
+	/**
+	 * A fresh path for a segment of the bucket. The segment is written at
+	 * getTmpPath() and published with publish().
+	 */
+	public static Path getSegmentPath(Path bucketPath) {
+		return new Path(bucketPath.getParent(), bucketPath.getName() + "."
+				+ System.currentTimeMillis() + "." + WRITER_ID + "."
+				+ nextSeq.getAndIncrement());
+	}
+
+	public static Path getTmpPath(Path segmentPath) {
+		return new Path(segmentPath.toString() + TMP_SUFFIX);
+	}
+
+	/**
+	 * Move a whole segment written at its tmp path in place.
+	 */
+	public static void publish(FileSystem fs, Path segmentPath)
+			throws IOException {
+		Path tmp = getTmpPath(segmentPath);
+		if (!fs.rename(tmp, segmentPath))
+			throw new IOException("Failed to rename " + tmp + " to "
+					+ segmentPath);
+	}
+
+	/**
+	 * Write a file aside and move it in place, so that it is whole once
+	 * there. Replaces the file if it exists.
+	 */
+	public static void writeAside(FileSystem fs, Path path, byte[] bytes,
+			short replication) throws IOException {
+		Path tmp = getTmpPath(path);
+		FSDataOutputStream os = fs.create(tmp, true, 4096, replication,
+				fs.getDefaultBlockSize(tmp));
+		os.write(bytes);
+		os.close();
+		fs.delete(path, false);
+		if (!fs.rename(tmp, path))
+			throw new IOException("Failed to rename " + tmp + " to " + path);
+	}
+
+	public static Path getMergedPath(Path bucketPath, long from, long to) {
+		return new Path(bucketPath.getParent(), bucketPath.getName() + "."
+				+ from + "-" + to + ".c");
+	}
+
+	public static Path getManifestPath(Path mergedPath) {
+		return new Path(mergedPath.getParent(), mergedPath.getName()
+				+ MANIFEST_SUFFIX);
+	}
+
+	private static class Manifest {
+		final long length;
+		final long modificationTime;
+		final List<String> names;
+
+		Manifest(FileStatus f, List<String> names) {
+			this.length = f.getLen();
+			this.modificationTime = f.getModificationTime();
+			this.names = names;
+		}
+	}
+
+	/**
+	 * The names of the files merged into a merged file, given its manifest.
+	 */
+	public static List<String> readManifest(FileSystem fs, FileStatus manifest)
+			throws IOException {
+		String path = manifest.getPath().toString();
+		Manifest m = manifests.get(path);
+		if (m != null && m.length == manifest.getLen()
+				&& m.modificationTime == manifest.getModificationTime())
+			return m.names;
+
+		InputStream in = fs.open(manifest.getPath());
+		byte[] bytes;
+		try {
+			bytes = ByteStreams.toByteArray(in);
+		} finally {
+			in.close();
+		}
+		List<String> names = new ArrayList<String>();
+		for (String name : new String(bytes, StandardCharsets.UTF_8).split("\n")) {
+			if (!name.isEmpty())
+				names.add(name);
+		}
+		manifests.put(path, new Manifest(manifest, names));
+		return names;
+	}
+
+	/**
+	 * Write the manifest of a merged file, see writeAside().
+	 */
+	public static void writeManifest(FileSystem fs, Path mergedPath,
+			Collection<String> names, short replication) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (String name : names)
+			sb.append(name).append('\n');
+		writeAside(fs, getManifestPath(mergedPath), sb.toString().getBytes(
+				StandardCharsets.UTF_8), replication);
+	}
+
+	/**
+	 * The superseded files of a bucket, given its listing (manifests
+	 * included), each with a merged file that supersedes it. A manifest
+	 * without its merged file supersedes nothing.
+	 */
+	public static Map<FileStatus, FileStatus> getSuperseded(FileSystem fs,
+			Collection<FileStatus> files) throws IOException {
+		Map<String, FileStatus> byName = new HashMap<String, FileStatus>();
+		for (FileStatus f : files)
+			byName.put(f.getPath().getName(), f);
+
+		Map<FileStatus, FileStatus> superseded = new HashMap<FileStatus, FileStatus>();
+		for (FileStatus f : files) {
+			String name = f.getPath().getName();
+			if (!isManifest(name))
+				continue;
+			FileStatus merged = byName.get(getMergedName(name));
+			if (merged == null)
+				continue;
+			for (String n : readManifest(fs, f)) {
+				FileStatus s = byName.get(n);
+				if (s == null || n.equals(merged.getPath().getName()))
+					continue;
+				// The oldest merged file, the first to let it be deleted.
+				FileStatus previous = superseded.get(s);
+				if (previous == null
+						|| merged.getModificationTime() < previous
+								.getModificationTime())
+					superseded.put(s, merged);
+			}
+		}
+		return superseded;
+	}
+
+	/**
+	 * The files of a bucket that are not superseded, in publication order,
+	 * given its listing (manifests included). Manifests are left out.
+	 */
+	public static List<FileStatus> getLive(FileSystem fs,
+			Collection<FileStatus> files) throws IOException {
+		Map<FileStatus, FileStatus> superseded = getSuperseded(fs, files);
+		List<FileStatus> live = new ArrayList<FileStatus>();
+		for (FileStatus f : files) {
+			if (getBucketId(f.getPath().getName()) != -1
+					&& !superseded.containsKey(f))
+				live.add(f);
+		}
+		Collections.sort(live, new Comparator<FileStatus>() {
+			@Override
+			public int compare(FileStatus a, FileStatus b) {
+				long[] ra = getRange(a.getPath().getName());
+				long[] rb = getRange(b.getPath().getName());
+				if (ra[0] != rb[0])
+					return ra[0] < rb[0] ? -1 : 1;
+				return a.getPath().getName().compareTo(b.getPath().getName());
+			}
+		});
+		return live;
+	}
+
+	/**
+	 * The files of a data directory listing by bucket, manifests included,
+	 * or only the live files if live is set. Other files are left out.
+	 */
+	public static Map<Integer, List<FileStatus>> group(FileSystem fs,
+			Collection<FileStatus> files, boolean live) throws IOException {
+		Map<Integer, List<FileStatus>> buckets = new TreeMap<Integer, List<FileStatus>>();
+		for (FileStatus f : files) {
+			int id = getListedBucketId(f.getPath().getName());
+			if (id == -1)
+				continue;
+			List<FileStatus> l = buckets.get(id);
+			if (l == null) {
+				l = new ArrayList<FileStatus>();
+				buckets.put(id, l);
+			}
+			l.add(f);
+		}
+		if (live) {
+			for (Map.Entry<Integer, List<FileStatus>> e : buckets.entrySet())
+				e.setValue(getLive(fs, e.getValue()));
+		}
+		return buckets;
+	}
+
+	/**
+	 * The live files of the bucket at bucketPath, none if its directory does
+	 * not exist.
+	 */
+	public static List<FileStatus> list(FileSystem fs, Path bucketPath)
+			throws IOException {
+		final int id = Integer.parseInt(bucketPath.getName());
+		List<FileStatus> files = new ArrayList<FileStatus>();
+		try {
+			for (FileStatus f : fs.listStatus(bucketPath.getParent(),
+					new PathFilter() {
+						@Override
+						public boolean accept(Path path) {
+							return getListedBucketId(path.getName()) == id;
+						}
+					}))
+				files.add(f);
+		} catch (FileNotFoundException e) {
+		}
+		return getLive(fs, files);
+	}
+
+	/**
+	 * Total size of the live files of the bucket at bucketPath.
+	 */
+	public static long getLength(FileSystem fs, Path bucketPath)
+			throws IOException {
+		long length = 0;
+		for (FileStatus f : list(fs, bucketPath))
+			length += f.getLen();
+		return length;
+	}
+}
@@ -1,5 +1,6 @@
 package core.utils;
 
+import java.io.Serializable;
 import java.util.Calendar;
 import java.util.Comparator;
 import java.util.GregorianCalendar;
@@ -9,7 +10,10 @@ public class TypeUtils {
 		BOOLEAN, INT, LONG, DOUBLE, STRING, DATE, VARCHAR
 	};
 
-	public static class SimpleDate implements Comparable<SimpleDate> {
+	public static class SimpleDate implements Comparable<SimpleDate>,
+			Serializable {
+		private static final long serialVersionUID = 1L;
+
 		private int year, month, day;
 		public static int[] daysPerMonth = new int[] { 31, 28, 31, 30, 31, 30,
 				31, 31, 30, 31, 30, 31 };
@@ -101,6 +105,119 @@ public class TypeUtils {
 		}
 	}
 
+	/**
+	 * Order preserving 64-bit encoding of a value: if compareTo(x, y, t) < 0
+	 * then encode(x, t) <= encode(y, t). Different values have different
+	 * encodings, except STRING values, encoded by their first 4 chars; see
+	 * compare for the tie-break.
+	 */
+	public static long encode(Object value, TYPE t) {
+		switch (t) {
+		case INT:
+			return (Integer) value;
+		case LONG:
+			return (Long) value;
+		case DOUBLE:
+			return encode(((Double) value).doubleValue());
+		case DATE:
+			return encode((SimpleDate) value);
+		case BOOLEAN:
+			return (Boolean) value ? 1 : 0;
+		case STRING:
+		case VARCHAR:
+			return encode((String) value);
+		default:
+			throw new RuntimeException("Unknown TYPE in encode: " + t);
+		}
+	}
+
+	/**
+	 * The bits of a double, with the other bits of negative values flipped,
+	 * compare like Double.compareTo.
+	 */
+	public static long encode(double d) {
+		long bits = Double.doubleToLongBits(d);
+		return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+	}
+
+	/**
+	 * Days since 1970-01-01 of a valid date.
+	 */
+	public static long encode(SimpleDate d) {
+		return daysSinceEpoch(d.getYear(), d.getMonth(), d.getDay());
+	}
+
+	public static long daysSinceEpoch(int year, int month, int day) {
+		// Days of 400 year eras starting on March 1st, so that the leap day
+		// is the last day of the year.
+		long y = month <= 2 ? year - 1 : year;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5
+				+ day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100
+				+ dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * The first 4 chars, zero padded, as a long comparing like the chars do.
+	 */
+	public static long encode(String s) {
+		long key = 0;
+		int n = s.length();
+		for (int i = 0; i < 4; i++)
+			key = (key << 16) | (i < n ? s.charAt(i) : 0);
+		return key ^ Long.MIN_VALUE;
+	}
+
+	/**
+	 * Whether equal encodings of values of type t mean equal values.
+	 */
+	public static boolean isExact(TYPE t) {
+		return t != TYPE.STRING && t != TYPE.VARCHAR;
+	}
+
+	/**
+	 * Compare x and y, given their encodings.
+	 */
+	public static int compare(long xKey, Object x, long yKey, Object y, TYPE t) {
+		int c = Long.compare(xKey, yKey);
+		if (c != 0 || isExact(t))
+			return c;
+		return ((String) x).compareTo((String) y);
+	}
+
+	/**
+	 * A value with its encoding. Immutable, so that threads can share it.
+	 */
+	public static final class EncodedValue {
+		private final Object value;
+		private final TYPE type;
+		private final long key;
+
+		public EncodedValue(Object value, TYPE type) {
+			this.value = value;
+			this.type = type;
+			this.key = encode(value, type);
+		}
+
+		/**
+		 * Encoding of value, reusing the encoded one if it is the same.
+		 */
+		public static EncodedValue of(EncodedValue encoded, Object value,
+				TYPE type) {
+			if (encoded != null && encoded.value == value
+					&& encoded.type == type)
+				return encoded;
+			return new EncodedValue(value, type);
+		}
+
+		public long getKey() {
+			return key;
+		}
+	}
+
 	public static Comparator<Object> getComparatorForType(TYPE type) {
 		switch (type) {
 		case INT:
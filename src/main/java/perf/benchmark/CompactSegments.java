@@ -0,0 +1,101 @@
+package perf.benchmark;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileSystem;
+
+import core.adapt.SegmentCompactor;
+import core.common.globals.Globals;
+import core.common.globals.TableInfo;
+import core.upfront.build.SortedOutputStream;
+import core.utils.ConfUtils;
+import core.utils.HDFSUtils;
+
+/**
+ * Runs a SegmentCompactor over the buckets of a table, every --interval ms
+ * (once if 0), alongside the queries and writers of the table.
+ */
+public class CompactSegments {
+	String tableName = "";
+	long interval = 60 * 1000;
+	long smallSize = SegmentCompactor.DEFAULT_SMALL_SIZE;
+	int minFiles = SegmentCompactor.DEFAULT_MIN_FILES;
+	long gracePeriod = SegmentCompactor.DEFAULT_GRACE_PERIOD;
+
+	ConfUtils cfg;
+	FileSystem fs;
+
+	public void loadSettings(String[] args) {
+		int counter = 0;
+		while (counter < args.length) {
+			switch (args[counter]) {
+				case "--tableName":
+					tableName = args[counter + 1];
+					counter += 2;
+					break;
+				case "--interval":
+					interval = Long.parseLong(args[counter + 1]);
+					counter += 2;
+					break;
+				case "--smallSize":
+					smallSize = Long.parseLong(args[counter + 1]);
+					counter += 2;
+					break;
+				case "--minFiles":
+					minFiles = Integer.parseInt(args[counter + 1]);
+					counter += 2;
+					break;
+				case "--gracePeriod":
+					gracePeriod = Long.parseLong(args[counter + 1]);
+					counter += 2;
+					break;
+				default:
+					// Something we don't use
+					counter += 2;
+					break;
+			}
+		}
+	}
+
+	public void setUp() {
+		cfg = new ConfUtils(BenchmarkSettings.conf);
+		fs = HDFSUtils.getFSByHadoopHome(cfg.getHADOOP_HOME());
+	}
+
+	public void compact() {
+		SegmentCompactor compactor = new SegmentCompactor(fs,
+				cfg.getHDFS_REPLICATION_FACTOR());
+		compactor.setSmallSize(smallSize);
+		compactor.setMinFiles(minFiles);
+		compactor.setGracePeriod(gracePeriod);
+
+		Globals.loadTableInfo(tableName, cfg.getHDFS_WORKING_DIR(), fs);
+		TableInfo tableInfo = Globals.getTableInfo(tableName);
+		compactor.setTypes(tableInfo.getTypeArray());
+		if (tableInfo.sortAttribute != -1 && !tableInfo.isColumnar())
+			compactor.setSorted(tableInfo.sortAttribute,
+					tableInfo.getTypeArray()[tableInfo.sortAttribute],
+					tableInfo.delimiter, SortedOutputStream.DEFAULT_RUN_SIZE);
+
+		String dataDir = cfg.getHDFS_WORKING_DIR() + "/" + tableName + "/data";
+		if (interval > 0) {
+			compactor.run(dataDir, interval);
+			return;
+		}
+		try {
+			System.out.println("INFO: Wrote " + compactor.compact(dataDir)
+					+ " merged files in " + dataDir);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("Failed to compact " + dataDir);
+		}
+	}
+
+	public static void main(String[] args) {
+		BenchmarkSettings.loadSettings(args);
+		CompactSegments c = new CompactSegments();
+		c.loadSettings(args);
+		c.setUp();
+		c.compact();
+	}
+}
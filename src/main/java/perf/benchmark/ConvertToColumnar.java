@@ -0,0 +1,180 @@
+package perf.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.google.common.io.ByteStreams;
+
+import core.adapt.ColumnarBlock;
+import core.common.globals.Globals;
+import core.common.globals.TableInfo;
+import core.upfront.build.ColumnarOutputStream;
+import core.utils.ConfUtils;
+import core.utils.HDFSUtils;
+import core.utils.SegmentUtils;
+
+/**
+ * Converts the buckets of an existing text table to the columnar format (see
+ * core.adapt.ColumnarBlock) and marks the table as columnar in its info.
+ * Buckets that are already columnar are left as they are, so an interrupted
+ * conversion can just be run again.
+ *
+ * Each bucket file is converted into <file>.columnar.tmp. Once that is
+ * whole, the text file is moved aside to <file>.text.tmp, the converted one
+ * moved in place and the text one deleted. Neither name is part of a bucket
+ * (see SegmentUtils). A run first finishes the moves an interrupted run left
+ * halfway, so no bucket file is ever lost.
+ *
+ * Nothing else should be reading or writing the table meanwhile.
+ */
+public class ConvertToColumnar {
+	private static final String COLUMNAR_SUFFIX = ".columnar"
+			+ SegmentUtils.TMP_SUFFIX;
+	private static final String TEXT_SUFFIX = ".text" + SegmentUtils.TMP_SUFFIX;
+
+	String tableName = "";
+	int blockSize = ColumnarOutputStream.DEFAULT_BLOCK_SIZE;
+
+	ConfUtils cfg;
+	FileSystem fs;
+
+	public void loadSettings(String[] args) {
+		int counter = 0;
+		while (counter < args.length) {
+			switch (args[counter]) {
+				case "--tableName":
+					tableName = args[counter + 1];
+					counter += 2;
+					break;
+				case "--blockSize":
+					blockSize = Integer.parseInt(args[counter + 1]);
+					counter += 2;
+					break;
+				default:
+					// Something we don't use
+					counter += 2;
+					break;
+			}
+		}
+	}
+
+	public void setUp() {
+		cfg = new ConfUtils(BenchmarkSettings.conf);
+		fs = HDFSUtils.getFSByHadoopHome(cfg.getHADOOP_HOME());
+		Globals.loadTableInfo(tableName, cfg.getHDFS_WORKING_DIR(), fs);
+	}
+
+	public void convert() {
+		TableInfo tableInfo = Globals.getTableInfo(tableName);
+		if (tableInfo.sortAttribute != -1)
+			throw new RuntimeException("Sorted tables cannot be made columnar");
+		String dataDir = cfg.getHDFS_WORKING_DIR() + "/" + tableName + "/data";
+
+		long textBytes = 0, columnarBytes = 0;
+		int numConverted = 0;
+		try {
+			recover(new Path(dataDir));
+			FileStatus[] files = fs.listStatus(new Path(dataDir));
+			for (FileStatus f : files) {
+				Path p = f.getPath();
+				// Every file of every bucket, see SegmentUtils.
+				if (SegmentUtils.getBucketId(p.getName()) == -1)
+					continue;
+
+				if (isColumnar(p)) {
+					System.out.println("INFO: Bucket file " + p.getName()
+							+ " is already columnar");
+					continue;
+				}
+
+				Path tmp = new Path(p.toString() + COLUMNAR_SUFFIX);
+				InputStream in = fs.open(p);
+				OutputStream out = new ColumnarOutputStream(fs.create(tmp,
+						true), tableInfo.getTypeArray(), tableInfo.delimiter,
+						tableInfo.dictionary, blockSize);
+				ByteStreams.copy(in, out);
+				in.close();
+				out.close();
+
+				textBytes += f.getLen();
+				columnarBytes += fs.getFileStatus(tmp).getLen();
+				Path text = new Path(p.toString() + TEXT_SUFFIX);
+				rename(p, text);
+				rename(tmp, p);
+				fs.delete(text, false);
+				numConverted++;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("Failed to convert the buckets in "
+					+ dataDir);
+		}
+
+		tableInfo.format = TableInfo.FORMAT.COLUMNAR;
+		tableInfo.save(cfg.getHDFS_WORKING_DIR(),
+				cfg.getHDFS_REPLICATION_FACTOR(), fs);
+
+		System.out.println("INFO: Converted " + numConverted + " bucket files, "
+				+ textBytes + " bytes of text to " + columnarBytes
+				+ " bytes");
+	}
+
+	/**
+	 * Finish the conversions an interrupted run left halfway: put back the
+	 * bucket files that were moved aside and drop the leftovers.
+	 */
+	private void recover(Path dataDir) throws IOException {
+		for (FileStatus f : fs.listStatus(dataDir)) {
+			String name = f.getPath().getName();
+			if (!name.endsWith(TEXT_SUFFIX))
+				continue;
+			Path p = new Path(dataDir, name.substring(0, name.length()
+					- TEXT_SUFFIX.length()));
+			Path tmp = new Path(p.toString() + COLUMNAR_SUFFIX);
+			if (!fs.exists(p)) {
+				// The converted file is whole, as the text one was only moved
+				// aside after it was written.
+				if (fs.exists(tmp))
+					rename(tmp, p);
+				else
+					rename(f.getPath(), p);
+			}
+			if (fs.exists(f.getPath()))
+				fs.delete(f.getPath(), false);
+			System.out.println("INFO: Recovered bucket file " + p.getName());
+		}
+
+		// Conversions interrupted while writing, their text files are still
+		// in place.
+		for (FileStatus f : fs.listStatus(dataDir)) {
+			if (f.getPath().getName().endsWith(COLUMNAR_SUFFIX))
+				fs.delete(f.getPath(), false);
+		}
+	}
+
+	private void rename(Path from, Path to) throws IOException {
+		if (!fs.rename(from, to))
+			throw new IOException("Failed to rename " + from + " to " + to);
+	}
+
+	private boolean isColumnar(Path p) throws IOException {
+		byte[] head = new byte[4];
+		InputStream in = fs.open(p);
+		int n = ByteStreams.read(in, head, 0, head.length);
+		in.close();
+		return ColumnarBlock.isColumnar(head, n);
+	}
+
+	public static void main(String[] args) {
+		BenchmarkSettings.loadSettings(args);
+		ConvertToColumnar c = new ConvertToColumnar();
+		c.loadSettings(args);
+		c.setUp();
+		c.convert();
+	}
+}
@@ -1,10 +1,13 @@
 package perf.benchmark;
 
+import core.adapt.SortedRun;
 import core.common.globals.Globals;
 import core.common.globals.Schema;
 import core.common.globals.TableInfo;
+import core.utils.CompressionUtils;
 import core.utils.ConfUtils;
 import core.utils.HDFSUtils;
+import core.utils.TypeUtils.TYPE;
 
 /**
  * Created by anil on 12/11/15.
@@ -14,6 +17,10 @@ public class CreateTableInfo {
 	char delimiter = '9'; // Assuming '9' is never a delimiter.
 	Schema schema = null;
 	String tableName = "";
+	TableInfo.FORMAT format = TableInfo.FORMAT.TEXT;
+	String codec = null;
+	String keyFilters = null;
+	int sortAttribute = -1;
 
 	public void loadSettings(String[] args) {
 		int counter = 0;
@@ -36,6 +43,25 @@ public class CreateTableInfo {
 					schema = Schema.createSchema(schemaString);
 					counter += 2;
 					break;
+				case "--format":
+					format = TableInfo.FORMAT.valueOf(args[counter + 1].trim().toUpperCase());
+					counter += 2;
+					break;
+				case "--codec":
+					codec = args[counter + 1].trim();
+					// Fail early on unknown codecs.
+					if (CompressionUtils.getCodec(codec) == null)
+						codec = null;
+					counter += 2;
+					break;
+				case "--keyFilters":
+					keyFilters = args[counter + 1].trim();
+					counter += 2;
+					break;
+				case "--sortAttribute":
+					sortAttribute = Integer.parseInt(args[counter + 1].trim());
+					counter += 2;
+					break;
 				default:
 					// Something we don't use
 					counter += 2;
@@ -46,6 +72,29 @@ public class CreateTableInfo {
 
 	public void createTableInfo() {
 		TableInfo tableInfo = new TableInfo(tableName, numTuples, delimiter, schema);
+		tableInfo.format = format;
+		tableInfo.codec = codec;
+		if (keyFilters != null) {
+			String[] attrs = keyFilters.split(";");
+			tableInfo.keyFilters = new int[attrs.length];
+			for (int i = 0; i < attrs.length; i++) {
+				int a = Integer.parseInt(attrs[i].trim());
+				TYPE type = schema.getTypeArray()[a];
+				if (type != TYPE.INT && type != TYPE.LONG)
+					throw new RuntimeException("Key filters need an INT or LONG attribute, "
+							+ a + " is " + type);
+				tableInfo.keyFilters[i] = a;
+			}
+		}
+		if (sortAttribute != -1) {
+			if (format == TableInfo.FORMAT.COLUMNAR)
+				throw new RuntimeException("Columnar tables cannot be sorted");
+			TYPE type = schema.getTypeArray()[sortAttribute];
+			if (!SortedRun.isSortable(type))
+				throw new RuntimeException("Cannot sort on attribute "
+						+ sortAttribute + " of type " + type);
+			tableInfo.sortAttribute = sortAttribute;
+		}
 		Globals.addTableInfo(tableInfo);
 		ConfUtils cfg = new ConfUtils(BenchmarkSettings.conf);
 		Globals.saveTableInfo(tableName, cfg.getHDFS_WORKING_DIR(),
@@ -9,9 +9,14 @@ import core.common.key.RawIndexKey;
 import core.upfront.build.HDFSPartitionWriter;
 import core.upfront.build.IndexBuilder;
 import core.upfront.build.PartitionWriter;
+import core.utils.BlockCodec;
+import core.utils.BufferPool;
+import core.utils.CompressionUtils;
 import core.utils.ConfUtils;
 import core.utils.CuratorUtils;
+import core.utils.FlushExecutor;
 import core.utils.HDFSUtils;
+import core.utils.IOUtils;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocatedFileStatus;
@@ -73,6 +78,16 @@ public class RunIndexBuilder {
     // Zookeeper client.
     CuratorFramework client;
 
+	// Threads writing out the partition buffers in the background, none to
+	// write them out in the builder thread.
+	int flushThreads = 0;
+
+	FlushExecutor flushExecutor;
+
+	// Memory of the partition buffers of a writer, 0 for a buffer of
+	// partitionBufferSize per partition.
+	long bufferMemory = 0;
+
 	public void setUp() {
 
 		partitionBufferSize = 2 * 1024 * 1024;
@@ -95,8 +110,46 @@ public class RunIndexBuilder {
 	}
 
 	private PartitionWriter getHDFSWriter(String partitionDir, short replication) {
-		return new HDFSPartitionWriter(partitionDir, partitionBufferSize,
-				replication, this.cfg, client);
+		HDFSPartitionWriter writer = new HDFSPartitionWriter(partitionDir,
+				partitionBufferSize, replication, this.cfg, client);
+		if (flushThreads > 0) {
+			if (flushExecutor == null)
+				flushExecutor = new FlushExecutor(flushThreads,
+						FlushExecutor.DEFAULT_MAX_IN_FLIGHT_BYTES);
+			writer.setFlushExecutor(flushExecutor);
+		}
+		if (bufferMemory > 0)
+			writer.setMemoryCap(bufferMemory, BufferPool.Policy.LRU);
+		return writer;
+	}
+
+	/**
+	 * Writer for the buckets under WORKING_DIR/tableName/data, in the format
+	 * of the table and with their zone maps and key filters.
+	 */
+	private PartitionWriter getDataWriter(int numBuckets) {
+		PartitionWriter writer = getHDFSWriter(tableHDFSDir + "/data",
+				cfg.getHDFS_REPLICATION_FACTOR());
+		writer.setTableInfo(tableInfo);
+		writer.setNumBuckets(numBuckets);
+		return writer;
+	}
+
+	/**
+	 * Builds the dictionary of the table from the sample and saves it next to
+	 * the table info. A table keeps the dictionary it has: buckets written
+	 * with it cannot be read with another one.
+	 */
+	private void loadOrBuildDictionary(ParsedTupleList sample) {
+		if (tableInfo.dictionary != null) {
+			tableInfo.dictionary.intern(sample);
+			return;
+		}
+
+		tableInfo.dictionary = builder.buildDictionary(sample);
+		if (tableInfo.dictionary != null)
+			tableInfo.dictionary.save(cfg.getHDFS_WORKING_DIR(), tableName,
+					cfg.getHDFS_REPLICATION_FACTOR(), fs);
 	}
 
 	/**
@@ -150,6 +203,7 @@ public class RunIndexBuilder {
 		// Write out the combined sample file.
 		ParsedTupleList sample = readSampleFiles();
 		writeOutSample(fs, sample);
+		loadOrBuildDictionary(sample);
 
 		// Construct the index from the sample.
 		RobustTree index = new RobustTree(tableInfo);
@@ -173,6 +227,7 @@ public class RunIndexBuilder {
 		// Write out the combined sample file.
 		ParsedTupleList sample = readSampleFiles();
 		writeOutSample(fs, sample);
+		loadOrBuildDictionary(sample);
 
 		// Construct the index from the sample.
 		JoinRobustTree index = new JoinRobustTree(tableInfo);
@@ -206,14 +261,11 @@ public class RunIndexBuilder {
 		RobustTree index = new RobustTree(tableInfo);
 		index.unmarshall(indexBytes);
 
-		String dataDir = "/data";
 		builder.buildDistributedFromIndex(
 				index,
 				key,
 				inputsDir,
-				getHDFSWriter(
-					cfg.getHDFS_WORKING_DIR() + "/" + tableName + dataDir,
-					cfg.getHDFS_REPLICATION_FACTOR()));
+				getDataWriter(index.getAllBuckets().length));
 	}
 
 	public void writePartitionsFromJoinIndex() {
@@ -224,14 +276,59 @@ public class RunIndexBuilder {
 		JoinRobustTree index = new JoinRobustTree(tableInfo);
 		index.unmarshall(indexBytes);
 
-		String dataDir = "/data";
 		builder.buildDistributedFromIndex(
 				index,
 				key,
 				inputsDir,
-				getHDFSWriter(
-						cfg.getHDFS_WORKING_DIR() + "/" + tableName + dataDir,
-						cfg.getHDFS_REPLICATION_FACTOR()));
+				getDataWriter(index.getAllBuckets().length));
+	}
+
+	/**
+	 * Compresses the input files with each of the block codecs, one frame per
+	 * CompressionUtils.DEFAULT_BLOCK_SIZE bytes, and reports the compression
+	 * ratio and the compression and decompression throughput of each.
+	 */
+	public void benchmarkCodecs() {
+		File[] files = new File(inputsDir).listFiles();
+		assert files != null;
+
+		int blockSize = CompressionUtils.DEFAULT_BLOCK_SIZE;
+		byte[] raw = new byte[blockSize];
+		for (BlockCodec codec : CompressionUtils.getCodecs()) {
+			byte[] frame = new byte[CompressionUtils.maxFrameLength(codec,
+					blockSize)];
+			long rawBytes = 0, compressedBytes = 0;
+			long compressTime = 0, decompressTime = 0;
+			for (File f : files) {
+				if (!f.isFile())
+					continue;
+				byte[] bytes = IOUtils.readByteArray(f.getAbsolutePath());
+				for (int off = 0; off < bytes.length; off += blockSize) {
+					int n = Math.min(blockSize, bytes.length - off);
+					long start = System.nanoTime();
+					int frameLength = CompressionUtils.compressFrame(codec,
+							bytes, off, n, frame, 0);
+					compressTime += System.nanoTime() - start;
+
+					start = System.nanoTime();
+					CompressionUtils.decompress(frame, frameLength, raw);
+					decompressTime += System.nanoTime() - start;
+
+					rawBytes += n;
+					compressedBytes += frameLength;
+				}
+			}
+
+			double mb = rawBytes / (1024.0 * 1024.0);
+			System.out.println("INFO: Codec " + codec.getName() + ": "
+					+ rawBytes + " -> " + compressedBytes + " bytes, ratio "
+					+ String.format("%.2f", (double) rawBytes
+							/ Math.max(1, compressedBytes))
+					+ ", compress " + String.format("%.1f",
+							mb / (compressTime / 1E9)) + " MB/s"
+					+ ", decompress " + String.format("%.1f",
+							mb / (decompressTime / 1E9)) + " MB/s");
+		}
 	}
 
 	public void loadSettings(String[] args) {
@@ -267,6 +364,14 @@ public class RunIndexBuilder {
 				joinAttributeDepth = Integer.parseInt(args[counter + 1]);
 				counter += 2;
 				break;
+			case "--flushThreads":
+				flushThreads = Integer.parseInt(args[counter + 1]);
+				counter += 2;
+				break;
+			case "--bufferMemoryMB":
+				bufferMemory = Long.parseLong(args[counter + 1]) * 1024 * 1024;
+				counter += 2;
+				break;
 			default:
 				// Something we don't use
 				counter += 2;
@@ -345,6 +450,9 @@ public class RunIndexBuilder {
 		case 7:
 			t.writePartitionsFromJoinIndex();
 			break;
+		case 8:
+			t.benchmarkCodecs();
+			break;
 		default:
 			System.out.println("Unknown method " + t.method + " chosen");
 			break;
@@ -0,0 +1,338 @@
+package perf.benchmark;
+
+import java.util.Arrays;
+
+import core.adapt.Partition;
+import core.adapt.Predicate;
+import core.adapt.Predicate.PREDTYPE;
+import core.adapt.Query;
+import core.adapt.iterator.PartitionIterator;
+import core.adapt.iterator.PostFilterIterator;
+import core.adapt.iterator.RecordBatch;
+import core.common.globals.Globals;
+import core.common.globals.Schema;
+import core.common.globals.TableInfo;
+import core.common.key.RawIndexKey;
+import core.utils.IOUtils;
+import core.utils.ScanUtils;
+import core.utils.TypeUtils.SimpleDate;
+import core.utils.TypeUtils.TYPE;
+
+/**
+ * Single-threaded micro benchmarks for the record scanning hot path. Runs
+ * against a local text file, e.g. a TPC-H lineitem.tbl chunk.
+ *
+ * Each benchmark runs a few warm-up rounds before the measured rounds and
+ * reports the best measured round, so that JIT compilation does not skew the
+ * comparison between the old and the new code path.
+ *
+ * Usage: --inputFile /path/lineitem.tbl --method 1|2|3 [--delimiter |]
+ * [--rounds 10]
+ */
+public class ScanMicroBenchmark {
+	// Local file to read the records from.
+	String inputFile;
+
+	// Specifies which method should be run.
+	// See 'main' for method numbers.
+	int method = -1;
+
+	char delimiter = '|';
+
+	int warmupRounds = 5;
+	int rounds = 10;
+
+	// Types of the leading attributes, defaults to the TPC-H lineitem schema.
+	TYPE[] types = new TYPE[] { TYPE.INT, TYPE.INT, TYPE.INT, TYPE.INT,
+			TYPE.INT, TYPE.DOUBLE, TYPE.DOUBLE, TYPE.DOUBLE };
+
+	byte[] bytes;
+	int[] lineStarts, lineEnds;
+	int numLines;
+
+	// Keeps the JIT from eliminating the parsing work.
+	double sink;
+
+	public void setUp() {
+		bytes = IOUtils.readByteArray(inputFile);
+		lineStarts = new int[1024];
+		lineEnds = new int[1024];
+		int previous = 0;
+		for (int i = 0; i < bytes.length; i++) {
+			if (bytes[i] == '\n') {
+				if (numLines == lineStarts.length) {
+					lineStarts = Arrays.copyOf(lineStarts, numLines * 2);
+					lineEnds = Arrays.copyOf(lineEnds, numLines * 2);
+				}
+				lineStarts[numLines] = previous;
+				lineEnds[numLines] = i;
+				numLines++;
+				previous = i + 1;
+			}
+		}
+		System.out.println("Loaded " + numLines + " lines, " + bytes.length
+				+ " bytes");
+	}
+
+	/**
+	 * Compares attribute parsing through an intermediate String (the old
+	 * RawIndexKey code path) with parsing straight from the byte slice.
+	 */
+	public void benchmarkAttributeParsing() {
+		RawIndexKey key = new RawIndexKey(delimiter);
+
+		for (int r = 0; r < warmupRounds; r++) {
+			parseWithStrings(key);
+			parseFromBytes(key);
+		}
+
+		long bestString = Long.MAX_VALUE, bestBytes = Long.MAX_VALUE;
+		for (int r = 0; r < rounds; r++) {
+			long start = System.nanoTime();
+			parseWithStrings(key);
+			bestString = Math.min(bestString, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			parseFromBytes(key);
+			bestBytes = Math.min(bestBytes, System.nanoTime() - start);
+		}
+
+		report("String parse", bestString);
+		report("Byte parse", bestBytes);
+		System.out.println("Speedup = " + (double) bestString / bestBytes);
+	}
+
+	private void parseWithStrings(RawIndexKey key) {
+		for (int l = 0; l < numLines; l++) {
+			key.setBytes(bytes, lineStarts[l], lineEnds[l] - lineStarts[l]);
+			for (int i = 0; i < types.length; i++) {
+				String token = key.getStringAttribute(i);
+				switch (types[i]) {
+				case INT:
+					sink += Integer.parseInt(token);
+					break;
+				case LONG:
+					sink += Long.parseLong(token);
+					break;
+				case DOUBLE:
+					sink += Double.parseDouble(token);
+					break;
+				default:
+					break;
+				}
+			}
+		}
+	}
+
+	private void parseFromBytes(RawIndexKey key) {
+		for (int l = 0; l < numLines; l++) {
+			key.setBytes(bytes, lineStarts[l], lineEnds[l] - lineStarts[l]);
+			for (int i = 0; i < types.length; i++) {
+				switch (types[i]) {
+				case INT:
+					sink += key.getIntAttribute(i);
+					break;
+				case LONG:
+					sink += key.getLongAttribute(i);
+					break;
+				case DOUBLE:
+					sink += key.getDoubleAttribute(i);
+					break;
+				default:
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compares inline newline and delimiter loops with the ScanUtils calls
+	 * the record readers make, over the whole input: first splitting into
+	 * lines only (partition iteration), then also into attributes (full
+	 * tokenization).
+	 */
+	public void benchmarkByteScanning() {
+		for (boolean tokenize : new boolean[] { false, true }) {
+			for (int r = 0; r < warmupRounds; r++) {
+				scanInline(tokenize);
+				scanWithUtils(tokenize);
+			}
+
+			long bestInline = Long.MAX_VALUE, bestUtils = Long.MAX_VALUE;
+			for (int r = 0; r < rounds; r++) {
+				long start = System.nanoTime();
+				scanInline(tokenize);
+				bestInline = Math.min(bestInline, System.nanoTime() - start);
+
+				start = System.nanoTime();
+				scanWithUtils(tokenize);
+				bestUtils = Math.min(bestUtils, System.nanoTime() - start);
+			}
+
+			String what = tokenize ? "lines+attributes" : "lines";
+			report("Inline scan (" + what + ")", bestInline);
+			report("ScanUtils scan (" + what + ")", bestUtils);
+			System.out.println("Speedup = " + (double) bestInline / bestUtils);
+		}
+	}
+
+	private void scanInline(boolean tokenize) {
+		int lines = 0, attrs = 0;
+		int previous = 0;
+		for (int i = 0; i < bytes.length; i++) {
+			if (bytes[i] == '\n') {
+				if (tokenize) {
+					for (int j = previous; j < i; j++) {
+						if (bytes[j] == delimiter)
+							attrs++;
+					}
+				}
+				lines++;
+				previous = i + 1;
+			}
+		}
+		sink += lines + attrs;
+	}
+
+	private void scanWithUtils(boolean tokenize) {
+		int lines = 0, attrs = 0;
+		int previous = 0;
+		int i;
+		while ((i = ScanUtils.indexOf(bytes, previous, bytes.length, (byte) '\n')) != -1) {
+			if (tokenize) {
+				int j = previous;
+				while ((j = ScanUtils.indexOf(bytes, j, i, (byte) delimiter)) != -1) {
+					attrs++;
+					j++;
+				}
+			}
+			lines++;
+			previous = i + 1;
+		}
+		sink += lines + attrs;
+	}
+
+	/**
+	 * Compares filtering one record at a time with filtering batches of
+	 * records (PartitionIterator.nextBatch), for a TPC-H Q6 style query.
+	 */
+	public void benchmarkBatchFiltering() {
+		String table = "scan_micro_benchmark";
+		Globals.addTableInfo(new TableInfo(table, numLines, delimiter,
+				Schema.createSchema("l_orderkey int, l_partkey int, l_suppkey int, "
+						+ "l_linenumber int, l_quantity int, l_extendedprice double, "
+						+ "l_discount double, l_tax double, l_returnflag string, "
+						+ "l_linestatus string, l_shipdate date")));
+		Query q = new Query(table, new Predicate[] {
+				new Predicate(10, TYPE.DATE, new SimpleDate(1994, 1, 1), PREDTYPE.GEQ),
+				new Predicate(10, TYPE.DATE, new SimpleDate(1995, 1, 1), PREDTYPE.LT),
+				new Predicate(6, TYPE.DOUBLE, 0.05, PREDTYPE.GEQ),
+				new Predicate(6, TYPE.DOUBLE, 0.07, PREDTYPE.LEQ),
+				new Predicate(4, TYPE.INT, 24, PREDTYPE.LT) });
+		PartitionIterator itr = new PostFilterIterator(q);
+		RecordBatch batch = new RecordBatch();
+
+		for (int r = 0; r < warmupRounds; r++) {
+			filterRecords(itr);
+			filterBatches(itr, batch);
+		}
+
+		long bestRecords = Long.MAX_VALUE, bestBatches = Long.MAX_VALUE;
+		for (int r = 0; r < rounds; r++) {
+			long start = System.nanoTime();
+			filterRecords(itr);
+			bestRecords = Math.min(bestRecords, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			filterBatches(itr, batch);
+			bestBatches = Math.min(bestBatches, System.nanoTime() - start);
+		}
+
+		report("Record-at-a-time filter", bestRecords);
+		report("Batch filter", bestBatches);
+		System.out.println("Speedup = " + (double) bestRecords / bestBatches);
+	}
+
+	private Partition partition() {
+		return new Partition("", 0) {
+			{
+				bytes = ScanMicroBenchmark.this.bytes;
+			}
+		};
+	}
+
+	private void filterRecords(PartitionIterator itr) {
+		int n = 0;
+		itr.setPartition(partition());
+		while (itr.hasNext()) {
+			itr.next();
+			n++;
+		}
+		sink += n;
+	}
+
+	private void filterBatches(PartitionIterator itr, RecordBatch batch) {
+		int n = 0;
+		itr.setPartition(partition());
+		while (itr.nextBatch(batch))
+			n += batch.getNumSelected();
+		sink += n;
+	}
+
+	private void report(String name, long nanos) {
+		System.out.println(name + ": " + nanos / 1E6 + " ms, "
+				+ (double) nanos / numLines + " ns/record, "
+				+ bytes.length / (nanos / 1E9) / (1024 * 1024) + " MB/sec");
+	}
+
+	public void loadSettings(String[] args) {
+		int counter = 0;
+
+		while (counter < args.length) {
+			switch (args[counter]) {
+			case "--inputFile":
+				inputFile = args[counter + 1];
+				counter += 2;
+				break;
+			case "--method":
+				method = Integer.parseInt(args[counter + 1]);
+				counter += 2;
+				break;
+			case "--delimiter":
+				delimiter = args[counter + 1].charAt(0);
+				counter += 2;
+				break;
+			case "--rounds":
+				rounds = Integer.parseInt(args[counter + 1]);
+				counter += 2;
+				break;
+			default:
+				// Something we don't use
+				counter += 2;
+				break;
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		ScanMicroBenchmark t = new ScanMicroBenchmark();
+		t.loadSettings(args);
+		t.setUp();
+
+		switch (t.method) {
+		case 1:
+			t.benchmarkAttributeParsing();
+			break;
+		case 2:
+			t.benchmarkByteScanning();
+			break;
+		case 3:
+			t.benchmarkBatchFiltering();
+			break;
+		default:
+			System.out.println("Unknown method " + t.method + " chosen");
+			break;
+		}
+		System.out.println("Sink: " + t.sink);
+	}
+}
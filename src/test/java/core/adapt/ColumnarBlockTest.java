@@ -0,0 +1,230 @@
+package core.adapt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+import core.adapt.Predicate.PREDTYPE;
+import core.adapt.iterator.ColumnarRecord;
+import core.adapt.iterator.IteratorRecord;
+import core.adapt.iterator.PartitionIterator;
+import core.adapt.iterator.PostFilterIterator;
+import core.common.globals.Dictionary;
+import core.common.globals.Globals;
+import core.common.globals.Schema;
+import core.common.globals.TableInfo;
+import core.upfront.build.ColumnarOutputStream;
+import core.utils.IOUtils;
+import core.utils.TypeUtils.SimpleDate;
+import core.utils.TypeUtils.TYPE;
+
+public class ColumnarBlockTest extends TestCase {
+
+	private static final String TABLE = "columnar_block_test";
+
+	private TYPE[] types;
+	private String text;
+
+	@Override
+	public void setUp() {
+		Schema schema = Schema.createSchema("id int, key long, price double, shipdate date, mode string");
+		TableInfo tableInfo = new TableInfo(TABLE, 4, '|', schema);
+		tableInfo.format = TableInfo.FORMAT.COLUMNAR;
+		Globals.addTableInfo(tableInfo);
+		types = tableInfo.getTypeArray();
+
+		text = "1|-7|10.5|1995-01-01|AIR\n" + "2|9000000000|20.25|1996-06-15|MAIL\n"
+				+ "-3|0|30.0|1997-12-31|\n" + "4|42|40.75|1998-03-01|AIR\n";
+	}
+
+	public void testRoundTrip() throws Exception {
+		// Several blocks, as appending to a bucket would leave them.
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ColumnarOutputStream out = new ColumnarOutputStream(bytes, types, '|', 40);
+		out.write(text.getBytes());
+		out.close();
+
+		byte[] b = bytes.toByteArray();
+		assertTrue(ColumnarBlock.isColumnar(b, b.length));
+		assertFalse(ColumnarBlock.isColumnar(text.getBytes(), text.length()));
+
+		ColumnarBlock block = ColumnarBlock.decode(b, b.length, types);
+		assertEquals(4, block.size());
+		assertEquals(9000000000L, block.getValue(1, 1));
+		assertEquals(new SimpleDate(1997, 12, 31), block.getValue(2, 3));
+		assertEquals("", block.getValue(2, 4));
+
+		int[] selection = block.selectAll();
+		assertEquals(text, new String(block.toText(selection, selection.length, '|')));
+	}
+
+	public void testRecordsReadBackAsWritten() throws Exception {
+		// A block per record, the first one canonical but for the doubles.
+		String lossy = "1|2|3.0|1995-01-02|B\n" + "007|+5|1.50|1995-01-01 10:00|AIR\n"
+				+ "-0|-0|1E3|1996-02-29|MAIL\n";
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ColumnarOutputStream out = new ColumnarOutputStream(bytes, types, '|', 20);
+		for (String line : lossy.split("(?<=\n)"))
+			out.write(line.getBytes());
+		out.close();
+
+		byte[] b = bytes.toByteArray();
+		ColumnarBlock block = ColumnarBlock.decode(b, b.length, types);
+		int[] selection = block.selectAll();
+		assertEquals(lossy, new String(block.toText(selection, selection.length, '|')));
+
+		// The typed values are still the ones filtered on.
+		Query q = new Query(TABLE, new Predicate[] {
+				new Predicate(3, TYPE.DATE, new SimpleDate(1995, 1, 1), PREDTYPE.LEQ),
+				new Predicate(0, TYPE.INT, 7, PREDTYPE.EQ),
+				new Predicate(2, TYPE.DOUBLE, 1.5, PREDTYPE.EQ) });
+		int n = q.filter(block, selection, selection.length);
+		assertEquals(1, n);
+		assertEquals("007|+5|1.50|1995-01-01 10:00|AIR\n",
+				new String(block.toText(selection, n, '|')));
+	}
+
+	public void testDecimalsAndTrailingBytes() throws Exception {
+		// The TPC-H way, decimals of a scale and a trailing delimiter.
+		String tpch = "1|-7|650.37|1995-01-01|AIR|\n" + "2|0|0.07|1996-06-15|MAIL|\n"
+				+ "3|5|-0.50|1997-12-31||\n";
+		String other = "1|-7|8|1995-01-01|AIR\n" + "2|0|1E3|1996-06-15|MAIL|x|y\n";
+		for (String records : new String[] { tpch, other }) {
+			byte[] b = ColumnarBlock.encode(records.getBytes(), 0,
+					records.length(), '|', types);
+			ColumnarBlock block = ColumnarBlock.decode(b, b.length, types);
+			int[] selection = block.selectAll();
+			assertEquals(records, new String(block.toText(selection,
+					selection.length, '|')));
+		}
+
+		byte[] b = ColumnarBlock.encode(tpch.getBytes(), 0, tpch.length(), '|', types);
+		ColumnarBlock block = ColumnarBlock.decode(b, b.length, types);
+		assertEquals(650.37, block.getDoubles(2)[0]);
+		assertEquals(0.07, block.getDoubles(2)[1]);
+		assertEquals(-0.5, block.getDoubles(2)[2]);
+		assertEquals("", block.getValue(2, 4));
+	}
+
+	public void testFilterColumns() {
+		byte[] b = ColumnarBlock.encode(text.getBytes(), 0, text.length(), '|', types);
+		ColumnarBlock block = ColumnarBlock.decode(b, b.length, types);
+
+		Query q = new Query(TABLE, new Predicate[] {
+				new Predicate(3, TYPE.DATE, new SimpleDate(1995, 6, 1), PREDTYPE.GT),
+				new Predicate(2, TYPE.DOUBLE, 40.0, PREDTYPE.LT),
+				new Predicate(1, TYPE.LONG, 0L, PREDTYPE.GEQ) });
+		int[] selection = block.selectAll();
+		int n = q.filter(block, selection, selection.length);
+		assertEquals(2, n);
+		assertEquals(1, selection[0]);
+		assertEquals(2, selection[1]);
+
+		q = new Query(TABLE, new Predicate[] {
+				new Predicate(4, TYPE.STRING, "AIR", PREDTYPE.EQ),
+				new Predicate(0, TYPE.INT, 1, PREDTYPE.GT) });
+		selection = block.selectAll();
+		n = q.filter(block, selection, selection.length);
+		assertEquals(1, n);
+		assertEquals(3, selection[0]);
+	}
+
+	public void testIteratorOverColumnarPartition() throws Exception {
+		File dir = File.createTempFile("partitions", "");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			Partition p = new Partition(dir.getAbsolutePath(), 0);
+			p.setColumnar(types, '|');
+			p.bytes = new byte[1024];
+			p.write("4|42|40.75|1998-03-01|AIR".getBytes(), 0, 25);
+			p.store(false);
+			byte[] stored = IOUtils.readByteArray(dir.getAbsolutePath() + "/0");
+			assertTrue(ColumnarBlock.isColumnar(stored, stored.length));
+
+			Query q = new Query(TABLE, new Predicate[] {
+					new Predicate(4, TYPE.STRING, "AIR", PREDTYPE.EQ) });
+			PartitionIterator itr = new PostFilterIterator(q);
+			itr.setPartition(new Partition(dir.getAbsolutePath(), 0));
+			assertTrue(itr.hasNext());
+			assertEquals(42L, itr.next().getLongAttribute(1));
+			assertFalse(itr.hasNext());
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	public void testIteratorReadsColumns() throws Exception {
+		File dir = File.createTempFile("partitions", "");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			String records = "1|-7|10.5|1995-01-01|AIR|\n" + "2|42|40.75|1998-03-01|MAIL|\n";
+			Partition p = new Partition(dir.getAbsolutePath(), 0);
+			p.setColumnar(types, '|');
+			p.bytes = new byte[1024];
+			p.write(records.getBytes(), 0, records.length());
+			p.store(false);
+
+			PartitionIterator itr = new PartitionIterator(new Query(TABLE + "|"));
+			itr.setPartition(new Partition(dir.getAbsolutePath(), 0));
+			assertTrue(itr.hasNext());
+			IteratorRecord r = itr.next();
+			assertTrue(r instanceof ColumnarRecord);
+			assertEquals(1, r.getIntAttribute(0));
+			assertEquals(-7L, r.getLongAttribute(1));
+			assertEquals(10.5, r.getDoubleAttribute(2));
+			assertEquals(new SimpleDate(1995, 1, 1), r.getDateAttribute(3));
+			assertEquals("AIR", r.getStringAttribute(4));
+			assertTrue(r.compareAttribute(4, "B".getBytes(), 10) < 0);
+			assertEquals("1|-7|10.5|1995-01-01|AIR|", r.getKeyString());
+			assertTrue(itr.hasNext());
+			assertEquals("2|42|40.75|1998-03-01|MAIL|", new String(itr.next()
+					.copyBytes()));
+			assertFalse(itr.hasNext());
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	public void testDictionaryCodedColumns() throws Exception {
+		Dictionary dictionary = new Dictionary(new String[][] { null, null, null,
+				null, { "AIR", "MAIL", "SHIP" } });
+
+		// The block with the empty mode keeps the values themselves.
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ColumnarOutputStream out = new ColumnarOutputStream(bytes, types, '|',
+				dictionary, 40);
+		out.write(text.getBytes());
+		out.close();
+		byte[] b = bytes.toByteArray();
+		ColumnarBlock block = ColumnarBlock.decode(b, b.length, types, dictionary);
+		assertNull(block.getCodes(4));
+		int[] selection = block.selectAll();
+		assertEquals(text, new String(block.toText(selection, selection.length, '|')));
+
+		String coded = "1|-7|10.5|1995-01-01|AIR\n" + "2|0|20.25|1996-06-15|MAIL\n"
+				+ "3|0|30.0|1997-12-31|SHIP\n" + "4|42|40.75|1998-03-01|AIR\n";
+		b = ColumnarBlock.encode(coded.getBytes(), 0, coded.length(), '|', types,
+				dictionary);
+		assertTrue(b.length < ColumnarBlock.encode(coded.getBytes(), 0,
+				coded.length(), '|', types).length);
+		block = ColumnarBlock.decode(b, b.length, types, dictionary);
+		assertNotNull(block.getCodes(4));
+		assertEquals("MAIL", block.getValue(1, 4));
+		selection = block.selectAll();
+		assertEquals(coded, new String(block.toText(selection, selection.length, '|')));
+
+		Object[][] predicates = { { "AIR", PREDTYPE.EQ, 2 }, { "MAIL", PREDTYPE.GEQ, 2 },
+				{ "B", PREDTYPE.LT, 2 }, { "RAIL", PREDTYPE.GT, 1 }, { "Z", PREDTYPE.EQ, 0 } };
+		for (Object[] p : predicates) {
+			Query q = new Query(TABLE, new Predicate[] {
+					new Predicate(4, TYPE.STRING, p[0], (PREDTYPE) p[1]) });
+			selection = block.selectAll();
+			assertEquals(p[0] + " " + p[1], p[2], q.filter(block, selection, selection.length));
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package core.adapt;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+import core.common.globals.Schema;
+import core.common.globals.TableInfo;
+import core.utils.BloomFilter;
+import core.utils.IOUtils;
+
+public class KeyFilterTest extends TestCase {
+
+	private KeyFilter keyFilter(String records) {
+		KeyFilter keyFilter = new KeyFilter(new int[] { 0, 2 }, 1 << 12);
+		byte[] bytes = records.getBytes();
+		keyFilter.addRecords(bytes, 0, bytes.length, '|');
+		return keyFilter;
+	}
+
+	public void testCreate() {
+		TableInfo tableInfo = new TableInfo("keyfilter_test", 1 << 20, '|',
+				Schema.createSchema("id long, mode string, custkey int"));
+		assertNull(KeyFilter.create(tableInfo, 64));
+
+		tableInfo.keyFilters = new int[] { 0, 2 };
+		KeyFilter keyFilter = KeyFilter.create(tableInfo, 64);
+		assertEquals(BloomFilter.getNumBits((1 << 20) / 64), keyFilter
+				.getFilter(2).getNumBits());
+		assertNull(keyFilter.getFilter(1));
+	}
+
+	public void testStoreMerges() throws Exception {
+		File dir = File.createTempFile("keyfilters", "");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			String dataFile = dir.getAbsolutePath() + "/data/3";
+			keyFilter("5|MAIL|70\n9|AIR|71\n").store(dataFile);
+			keyFilter("20|AIR|72\n").store(dataFile);
+
+			String path = KeyFilter.getPath(dataFile);
+			assertEquals(dir.getAbsolutePath() + "/keyfilters/3", path);
+			KeyFilter keyFilter = KeyFilter.fromBytes(IOUtils.readByteArray(path));
+			assertEquals(3, keyFilter.getNumRecords());
+
+			BloomFilter ids = keyFilter.getFilter(0);
+			assertTrue(ids.mayContain(5));
+			assertTrue(ids.mayContain(9));
+			assertTrue(ids.mayContain(20));
+			BloomFilter custkeys = keyFilter.getFilter(2);
+			assertTrue(custkeys.mayContain(70));
+			assertTrue(custkeys.mayContain(72));
+
+			BloomFilter other = new BloomFilter(1 << 12);
+			other.add(1000);
+			assertFalse(custkeys.mayIntersect(other));
+			other.add(71);
+			assertTrue(custkeys.mayIntersect(other));
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+}
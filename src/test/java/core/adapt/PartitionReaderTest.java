@@ -0,0 +1,174 @@
+package core.adapt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+import core.adapt.iterator.PartitionIterator;
+import core.adapt.iterator.PostFilterIterator;
+import core.adapt.iterator.RecordBatch;
+import core.adapt.Predicate.PREDTYPE;
+import core.common.globals.Globals;
+import core.common.globals.Schema;
+import core.common.globals.TableInfo;
+import core.upfront.build.ColumnarOutputStream;
+import core.upfront.build.CompressedOutputStream;
+import core.utils.CompressionUtils;
+import core.utils.TypeUtils.TYPE;
+
+public class PartitionReaderTest extends TestCase {
+
+	private static final String TABLE = "partition_reader_test";
+
+	private static final TYPE[] TYPES = { TYPE.INT, TYPE.STRING };
+
+	private String text;
+	private File dir;
+
+	@Override
+	public void setUp() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			sb.append(i).append('|');
+			// Some records longer than the chunks.
+			for (int j = 0; j < (i % 97 == 0 ? 300 : i % 13); j++)
+				sb.append((char) ('a' + j % 26));
+			sb.append('\n');
+		}
+		text = sb.toString();
+
+		dir = File.createTempFile("partitionreader", "");
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	private static byte[] write(byte[] text, boolean compressed,
+			boolean columnar) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OutputStream out = bytes;
+		if (compressed)
+			out = new CompressedOutputStream(out,
+					CompressionUtils.getCodec("lz4"), 1000);
+		if (columnar)
+			out = new ColumnarOutputStream(out, TYPES, '|', 3000);
+		// Record by record, as the writers do.
+		int previous = 0;
+		for (int i = 0; i < text.length; i++) {
+			if (text[i] == '\n') {
+				out.write(text, previous, i + 1 - previous);
+				previous = i + 1;
+			}
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static String readText(byte[] file, int chunkSize) throws Exception {
+		PartitionReader reader = new PartitionReader(new ByteArrayInputStream(
+				file), chunkSize);
+		StringBuilder sb = new StringBuilder();
+		while (reader.next()) {
+			byte[] chunk = reader.getBytes();
+			int length = reader.getLength();
+			assertEquals('\n', chunk[length - 1]);
+			sb.append(new String(chunk, 0, length));
+		}
+		reader.close();
+		return sb.toString();
+	}
+
+	public void testTextChunks() throws Exception {
+		byte[] plain = text.getBytes();
+		assertEquals(text, readText(plain, 64));
+		assertEquals(text, readText(plain, 1 << 20));
+		assertEquals(text, readText(write(plain, true, false), 64));
+		assertEquals("", readText(new byte[0], 64));
+	}
+
+	public void testBlockChunks() throws Exception {
+		byte[] file = write(text.getBytes(), true, true);
+		PartitionReader reader = new PartitionReader(new ByteArrayInputStream(
+				file), 4096);
+		int numRecords = 0;
+		int numChunks = 0;
+		while (reader.next()) {
+			ColumnarBlock block = ColumnarBlock.decode(reader.getBytes(),
+					reader.getLength(), TYPES);
+			numRecords += block.selectAll().length;
+			numChunks++;
+		}
+		assertEquals(5000, numRecords);
+		assertTrue(numChunks > 1);
+	}
+
+	public void testSkipsTornTail() throws Exception {
+		byte[] plain = text.getBytes();
+		byte[] torn = Arrays.copyOf(plain, plain.length - 3);
+		assertEquals(text.substring(0, text.lastIndexOf('\n', text.length() - 2) + 1),
+				readText(torn, 64));
+
+		for (boolean compressed : new boolean[] { false, true }) {
+			byte[] file = write(plain, compressed, true);
+			int previous = -1;
+			for (int cut = 0; cut <= file.length; cut += file.length / 20) {
+				PartitionReader reader = new PartitionReader(
+						new ByteArrayInputStream(Arrays.copyOf(file, cut)), 4096);
+				int numRecords = 0;
+				while (reader.next())
+					numRecords += ColumnarBlock.decode(reader.getBytes(),
+							reader.getLength(), TYPES).selectAll().length;
+				assertTrue(numRecords >= previous);
+				previous = numRecords;
+			}
+			PartitionReader reader = new PartitionReader(
+					new ByteArrayInputStream(file), 4096);
+			int numRecords = 0;
+			while (reader.next())
+				numRecords += ColumnarBlock.decode(reader.getBytes(),
+						reader.getLength(), TYPES).selectAll().length;
+			assertEquals(5000, numRecords);
+		}
+	}
+
+	public void testIteratorReadsChunks() throws Exception {
+		TableInfo tableInfo = new TableInfo(TABLE, 5000, '|',
+				Schema.createSchema("id int, padding string"));
+		tableInfo.format = TableInfo.FORMAT.COLUMNAR;
+		Globals.addTableInfo(tableInfo);
+
+		FileOutputStream out = new FileOutputStream(dir.getAbsolutePath() + "/0");
+		out.write(write(text.getBytes(), true, true));
+		out.close();
+
+		PartitionIterator itr = new PartitionIterator(new Query(TABLE + "|"));
+		itr.setChunkSize(4096);
+		itr.setPartition(new Partition(dir.getAbsolutePath(), 0));
+		int i = 0;
+		while (itr.hasNext())
+			assertEquals(i++, itr.next().getIntAttribute(0));
+		assertEquals(5000, i);
+
+		Query q = new Query(TABLE, new Predicate[] { new Predicate(0,
+				TYPE.INT, 4000, PREDTYPE.GEQ) });
+		itr = new PostFilterIterator(q);
+		itr.setChunkSize(4096);
+		itr.setPartition(new Partition(dir.getAbsolutePath(), 0));
+		RecordBatch batch = new RecordBatch(100);
+		int n = 0;
+		while (itr.nextBatch(batch))
+			n += batch.getNumSelected();
+		assertEquals(1000, n);
+	}
+
+	@Override
+	public void tearDown() {
+		FileUtils.deleteQuietly(dir);
+	}
+}
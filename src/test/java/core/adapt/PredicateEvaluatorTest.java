@@ -0,0 +1,43 @@
+package core.adapt;
+
+import junit.framework.TestCase;
+import core.adapt.Predicate.PREDTYPE;
+import core.common.key.RawIndexKey;
+import core.utils.TypeUtils;
+import core.utils.TypeUtils.TYPE;
+
+public class PredicateEvaluatorTest extends TestCase {
+
+	private static final TYPE[] TYPES = new TYPE[] { TYPE.INT, TYPE.LONG,
+			TYPE.DOUBLE, TYPE.DATE, TYPE.STRING };
+
+	private static final String[][] VALUES = new String[][] {
+			{ "-5", "0", "7", "10", "11" },
+			{ "-9000000000", "3", "9000000000", "9000000001", "42" },
+			{ "-0.5", "0.04", "0.05", "24710.35", "1e3" },
+			{ "1995-12-31", "1996-01-01", "1996-01-02", "1998-12-01", "1996-01-01 10:00" },
+			{ "AIR", "AIRX", "MAIL", "", "TRUCK" } };
+
+	/**
+	 * Every compiled evaluator must agree with Predicate.isRelevant over the
+	 * parsed value.
+	 */
+	public void testMatchesPredicateIsRelevant() {
+		RawIndexKey key = new RawIndexKey('|');
+		for (int t = 0; t < TYPES.length; t++) {
+			for (String predValue : VALUES[t]) {
+				for (PREDTYPE predtype : PREDTYPE.values()) {
+					Predicate p = new Predicate(0, TYPES[t],
+							TypeUtils.deserializeValue(TYPES[t], predValue), predtype);
+					PredicateEvaluator e = PredicateEvaluator.compile(p);
+					for (String recordValue : VALUES[t]) {
+						key.setBytes((recordValue + "|x").getBytes());
+						Object parsed = TypeUtils.deserializeValue(TYPES[t], recordValue);
+						assertEquals(p + " on " + recordValue, p.isRelevant(parsed),
+								e.evaluate(key));
+					}
+				}
+			}
+		}
+	}
+}
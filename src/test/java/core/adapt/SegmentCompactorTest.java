@@ -0,0 +1,217 @@
+package core.adapt;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.google.common.io.ByteStreams;
+
+import core.adapt.Predicate.PREDTYPE;
+import core.utils.SegmentUtils;
+import core.utils.TypeUtils.TYPE;
+
+public class SegmentCompactorTest extends TestCase {
+	private FileSystem fs;
+	private File dir;
+	private String dataDir;
+
+	@Override
+	public void setUp() throws Exception {
+		fs = FileSystem.getLocal(new Configuration());
+		dir = File.createTempFile("segments", "");
+		dir.delete();
+		dataDir = dir.getAbsolutePath() + "/data";
+		new File(dataDir).mkdirs();
+	}
+
+	@Override
+	public void tearDown() {
+		FileUtils.deleteQuietly(dir);
+	}
+
+	public void testNames() {
+		assertEquals(12, SegmentUtils.getBucketId("12"));
+		assertEquals(12, SegmentUtils.getBucketId("12.1700000000000.ab12.3"));
+		assertEquals(12, SegmentUtils.getBucketId("12.0-1700.c"));
+		assertEquals(-1, SegmentUtils.getBucketId("12.1700000000000.ab12.3.tmp"));
+		assertEquals(-1, SegmentUtils.getBucketId("12.0-1700.c.tmp"));
+		assertEquals(-1, SegmentUtils.getBucketId("12.0-1700.c.manifest"));
+		assertEquals(-1, SegmentUtils.getBucketId("12.columnar"));
+		assertEquals(-1, SegmentUtils.getBucketId("_SUCCESS"));
+		assertTrue(SegmentUtils.isManifest("12.0-1700.c.manifest"));
+		assertFalse(SegmentUtils.isManifest("12.manifest"));
+		assertTrue(SegmentUtils.isSegment("12.1700000000000.ab12.3"));
+		assertFalse(SegmentUtils.isSegment("12.0-1700.c"));
+	}
+
+	public void testManifests() throws Exception {
+		for (String name : new String[] { "3", "3.5.ab.0", "3.20.ab.1", "3.0-10.c" })
+			FileUtils.writeStringToFile(new File(dataDir + "/" + name), name + "\n");
+		// Supersedes exactly what it names, whatever the times.
+		SegmentUtils.writeManifest(fs, new Path(dataDir + "/3.0-10.c"),
+				Arrays.asList("3", "3.20.ab.1"), (short) 1);
+		// Without its merged file, supersedes nothing.
+		SegmentUtils.writeManifest(fs, new Path(dataDir + "/3.0-30.c"),
+				Arrays.asList("3.5.ab.0"), (short) 1);
+
+		List<FileStatus> live = SegmentUtils.list(fs, new Path(dataDir + "/3"));
+		assertEquals(2, live.size());
+		assertEquals("3.0-10.c", live.get(0).getPath().getName());
+		assertEquals("3.5.ab.0", live.get(1).getPath().getName());
+	}
+
+	private HDFSPartition partition(int id) {
+		return new HDFSPartition(fs, dataDir + "/" + id, (short) 1, null);
+	}
+
+	private void store(int id, String... records) {
+		Partition p = partition(id).clone();
+		for (String r : records)
+			p.write(r.getBytes(), 0, r.length());
+		p.store(true);
+	}
+
+	private List<String> read(int id) throws Exception {
+		InputStream in = partition(id).open();
+		String text = new String(ByteStreams.toByteArray(in));
+		in.close();
+		assertEquals(text, new String(partition(id).getBytes()));
+		List<String> records = new ArrayList<String>(Arrays.asList(text
+				.split("\n")));
+		records.remove("");
+		return records;
+	}
+
+	private int numFiles(int id) throws Exception {
+		int n = 0;
+		for (FileStatus f : fs.listStatus(new Path(dataDir))) {
+			if (SegmentUtils.getBucketId(f.getPath().getName()) == id)
+				n++;
+		}
+		return n;
+	}
+
+	public void testStoreAndCompact() throws Exception {
+		FileUtils.writeStringToFile(new File(dataDir + "/3"), "a\n");
+		FileUtils.writeStringToFile(new File(dataDir + "/3.ff.9.tmp"), "x\n");
+		store(3, "b", "c");
+		store(3, "d");
+		store(3, "e");
+		store(4, "f");
+		assertEquals(Arrays.asList("a", "b", "c", "d", "e"), read(3));
+		assertEquals(Arrays.asList("f"), read(4));
+		assertTrue(read(5).isEmpty());
+
+		SegmentCompactor compactor = new SegmentCompactor(fs, (short) 1);
+		compactor.setGracePeriod(0);
+		compactor.setMinFiles(2);
+		Thread.sleep(5);
+		assertEquals(1, compactor.compact(dataDir));
+		// The merged file supersedes the others, still there.
+		assertEquals(5, numFiles(3));
+		assertEquals(Arrays.asList("a", "b", "c", "d", "e"), read(3));
+		assertEquals(Arrays.asList("f"), read(4));
+
+		store(3, "g");
+		// Published after the merge by a writer whose clock lags.
+		FileUtils.writeStringToFile(new File(dataDir + "/3.1.ab.7"), "h\n");
+		assertEquals(Arrays.asList("a", "b", "c", "d", "e", "h", "g"), read(3));
+
+		// Modification times may only have a resolution of a second.
+		Thread.sleep(1100);
+		assertEquals(1, compactor.compact(dataDir));
+		// The first merged file, and the second one with what it merged.
+		assertEquals(4, numFiles(3));
+		assertEquals(Arrays.asList("a", "b", "c", "d", "e", "h", "g"), read(3));
+
+		Thread.sleep(1100);
+		assertEquals(1, compactor.compact(dataDir));
+		assertEquals(3, numFiles(3));
+		assertEquals(Arrays.asList("a", "b", "c", "d", "e", "h", "g"), read(3));
+
+		Thread.sleep(1100);
+		assertEquals(0, compactor.compact(dataDir));
+		assertEquals(1, numFiles(3));
+		assertEquals(Arrays.asList("a", "b", "c", "d", "e", "h", "g"), read(3));
+		assertTrue(new File(dataDir + "/3.ff.9.tmp").exists());
+	}
+
+	public void testZoneMapsAndKeyFilters() throws Exception {
+		TYPE[] types = { TYPE.INT };
+		for (String r : new String[] { "5\n", "20\n", "7\n" }) {
+			ZoneMap zoneMap = new ZoneMap(types);
+			zoneMap.addRecords(r.getBytes(), 0, r.length(), '|');
+			KeyFilter keyFilter = new KeyFilter(new int[] { 0 }, 1 << 12);
+			keyFilter.addRecords(r.getBytes(), 0, r.length(), '|');
+			Partition p = partition(3).clone();
+			p.setZoneMap(zoneMap);
+			p.setKeyFilter(keyFilter);
+			p.write(r.getBytes(), 0, r.length());
+			p.store(true);
+		}
+		// One of each per segment.
+		File zoneMaps = new File(dir, ZoneMap.ZONE_MAP_DIR);
+		File keyFilters = new File(dir, KeyFilter.KEY_FILTER_DIR);
+		assertEquals(3, entries(zoneMaps).length);
+		assertEquals(3, entries(keyFilters).length);
+		assertEntries(types, 3);
+		// That of a segment never published.
+		FileUtils.writeStringToFile(new File(zoneMaps, "3.1.ab.9"), "");
+
+		SegmentCompactor compactor = new SegmentCompactor(fs, (short) 1);
+		compactor.setGracePeriod(0);
+		compactor.setMinFiles(2);
+		compactor.setTypes(types);
+		Thread.sleep(5);
+		assertEquals(1, compactor.compact(dataDir));
+		assertEquals(4, entries(zoneMaps).length);
+		assertEquals(4, entries(keyFilters).length);
+		// Counted twice until the segments are deleted.
+		assertEntries(types, 6);
+
+		Thread.sleep(1100);
+		assertEquals(0, compactor.compact(dataDir));
+		assertEquals(1, numFiles(3));
+		assertEquals(1, entries(zoneMaps).length);
+		assertEquals(1, entries(keyFilters).length);
+		// Merged into a single entry.
+		assertEquals(new ZoneMap(types).toBytes().length, entries(zoneMaps)[0]
+				.length());
+		assertEntries(types, 3);
+	}
+
+	private File[] entries(File dir) {
+		return dir.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return SegmentUtils.getBucketId(name) != -1;
+			}
+		});
+	}
+
+	private void assertEntries(TYPE[] types, int numRecords) throws Exception {
+		ZoneMap zoneMap = ZoneMap.loadAll(fs, dir + "/" + ZoneMap.ZONE_MAP_DIR,
+				types).get(3);
+		assertEquals(numRecords, zoneMap.getNumRecords());
+		assertTrue(zoneMap.mayMatch(new Predicate[] { new Predicate(0,
+				TYPE.INT, 19, PREDTYPE.GT) }));
+		assertFalse(zoneMap.mayMatch(new Predicate[] { new Predicate(0,
+				TYPE.INT, 5, PREDTYPE.LT) }));
+
+		KeyFilter keyFilter = KeyFilter.load(fs, dataDir + "/3");
+		assertEquals(numRecords, keyFilter.getNumRecords());
+		for (long k : new long[] { 5, 20, 7 })
+			assertTrue(keyFilter.getFilter(0).mayContain(k));
+	}
+}
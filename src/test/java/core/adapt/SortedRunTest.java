@@ -0,0 +1,257 @@
+package core.adapt;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.google.common.io.ByteStreams;
+
+import core.adapt.Predicate.PREDTYPE;
+import core.adapt.iterator.PartitionIterator;
+import core.adapt.iterator.PostFilterIterator;
+import core.common.globals.Globals;
+import core.common.globals.Schema;
+import core.common.globals.TableInfo;
+import core.upfront.build.CompressedOutputStream;
+import core.upfront.build.SortedOutputStream;
+import core.utils.CompressionUtils;
+import core.utils.SegmentUtils;
+import core.utils.TypeUtils.TYPE;
+
+public class SortedRunTest extends TestCase {
+
+	private static final String TABLE = "sorted_run_test";
+
+	private static final String[] MODES = { "AIR", "FOB", "MAIL", "RAIL",
+			"REG AIR", "SHIP", "TRUCK" };
+
+	private List<String> lines;
+	private File dir;
+
+	@Override
+	public void setUp() throws Exception {
+		TableInfo tableInfo = new TableInfo(TABLE, 1000, '|',
+				Schema.createSchema("id int, mode string"));
+		tableInfo.sortAttribute = 0;
+		Globals.addTableInfo(tableInfo);
+
+		Random rand = new Random(7);
+		lines = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++)
+			lines.add(rand.nextInt(500) + "|" + MODES[rand.nextInt(MODES.length)]);
+
+		dir = File.createTempFile("sortedruns", "");
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	private static byte[] text(List<String> lines) {
+		StringBuilder sb = new StringBuilder();
+		for (String l : lines)
+			sb.append(l).append('\n');
+		return sb.toString().getBytes();
+	}
+
+	private static List<String> select(byte[] runs, Predicate[] predicates) {
+		byte[] dst = new byte[runs.length];
+		int length = SortedRun.select(runs, runs.length, predicates, dst);
+		List<String> selected = new ArrayList<String>();
+		for (String l : new String(dst, 0, length).split("\n")) {
+			if (!l.isEmpty())
+				selected.add(l);
+		}
+		return selected;
+	}
+
+	private static List<String> matching(List<String> lines,
+			Predicate[] predicates) {
+		List<String> matching = new ArrayList<String>();
+		for (String l : lines) {
+			if (qualifies(l, predicates))
+				matching.add(l);
+		}
+		return matching;
+	}
+
+	private static boolean qualifies(String line, Predicate[] predicates) {
+		String[] parts = line.split("\\|");
+		for (Predicate p : predicates) {
+			Object value = p.attribute == 0 ? (Object) Integer.parseInt(parts[0])
+					: parts[1];
+			if (!p.isRelevant(value))
+				return false;
+		}
+		return true;
+	}
+
+	public void testEncodeSorts() {
+		byte[] text = text(lines);
+		byte[] run = SortedRun.encode(text, 0, text.length, 0, TYPE.INT, '|');
+		assertTrue(SortedRun.isSorted(run, run.length));
+		assertFalse(SortedRun.isSorted(text, text.length));
+
+		List<String> all = select(run, null);
+		assertEquals(lines.size(), all.size());
+		for (int i = 1; i < all.size(); i++) {
+			assertTrue(Integer.parseInt(all.get(i - 1).split("\\|")[0]) <= Integer
+					.parseInt(all.get(i).split("\\|")[0]));
+		}
+		List<String> sorted = new ArrayList<String>(lines);
+		Collections.sort(sorted);
+		Collections.sort(all);
+		assertEquals(sorted, all);
+	}
+
+	public void testSelectKeepsMatches() {
+		byte[] text = text(lines);
+		Predicate[][] queries = new Predicate[][] {
+				{ new Predicate(0, TYPE.INT, 100, PREDTYPE.EQ) },
+				{ new Predicate(0, TYPE.INT, 100, PREDTYPE.GT),
+						new Predicate(0, TYPE.INT, 120, PREDTYPE.LEQ) },
+				{ new Predicate(0, TYPE.INT, 10, PREDTYPE.LT) },
+				{ new Predicate(0, TYPE.INT, 490, PREDTYPE.GEQ),
+						new Predicate(1, TYPE.STRING, "AIR", PREDTYPE.EQ) },
+				{ new Predicate(0, TYPE.INT, 1000, PREDTYPE.GT) } };
+		byte[] run = SortedRun.encode(text, 0, text.length, 0, TYPE.INT, '|');
+		for (Predicate[] q : queries) {
+			List<String> selected = select(run, q);
+			assertTrue(selected.containsAll(matching(lines, q)));
+			// Reads at most an index interval too many on either side.
+			assertTrue(selected.size() <= matching(lines, q).size() + 2
+					* SortedRun.INDEX_INTERVAL);
+		}
+
+		// Several runs, on a STRING attribute.
+		int half = text(lines.subList(0, 500)).length;
+		byte[] a = SortedRun.encode(text, 0, half, 1, TYPE.STRING, '|');
+		byte[] b = SortedRun.encode(text, half, text.length - half, 1,
+				TYPE.STRING, '|');
+		byte[] runs = new byte[a.length + b.length];
+		System.arraycopy(a, 0, runs, 0, a.length);
+		System.arraycopy(b, 0, runs, a.length, b.length);
+		assertEquals(lines.size(), select(runs, null).size());
+
+		Predicate[] q = { new Predicate(1, TYPE.STRING, "REG AIR", PREDTYPE.EQ) };
+		List<String> selected = select(runs, q);
+		assertTrue(selected.containsAll(matching(lines, q)));
+		assertTrue(selected.size() < lines.size() / 2);
+	}
+
+	public void testIteratorReadsSortedPartition() throws Exception {
+		String path = dir.getAbsolutePath();
+		OutputStream out = new SortedOutputStream(new CompressedOutputStream(
+				new FileOutputStream(path + "/0"),
+				CompressionUtils.getCodec("deflate")), 0, TYPE.INT, '|', 4096);
+		out.write(text(lines.subList(0, 600)));
+		out.close();
+
+		Partition loaded = new Partition(path, 0);
+		loaded.load();
+		Partition p = loaded.clone();
+		p.setSorted(0, TYPE.INT, '|');
+		p.setCodec("deflate");
+		for (String l : lines.subList(600, lines.size())) {
+			byte[] b = l.getBytes();
+			p.write(b, 0, b.length);
+		}
+		p.store(true);
+
+		Predicate[] q = { new Predicate(0, TYPE.INT, 200, PREDTYPE.GEQ),
+				new Predicate(0, TYPE.INT, 210, PREDTYPE.LT) };
+		List<String> expected = matching(lines, q);
+		Collections.sort(expected);
+
+		PartitionIterator itr = new PostFilterIterator(new Query(TABLE, q));
+		itr.setPartition(new Partition(path, 0));
+		List<String> found = new ArrayList<String>();
+		while (itr.hasNext())
+			found.add(itr.next().getKeyString());
+		Collections.sort(found);
+		assertEquals(expected, found);
+
+		itr = new PartitionIterator(new Query(TABLE + "|"));
+		itr.setPartition(new Partition(path, 0));
+		int n = 0;
+		while (itr.hasNext()) {
+			itr.next();
+			n++;
+		}
+		assertEquals(lines.size(), n);
+	}
+
+	private static List<String> read(InputStream in) throws Exception {
+		byte[] bytes = ByteStreams.toByteArray(in);
+		in.close();
+		return select(bytes, null);
+	}
+
+	public void testSeekAndCompact() throws Exception {
+		FileSystem fs = FileSystem.getLocal(new Configuration());
+		String dataDir = dir.getAbsolutePath() + "/data";
+		for (int i = 0; i < 4; i++) {
+			Partition p = new HDFSPartition(fs, dataDir + "/0", (short) 1, null)
+					.clone();
+			p.setSorted(0, TYPE.INT, '|');
+			for (String l : lines.subList(250 * i, 250 * (i + 1))) {
+				byte[] b = (l + "\n").getBytes();
+				p.write(b, 0, b.length);
+			}
+			p.store(true);
+		}
+
+		Predicate[] q = { new Predicate(0, TYPE.INT, 200, PREDTYPE.GEQ),
+				new Predicate(0, TYPE.INT, 210, PREDTYPE.LT) };
+		HDFSPartition p = new HDFSPartition(fs, dataDir + "/0", (short) 1, null);
+		p.setSorted(0, TYPE.INT, '|');
+		List<String> selected = read(p.open(q));
+		assertTrue(selected.containsAll(matching(lines, q)));
+		// At most an index interval too many on either side of each run.
+		assertTrue(selected.size() <= matching(lines, q).size() + 8
+				* SortedRun.INDEX_INTERVAL);
+		assertEquals(lines.size(), read(p.open()).size());
+
+		SegmentCompactor compactor = new SegmentCompactor(fs, (short) 1);
+		compactor.setGracePeriod(0);
+		compactor.setMinFiles(2);
+		compactor.setSorted(0, TYPE.INT, '|', 2048);
+		Thread.sleep(5);
+		assertEquals(1, compactor.compact(dataDir));
+
+		// Merged into runs of consecutive keys.
+		List<String> merged = read(p.open());
+		assertEquals(lines.size(), merged.size());
+		for (int i = 1; i < merged.size(); i++) {
+			assertTrue(Integer.parseInt(merged.get(i - 1).split("\\|")[0]) <= Integer
+					.parseInt(merged.get(i).split("\\|")[0]));
+		}
+		int numFiles = 0;
+		for (FileStatus f : fs.listStatus(new Path(dataDir))) {
+			if (SegmentUtils.getBucketId(f.getPath().getName()) == 0)
+				numFiles++;
+		}
+		assertEquals(5, numFiles);
+
+		selected = read(p.open(q));
+		assertTrue(selected.containsAll(matching(lines, q)));
+		assertTrue(selected.size() <= matching(lines, q).size() + 4
+				* SortedRun.INDEX_INTERVAL);
+	}
+
+	@Override
+	public void tearDown() {
+		FileUtils.deleteQuietly(dir);
+	}
+}
@@ -0,0 +1,110 @@
+package core.adapt;
+
+import java.io.File;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+
+import core.adapt.Predicate.PREDTYPE;
+import core.common.globals.Schema;
+import core.utils.IOUtils;
+import core.utils.TypeUtils.SimpleDate;
+import core.utils.TypeUtils.TYPE;
+
+public class ZoneMapTest extends TestCase {
+
+	private TYPE[] types;
+
+	@Override
+	public void setUp() {
+		types = Schema.createSchema("id int, price double, shipdate date, mode string, comment varchar")
+				.getTypeArray();
+	}
+
+	private ZoneMap zoneMap(String records) {
+		ZoneMap zoneMap = new ZoneMap(types);
+		byte[] bytes = records.getBytes();
+		zoneMap.addRecords(bytes, 0, bytes.length, '|');
+		return zoneMap;
+	}
+
+	private boolean mayMatch(ZoneMap zoneMap, Predicate p) {
+		return zoneMap.mayMatch(new Predicate[] { p });
+	}
+
+	public void testMayMatch() {
+		ZoneMap zoneMap = zoneMap("5|10.5|1995-03-01|MAIL|x\n"
+				+ "9|2.25|1995-01-15|AIR|y\n");
+		assertEquals(2, zoneMap.getNumRecords());
+
+		assertTrue(mayMatch(zoneMap, new Predicate(0, TYPE.INT, 9, PREDTYPE.GEQ)));
+		assertFalse(mayMatch(zoneMap, new Predicate(0, TYPE.INT, 9, PREDTYPE.GT)));
+		assertFalse(mayMatch(zoneMap, new Predicate(0, TYPE.INT, 5, PREDTYPE.LT)));
+		assertTrue(mayMatch(zoneMap, new Predicate(0, TYPE.INT, 7, PREDTYPE.EQ)));
+		assertFalse(mayMatch(zoneMap, new Predicate(1, TYPE.DOUBLE, 11.0, PREDTYPE.GEQ)));
+		assertFalse(mayMatch(zoneMap, new Predicate(2, TYPE.DATE,
+				new SimpleDate(1995, 6, 1), PREDTYPE.GT)));
+		assertTrue(mayMatch(zoneMap, new Predicate(2, TYPE.DATE,
+				new SimpleDate(1995, 1, 15), PREDTYPE.LEQ)));
+		assertFalse(mayMatch(zoneMap, new Predicate(3, TYPE.STRING, "TRUCK", PREDTYPE.EQ)));
+		assertTrue(mayMatch(zoneMap, new Predicate(3, TYPE.STRING, "BOAT", PREDTYPE.EQ)));
+		// Not tracked.
+		assertTrue(mayMatch(zoneMap, new Predicate(4, TYPE.VARCHAR, "z", PREDTYPE.EQ)));
+
+		// Empty buckets never match.
+		assertFalse(new ZoneMap(types).mayMatch(new Predicate[0]));
+	}
+
+	public void testEntriesAreMerged() throws Exception {
+		File dir = File.createTempFile("zonemaps", "");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			String dataFile = dir.getAbsolutePath() + "/data/3";
+			zoneMap("5|10.5|1995-03-01|MAIL|x\n").store(dataFile);
+			zoneMap("20|1.0|1994-01-01|AIR|y\n").store(dataFile);
+
+			String path = ZoneMap.getPath(dataFile);
+			assertEquals(dir.getAbsolutePath() + "/zonemaps/3", path);
+			ZoneMap zoneMap = ZoneMap.fromBytes(IOUtils.readByteArray(path), types);
+			assertEquals(2, zoneMap.getNumRecords());
+			assertTrue(mayMatch(zoneMap, new Predicate(0, TYPE.INT, 15, PREDTYPE.GT)));
+			assertTrue(mayMatch(zoneMap, new Predicate(1, TYPE.DOUBLE, 2.0, PREDTYPE.LT)));
+			assertFalse(mayMatch(zoneMap, new Predicate(0, TYPE.INT, 5, PREDTYPE.LT)));
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	public void testLoadAll() throws Exception {
+		File dir = File.createTempFile("zonemaps", "");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			FileSystem fs = FileSystem.getLocal(new Configuration());
+			String zoneMapDir = dir.getAbsolutePath() + "/zonemaps";
+			assertTrue(ZoneMap.loadAll(fs, zoneMapDir, types).isEmpty());
+
+			String dataDir = dir.getAbsolutePath() + "/data/";
+			zoneMap("5|10.5|1995-03-01|MAIL|x\n").store(dataDir + "3");
+			zoneMap("1|1.0|1994-01-01|AIR|y\n").store(dataDir + "4");
+			Map<Integer, ZoneMap> zoneMaps = ZoneMap.loadAll(fs, zoneMapDir, types);
+			assertEquals(2, zoneMaps.size());
+			assertFalse(mayMatch(zoneMaps.get(3), new Predicate(0, TYPE.INT, 6, PREDTYPE.GEQ)));
+
+			// An appended entry is seen, a deleted file is gone.
+			zoneMap("20|1.0|1994-01-01|AIR|y\n").store(dataDir + "3");
+			new File(zoneMapDir + "/4").delete();
+			zoneMaps = ZoneMap.loadAll(fs, zoneMapDir, types);
+			assertEquals(1, zoneMaps.size());
+			assertEquals(2, zoneMaps.get(3).getNumRecords());
+			assertTrue(mayMatch(zoneMaps.get(3), new Predicate(0, TYPE.INT, 6, PREDTYPE.GEQ)));
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+}
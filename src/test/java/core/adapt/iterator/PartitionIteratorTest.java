@@ -0,0 +1,209 @@
+package core.adapt.iterator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+import core.adapt.Partition;
+import core.adapt.Predicate;
+import core.adapt.Predicate.PREDTYPE;
+import core.adapt.Query;
+import core.common.globals.Globals;
+import core.common.globals.Schema;
+import core.common.globals.TableInfo;
+import core.utils.IOUtils;
+import core.utils.TypeUtils.SimpleDate;
+import core.utils.TypeUtils.TYPE;
+
+public class PartitionIteratorTest extends TestCase {
+
+	private static final String TABLE = "partition_iterator_test";
+
+	private File dir;
+	private String[] lines;
+
+	@Override
+	public void setUp() throws Exception {
+		Schema schema = Schema.createSchema("id int, price double, shipdate date, mode string");
+		Globals.addTableInfo(new TableInfo(TABLE, 4, '|', schema));
+
+		lines = new String[] { "1|10.5|1995-01-01|AIR", "2|20.25|1996-06-15|MAIL",
+				"3|30.0|1997-12-31|TRUCK", "4|40.75|1998-03-01|AIR" };
+		StringBuilder sb = new StringBuilder();
+		for (String l : lines)
+			sb.append(l).append('\n');
+
+		dir = File.createTempFile("partitions", "");
+		dir.delete();
+		dir.mkdirs();
+		IOUtils.writeByteArray(dir.getAbsolutePath() + "/0", sb.toString().getBytes());
+	}
+
+	private Partition partition() {
+		return new Partition(dir.getAbsolutePath(), 0);
+	}
+
+	public void testScanReturnsRecordViews() {
+		PartitionIterator itr = new PartitionIterator(new Query(TABLE + "|"));
+		itr.setPartition(partition());
+
+		int i = 0;
+		while (itr.hasNext()) {
+			IteratorRecord r = itr.next();
+			assertEquals(lines[i], r.getKeyString());
+			assertEquals(lines[i], new String(r.copyBytes()));
+			assertEquals(i + 1, r.getIntAttribute(0));
+			i++;
+		}
+		assertEquals(lines.length, i);
+	}
+
+	public void testPostFilter() {
+		Query q = new Query(TABLE, new Predicate[] {
+				new Predicate(2, TYPE.DATE, new SimpleDate(1996, 1, 1), PREDTYPE.GEQ),
+				new Predicate(3, TYPE.STRING, "AIR", PREDTYPE.EQ) });
+		PartitionIterator itr = new PostFilterIterator(q);
+		itr.setPartition(partition());
+
+		assertTrue(itr.hasNext());
+		assertEquals(lines[3], itr.next().getKeyString());
+		assertFalse(itr.hasNext());
+	}
+
+	private String drainBatches(PartitionIterator itr, int capacity) {
+		itr.setPartition(partition());
+		RecordBatch batch = new RecordBatch(capacity);
+		StringBuilder sb = new StringBuilder();
+		while (itr.nextBatch(batch)) {
+			for (int i = 0; i < batch.getNumSelected(); i++)
+				sb.append(itr.getRecord(batch, batch.getSelection()[i]).getKeyString()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private String drainRecords(PartitionIterator itr) {
+		itr.setPartition(partition());
+		StringBuilder sb = new StringBuilder();
+		while (itr.hasNext())
+			sb.append(itr.next().getKeyString()).append('\n');
+		return sb.toString();
+	}
+
+	public void testBatchFilterMatchesRecordFilter() {
+		Query[] queries = new Query[] {
+				new Query(TABLE, new Predicate[] {
+						new Predicate(2, TYPE.DATE, new SimpleDate(1996, 1, 1), PREDTYPE.GEQ),
+						new Predicate(3, TYPE.STRING, "AIR", PREDTYPE.EQ) }),
+				new Query(TABLE, new Predicate[] {
+						new Predicate(1, TYPE.DOUBLE, 30.0, PREDTYPE.LEQ),
+						new Predicate(0, TYPE.INT, 1, PREDTYPE.GT) }),
+				new Query(TABLE, new Predicate[] {
+						new Predicate(0, TYPE.INT, 0, PREDTYPE.LT) }) };
+
+		for (Query q : queries) {
+			for (int capacity : new int[] { 1, 3, 1024 }) {
+				assertEquals(drainRecords(new PostFilterIterator(q)),
+						drainBatches(new PostFilterIterator(q), capacity));
+			}
+		}
+
+		Query all = new Query(TABLE + "|");
+		assertEquals(drainRecords(new PartitionIterator(all)),
+				drainBatches(new ScanIterator(all), 3));
+	}
+
+	public void testBatchFallsBackToIsRelevant() {
+		PartitionIterator odd = new PartitionIterator(new Query(TABLE + "|")) {
+			@Override
+			protected boolean isRelevant(IteratorRecord record) {
+				return record.getIntAttribute(0) % 2 == 1;
+			}
+		};
+		assertEquals(lines[0] + "\n" + lines[2] + "\n", drainBatches(odd, 3));
+	}
+
+	public void testBatchDeselectsShortRecords() {
+		byte[] bytes = "0|1.5|x\n0\n\n0|0.5|".getBytes();
+		RecordBatch batch = new RecordBatch(8);
+		batch.reset(bytes, '|');
+		for (int start = 0, end; start < bytes.length; start = end + 1) {
+			end = start;
+			while (end < bytes.length && bytes[end] != '\n')
+				end++;
+			batch.add(start, end);
+		}
+
+		// Missing attributes must not parse as 0.
+		new Query(TABLE, new Predicate[] {
+				new Predicate(0, TYPE.INT, 0, PREDTYPE.EQ),
+				new Predicate(1, TYPE.DOUBLE, 1.0, PREDTYPE.LT) }).filter(batch);
+		assertEquals(1, batch.getNumSelected());
+		assertEquals(3, batch.getSelection()[0]);
+	}
+
+	public void testProjection() {
+		PartitionIterator itr = new PartitionIterator(new Query(TABLE + "|"));
+		itr.setPartition(partition());
+		TYPE[] types = Globals.getTableInfo(TABLE).getTypeArray();
+
+		assertTrue(itr.hasNext());
+		ProjectedRecord r = ProjectedRecord.project(itr.next(), new int[] { 3, 2, 1 }, types);
+		assertEquals(3, r.size());
+		assertEquals("AIR", r.getString(0));
+		assertEquals(0, new SimpleDate(1995, 1, 1).compareTo(r.getDate(1)));
+		assertEquals(10.5, r.getDouble(2));
+		assertEquals("AIR|1995-01-01|10.5", r.toString());
+	}
+
+	public void testRecordSerializesItsBytesOnly() throws Exception {
+		PartitionIterator itr = new PartitionIterator(new Query(TABLE + "|"));
+		itr.setPartition(partition());
+
+		// The records share the partition buffer. The iterator reuses its
+		// record, so the stream must forget it between writes.
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		while (itr.hasNext()) {
+			out.writeObject(itr.next());
+			out.reset();
+		}
+		out.close();
+
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+				bytes.toByteArray()));
+		for (String line : lines) {
+			IteratorRecord r = (IteratorRecord) in.readObject();
+			assertEquals(line, r.getKeyString());
+			assertEquals(line.length(), r.getBuffer().length);
+		}
+	}
+
+	public void testProjectedRecordSerializes() throws Exception {
+		PartitionIterator itr = new PartitionIterator(new Query(TABLE + "|"));
+		itr.setPartition(partition());
+		TYPE[] types = Globals.getTableInfo(TABLE).getTypeArray();
+
+		assertTrue(itr.hasNext());
+		ProjectedRecord r = ProjectedRecord.project(itr.next(), new int[] { 0, 1, 2, 3 }, types);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(r);
+		out.close();
+		ProjectedRecord copy = (ProjectedRecord) new ObjectInputStream(
+				new ByteArrayInputStream(bytes.toByteArray())).readObject();
+		assertEquals(lines[0], copy.toString());
+		assertEquals(0, new SimpleDate(1995, 1, 1).compareTo(copy.getDate(2)));
+	}
+
+	@Override
+	public void tearDown() {
+		FileUtils.deleteQuietly(dir);
+	}
+}
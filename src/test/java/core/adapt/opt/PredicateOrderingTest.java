@@ -0,0 +1,49 @@
+package core.adapt.opt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import core.adapt.Predicate;
+import core.adapt.Predicate.PREDTYPE;
+import core.adapt.Query;
+import core.common.key.ParsedTupleList;
+import core.utils.TypeUtils.TYPE;
+
+public class PredicateOrderingTest extends TestCase {
+
+	private ParsedTupleList sample;
+
+	@Override
+	public void setUp() {
+		List<Object[]> values = new ArrayList<Object[]>();
+		for (int i = 0; i < 100; i++)
+			values.add(new Object[] { i, (double) i, i % 2 == 0 ? "AIR" : "MAIL" });
+		sample = new ParsedTupleList(values, new TYPE[] { TYPE.INT, TYPE.DOUBLE,
+				TYPE.STRING });
+	}
+
+	public void testSelectivity() {
+		assertEquals(0.1, PredicateOrdering.estimateSelectivity(new Predicate(0,
+				TYPE.INT, 10, PREDTYPE.LT), sample), 1e-9);
+		assertEquals(0.5, PredicateOrdering.estimateSelectivity(new Predicate(2,
+				TYPE.STRING, "AIR", PREDTYPE.EQ), sample), 1e-9);
+	}
+
+	public void testMostSelectiveFirst() {
+		Predicate wide = new Predicate(0, TYPE.INT, 90, PREDTYPE.LT);
+		Predicate mode = new Predicate(2, TYPE.STRING, "MAIL", PREDTYPE.EQ);
+		Predicate narrow = new Predicate(1, TYPE.DOUBLE, 5.0, PREDTYPE.LEQ);
+
+		Query q = new Query("t", new Predicate[] { wide, mode, narrow });
+		Predicate[] ordered = PredicateOrdering.order(q, sample).getPredicates();
+		assertSame(narrow, ordered[0]);
+		assertSame(mode, ordered[1]);
+		assertSame(wide, ordered[2]);
+
+		// Nothing to reorder.
+		Query single = new Query("t", new Predicate[] { wide });
+		assertSame(single, PredicateOrdering.order(single, sample));
+	}
+}
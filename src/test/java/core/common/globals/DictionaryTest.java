@@ -0,0 +1,75 @@
+package core.common.globals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import core.common.key.ParsedTupleList;
+import core.common.key.RawIndexKey;
+import core.utils.TypeUtils.TYPE;
+
+public class DictionaryTest extends TestCase {
+
+	private static final String[] MODES = { "TRUCK", "AIR", "MAIL", "SHIP" };
+
+	private ParsedTupleList sample(int numTuples) {
+		TYPE[] types = new TYPE[] { TYPE.INT, TYPE.STRING, TYPE.STRING };
+		List<Object[]> tuples = new ArrayList<Object[]>();
+		for (int i = 0; i < numTuples; i++) {
+			tuples.add(new Object[] { i, new String(MODES[i % MODES.length]),
+					"comment " + i });
+		}
+		return new ParsedTupleList(tuples, types);
+	}
+
+	public void testBuild() {
+		ParsedTupleList sample = sample(1000);
+		Dictionary dictionary = Dictionary.build(sample);
+		assertFalse(dictionary.isEncoded(0));
+		assertTrue(dictionary.isEncoded(1));
+		assertFalse(dictionary.isEncoded(2));
+		assertEquals(4, dictionary.size(1));
+
+		dictionary.intern(sample);
+		assertSame(sample.getValues().get(0)[1], sample.getValues().get(4)[1]);
+
+		// Too small a sample to trust.
+		assertNull(Dictionary.build(sample(40)));
+	}
+
+	public void testCodesPreserveOrder() {
+		Dictionary dictionary = Dictionary.build(sample(1000));
+		String[] values = { "", "A", "AIR", "AIRX", "B", "MAIL", "MAIM", "SHIP",
+				"TRUCK", "TRUCKS", "Z" };
+		RawIndexKey key = new RawIndexKey('|');
+		for (String v : values) {
+			int code = dictionary.getCode(1, v);
+			key.setBytes(("0|" + v + "|x").getBytes());
+			assertEquals(v, code, key.getStringCode(1, dictionary));
+
+			boolean known = false;
+			for (String m : MODES)
+				known |= m.equals(v);
+			assertEquals(v, known, Dictionary.isKnown(code));
+			if (known)
+				assertEquals(v, dictionary.getValue(1, code));
+
+			for (String w : values) {
+				int cmp = Integer.signum(Integer.compare(code,
+						dictionary.getCode(1, w)));
+				if (cmp != 0 || Dictionary.isKnown(code))
+					assertEquals(v + " " + w, Integer.signum(v.compareTo(w)), cmp);
+			}
+		}
+	}
+
+	public void testSerialization() {
+		Dictionary dictionary = Dictionary.build(sample(1000));
+		Dictionary copy = Dictionary.fromBytes(dictionary.toBytes());
+		assertFalse(copy.isEncoded(0));
+		assertFalse(copy.isEncoded(2));
+		for (String m : MODES)
+			assertEquals(dictionary.getCode(1, m), copy.getCode(1, m));
+	}
+}
@@ -0,0 +1,120 @@
+package core.common.index;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import core.adapt.iterator.RecordBatch;
+import core.common.globals.Dictionary;
+import core.common.key.RawIndexKey;
+
+public class CompiledTreeTest extends TestCase {
+
+	// Attributes: 0 INT, 1 DOUBLE, 2 DATE, 3 STRING (encoded), 4 STRING, 5 LONG.
+	// RAIL is not in the dictionary.
+	private static final String TREE = "n 0 INT 50\n" + "n 1 DOUBLE -0.5\n"
+			+ "n 3 STRING MAIL\n" + "b 0\n" + "n 4 STRING m\n" + "b 1\n"
+			+ "b 2\n" + "n 2 DATE 1995-06-15\n" + "b 3\n" + "n 0 INT 20\n"
+			+ "b 4\n" + "b 5\n" + "n 5 LONG 10000000000\n"
+			+ "n 3 STRING RAIL\n" + "b 6\n" + "b 7\n" + "b 8\n";
+
+	private static final String[] MODES = { "AIR", "MAIL", "MAIM", "RAIL",
+			"RAILS", "SHIP", "TRUCK" };
+
+	private Dictionary dictionary;
+
+	@Override
+	public void setUp() {
+		dictionary = new Dictionary(new String[][] { null, null, null,
+				{ "AIR", "MAIL", "SHIP", "TRUCK" }, null, null });
+	}
+
+	private static String randomKey(Random r) {
+		return (r.nextInt(80) + "|" + (r.nextInt(5) - 2) * 0.25 + "|199"
+				+ (4 + r.nextInt(3)) + "-0" + (1 + r.nextInt(9)) + "-"
+				+ (10 + r.nextInt(20)) + "|" + MODES[r.nextInt(MODES.length)]
+				+ "|" + (char) ('a' + r.nextInt(26)) + "|" + r.nextInt(3)
+				* 10000000000L);
+	}
+
+	public void testSameBucketsAsRNode() {
+		RNode root = new RNode();
+		root.unmarshall(TREE.getBytes());
+		CompiledTree plain = new CompiledTree(root, null);
+		CompiledTree coded = new CompiledTree(root, dictionary);
+		assertEquals(8, coded.size());
+
+		Random r = new Random(7);
+		RawIndexKey key = new RawIndexKey('|');
+		boolean[] seen = new boolean[9];
+		for (int i = 0; i < 2000; i++) {
+			String k = randomKey(r);
+			key.setBytes(k.getBytes());
+			int id = root.getBucketId(key, dictionary);
+			assertEquals(k, id, plain.getBucketId(key));
+			assertEquals(k, id, coded.getBucketId(key));
+			seen[id] = true;
+		}
+		for (int i = 0; i < seen.length; i++)
+			assertTrue("bucket " + i, seen[i]);
+	}
+
+	public void testJRNode() {
+		JRNode root = new JRNode();
+		root.unmarshall(TREE.getBytes());
+		CompiledTree tree = new CompiledTree(root, dictionary);
+
+		Random r = new Random(11);
+		RawIndexKey key = new RawIndexKey('|');
+		for (int i = 0; i < 500; i++) {
+			String k = randomKey(r);
+			key.setBytes(k.getBytes());
+			assertEquals(k, root.getBucketId(key, dictionary),
+					tree.getBucketId(key));
+		}
+	}
+
+	public void testBatch() {
+		RNode root = new RNode();
+		root.unmarshall(TREE.getBytes());
+		RobustTree index = new RobustTree();
+		index.setRoot(root);
+		CompiledTree tree = new CompiledTree(root, dictionary);
+
+		Random r = new Random(5);
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 100; i++)
+			text.append(randomKey(r)).append('\n');
+		byte[] bytes = text.toString().getBytes();
+		RecordBatch batch = new RecordBatch(128);
+		batch.reset(bytes, '|');
+		for (int start = 0, end; start < bytes.length; start = end + 1) {
+			end = text.indexOf("\n", start);
+			batch.add(start, end);
+		}
+		// Route only the even records.
+		int[] selection = batch.getSelection();
+		for (int i = 0; i < 50; i++)
+			selection[i] = 2 * i;
+		batch.setNumSelected(50);
+
+		int[] ids = index.getBucketIds(batch);
+		RawIndexKey key = new RawIndexKey('|');
+		for (int i = 0; i < 50; i++) {
+			key.setBytes(bytes, batch.getRecordOffset(2 * i),
+					batch.getRecordLength(2 * i));
+			assertEquals(root.getBucketId(key), ids[i]);
+			assertEquals(tree.getBucketId(key), ids[i]);
+		}
+	}
+
+	public void testSingleBucket() {
+		RNode root = new RNode();
+		root.unmarshall("b 3\n".getBytes());
+		CompiledTree tree = new CompiledTree(root, null);
+		RawIndexKey key = new RawIndexKey('|');
+		key.setBytes("1|2".getBytes());
+		assertEquals(0, tree.size());
+		assertEquals(3, tree.getBucketId(key));
+	}
+}
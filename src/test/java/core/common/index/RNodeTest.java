@@ -0,0 +1,79 @@
+package core.common.index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import core.adapt.Predicate;
+import core.adapt.Predicate.PREDTYPE;
+import core.common.globals.Dictionary;
+import core.common.key.RawIndexKey;
+import core.utils.TypeUtils.TYPE;
+
+public class RNodeTest extends TestCase {
+
+	private RNode root;
+
+	@Override
+	public void setUp() {
+		// Buckets 0: a <= 10, 1: 10 < a <= 20 && b <= 5, 2: 10 < a <= 20 && b > 5,
+		// 3: a > 20
+		String tree = "n 0 INT 10\nb 0\nn 0 INT 20\nn 1 INT 5\nb 1\nb 2\nb 3\n";
+		root = new RNode();
+		root.unmarshall(tree.getBytes());
+	}
+
+	private void assertSearch(Predicate[] ps, int[] covered, int[] partial) {
+		List<RNode> c = new ArrayList<RNode>();
+		List<RNode> p = new ArrayList<RNode>();
+		root.search(ps, c, p);
+		assertEquals(covered.length, c.size());
+		for (int i = 0; i < covered.length; i++)
+			assertEquals(covered[i], c.get(i).bucket.getBucketId());
+		assertEquals(partial.length, p.size());
+		for (int i = 0; i < partial.length; i++)
+			assertEquals(partial[i], p.get(i).bucket.getBucketId());
+
+		// Together, the same buckets as the plain search.
+		assertEquals(root.search(ps).size(), c.size() + p.size());
+	}
+
+	public void testRangeCoverage() {
+		assertSearch(new Predicate[] { new Predicate(0, TYPE.INT, 10, PREDTYPE.GT) },
+				new int[] { 1, 2, 3 }, new int[] {});
+		assertSearch(new Predicate[] { new Predicate(0, TYPE.INT, 5, PREDTYPE.GT) },
+				new int[] { 1, 2, 3 }, new int[] { 0 });
+		assertSearch(new Predicate[] { new Predicate(0, TYPE.INT, 20, PREDTYPE.LEQ) },
+				new int[] { 0, 1, 2 }, new int[] {});
+		assertSearch(new Predicate[] { new Predicate(0, TYPE.INT, 20, PREDTYPE.LT) },
+				new int[] { 0 }, new int[] { 1, 2 });
+	}
+
+	public void testAllPredicatesMustBeCovered() {
+		assertSearch(new Predicate[] { new Predicate(0, TYPE.INT, 10, PREDTYPE.GT),
+				new Predicate(0, TYPE.INT, 20, PREDTYPE.LEQ),
+				new Predicate(1, TYPE.INT, 5, PREDTYPE.LEQ) },
+				new int[] { 1 }, new int[] {});
+		assertSearch(new Predicate[] { new Predicate(0, TYPE.INT, 15, PREDTYPE.GEQ),
+				new Predicate(1, TYPE.INT, 3, PREDTYPE.LEQ) },
+				new int[] {}, new int[] { 1, 3 });
+		assertSearch(new Predicate[] { new Predicate(0, TYPE.INT, 15, PREDTYPE.EQ) },
+				new int[] {}, new int[] { 1, 2 });
+	}
+
+	public void testDictionaryRouting() {
+		// RAIL is not in the dictionary.
+		RNode tree = new RNode();
+		tree.unmarshall("n 1 STRING MAIL\nb 0\nn 1 STRING RAIL\nb 1\nb 2\n".getBytes());
+		Dictionary dictionary = new Dictionary(new String[][] { null,
+				{ "AIR", "MAIL", "SHIP", "TRUCK" } });
+
+		RawIndexKey key = new RawIndexKey('|');
+		for (String v : new String[] { "A", "AIR", "MAIL", "MAIM", "RAI", "RAIL",
+				"RAILS", "SHIP", "TRUCK", "ZZ" }) {
+			key.setBytes(("1|" + v).getBytes());
+			assertEquals(v, tree.getBucketId(key), tree.getBucketId(key, dictionary));
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package core.common.index;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import core.common.key.RawIndexKey;
+import core.utils.TypeUtils.TYPE;
+
+public class TreeFormatTest extends TestCase {
+
+	// Attributes: 0 INT, 1 DOUBLE, 2 DATE, 3 STRING, 4 STRING, 5 LONG.
+	private static final String NODES = "n 0 INT -50\n" + "n 1 DOUBLE -0.5\n"
+			+ "n 3 STRING MAIL\n" + "b 0\n" + "n 4 STRING \u00e9t\u00e9\n"
+			+ "b 1\n" + "b 2\n" + "n 2 DATE 1995-06-15\n" + "b 3\n"
+			+ "n 0 INT 20\n" + "b 4\n" + "b 5\n" + "n 5 LONG 10000000000\n"
+			+ "n 3 STRING RAIL\n" + "b 6\n" + "b 7\n" + "b 200\n";
+
+	private static final TYPE[] TYPES = { TYPE.INT, TYPE.DOUBLE, TYPE.DATE,
+			TYPE.STRING, TYPE.STRING, TYPE.LONG };
+
+	private static final String HEADER = "16 6\n"
+			+ "INT DOUBLE DATE STRING STRING LONG \n";
+
+	public void testRoundTrip() {
+		RobustTree text = new RobustTree();
+		text.unmarshall((HEADER + NODES).getBytes());
+
+		byte[] bytes = text.marshall();
+		assertTrue(TreeFormat.isBinary(bytes));
+		RobustTree binary = new RobustTree();
+		binary.unmarshall(bytes);
+
+		assertEquals(16, binary.getMaxBuckets());
+		assertTrue(Arrays.equals(TYPES, binary.dimensionTypes));
+		assertEquals(text.getRoot().marshall(),
+				binary.getRoot().marshall());
+		for (int a = 0; a < TYPES.length; a++)
+			assertEquals(text.getBucketRanges(a), binary.getBucketRanges(a));
+
+		Random r = new Random(1);
+		RawIndexKey key = new RawIndexKey('|');
+		for (int i = 0; i < 200; i++) {
+			String k = (r.nextInt(200) - 100) + "|" + (r.nextInt(5) - 2) * 0.25
+					+ "|1995-0" + (1 + r.nextInt(9)) + "-15|"
+					+ (r.nextBoolean() ? "MAIL" : "SHIP") + "|"
+					+ (r.nextBoolean() ? "a" : "z") + "|" + r.nextInt(3)
+					* 10000000000L;
+			key.setBytes(k.getBytes());
+			assertEquals(k, text.getRoot().getBucketId(key), binary.getRoot()
+					.getBucketId(key));
+		}
+	}
+
+	public void testJoinRobustTree() {
+		JoinRobustTree text = new JoinRobustTree();
+		text.unmarshall(("16 6 2\nINT DOUBLE DATE STRING STRING LONG \n" + NODES)
+				.getBytes());
+
+		JoinRobustTree binary = new JoinRobustTree();
+		binary.unmarshall(text.marshall());
+		assertEquals(2, binary.joinAttributeDepth);
+		assertEquals(text.getRoot().marshall(),
+				binary.getRoot().marshall());
+		for (int a = 0; a < TYPES.length; a++)
+			assertEquals(text.getBucketRanges(a), binary.getBucketRanges(a));
+	}
+
+	public void testCorruption() {
+		RobustTree tree = new RobustTree();
+		tree.unmarshall((HEADER + NODES).getBytes());
+		byte[] bytes = tree.marshall();
+		bytes[bytes.length / 2] ^= 1;
+		try {
+			new RobustTree().unmarshall(bytes);
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().contains("checksum"));
+		}
+	}
+}
@@ -85,6 +85,65 @@ public class RawIndexKeyTest extends TestCase {
 		assertEquals(d, key.getDateAttribute(10));
 	}
 
+	public void testGetNegativeAndSignedAttributes() {
+		key.setBytes("-17|+42|-9223372036854775808|-0.5|1e3|007.250".getBytes());
+		assertEquals(-17, key.getIntAttribute(0));
+		assertEquals(42, key.getIntAttribute(1));
+		assertEquals(Long.MIN_VALUE, key.getLongAttribute(2));
+		assertEquals(-0.5, key.getDoubleAttribute(3));
+		assertEquals(1000.0, key.getDoubleAttribute(4));
+		assertEquals(7.25, key.getDoubleAttribute(5));
+	}
+
+	public void testParseDoubleMatchesJdk() {
+		String[] values = new String[] { "0.04", "24710.35", "0.1", "-0.0",
+				"123456789.12345", "1234567890.1234567", "3.", ".5",
+				"0.000000000000000000001", "NaN", "1.7976931348623157E308" };
+		for (String v : values) {
+			byte[] b = ("x|" + v).getBytes();
+			key.setBytes(b);
+			assertEquals(v, Double.parseDouble(v), key.getDoubleAttribute(1));
+			assertEquals(v, Double.doubleToLongBits(Double.parseDouble(v)),
+					Double.doubleToLongBits(key.getDoubleAttribute(1)));
+		}
+	}
+
+	public void testParseIntRejectsBadInput() {
+		String[] values = new String[] { "", "-", "12a", "2147483648" };
+		for (String v : values) {
+			key.setBytes(("x|" + v).getBytes());
+			try {
+				key.getIntAttribute(1);
+				fail("expected NumberFormatException for " + v);
+			} catch (NumberFormatException e) {
+			}
+		}
+	}
+
+	public void testLazyTokenizeMatchesEager() {
+		RawIndexKey eager = new RawIndexKey('|');
+		eager.setLazyTokenize(false);
+		String tuple2 = "2|1|2|3|4|5.5|0.1|0.2|A|F|1997-01-01|1997-01-02|1997-01-03|NONE|MAIL|last";
+		for (String t : new String[] { tuple1, tuple2 }) {
+			key.setBytes(t.getBytes());
+			eager.setBytes(t.getBytes());
+			// Out of order access: resume the scan, then read behind it.
+			assertEquals(eager.getStringAttribute(15), key.getStringAttribute(15));
+			for (int i = 0; i < 16; i++) {
+				assertEquals(eager.getStringAttribute(i), key.getStringAttribute(i));
+			}
+			assertEquals(eager.getDateAttribute(12), key.getDateAttribute(12));
+		}
+	}
+
+	public void testLazyTokenizeResumesScan() {
+		key.setBytes(tuple1.getBytes());
+		assertEquals(1, key.getIntAttribute(0));
+		assertEquals(93, key.getIntAttribute(2));
+		assertEquals("TRUCK", key.getStringAttribute(14));
+		assertEquals("egular courts above the", key.getStringAttribute(15));
+	}
+
 	@Override
 	public void tearDown() {
 	}
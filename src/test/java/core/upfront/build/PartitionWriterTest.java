@@ -0,0 +1,98 @@
+package core.upfront.build;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import core.adapt.KeyFilter;
+import core.adapt.ZoneMap;
+import core.common.globals.Schema;
+import core.common.globals.TableInfo;
+import core.utils.BufferPool;
+
+public class PartitionWriterTest extends TestCase {
+
+	/**
+	 * Records what is stored, in order. Closing a partition stream publishes
+	 * its data.
+	 */
+	private static class RecordingWriter extends PartitionWriter {
+		private final List<String> events = new ArrayList<String>();
+
+		RecordingWriter() {
+			super("data");
+		}
+
+		@Override
+		protected OutputStream getOutputStream(final String path) {
+			return new ByteArrayOutputStream() {
+				@Override
+				public void close() {
+					events.add("publish " + path);
+				}
+			};
+		}
+
+		@Override
+		protected void storeZoneMap(String path, ZoneMap zoneMap) {
+			events.add("zone map " + path);
+		}
+
+		@Override
+		protected void storeKeyFilter(String path, KeyFilter keyFilter) {
+			events.add("key filter " + path);
+		}
+
+		@Override
+		public void createPartitionDir() {
+		}
+	}
+
+	private TableInfo tableInfo;
+
+	@Override
+	public void setUp() {
+		Schema schema = Schema.createSchema("id int, mode string");
+		tableInfo = new TableInfo("partition_writer_test", 100, '|', schema);
+	}
+
+	public void testMetadataStoredBeforeData() {
+		RecordingWriter w = new RecordingWriter();
+		w.setTableInfo(tableInfo);
+		byte[] record = "1|AIR\n".getBytes();
+		w.writeToPartition(3, record, 0, record.length);
+		w.flush();
+		assertEquals(Arrays.asList("zone map data/3", "publish data/3"),
+				w.events);
+
+		tableInfo.keyFilters = new int[] { 0 };
+		w = new RecordingWriter();
+		w.setTableInfo(tableInfo);
+		w.writeToPartition("5", record, 0, record.length);
+		w.flush();
+		assertEquals(Arrays.asList("zone map data/5", "key filter data/5",
+				"publish data/5"), w.events);
+	}
+
+	public void testClonesShareThePool() throws Exception {
+		tableInfo.sortAttribute = 0;
+		RecordingWriter w = new RecordingWriter();
+		w.setTableInfo(tableInfo);
+		w.setMemoryCap(1 << 20, BufferPool.Policy.LRU);
+		PartitionWriter clone = w.clone();
+		assertSame(w.bufferPool, clone.bufferPool);
+
+		// The buffers of the sorted runs are taken from it.
+		byte[] record = "1|AIR\n".getBytes();
+		w.writeToPartition(3, record, 0, record.length);
+		clone.writeToPartition(4, record, 0, record.length);
+		assertEquals(2 * 8192, w.bufferPool.getReserved());
+		w.flush();
+		clone.flush();
+		assertEquals(0, w.bufferPool.getReserved());
+	}
+}
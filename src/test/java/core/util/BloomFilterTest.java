@@ -0,0 +1,97 @@
+package core.util;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+
+import core.utils.BloomFilter;
+
+public class BloomFilterTest extends TestCase {
+
+	private static BloomFilter filter(int numBits, long from, long to) {
+		BloomFilter f = new BloomFilter(numBits);
+		for (long k = from; k < to; k++)
+			f.add(k);
+		return f;
+	}
+
+	public void testNoFalseNegatives() {
+		int n = 100000;
+		BloomFilter f = filter(BloomFilter.getNumBits(n), 0, n);
+		for (long k = 0; k < n; k++)
+			assertTrue(f.mayContain(k));
+
+		// About 1% at 10 bits per key.
+		int falsePositives = 0;
+		for (long k = n; k < 2 * n; k++) {
+			if (f.mayContain(k))
+				falsePositives++;
+		}
+		assertTrue("" + falsePositives, falsePositives < n / 50);
+	}
+
+	public void testGetNumBits() {
+		assertEquals(BloomFilter.MIN_BITS, BloomFilter.getNumBits(0));
+		assertEquals(1 << 14, BloomFilter.getNumBits(1000));
+		assertEquals(1 << 14, BloomFilter.getNumBits(1638));
+		assertEquals(1 << 15, BloomFilter.getNumBits(1639));
+		assertEquals(BloomFilter.MAX_BITS, BloomFilter.getNumBits(1L << 40));
+	}
+
+	public void testFoldAndMerge() {
+		BloomFilter large = filter(1 << 16, 0, 1000);
+		BloomFilter small = filter(1 << 12, 5000, 5100);
+
+		BloomFilter folded = large.fold(1 << 12);
+		assertEquals(1 << 12, folded.getNumBits());
+		// Folding gives what building at the smaller size would have.
+		BloomFilter built = filter(1 << 12, 0, 1000);
+		for (long k = 0; k < 100000; k++)
+			assertEquals(built.mayContain(k), folded.mayContain(k));
+
+		BloomFilter merged = large.merge(small);
+		assertEquals(1 << 12, merged.getNumBits());
+		for (long k = 0; k < 1000; k++)
+			assertTrue(merged.mayContain(k));
+		for (long k = 5000; k < 5100; k++)
+			assertTrue(merged.mayContain(k));
+	}
+
+	public void testMayIntersect() {
+		Random rand = new Random(3);
+		for (int t = 0; t < 20; t++) {
+			long shared = rand.nextLong();
+			BloomFilter a = new BloomFilter(1 << 16);
+			BloomFilter b = new BloomFilter(1 << 15);
+			for (int i = 0; i < 20; i++) {
+				a.add(rand.nextLong());
+				b.add(rand.nextLong());
+			}
+			// Sparse filters of disjoint keys share few bits.
+			assertFalse(a.mayIntersect(b));
+			assertFalse(b.mayIntersect(a));
+
+			a.add(shared);
+			b.add(shared);
+			assertTrue(a.mayIntersect(b));
+			assertTrue(b.mayIntersect(a));
+		}
+		assertFalse(new BloomFilter(64).mayIntersect(filter(1 << 10, 0, 10)));
+	}
+
+	public void testSerialization() throws Exception {
+		BloomFilter f = filter(1 << 12, 100, 300);
+		ByteArrayDataOutput out = ByteStreams.newDataOutput();
+		f.write(out);
+		byte[] bytes = out.toByteArray();
+		assertEquals(4 + (1 << 12) / 8, bytes.length);
+
+		BloomFilter g = BloomFilter.read(ByteStreams.newDataInput(bytes));
+		assertEquals(f.getNumBits(), g.getNumBits());
+		for (long k = 0; k < 10000; k++)
+			assertEquals(f.mayContain(k), g.mayContain(k));
+	}
+}
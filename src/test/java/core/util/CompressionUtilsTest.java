@@ -0,0 +1,122 @@
+package core.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+import core.adapt.Partition;
+import core.adapt.Query;
+import core.adapt.iterator.PartitionIterator;
+import core.common.globals.Globals;
+import core.common.globals.Schema;
+import core.common.globals.TableInfo;
+import core.upfront.build.CompressedOutputStream;
+import core.utils.BlockCodec;
+import core.utils.CompressionUtils;
+import core.utils.IOUtils;
+
+public class CompressionUtilsTest extends TestCase {
+
+	private static byte[][] inputs() {
+		Random rand = new Random(7);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 50000; i++) {
+			sb.append(i).append('|').append(rand.nextInt(1000)).append('|')
+					.append(i % 3 == 0 ? "AIR" : "MAIL").append("|1995-0")
+					.append(1 + i % 9).append("-1").append(i % 10).append('\n');
+		}
+		byte[] text = sb.toString().getBytes();
+
+		byte[] random = new byte[3 * CompressionUtils.DEFAULT_BLOCK_SIZE + 17];
+		rand.nextBytes(random);
+
+		byte[] repeated = new byte[2 * CompressionUtils.DEFAULT_BLOCK_SIZE];
+		Arrays.fill(repeated, (byte) 'x');
+
+		return new byte[][] { new byte[0], "a".getBytes(),
+				"abcabcabcabcabcabcabc".getBytes(), text, random, repeated };
+	}
+
+	public void testRoundTrip() {
+		for (BlockCodec codec : CompressionUtils.getCodecs()) {
+			for (byte[] input : inputs()) {
+				byte[] compressed = CompressionUtils.compress(codec, input, 0,
+						input.length);
+				assertTrue(CompressionUtils.isCompressed(compressed,
+						compressed.length));
+				assertEquals(input.length, CompressionUtils
+						.getDecompressedLength(compressed, compressed.length));
+
+				byte[] output = new byte[input.length];
+				assertEquals(input.length, CompressionUtils.decompress(
+						compressed, compressed.length, output));
+				assertTrue(codec.getName(), Arrays.equals(input, output));
+			}
+		}
+	}
+
+	public void testStreamAndAppendedFrames() throws Exception {
+		byte[] text = inputs()[3];
+		for (BlockCodec codec : CompressionUtils.getCodecs()) {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			CompressedOutputStream out = new CompressedOutputStream(bos,
+					codec, 4096);
+			out.write(text, 0, 1000);
+			out.write(text, 1000, text.length - 1000);
+			out.close();
+			// Appending a second file's worth of frames.
+			bos.write(CompressionUtils.compress(codec, text, 0, 10));
+
+			byte[] compressed = bos.toByteArray();
+			assertTrue(compressed.length < text.length);
+			byte[] output = new byte[text.length + 10];
+			assertEquals(output.length, CompressionUtils.decompress(compressed,
+					compressed.length, output));
+			assertTrue(Arrays.equals(text, Arrays.copyOf(output, text.length)));
+			assertTrue(Arrays.equals(Arrays.copyOf(text, 10),
+					Arrays.copyOfRange(output, text.length, output.length)));
+		}
+	}
+
+	public void testCorruptFrame() {
+		byte[] text = inputs()[3];
+		byte[] compressed = CompressionUtils.compress(
+				CompressionUtils.getCodec("lz4"), text, 0, text.length);
+		try {
+			CompressionUtils.decompress(compressed, compressed.length - 1,
+					new byte[text.length]);
+			fail();
+		} catch (RuntimeException e) {
+		}
+	}
+
+	public void testIteratorReadsCompressedPartition() throws Exception {
+		String table = "compression_test";
+		Schema schema = Schema.createSchema("id int, mode string");
+		Globals.addTableInfo(new TableInfo(table, 4, '|', schema));
+		byte[] text = "1|AIR\n2|MAIL\n3|TRUCK\n".getBytes();
+
+		File dir = File.createTempFile("partitions", "");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			byte[] compressed = CompressionUtils.compress(
+					CompressionUtils.getCodec("deflate"), text, 0, text.length);
+			IOUtils.writeByteArray(dir.getAbsolutePath() + "/0", compressed);
+
+			PartitionIterator itr = new PartitionIterator(new Query(table + "|"));
+			itr.setPartition(new Partition(dir.getAbsolutePath(), 0));
+			StringBuilder sb = new StringBuilder();
+			while (itr.hasNext())
+				sb.append(itr.next().getKeyString()).append('\n');
+			assertEquals(new String(text), sb.toString());
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+}
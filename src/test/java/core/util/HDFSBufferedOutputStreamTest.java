@@ -0,0 +1,191 @@
+package core.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import core.utils.BufferPool;
+import core.utils.FlushExecutor;
+import core.utils.HDFSBufferedOutputStream;
+import core.utils.SegmentUtils;
+
+public class HDFSBufferedOutputStreamTest extends TestCase {
+	private FileSystem fs;
+	private File dir;
+
+	@Override
+	public void setUp() throws Exception {
+		// The checksummed local file system does not support appends.
+		fs = FileSystem.getLocal(new Configuration()).getRawFileSystem();
+		dir = File.createTempFile("buffered", "");
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	@Override
+	public void tearDown() {
+		FileUtils.deleteQuietly(dir);
+	}
+
+	/**
+	 * Write records of all sizes, some larger than the buffer, and the int
+	 * 0x41424344, then read back the segment published.
+	 */
+	private void checkWrites(FlushExecutor executor) throws Exception {
+		String bucket = dir.getAbsolutePath() + "/7";
+		HDFSBufferedOutputStream out = new HDFSBufferedOutputStream(fs, bucket,
+				(short) 1, 100, null, executor);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		for (int i = 0; i < 500; i++) {
+			byte[] record = new byte[(i * 37) % 150];
+			for (int j = 0; j < record.length; j++)
+				record[j] = (byte) ('a' + (i + j) % 26);
+			out.write(record);
+			expected.write(record);
+		}
+		out.write(0x41424344);
+		expected.write("ABCD".getBytes());
+		out.close();
+
+		FileStatus[] files = fs.listStatus(new Path(dir.getAbsolutePath()));
+		assertEquals(1, files.length);
+		assertEquals(7, SegmentUtils.getBucketId(files[0].getPath().getName()));
+		assertEquals(new String(expected.toByteArray()),
+				FileUtils.readFileToString(new File(files[0].getPath().toUri()
+						.getPath())));
+	}
+
+	public void testSync() throws Exception {
+		checkWrites(null);
+	}
+
+	public void testAsync() throws Exception {
+		// Room for a single buffer in flight.
+		checkWrites(new FlushExecutor(2, 100));
+	}
+
+	/**
+	 * Interleave the writes of 8 streams sharing a pool of 4 pages.
+	 */
+	private void checkPooled(BufferPool.Policy policy, FlushExecutor executor)
+			throws Exception {
+		BufferPool pool = new BufferPool(64, 16);
+		pool.setPolicy(policy);
+		HDFSBufferedOutputStream[] out = new HDFSBufferedOutputStream[8];
+		StringBuilder[] expected = new StringBuilder[out.length];
+		for (int i = 0; i < out.length; i++) {
+			out[i] = new HDFSBufferedOutputStream(fs, dir.getAbsolutePath()
+					+ "/" + i, (short) 1, 1000, null, executor, pool);
+			expected[i] = new StringBuilder();
+		}
+		for (int k = 0; k < 400; k++) {
+			int i = (k * 7 + k / 5) % out.length;
+			String record = k + "|" + i + "\n";
+			out[i].write(record.getBytes());
+			expected[i].append(record);
+		}
+		for (int i = 0; i < out.length; i++)
+			out[i].close();
+		assertEquals(4, pool.getNumPages());
+
+		for (FileStatus f : fs.listStatus(new Path(dir.getAbsolutePath()))) {
+			int i = SegmentUtils.getBucketId(f.getPath().getName());
+			assertEquals(expected[i].toString(), FileUtils.readFileToString(
+					new File(f.getPath().toUri().getPath())));
+			expected[i] = null;
+		}
+		for (int i = 0; i < out.length; i++)
+			assertNull(expected[i]);
+	}
+
+	public void testPooled() throws Exception {
+		checkPooled(BufferPool.Policy.LRU, null);
+		FileUtils.cleanDirectory(dir);
+		checkPooled(BufferPool.Policy.LARGEST, new FlushExecutor(2, 32));
+	}
+
+	/**
+	 * Four threads writing to streams of their own share a pool of 4 pages,
+	 * spilling the streams of each other.
+	 */
+	public void testSharedPool() throws Exception {
+		final BufferPool pool = new BufferPool(64, 16);
+		final FlushExecutor executor = new FlushExecutor(2, 32);
+		final StringBuilder[] expected = new StringBuilder[16];
+		Thread[] threads = new Thread[4];
+		final Throwable[] failure = new Throwable[1];
+		for (int t = 0; t < threads.length; t++) {
+			final int first = 4 * t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						HDFSBufferedOutputStream[] out = new HDFSBufferedOutputStream[4];
+						for (int i = 0; i < out.length; i++) {
+							out[i] = new HDFSBufferedOutputStream(fs, dir
+									.getAbsolutePath() + "/" + (first + i),
+									(short) 1, 1000, null, executor, pool);
+							expected[first + i] = new StringBuilder();
+						}
+						for (int k = 0; k < 400; k++) {
+							int i = (k * 7 + k / 5) % out.length;
+							String record = k + "|" + (first + i) + "\n";
+							out[i].write(record.getBytes());
+							expected[first + i].append(record);
+						}
+						for (HDFSBufferedOutputStream o : out)
+							o.close();
+					} catch (Throwable e) {
+						failure[0] = e;
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		assertNull(failure[0]);
+		assertEquals(4, pool.getNumPages());
+
+		for (FileStatus f : fs.listStatus(new Path(dir.getAbsolutePath()))) {
+			int i = SegmentUtils.getBucketId(f.getPath().getName());
+			assertEquals(expected[i].toString(), FileUtils.readFileToString(
+					new File(f.getPath().toUri().getPath())));
+			expected[i] = null;
+		}
+		for (StringBuilder e : expected)
+			assertNull(e);
+	}
+
+	public void testReserve() throws Exception {
+		BufferPool pool = new BufferPool(64, 16);
+		HDFSBufferedOutputStream out = new HDFSBufferedOutputStream(fs,
+				dir.getAbsolutePath() + "/3", (short) 1, 1000, null, null, pool);
+		out.write(new byte[64]);
+		assertEquals(4, out.getNumPages());
+
+		// Spills the stream, and drops the pages it needs room for.
+		pool.reserve(40);
+		assertEquals(0, out.getNumPages());
+		assertEquals(1, pool.getNumPages());
+		assertEquals(40, pool.getReserved());
+		// Room for a single page, spilled for the second one.
+		out.write(new byte[20]);
+		assertEquals(1, out.getNumPages());
+		assertEquals(1, pool.getNumPages());
+
+		pool.unreserve(40);
+		out.write(new byte[40]);
+		assertEquals(3, pool.getNumPages());
+		out.close();
+		assertEquals(124, fs.getFileStatus(fs.listStatus(new Path(dir
+				.getAbsolutePath()))[0].getPath()).getLen());
+	}
+}
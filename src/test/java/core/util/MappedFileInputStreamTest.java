@@ -0,0 +1,86 @@
+package core.util;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.google.common.io.ByteStreams;
+
+import org.apache.commons.io.FileUtils;
+
+import core.adapt.Partition;
+import core.adapt.Query;
+import core.adapt.iterator.PartitionIterator;
+import core.common.globals.Globals;
+import core.common.globals.Schema;
+import core.common.globals.TableInfo;
+import core.utils.IOUtils;
+import core.utils.MappedFileInputStream;
+
+public class MappedFileInputStreamTest extends TestCase {
+
+	private File file;
+	private byte[] bytes;
+
+	@Override
+	public void setUp() throws Exception {
+		bytes = new byte[100000];
+		new Random(5).nextBytes(bytes);
+		for (int i = 99; i < bytes.length; i += 100)
+			bytes[i] = '\n';
+		bytes[0] = 'x';
+
+		file = File.createTempFile("mapped", "");
+		IOUtils.writeByteArray(file.getAbsolutePath(), bytes);
+	}
+
+	public void testReadsAcrossWindows() throws Exception {
+		for (long windowSize : new long[] { 1000, 4096, 7, 1L << 30 }) {
+			MappedFileInputStream in = new MappedFileInputStream(file,
+					bytes.length, windowSize);
+			byte[] read = ByteStreams.toByteArray(in);
+			in.close();
+			assertTrue(Arrays.equals(bytes, read));
+		}
+
+		// Only the given length is read.
+		MappedFileInputStream in = new MappedFileInputStream(file, 1234, 1000);
+		assertEquals(1234, ByteStreams.toByteArray(in).length);
+		in.close();
+	}
+
+	public void testMappedPartition() throws Exception {
+		Globals.addTableInfo(new TableInfo("mapped_test", 1000, '|', Schema
+				.createSchema("id int, name string")));
+		File dir = new File(file.getAbsolutePath() + ".dir");
+		dir.mkdirs();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000; i++)
+			sb.append(i).append("|name").append(i).append('\n');
+		IOUtils.writeByteArray(dir.getAbsolutePath() + "/0", sb.toString()
+				.getBytes());
+
+		try {
+			Partition p = new Partition(dir.getAbsolutePath(), 0);
+			p.setMapped(true);
+			PartitionIterator itr = new PartitionIterator(new Query(
+					"mapped_test|"));
+			itr.setChunkSize(1024);
+			itr.setPartition(p);
+			assertFalse(p.isLoaded());
+			int i = 0;
+			while (itr.hasNext())
+				assertEquals(i++, itr.next().getIntAttribute(0));
+			assertEquals(1000, i);
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	@Override
+	public void tearDown() {
+		file.delete();
+	}
+}
@@ -0,0 +1,40 @@
+package core.util;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import core.utils.ScanUtils;
+
+public class ScanUtilsTest extends TestCase {
+
+	public void testIndexOfMatchesByteLoop() {
+		Random rand = new Random(42);
+		byte[] a = new byte[1000];
+		for (int i = 0; i < a.length; i++) {
+			// Few distinct values, including negative bytes, to hit borrows.
+			a[i] = (byte) (rand.nextInt(6) * 51 - 128);
+		}
+
+		for (int from = 0; from < 40; from++) {
+			for (int to = from; to < a.length; to += 7) {
+				for (byte b : new byte[] { a[from], (byte) -128, (byte) 127, '\n' }) {
+					int expected = -1;
+					for (int i = from; i < to; i++) {
+						if (a[i] == b) {
+							expected = i;
+							break;
+						}
+					}
+					assertEquals(expected, ScanUtils.indexOf(a, from, to, b));
+				}
+			}
+		}
+	}
+
+	public void testCount() {
+		byte[] a = "1|2||3|4|5|6|7|8|9|10\n|".getBytes();
+		assertEquals(11, ScanUtils.count(a, 0, a.length, (byte) '|'));
+		assertEquals(10, ScanUtils.count(a, 0, a.length - 2, (byte) '|'));
+		assertEquals(1, ScanUtils.count(a, 0, a.length, (byte) '\n'));
+	}
+}
@@ -0,0 +1,64 @@
+package core.util;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import core.utils.TypeUtils;
+import core.utils.TypeUtils.SimpleDate;
+import core.utils.TypeUtils.TYPE;
+
+public class TypeUtilsTest extends TestCase {
+
+	public void testDaysSinceEpoch() {
+		assertEquals(0, TypeUtils.daysSinceEpoch(1970, 1, 1));
+		assertEquals(-1, TypeUtils.daysSinceEpoch(1969, 12, 31));
+		assertEquals(11016, TypeUtils.daysSinceEpoch(2000, 2, 29));
+		assertEquals(11017, TypeUtils.daysSinceEpoch(2000, 3, 1));
+		assertEquals(-719528, TypeUtils.daysSinceEpoch(0, 1, 1));
+	}
+
+	private static Object random(Random r, TYPE t) {
+		switch (t) {
+		case INT:
+			return r.nextInt(5) == 0 ? r.nextInt() : r.nextInt(10) - 5;
+		case LONG:
+			return r.nextInt(5) == 0 ? r.nextLong() : (long) r.nextInt(10) - 5;
+		case DOUBLE:
+			double[] special = { 0.0, -0.0, Double.NaN,
+					Double.NEGATIVE_INFINITY, Double.MAX_VALUE };
+			return r.nextInt(5) == 0 ? special[r.nextInt(special.length)]
+					: (r.nextInt(20) - 10) / 4.0;
+		case DATE:
+			return new SimpleDate(1990 + r.nextInt(12), 1 + r.nextInt(12),
+					1 + r.nextInt(28));
+		default:
+			String chars = "ab\u00e9\uffff";
+			StringBuilder sb = new StringBuilder();
+			for (int i = r.nextInt(7); i > 0; i--)
+				sb.append(chars.charAt(r.nextInt(chars.length())));
+			return sb.toString();
+		}
+	}
+
+	public void testEncodingPreservesOrder() {
+		Random r = new Random(3);
+		for (TYPE t : new TYPE[] { TYPE.INT, TYPE.LONG, TYPE.DOUBLE,
+				TYPE.DATE, TYPE.STRING }) {
+			for (int i = 0; i < 5000; i++) {
+				Object x = random(r, t);
+				Object y = random(r, t);
+				int expected = Integer.signum(TypeUtils.compareTo(x, y, t));
+				long kx = TypeUtils.encode(x, t);
+				long ky = TypeUtils.encode(y, t);
+				if (TypeUtils.isExact(t))
+					assertEquals(x + " " + y, expected,
+							Long.signum(Long.compare(kx, ky)));
+				else if (expected < 0)
+					assertTrue(x + " " + y, kx <= ky);
+				assertEquals(x + " " + y, expected,
+						Integer.signum(TypeUtils.compare(kx, x, ky, y, t)));
+			}
+		}
+	}
+}